@@ -0,0 +1,62 @@
+package com.android.player;
+
+import android.opengl.GLES30;
+
+import java.nio.Buffer;
+
+/**
+ * {@link GL3Api} on the real GLES30 bindings, only for ES 3.0 contexts.
+ */
+public class AndroidGL3 extends AndroidGL implements GL3Api {
+
+    @Override
+    public void glGenBuffers(int n, int[] buffers, int offset) {
+        GLES30.glGenBuffers(n, buffers, offset);
+    }
+
+    @Override
+    public void glDeleteBuffers(int n, int[] buffers, int offset) {
+        GLES30.glDeleteBuffers(n, buffers, offset);
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        GLES30.glBindBuffer(target, buffer);
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage) {
+        GLES30.glBufferData(target, size, data, usage);
+    }
+
+    @Override
+    public Buffer glMapBufferRange(int target, int offset, int length, int access) {
+        return GLES30.glMapBufferRange(target, offset, length, access);
+    }
+
+    @Override
+    public boolean glUnmapBuffer(int target) {
+        return GLES30.glUnmapBuffer(target);
+    }
+
+    @Override
+    public void glTexSubImage2D(int target, int level, int xoffset, int yoffset, int width, int height,
+                                int format, int type, int offset) {
+        GLES30.glTexSubImage2D(target, level, xoffset, yoffset, width, height, format, type, offset);
+    }
+
+    @Override
+    public long glFenceSync(int condition, int flags) {
+        return GLES30.glFenceSync(condition, flags);
+    }
+
+    @Override
+    public int glClientWaitSync(long sync, int flags, long timeoutNs) {
+        return GLES30.glClientWaitSync(sync, flags, timeoutNs);
+    }
+
+    @Override
+    public void glDeleteSync(long sync) {
+        GLES30.glDeleteSync(sync);
+    }
+}
@@ -0,0 +1,275 @@
+package com.android.player;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link FrameSink} writing decoded frames to the camera-injection socket.
+ * <p>
+ * It is meant to run on its own {@link SinkDispatcher} thread with a
+ * {@link FrameQueue.DropPolicy#DROP_OLDEST} queue: if the consumer is slow the
+ * oldest queued frame is dropped so the newest one always gets through.
+ * Connecting and reconnecting (with exponential backoff) happen here too, never
+ * on the decoder thread. Each frame is preceded by a {@link FrameHeader}.
+ * </p>
+ * <p>
+ * Consumers get I420: semi-planar frames the decoder passes on for the renderer are
+ * repacked here. With a {@link FrameConverter} set, frames are cropped, scaled and
+ * repacked into its output format on this thread instead, and the socket send buffer
+ * is sized for the converted frame.
+ * </p>
+ * <p>
+ * With a {@link SharedFrameRing} set, frames are copied into the ring and only its
+ * short notification is written to the socket, the consumer reads the frame from
+ * the shared mapping. A socket that fails only backs off the notifications, frames
+ * keep going into the ring.
+ * </p>
+ */
+public class CameraInjector implements FrameSink {
+
+    /**
+     * Opens the stream frames are written to.
+     */
+    public interface Connector {
+        OutputStream connect(int sendBufferSize) throws IOException;
+
+        void close();
+    }
+
+    private static final long MIN_BACKOFF_MS = 50;
+    private static final long MAX_BACKOFF_MS = 2000;
+
+    private final Connector connector;
+    private final FrameHeader header = new FrameHeader();
+    private PipelineStats stats;
+    private OutputStream outputStream;
+    private long backoffMs = MIN_BACKOFF_MS;
+    private boolean backingOff;
+    private long retryAtNs;
+    private byte[] scratch;
+    private volatile FrameConverter converter;
+    private FrameConverter repacker;
+    private File ringFile;
+    private int ringSlots;
+    private SharedFrameRing ring;
+
+    private volatile long writtenCount;
+    private volatile long skippedCount;
+    private volatile long connectCount;
+    private volatile IOException lastError;
+
+    /**
+     * @param connector may be null with a shared ring, the consumer then polls the ring.
+     */
+    public CameraInjector(Connector connector) {
+        this.connector = connector;
+    }
+
+    public void setStats(PipelineStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Convert every frame before it is written, null to send the decoded frames at
+     * their size, as I420. The injector shuts the converter down when it finishes.
+     */
+    public void setConverter(FrameConverter converter) {
+        this.converter = converter;
+    }
+
+    /**
+     * Hand frames over through a ring of slotCount frames mapped from file instead of
+     * writing them to the stream. The ring is created at the first frame and sized for
+     * it, a larger frame later on is skipped. Call before the first frame.
+     *
+     * @param slotCount a power of two, 2 or more.
+     */
+    public void setSharedRing(File file, int slotCount) {
+        SharedFrameRing.checkSlotCount(slotCount);
+        ringFile = file;
+        ringSlots = slotCount;
+    }
+
+    @Override
+    public void onFrame(VideoFrame frame) {
+        if (backingOff && ring == null) {
+            if (System.nanoTime() - retryAtNs < 0) {
+                // newer frames keep replacing this one until the retry is due
+                skippedCount++;
+                return;
+            }
+            backingOff = false;
+        }
+        FrameConverter converter = this.converter;
+        if (converter == null && frame.getFormat() == VideoFrame.FORMAT_I420) {
+            write(frame);
+            return;
+        }
+        if (converter == null) {
+            if (repacker == null) {
+                // a repack alone is cheap enough for this thread, no workers
+                repacker = new FrameConverter(1);
+            }
+            converter = repacker;
+        }
+        long start = System.nanoTime();
+        VideoFrame converted = converter.convert(frame);
+        if (converted == null) {
+            skippedCount++;
+            return;
+        }
+        if (stats != null) {
+            stats.record(PipelineStats.Stage.CONVERT, System.nanoTime() - start);
+        }
+        try {
+            write(converted);
+        } finally {
+            converted.release();
+        }
+    }
+
+    private void write(VideoFrame frame) {
+        if (ringFile != null) {
+            publish(frame);
+            return;
+        }
+        try {
+            if (outputStream == null) {
+                outputStream = connector.connect(FrameHeader.SIZE + frame.getSize());
+                connectCount++;
+            }
+            long start = System.nanoTime();
+            outputStream.write(header.write(frame), 0, FrameHeader.SIZE);
+            ByteBuffer data = frame.getData();
+            if (data.hasArray()) {
+                outputStream.write(data.array(), data.arrayOffset(), frame.getSize());
+            } else {
+                // a mapped or direct frame, streams only take arrays
+                if (scratch == null || scratch.length < frame.getSize()) {
+                    scratch = new byte[frame.getSize()];
+                }
+                ByteBuffer view = data.duplicate();
+                view.position(0);
+                view.get(scratch, 0, frame.getSize());
+                outputStream.write(scratch, 0, frame.getSize());
+            }
+            if (stats != null) {
+                stats.record(PipelineStats.Stage.INJECT, System.nanoTime() - start);
+            }
+            writtenCount++;
+            backoffMs = MIN_BACKOFF_MS;
+        } catch (IOException e) {
+            skippedCount++;
+            failed(e);
+        }
+    }
+
+    private void publish(VideoFrame frame) {
+        if (ring == null) {
+            try {
+                ring = SharedFrameRing.create(ringFile, ringSlots, frame.getSize());
+            } catch (IOException e) {
+                skippedCount++;
+                failed(e);
+                return;
+            }
+        }
+        long start = System.nanoTime();
+        int published = ring.publish(frame);
+        if (published < 0) {
+            skippedCount++;
+            return;
+        }
+        writtenCount++;
+        notify(published);
+        if (stats != null) {
+            stats.record(PipelineStats.Stage.INJECT, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Tell the consumer about the frames published so far. While reconnecting backs
+     * off, frames still go into the ring and only their notifications are left out;
+     * the next one that gets through covers them.
+     */
+    private void notify(int published) {
+        if (connector == null) {
+            return;
+        }
+        if (backingOff) {
+            if (System.nanoTime() - retryAtNs < 0) {
+                return;
+            }
+            backingOff = false;
+        }
+        try {
+            if (outputStream == null) {
+                outputStream = connector.connect(SharedFrameRing.NOTIFY_SIZE * ringSlots);
+                connectCount++;
+            }
+            outputStream.write(ring.notification(published), 0, SharedFrameRing.NOTIFY_SIZE);
+            backoffMs = MIN_BACKOFF_MS;
+        } catch (IOException e) {
+            failed(e);
+        }
+    }
+
+    private void failed(IOException e) {
+        lastError = e;
+        disconnect();
+        backingOff = true;
+        retryAtNs = System.nanoTime() + backoffMs * 1000000;
+        backoffMs = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+    }
+
+    @Override
+    public void onFinish() {
+        disconnect();
+        if (ring != null) {
+            try {
+                ring.close();
+            } catch (IOException ignored) {
+            }
+            ring = null;
+        }
+        FrameConverter converter = this.converter;
+        if (converter != null) {
+            converter.shutdown();
+        }
+        if (repacker != null) {
+            repacker.shutdown();
+            repacker = null;
+        }
+    }
+
+    private void disconnect() {
+        if (outputStream != null) {
+            try {
+                outputStream.close();
+            } catch (IOException ignored) {
+            }
+            outputStream = null;
+        }
+        if (connector != null) {
+            connector.close();
+        }
+    }
+
+    public long getWrittenCount() {
+        return writtenCount;
+    }
+
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+
+    public long getConnectCount() {
+        return connectCount;
+    }
+
+    public IOException getLastError() {
+        return lastError;
+    }
+}
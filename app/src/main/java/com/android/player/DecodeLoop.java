@@ -0,0 +1,289 @@
+package com.android.player;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The feed and drain state machine of the decoder, shared by the polling loop and
+ * the MediaCodec.Callback mode: whoever learns that an input or output buffer is
+ * available hands its index over, the loop does the rest.
+ * <p>
+ * Input buffers are filled from the {@link SampleSource} as soon as they are handed
+ * over; at the end of the track an end-of-stream buffer is queued and further input
+ * buffers are left alone. Output buffers go through the {@link OutputHandler} and are
+ * released. When the end of stream comes out of the codec the loop either rewinds
+ * the source and flushes the codec, or finishes.
+ * </p>
+ * <p>
+ * In gapless mode the loop never gets that far: as soon as the last sample is queued
+ * the source is rewound, so the first sample is ready when the next input buffer frees
+ * up. The codec is fed the start of the file right after the end, without an end of
+ * stream or a flush, and every timestamp of a new pass is shifted by the length of the
+ * file. Frames keep coming out at the same pace and the timeline only ever goes
+ * forward. The file has to start with a frame that can be decoded on its own (an IDR
+ * frame), which is what every muxer writes.
+ * </p>
+ * <p>
+ * Not thread safe, all calls must come from one thread.
+ * </p>
+ */
+public class DecodeLoop {
+
+    public interface OutputHandler {
+        /**
+         * A decoded buffer, still owned by the codec until the loop releases it.
+         *
+         * @return whether the buffer was used, passed on to releaseOutputBuffer.
+         */
+        boolean onOutput(int index, long presentationTimeUs);
+    }
+
+    public interface PassListener {
+        /**
+         * The first frame of a new gapless pass is about to go to the output handler.
+         */
+        void onPassStart(long presentationTimeUs);
+    }
+
+    public interface InputFilter {
+        /**
+         * @return true to leave out the sample just read, counted as
+         * {@link PipelineStats.Counter#SKIPPED_NON_REFERENCE}.
+         */
+        boolean skip(ByteBuffer sample, int size);
+    }
+
+    private final DecoderPort decoder;
+    private final SampleSource source;
+    private final OutputHandler output;
+    private InputFilter filter;
+    private PassListener passListener;
+    private PipelineStats stats = new PipelineStats();
+    private volatile boolean looping = true;
+    private boolean gapless;
+    private boolean inputEnded;
+    // added to the timestamps of the current pass
+    private long ptsOffsetUs;
+    // offset of the pass whose frames come out of the codec
+    private long outputPtsOffsetUs;
+    // timestamp range and smallest frame step seen in the first pass, to tell the file length
+    private long firstPtsUs = Long.MAX_VALUE;
+    private long lastPtsUs = Long.MIN_VALUE;
+    private long previousPtsUs = Long.MIN_VALUE;
+    private long frameStepUs = Long.MAX_VALUE;
+    private boolean finished;
+    private long loopCount;
+    // seek asked for from another thread, applied by the thread driving the loop
+    private final Object seekLock = new Object();
+    private long pendingSeekUs = -1;
+    private boolean pendingSeekPrecise;
+    // output before this timestamp is decoded but not shown, after a precise seek
+    private long discardBeforeUs = -1;
+
+    public DecodeLoop(DecoderPort decoder, SampleSource source, OutputHandler output) {
+        this.decoder = decoder;
+        this.source = source;
+        this.output = output;
+    }
+
+    public void setInputFilter(InputFilter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Told when the output reaches a new pass in gapless mode, e.g. to re-anchor the
+     * clock the frames are paced against.
+     */
+    public void setPassListener(PassListener listener) {
+        this.passListener = listener;
+    }
+
+    public void setStats(PipelineStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Rewind at the end of the track instead of finishing, on by default.
+     */
+    public void setLooping(boolean looping) {
+        this.looping = looping;
+    }
+
+    /**
+     * Loop by feeding the start of the file right after its end instead of flushing the
+     * codec, with timestamps that keep increasing. Set before the first input.
+     */
+    public void setGapless(boolean gapless) {
+        this.gapless = gapless;
+    }
+
+    public boolean isGapless() {
+        return gapless;
+    }
+
+    /**
+     * What the timestamps of the current pass are shifted by, in gapless mode.
+     */
+    public long getPtsOffsetUs() {
+        return ptsOffsetUs;
+    }
+
+    public void onInputBufferAvailable(int index) {
+        if (inputEnded || finished) {
+            // the flush at the end of the stream takes it back
+            return;
+        }
+        long start = System.nanoTime();
+        ByteBuffer buffer = decoder.getInputBuffer(index);
+        int size = source.readSampleData(buffer, 0);
+        while (size > 0 && filter != null && filter.skip(buffer, size)) {
+            stats.count(PipelineStats.Counter.SKIPPED_NON_REFERENCE);
+            if (loopCount == 0) {
+                measure(source.getSampleTime());
+            }
+            source.advance();
+            size = source.readSampleData(buffer, 0);
+        }
+        if (size < 0 && gapless && looping && lastPtsUs != Long.MIN_VALUE) {
+            // the samples skipped above were the last ones
+            wrap();
+            size = source.readSampleData(buffer, 0);
+        }
+        if (size < 0) {
+            decoder.queueInputBuffer(index, 0, 0, true);
+            inputEnded = true;
+        } else {
+            long sampleTimeUs = source.getSampleTime();
+            if (loopCount == 0) {
+                measure(sampleTimeUs);
+            }
+            long presentationTimeUs = sampleTimeUs + ptsOffsetUs;
+            stats.markDecodeInput(presentationTimeUs);
+            decoder.queueInputBuffer(index, size, presentationTimeUs, false);
+            if (!source.advance() && gapless && looping) {
+                // rewind now, the seek is done before the codec runs out of input
+                wrap();
+            }
+        }
+        stats.record(PipelineStats.Stage.EXTRACT, System.nanoTime() - start);
+    }
+
+    /**
+     * Ask for a seek, safe to call from any thread. It takes effect when the thread
+     * driving the loop calls {@link #applyPendingSeek()}; a later request replaces one
+     * that is still pending.
+     *
+     * @param precise start at the sync sample before timeUs and leave out every frame
+     *                before timeUs, otherwise start at the closest sync sample.
+     */
+    public void requestSeek(long timeUs, boolean precise) {
+        synchronized (seekLock) {
+            pendingSeekUs = Math.max(0, timeUs);
+            pendingSeekPrecise = precise;
+        }
+    }
+
+    /**
+     * Carry out a requested seek: move the source, flush the codec and start feeding again.
+     *
+     * @return false when no seek was pending.
+     */
+    public boolean applyPendingSeek() {
+        long timeUs;
+        boolean precise;
+        synchronized (seekLock) {
+            timeUs = pendingSeekUs;
+            precise = pendingSeekPrecise;
+            pendingSeekUs = -1;
+        }
+        if (timeUs < 0 || finished) {
+            return false;
+        }
+        source.seekTo(timeUs, !precise);
+        decoder.flush();
+        inputEnded = false;
+        // timestamps of this pass keep their offset, the output is in the same timeline
+        discardBeforeUs = precise ? timeUs + ptsOffsetUs : -1;
+        return true;
+    }
+
+    public void onOutputBufferAvailable(int index, int size, long presentationTimeUs, boolean endOfStream) {
+        if (finished) {
+            return;
+        }
+        boolean discard = false;
+        if (discardBeforeUs >= 0 && size > 0) {
+            // frames before the one sought to are only decoded as references
+            discard = presentationTimeUs < discardBeforeUs;
+            if (!discard) {
+                discardBeforeUs = -1;
+            }
+        }
+        if (size > 0 && !discard && ptsOffsetUs != outputPtsOffsetUs
+                && presentationTimeUs - ptsOffsetUs >= firstPtsUs) {
+            // every frame of the pass fed last is past its offset, none of an earlier one is
+            outputPtsOffsetUs = ptsOffsetUs;
+            if (passListener != null) {
+                passListener.onPassStart(presentationTimeUs);
+            }
+        }
+        boolean render = size > 0 && !discard && output.onOutput(index, presentationTimeUs);
+        decoder.releaseOutputBuffer(index, render);
+        if (endOfStream) {
+            if (looping) {
+                source.seekToStart();
+                decoder.flush();
+                inputEnded = false;
+                loopCount++;
+            } else {
+                finished = true;
+            }
+        }
+    }
+
+    /**
+     * Stop feeding and draining, after a codec error or when playback is stopped.
+     * Buffers handed over later are ignored.
+     */
+    public void finish() {
+        finished = true;
+    }
+
+    private void wrap() {
+        source.seekToStart();
+        ptsOffsetUs += getLoopDurationUs();
+        loopCount++;
+    }
+
+    private void measure(long ptsUs) {
+        firstPtsUs = Math.min(firstPtsUs, ptsUs);
+        lastPtsUs = Math.max(lastPtsUs, ptsUs);
+        if (previousPtsUs != Long.MIN_VALUE) {
+            // decode order is not presentation order, but neighbours are still one step apart
+            long step = Math.abs(ptsUs - previousPtsUs);
+            if (step > 0) {
+                frameStepUs = Math.min(frameStepUs, step);
+            }
+        }
+        previousPtsUs = ptsUs;
+    }
+
+    /**
+     * Length of the file from its first frame to the end of its last one, the shift
+     * between two passes in gapless mode.
+     */
+    public long getLoopDurationUs() {
+        if (lastPtsUs == Long.MIN_VALUE) {
+            return 0;
+        }
+        long step = frameStepUs == Long.MAX_VALUE ? 0 : frameStepUs;
+        return lastPtsUs - firstPtsUs + step;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    public long getLoopCount() {
+        return loopCount;
+    }
+}
@@ -0,0 +1,20 @@
+package com.android.player;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The codec operations {@link DecodeLoop} drives, see {@link MediaCodecPort}.
+ */
+public interface DecoderPort {
+    ByteBuffer getInputBuffer(int index);
+
+    void queueInputBuffer(int index, int size, long presentationTimeUs, boolean endOfStream);
+
+    void releaseOutputBuffer(int index, boolean render);
+
+    /**
+     * Drop everything queued in the codec and get it ready for new input. Input and
+     * output indices handed out before become invalid.
+     */
+    void flush();
+}
@@ -0,0 +1,86 @@
+package com.android.player;
+
+import android.media.MediaExtractor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link SampleSource} reading the selected track of a MediaExtractor.
+ */
+public class ExtractorSource implements SampleSource {
+    private final MediaExtractor extractor;
+    private volatile SyncSampleIndex index;
+
+    public ExtractorSource(MediaExtractor extractor) {
+        this.extractor = extractor;
+    }
+
+    @Override
+    public int readSampleData(ByteBuffer buffer, int offset) {
+        // neither respects nor updates the buffer's position and limit
+        return extractor.readSampleData(buffer, offset);
+    }
+
+    @Override
+    public long getSampleTime() {
+        return extractor.getSampleTime();
+    }
+
+    @Override
+    public boolean advance() {
+        return extractor.advance();
+    }
+
+    @Override
+    public void seekToStart() {
+        extractor.seekTo(0, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
+    }
+
+    /**
+     * Look sync samples up here instead of letting the extractor search for them.
+     */
+    public void setIndex(SyncSampleIndex index) {
+        this.index = index;
+    }
+
+    public SyncSampleIndex getIndex() {
+        return index;
+    }
+
+    @Override
+    public void seekTo(long timeUs, boolean closest) {
+        SyncSampleIndex index = this.index;
+        int i = index == null ? -1 : (closest ? index.closest(timeUs) : index.floor(timeUs));
+        if (i >= 0) {
+            // the exact time of a sync sample, there is nothing left to search for
+            extractor.seekTo(index.getTimeUs(i), MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+        } else {
+            extractor.seekTo(timeUs, closest ? MediaExtractor.SEEK_TO_CLOSEST_SYNC
+                    : MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+        }
+    }
+
+    /**
+     * Walk every sample of the selected track, leaves the extractor at the end.
+     */
+    public static SyncSampleIndex buildIndex(MediaExtractor extractor) {
+        SyncSampleIndex.Builder builder = new SyncSampleIndex.Builder();
+        extractor.seekTo(0, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+        while (extractor.getSampleTime() >= 0) {
+            int flags = extractor.getSampleFlags();
+            builder.addSample(extractor.getSampleTime(), flags, (flags & MediaExtractor.SAMPLE_FLAG_SYNC) != 0);
+            if (!extractor.advance()) {
+                break;
+            }
+        }
+        return builder.build();
+    }
+
+    public MediaExtractor getExtractor() {
+        return extractor;
+    }
+
+    public void release() {
+        extractor.release();
+    }
+}
@@ -0,0 +1,25 @@
+package com.android.player;
+
+/**
+ * GPU sync objects as plain handles, see {@link GLFenceSync}.
+ */
+public interface FenceSync {
+    /**
+     * Put a fence behind every command issued so far.
+     */
+    long insert();
+
+    /**
+     * Check without blocking.
+     */
+    boolean isSignaled(long fence);
+
+    /**
+     * Flush and block until the fence signals or the timeout passes.
+     *
+     * @return false on timeout or failure.
+     */
+    boolean await(long fence, long timeoutNs);
+
+    void delete(long fence);
+}
@@ -0,0 +1,424 @@
+package com.android.player;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Crops, scales and repacks decoded frames into the size and layout a camera
+ * consumer asks for, e.g. 1280x720 NV21 out of 1080p NV12, so it does not have to
+ * redo the work on every frame.
+ * <p>
+ * Each plane is scaled on its own, either bilinear with weights in 1/256ths or as a
+ * box filter averaging every source pixel that falls into the output pixel. Which
+ * source pixels and weights an output row or column uses is worked out once per
+ * geometry. The output rows are split into stripes run on a {@link StripedExecutor},
+ * the way {@link StripedPlaneCopier} runs its copies, and the output frames come from
+ * a small pool, so converting a frame of an unchanged size allocates nothing.
+ * </p>
+ * <p>
+ * Configure it before the first {@link #convert}, which is meant to be called from
+ * one thread.
+ * </p>
+ */
+public class FrameConverter {
+
+    public enum Filter {
+        /** two by two source pixels per output pixel, for scaling by up to 2x */
+        BILINEAR,
+        /** the average of every covered source pixel, no aliasing at large ratios */
+        BOX
+    }
+
+    private static final int POOL_SIZE = 2;
+
+    private final FramePool pool = new FramePool(POOL_SIZE);
+    private final StripedExecutor executor;
+    private final Stripe[] stripes;
+
+    private int outputWidth;
+    private int outputHeight;
+    private int cropLeft;
+    private int cropTop;
+    private int cropWidth;
+    private int cropHeight;
+    private int outputFormat = VideoFrame.FORMAT_I420;
+    private Filter filter = Filter.BILINEAR;
+
+    private PlaneScaler luma;
+    private PlaneScaler chroma;
+    private byte[] scratch;
+
+    // the frame being converted, read by every stripe
+    private byte[] src;
+    private final int[] srcOffset = new int[3];
+    private final int[] srcRowStride = new int[3];
+    private int srcChromaPixelStride;
+    private byte[] dst;
+    private final int[] dstOffset = new int[3];
+    private final int[] dstRowStride = new int[3];
+    private int dstChromaPixelStride;
+
+    public FrameConverter() {
+        this(StripedPlaneCopier.defaultThreadCount());
+    }
+
+    /**
+     * @param threads number of stripes, including the one converted by the caller.
+     */
+    public FrameConverter(int threads) {
+        executor = new StripedExecutor(threads, "FrameConverter");
+        stripes = new Stripe[threads];
+        for (int i = 0; i < threads; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * @param width  even output width, 0 together with height to keep the (cropped)
+     *               source size.
+     */
+    public void setOutputSize(int width, int height) {
+        if (width < 0 || height < 0 || ((width | height) & 1) != 0 || (width == 0) != (height == 0)) {
+            throw new IllegalArgumentException("output size must be even: " + width + "x" + height);
+        }
+        outputWidth = width;
+        outputHeight = height;
+    }
+
+    /**
+     * Only convert this rectangle of the source, all four values even so the chroma
+     * planes crop along with the luma. A crop that does not fit the frame is ignored
+     * for that frame; a width or height of 0 turns cropping off.
+     */
+    public void setCrop(int left, int top, int width, int height) {
+        if (left < 0 || top < 0 || width < 0 || height < 0
+                || ((left | top | width | height) & 1) != 0) {
+            throw new IllegalArgumentException("crop must be even and not negative: "
+                    + left + "," + top + " " + width + "x" + height);
+        }
+        cropLeft = left;
+        cropTop = top;
+        cropWidth = width;
+        cropHeight = height;
+    }
+
+    /**
+     * @param format one of the VideoFrame.FORMAT_ constants.
+     */
+    public void setOutputFormat(int format) {
+        if (format < VideoFrame.FORMAT_I420 || format > VideoFrame.FORMAT_YV12) {
+            throw new IllegalArgumentException("unknown format " + format);
+        }
+        outputFormat = format;
+    }
+
+    public void setFilter(Filter filter) {
+        this.filter = filter;
+    }
+
+    public int getThreadCount() {
+        return stripes.length;
+    }
+
+    /**
+     * @return a frame of the configured size and format with one reference held by the
+     * caller: a pooled one, the source itself retained when there is nothing to do,
+     * or null when both pooled frames are still in use.
+     */
+    public VideoFrame convert(VideoFrame frame) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        int left = 0;
+        int top = 0;
+        int inWidth = width;
+        int inHeight = height;
+        if (cropWidth > 0 && cropHeight > 0
+                && cropLeft + cropWidth <= width && cropTop + cropHeight <= height) {
+            left = cropLeft;
+            top = cropTop;
+            inWidth = cropWidth;
+            inHeight = cropHeight;
+        }
+        int outWidth = outputWidth > 0 ? outputWidth : inWidth;
+        int outHeight = outputHeight > 0 ? outputHeight : inHeight;
+        if (inWidth == width && inHeight == height && outWidth == width && outHeight == height
+                && outputFormat == frame.getFormat()) {
+            return frame.retain();
+        }
+
+        VideoFrame out = pool.acquire(outWidth, outHeight, outputFormat);
+        if (out == null) {
+            return null;
+        }
+        out.setPresentationTimeUs(frame.getPresentationTimeUs());
+        out.setSequence(frame.getSequence());
+
+        luma = scaler(luma, inWidth, inHeight, outWidth, outHeight);
+        // odd sizes only come uncropped and unscaled, their last chroma sample is a half one
+        int outChromaHeight = VideoFrame.chromaLength(outHeight);
+        chroma = scaler(chroma, VideoFrame.chromaLength(inWidth), VideoFrame.chromaLength(inHeight),
+                VideoFrame.chromaLength(outWidth), outChromaHeight);
+
+        int base = sourceArray(frame);
+        srcChromaPixelStride = chromaLayout(frame, base, srcOffset, srcRowStride);
+        srcOffset[0] += top * srcRowStride[0] + left;
+        for (int i = 1; i < 3; i++) {
+            srcOffset[i] += (top >> 1) * srcRowStride[i] + (left >> 1) * srcChromaPixelStride;
+        }
+        dst = out.array();
+        dstChromaPixelStride = chromaLayout(out, out.arrayOffset(), dstOffset, dstRowStride);
+
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i].setRows(outHeight * i / stripes.length, outHeight * (i + 1) / stripes.length,
+                    outChromaHeight * i / stripes.length, outChromaHeight * (i + 1) / stripes.length);
+        }
+        try {
+            executor.run(stripes);
+        } catch (RuntimeException e) {
+            out.release();
+            throw e;
+        } finally {
+            src = null;
+            dst = null;
+        }
+        return out;
+    }
+
+    private PlaneScaler scaler(PlaneScaler current, int srcWidth, int srcHeight,
+                               int dstWidth, int dstHeight) {
+        if (current != null && current.matches(srcWidth, srcHeight, dstWidth, dstHeight, filter)) {
+            return current;
+        }
+        return new PlaneScaler(srcWidth, srcHeight, dstWidth, dstHeight, filter);
+    }
+
+    /**
+     * Point src at the frame's bytes, copied once into a scratch array for mapped
+     * frames, and return the array offset of the frame.
+     */
+    private int sourceArray(VideoFrame frame) {
+        ByteBuffer data = frame.getData();
+        if (data.hasArray()) {
+            src = data.array();
+            return data.arrayOffset();
+        }
+        if (scratch == null || scratch.length < frame.getSize()) {
+            scratch = new byte[frame.getSize()];
+        }
+        ByteBuffer view = data.duplicate();
+        view.position(0);
+        view.get(scratch, 0, frame.getSize());
+        src = scratch;
+        return 0;
+    }
+
+    /**
+     * Fill in where the Y, U and V samples of the frame start and their row strides.
+     *
+     * @return the pixel stride of the chroma samples, 2 when they are interleaved.
+     */
+    private static int chromaLayout(VideoFrame frame, int base, int[] offsets, int[] rowStrides) {
+        int format = frame.getFormat();
+        offsets[0] = base + frame.getPlaneOffset(0);
+        rowStrides[0] = frame.getPlaneStride(0);
+        rowStrides[1] = rowStrides[2] = frame.getPlaneStride(1);
+        if (!VideoFrame.isSemiPlanar(format)) {
+            offsets[1] = base + frame.getPlaneOffset(1);
+            offsets[2] = base + frame.getPlaneOffset(2);
+            return 1;
+        }
+        int uv = base + frame.getPlaneOffset(1);
+        offsets[1] = format == VideoFrame.FORMAT_NV12 ? uv : uv + 1;
+        offsets[2] = format == VideoFrame.FORMAT_NV12 ? uv + 1 : uv;
+        return 2;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Which source pixels and weights every output column and row of one plane uses.
+     * Source positions are pixel centres mapped onto each other, the way the usual
+     * fixed-point scalers do it, so the result does not shift by half a pixel.
+     */
+    static final class PlaneScaler {
+        final int srcWidth;
+        final int srcHeight;
+        final int dstWidth;
+        final int dstHeight;
+        final Filter filter;
+        // bilinear: the left/top source pixel, its neighbour and the neighbour's
+        // weight in 1/256ths; box: the first and one past the last covered pixel
+        private final int[] x0;
+        private final int[] x1;
+        private final int[] xWeight;
+        private final int[] y0;
+        private final int[] y1;
+        private final int[] yWeight;
+
+        PlaneScaler(int srcWidth, int srcHeight, int dstWidth, int dstHeight, Filter filter) {
+            this.srcWidth = srcWidth;
+            this.srcHeight = srcHeight;
+            this.dstWidth = dstWidth;
+            this.dstHeight = dstHeight;
+            this.filter = filter;
+            x0 = new int[dstWidth];
+            x1 = new int[dstWidth];
+            xWeight = new int[dstWidth];
+            y0 = new int[dstHeight];
+            y1 = new int[dstHeight];
+            yWeight = new int[dstHeight];
+            table(srcWidth, dstWidth, x0, x1, xWeight);
+            table(srcHeight, dstHeight, y0, y1, yWeight);
+        }
+
+        boolean matches(int srcWidth, int srcHeight, int dstWidth, int dstHeight, Filter filter) {
+            return srcWidth == this.srcWidth && srcHeight == this.srcHeight
+                    && dstWidth == this.dstWidth && dstHeight == this.dstHeight && filter == this.filter;
+        }
+
+        private void table(int src, int dst, int[] first, int[] second, int[] weight) {
+            for (int i = 0; i < dst; i++) {
+                if (filter == Filter.BOX) {
+                    first[i] = (int) ((long) i * src / dst);
+                    // upscaling covers less than a pixel, take the one underneath
+                    second[i] = Math.max(first[i] + 1, (int) ((long) (i + 1) * src / dst));
+                    continue;
+                }
+                long position = (2L * i + 1) * src * 256 / (2L * dst) - 128;
+                if (position < 0) {
+                    position = 0;
+                }
+                int index = (int) (position >> 8);
+                if (index >= src - 1) {
+                    first[i] = second[i] = src - 1;
+                    weight[i] = 0;
+                } else {
+                    first[i] = index;
+                    second[i] = index + 1;
+                    weight[i] = (int) (position & 0xff);
+                }
+            }
+        }
+
+        /**
+         * Scale the output rows [firstRow, lastRow) of this plane.
+         *
+         * @param columnSums scratch of at least srcWidth entries.
+         */
+        void scale(byte[] src, int srcOffset, int srcRowStride, int srcPixelStride,
+                   byte[] dst, int dstOffset, int dstRowStride, int dstPixelStride,
+                   int firstRow, int lastRow, int[] columnSums) {
+            if (srcWidth == dstWidth && srcHeight == dstHeight) {
+                copy(src, srcOffset, srcRowStride, srcPixelStride,
+                        dst, dstOffset, dstRowStride, dstPixelStride, firstRow, lastRow);
+            } else if (filter == Filter.BOX) {
+                box(src, srcOffset, srcRowStride, srcPixelStride,
+                        dst, dstOffset, dstRowStride, dstPixelStride, firstRow, lastRow, columnSums);
+            } else {
+                bilinear(src, srcOffset, srcRowStride, srcPixelStride,
+                        dst, dstOffset, dstRowStride, dstPixelStride, firstRow, lastRow, columnSums);
+            }
+        }
+
+        private void copy(byte[] src, int srcOffset, int srcRowStride, int srcPixelStride,
+                          byte[] dst, int dstOffset, int dstRowStride, int dstPixelStride,
+                          int firstRow, int lastRow) {
+            for (int y = firstRow; y < lastRow; y++) {
+                int s = srcOffset + y * srcRowStride;
+                int d = dstOffset + y * dstRowStride;
+                if (srcPixelStride == 1 && dstPixelStride == 1) {
+                    System.arraycopy(src, s, dst, d, dstWidth);
+                    continue;
+                }
+                for (int x = 0; x < dstWidth; x++) {
+                    dst[d] = src[s];
+                    s += srcPixelStride;
+                    d += dstPixelStride;
+                }
+            }
+        }
+
+        private void bilinear(byte[] src, int srcOffset, int srcRowStride, int srcPixelStride,
+                              byte[] dst, int dstOffset, int dstRowStride, int dstPixelStride,
+                              int firstRow, int lastRow, int[] columns) {
+            for (int y = firstRow; y < lastRow; y++) {
+                // blend the two rows once per source column, then the columns: the same
+                // sum as blending each two by two block, with half the reads
+                int top = srcOffset + y0[y] * srcRowStride;
+                int bottom = srcOffset + y1[y] * srcRowStride;
+                int fy = yWeight[y];
+                for (int x = 0; x < srcWidth; x++) {
+                    columns[x] = (src[top] & 0xff) * (256 - fy) + (src[bottom] & 0xff) * fy;
+                    top += srcPixelStride;
+                    bottom += srcPixelStride;
+                }
+                int d = dstOffset + y * dstRowStride;
+                for (int x = 0; x < dstWidth; x++) {
+                    int fx = xWeight[x];
+                    dst[d] = (byte) ((columns[x0[x]] * (256 - fx) + columns[x1[x]] * fx + 32768) >> 16);
+                    d += dstPixelStride;
+                }
+            }
+        }
+
+        private void box(byte[] src, int srcOffset, int srcRowStride, int srcPixelStride,
+                         byte[] dst, int dstOffset, int dstRowStride, int dstPixelStride,
+                         int firstRow, int lastRow, int[] columnSums) {
+            for (int y = firstRow; y < lastRow; y++) {
+                // sum the covered rows per column first, then the covered columns
+                for (int x = 0; x < srcWidth; x++) {
+                    columnSums[x] = 0;
+                }
+                for (int row = y0[y]; row < y1[y]; row++) {
+                    int s = srcOffset + row * srcRowStride;
+                    for (int x = 0; x < srcWidth; x++) {
+                        columnSums[x] += src[s] & 0xff;
+                        s += srcPixelStride;
+                    }
+                }
+                int rows = y1[y] - y0[y];
+                int d = dstOffset + y * dstRowStride;
+                for (int x = 0; x < dstWidth; x++) {
+                    int sum = 0;
+                    for (int column = x0[x]; column < x1[x]; column++) {
+                        sum += columnSums[column];
+                    }
+                    int count = rows * (x1[x] - x0[x]);
+                    dst[d] = (byte) ((sum + (count >> 1)) / count);
+                    d += dstPixelStride;
+                }
+            }
+        }
+    }
+
+    private final class Stripe implements Runnable {
+        private int firstRow;
+        private int lastRow;
+        private int firstChromaRow;
+        private int lastChromaRow;
+        // a row of per-column sums or blends, for either filter
+        private int[] columnSums = new int[0];
+
+        void setRows(int firstRow, int lastRow, int firstChromaRow, int lastChromaRow) {
+            this.firstRow = firstRow;
+            this.lastRow = lastRow;
+            this.firstChromaRow = firstChromaRow;
+            this.lastChromaRow = lastChromaRow;
+            if (columnSums.length < luma.srcWidth) {
+                columnSums = new int[luma.srcWidth];
+            }
+        }
+
+        @Override
+        public void run() {
+            luma.scale(src, srcOffset[0], srcRowStride[0], 1,
+                    dst, dstOffset[0], dstRowStride[0], 1, firstRow, lastRow, columnSums);
+            for (int i = 1; i < 3; i++) {
+                chroma.scale(src, srcOffset[i], srcRowStride[i], srcChromaPixelStride,
+                        dst, dstOffset[i], dstRowStride[i], dstChromaPixelStride,
+                        firstChromaRow, lastChromaRow, columnSums);
+            }
+        }
+    }
+}
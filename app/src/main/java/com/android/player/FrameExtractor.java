@@ -0,0 +1,176 @@
+package com.android.player;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Copies the planes of a decoder output image into a pooled, packed frame: the part of
+ * VideoDecode.getDataFromImage that does not depend on android.media, so the headless
+ * benchmark runs exactly the code the player runs.
+ * <p>
+ * Interleaved NV12/NV21 chroma is kept as one plane when semi-planar output is on and
+ * de-interleaved into I420 otherwise; frames of at least the parallel copy threshold
+ * are copied in stripes on several cores. Not thread safe, one instance per decoder.
+ * </p>
+ * <p>
+ * The frame format and the chroma layout are worked out once per stream, not per
+ * frame. The layout is the first answer {@link PlaneCopier#detectChromaLayout} gives
+ * that is not "separate", which flat chroma can give for any layout, and the format is
+ * fixed as soon as the layout is known. Until then semi-planar frames go out as NV12,
+ * so a stream from an NV21 decoder that opens on flat frames switches to NV21 once and
+ * then takes the fast copy. Any other format change mid-stream would make every sink
+ * start over, the renderer with new textures and the recorder with a new segment.
+ * Call {@link #resetStream()} when the decoder output format changes.
+ * </p>
+ */
+public class FrameExtractor {
+    private static final int PARALLEL_COPY_PIXELS = 3840 * 2160;
+    private static final int UNKNOWN = -1;
+
+    private final FramePool mFramePool;
+    private final PlaneCopier mPlaneCopier = new PlaneCopier(true);
+    private StripedPlaneCopier mStripedCopier;
+    private volatile int mParallelCopyPixels = PARALLEL_COPY_PIXELS;
+    private volatile boolean mSemiPlanarOutput = true;
+    private int mChromaLayout = UNKNOWN;
+    private int mFrameFormat = UNKNOWN;
+
+    public FrameExtractor(int poolSize) {
+        mFramePool = new FramePool(poolSize);
+    }
+
+    /**
+     * Frames of at least this many pixels are copied in stripes on several cores,
+     * {@link Integer#MAX_VALUE} keeps every copy on the calling thread.
+     */
+    public void setParallelCopyThreshold(int pixels) {
+        mParallelCopyPixels = pixels;
+    }
+
+    /**
+     * When the decoder hands out NV12/NV21, pass the chroma on interleaved in
+     * {@link VideoFrame#FORMAT_NV12}/{@link VideoFrame#FORMAT_NV21} frames instead of
+     * splitting it into I420. Takes effect at the next stream.
+     */
+    public void setSemiPlanarOutput(boolean enabled) {
+        mSemiPlanarOutput = enabled;
+    }
+
+    /**
+     * Work the frame format and chroma layout out again from the next frame, after
+     * the decoder reported a new output format.
+     */
+    public void resetStream() {
+        mChromaLayout = UNKNOWN;
+        mFrameFormat = UNKNOWN;
+    }
+
+    public boolean isSemiPlanarOutput() {
+        return mSemiPlanarOutput;
+    }
+
+    /**
+     * Copy the width x height region at (left, top) of a YUV 4:2:0 image with three planes.
+     *
+     * @return a frame with one reference held by the caller, or null when every pooled
+     * frame is still in use.
+     */
+    public VideoFrame extract(ByteBuffer[] buffers, int[] rowStrides, int[] pixelStrides,
+                              int left, int top, int width, int height) {
+        int rowStride, pixelStride;
+        int chromaWidth = VideoFrame.chromaLength(width);
+        int chromaHeight = VideoFrame.chromaLength(height);
+        int layout = PlaneCopier.CHROMA_SEPARATE;
+        rowStride = rowStrides[1];
+        boolean semiPlanar = pixelStrides[1] == 2 && pixelStrides[2] == 2 && rowStrides[2] == rowStride;
+        if (semiPlanar && mChromaLayout != UNKNOWN) {
+            layout = mChromaLayout;
+        } else if (semiPlanar) {
+            // U and V may be two views of one interleaved allocation
+            layout = PlaneCopier.detectChromaLayout(buffers[1], buffers[2], rowStride,
+                    left >> 1, top >> 1, chromaWidth, chromaHeight);
+            if (layout != PlaneCopier.CHROMA_SEPARATE) {
+                mChromaLayout = layout;
+            }
+        }
+        int frameFormat = mFrameFormat;
+        if (frameFormat == UNKNOWN) {
+            if (!mSemiPlanarOutput || !semiPlanar) {
+                frameFormat = mFrameFormat = VideoFrame.FORMAT_I420;
+            } else if (layout == PlaneCopier.CHROMA_SEPARATE) {
+                // NV12 for now, without fixing it: the layout may still turn out to be VU
+                frameFormat = VideoFrame.FORMAT_NV12;
+            } else {
+                frameFormat = mFrameFormat = layout == PlaneCopier.CHROMA_VU
+                        ? VideoFrame.FORMAT_NV21 : VideoFrame.FORMAT_NV12;
+            }
+        }
+
+        VideoFrame frame = mFramePool.acquire(width, height, frameFormat);
+        if (frame == null) {
+            // every frame is still held by a sink
+            return null;
+        }
+        byte[] data = frame.array();
+        int offset = frame.arrayOffset();
+        PlaneCopier copier = selectCopier(width, height);
+        offset = copier.copyPlane(buffers[0], rowStrides[0], pixelStrides[0],
+                left, top, width, height, data, offset);
+
+        if (frameFormat != VideoFrame.FORMAT_I420) {
+            // keep the chroma interleaved, the renderer samples it as one texture
+            int wanted = frameFormat == VideoFrame.FORMAT_NV12 ? PlaneCopier.CHROMA_UV : PlaneCopier.CHROMA_VU;
+            if (layout == wanted) {
+                copier.copySemiPlanarChroma(buffers[1], buffers[2], layout, rowStride,
+                        left >> 1, top >> 1, chromaWidth, chromaHeight, data, offset);
+            } else {
+                // not proven to alias in this order (yet), interleave sample by sample
+                int first = frameFormat == VideoFrame.FORMAT_NV12 ? 1 : 2;
+                int second = 3 - first;
+                copier.interleaveChroma(buffers[first], rowStrides[first], pixelStrides[first],
+                        buffers[second], rowStrides[second], pixelStrides[second],
+                        left >> 1, top >> 1, chromaWidth, chromaHeight, data, offset);
+            }
+            return frame;
+        }
+        if (layout != PlaneCopier.CHROMA_SEPARATE) {
+            // de-interleave both chroma planes in one pass
+            copier.copyInterleavedChroma(buffers[1], buffers[2], layout, rowStride,
+                    left >> 1, top >> 1, chromaWidth, chromaHeight,
+                    data, frame.arrayOffset() + frame.getPlaneOffset(1),
+                    frame.arrayOffset() + frame.getPlaneOffset(2));
+            return frame;
+        }
+        for (int i = 1; i < 3; i++) {
+            rowStride = rowStrides[i];
+            pixelStride = pixelStrides[i];
+            // For multi-planar yuv images, assuming yuv420 with 2x2 chroma subsampling.
+            offset = copier.copyPlane(buffers[i], rowStride, pixelStride,
+                    left >> 1, top >> 1, chromaWidth, chromaHeight, data, offset);
+        }
+        return frame;
+    }
+
+    private PlaneCopier selectCopier(int width, int height) {
+        if ((long) width * height < mParallelCopyPixels) {
+            return mPlaneCopier;
+        }
+        if (mStripedCopier == null) {
+            int threads = StripedPlaneCopier.defaultThreadCount();
+            if (threads < 2) {
+                return mPlaneCopier;
+            }
+            mStripedCopier = new StripedPlaneCopier(threads, mPlaneCopier.isWordWide());
+        }
+        return mStripedCopier;
+    }
+
+    /**
+     * Stop the stripe copy threads, if any were started.
+     */
+    public void shutdown() {
+        if (mStripedCopier != null) {
+            mStripedCopier.shutdown();
+            mStripedCopier = null;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.android.player;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Fixed-size header written in front of every injected frame.
+ * <p>
+ * Layout, big-endian: magic (4), payload size (4), sequence (4),
+ * presentation time in us (8). The sequence is the decoder's frame counter, so a
+ * consumer sees a gap whenever a frame was dropped on the way.
+ * </p>
+ * <p>
+ * The magic names the payload layout: "YUVF" for I420, "YV12" for I420 with the
+ * chroma planes swapped, "NV12" or "NV21" for the semi-planar frames, so a consumer
+ * that only knows I420 rejects the others instead of misreading them.
+ * </p>
+ */
+public final class FrameHeader {
+    public static final int MAGIC = 0x59555646;
+    public static final int MAGIC_NV12 = 0x4E563132;
+    public static final int MAGIC_NV21 = 0x4E563231;
+    public static final int MAGIC_YV12 = 0x59563132;
+    public static final int SIZE = 20;
+
+    private final byte[] bytes = new byte[SIZE];
+    private final ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.BIG_ENDIAN);
+
+    /**
+     * Fill the header for this frame, the returned array is reused on the next call.
+     */
+    public byte[] write(VideoFrame frame) {
+        buffer.clear();
+        buffer.putInt(magic(frame.getFormat()));
+        buffer.putInt(frame.getSize());
+        buffer.putInt((int) frame.getSequence());
+        buffer.putLong(frame.getPresentationTimeUs());
+        return bytes;
+    }
+
+    private static int magic(int format) {
+        switch (format) {
+            case VideoFrame.FORMAT_NV12:
+                return MAGIC_NV12;
+            case VideoFrame.FORMAT_NV21:
+                return MAGIC_NV21;
+            case VideoFrame.FORMAT_YV12:
+                return MAGIC_YV12;
+            default:
+                return MAGIC;
+        }
+    }
+
+    public static boolean isValid(ByteBuffer header) {
+        return header.remaining() >= SIZE && format(header) >= 0;
+    }
+
+    /**
+     * @return the VideoFrame.FORMAT_ constant of the payload, -1 for an unknown magic.
+     */
+    public static int format(ByteBuffer header) {
+        switch (header.getInt(header.position())) {
+            case MAGIC:
+                return VideoFrame.FORMAT_I420;
+            case MAGIC_NV12:
+                return VideoFrame.FORMAT_NV12;
+            case MAGIC_NV21:
+                return VideoFrame.FORMAT_NV21;
+            case MAGIC_YV12:
+                return VideoFrame.FORMAT_YV12;
+            default:
+                return -1;
+        }
+    }
+
+    public static int payloadSize(ByteBuffer header) {
+        return header.getInt(header.position() + 4);
+    }
+
+    public static int sequence(ByteBuffer header) {
+        return header.getInt(header.position() + 8);
+    }
+
+    public static long presentationTimeUs(ByteBuffer header) {
+        return header.getLong(header.position() + 12);
+    }
+}
@@ -0,0 +1,104 @@
+package com.android.player;
+
+/**
+ * Decides when a decoded frame should be shown, based on its presentation
+ * timestamp and a {@link MediaClock}.
+ * <p>
+ * The decoder asks {@link #isLate(long)} before copying a frame out of the codec,
+ * so frames that could only be shown late are dropped for free, and then waits in
+ * {@link #awaitPresentation(long)} until the frame is due. A timestamp going
+ * backwards or jumping far ahead (looping, seeking) re-anchors the clock instead
+ * of dropping or stalling everything after it.
+ * </p>
+ */
+public class FramePacer {
+    private static final long DEFAULT_LATE_THRESHOLD_US = 40000;
+    private static final long DEFAULT_MAX_LEAD_US = 1000000;
+
+    private final MediaClock clock;
+    private long lateThresholdUs = DEFAULT_LATE_THRESHOLD_US;
+    private long maxLeadUs = DEFAULT_MAX_LEAD_US;
+    private long lastPtsUs = Long.MIN_VALUE;
+    private long presentedCount;
+    private long droppedCount;
+
+    public FramePacer(MediaClock clock) {
+        this.clock = clock;
+    }
+
+    public MediaClock getClock() {
+        return clock;
+    }
+
+    /**
+     * A frame due more than this long ago is dropped.
+     */
+    public void setLateThresholdUs(long lateThresholdUs) {
+        this.lateThresholdUs = lateThresholdUs;
+    }
+
+    /**
+     * A frame due further ahead (or behind) than this is treated as a timeline
+     * discontinuity and re-anchors the clock.
+     */
+    public void setMaxLeadUs(long maxLeadUs) {
+        this.maxLeadUs = maxLeadUs;
+    }
+
+    /**
+     * @return true if the frame is already too late to be shown and should be dropped.
+     */
+    public boolean isLate(long ptsUs) {
+        if (!clock.isStarted() || ptsUs < lastPtsUs) {
+            clock.start(ptsUs);
+        } else {
+            long leadUs = (clock.realTimeNsFor(ptsUs) - clock.getTimeSource().nanoTime()) / 1000;
+            if (leadUs > maxLeadUs || -leadUs > maxLeadUs) {
+                // discontinuity or a long stall, dropping would never catch up
+                clock.start(ptsUs);
+            } else if (-leadUs > lateThresholdUs) {
+                lastPtsUs = ptsUs;
+                droppedCount++;
+                return true;
+            }
+        }
+        lastPtsUs = ptsUs;
+        return false;
+    }
+
+    /**
+     * Re-anchor the clock on the first frame of a new loop pass, so neither a late
+     * pass start nor rounding in the timestamps carries over from one pass to the
+     * next. A clock that has not started yet is left to {@link #isLate}.
+     */
+    public void startPass(long ptsUs) {
+        if (clock.isStarted()) {
+            clock.reanchor(ptsUs);
+        }
+    }
+
+    /**
+     * Block until the frame with this timestamp is due.
+     */
+    public void awaitPresentation(long ptsUs) throws InterruptedException {
+        MediaClock.TimeSource timeSource = clock.getTimeSource();
+        long waitNs = clock.realTimeNsFor(ptsUs) - timeSource.nanoTime();
+        if (waitNs > 0) {
+            timeSource.sleepNanos(Math.min(waitNs, maxLeadUs * 1000));
+        }
+        presentedCount++;
+    }
+
+    public void reset() {
+        clock.reset();
+        lastPtsUs = Long.MIN_VALUE;
+    }
+
+    public long getPresentedCount() {
+        return presentedCount;
+    }
+
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+}
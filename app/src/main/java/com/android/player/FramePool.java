@@ -0,0 +1,90 @@
+package com.android.player;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Fixed-size pool of {@link VideoFrame}s so the decoder does not allocate a new
+ * frame buffer for every decoded picture.
+ * <p>
+ * Buffers are only allocated while the pool warms up or when the frame size grows;
+ * in steady state {@link #acquire(int, int)} and the recycling done by
+ * {@link VideoFrame#release()} do not allocate.
+ * </p>
+ */
+public class FramePool implements VideoFrame.Recycler {
+    private final int mMaxFrames;
+    private final ArrayBlockingQueue<VideoFrame> mFreeFrames;
+    private int mOutstanding;
+    private long mAllocations;
+
+    public FramePool(int maxFrames) {
+        mMaxFrames = maxFrames;
+        mFreeFrames = new ArrayBlockingQueue<>(maxFrames);
+    }
+
+    /**
+     * @return a frame laid out as I420 of the given size with one reference held by
+     * the caller, or null when every frame of the pool is still in use.
+     */
+    public VideoFrame acquire(int width, int height) {
+        return acquire(width, height, VideoFrame.FORMAT_I420);
+    }
+
+    /**
+     * @param format one of the VideoFrame.FORMAT_ constants, see {@link #acquire(int, int)}.
+     */
+    public VideoFrame acquire(int width, int height, int format) {
+        int size = VideoFrame.frameSize(width, height);
+        VideoFrame frame = mFreeFrames.poll();
+        if (frame == null) {
+            synchronized (this) {
+                if (mOutstanding + mFreeFrames.size() >= mMaxFrames) {
+                    return null;
+                }
+                mOutstanding++;
+            }
+            frame = allocate(size);
+        } else {
+            synchronized (this) {
+                mOutstanding++;
+            }
+            if (frame.capacity() < size) {
+                // resolution went up, the old buffer is too small
+                frame = allocate(size);
+            }
+        }
+        frame.reset(width, height, format);
+        return frame;
+    }
+
+    @Override
+    public void recycle(VideoFrame frame) {
+        synchronized (this) {
+            mOutstanding--;
+        }
+        mFreeFrames.offer(frame);
+    }
+
+    private VideoFrame allocate(int size) {
+        synchronized (this) {
+            mAllocations++;
+        }
+        return new VideoFrame(ByteBuffer.allocate(size), this);
+    }
+
+    /**
+     * Number of frame buffers allocated so far, it stops growing once the pool is warm.
+     */
+    public synchronized long getAllocationCount() {
+        return mAllocations;
+    }
+
+    public synchronized int getOutstandingCount() {
+        return mOutstanding;
+    }
+
+    public int getMaxFrames() {
+        return mMaxFrames;
+    }
+}
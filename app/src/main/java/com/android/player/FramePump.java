@@ -0,0 +1,150 @@
+package com.android.player;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+/**
+ * Hands the frames of a {@link FrameSource} to sinks the way {@link VideoDecode} hands
+ * over decoded frames: paced to their timestamps, late frames dropped before
+ * dispatch, sequence numbers assigned, looping with timestamps that keep increasing.
+ * Pure Java, so the sinks, the pacer and the queues can be load-tested on a plain JVM
+ * and on devices without touching the hardware decoder.
+ */
+public class FramePump extends Thread {
+    private final FrameSource source;
+    private final SinkGroup mSinks = new SinkGroup();
+    private final FramePacer mFramePacer = new FramePacer(new MediaClock());
+    private volatile boolean mPacingEnabled = true;
+    private volatile boolean mLoop = true;
+    private PipelineStats mStats = new PipelineStats();
+    private long mFrameSequence;
+    private volatile IOException lastError;
+
+    public FramePump(FrameSource source) {
+        super("FramePump");
+        this.source = source;
+    }
+
+    /**
+     * Register a sink running on a dedicated thread of its own.
+     */
+    public void addSink(FrameSink sink) {
+        mSinks.add(new SinkDispatcher(sink), mStats);
+    }
+
+    /**
+     * Register a sink running on the given executor, as with VideoDecode.
+     */
+    public void addSink(FrameSink sink, Executor executor, int queueDepth, FrameQueue.DropPolicy policy) {
+        mSinks.add(new SinkDispatcher(sink, executor, queueDepth, policy), mStats);
+    }
+
+    public void removeSink(FrameSink sink) {
+        mSinks.remove(sink);
+    }
+
+    /**
+     * Share a stats collector with the rest of the pipeline, call before adding sinks.
+     */
+    public void setStats(PipelineStats stats) {
+        mStats = stats;
+    }
+
+    public PipelineStats getStats() {
+        return mStats;
+    }
+
+    /**
+     * When disabled frames are handed on as fast as the sinks take them.
+     */
+    public void setPacingEnabled(boolean enabled) {
+        if (enabled && !mPacingEnabled) {
+            mFramePacer.getClock().reset();
+        }
+        mPacingEnabled = enabled;
+    }
+
+    public void setPlaybackRate(float rate) {
+        mFramePacer.getClock().setRate(rate);
+    }
+
+    /**
+     * Start the source over at its end instead of finishing, on by default.
+     */
+    public void setLooping(boolean loop) {
+        mLoop = loop;
+    }
+
+    public FramePacer getFramePacer() {
+        return mFramePacer;
+    }
+
+    /**
+     * The error that ended the pump early, if any.
+     */
+    public IOException getLastError() {
+        return lastError;
+    }
+
+    @Override
+    public void run() {
+        long ptsOffsetUs = 0;
+        long lastPtsUs = -1;
+        long stepUs = 0;
+        boolean newPass = false;
+        try {
+            while (!isInterrupted()) {
+                long fetchStart = System.nanoTime();
+                VideoFrame frame = source.nextFrame();
+                if (frame == null) {
+                    if (!mLoop || lastPtsUs < 0 || isInterrupted()) {
+                        break;
+                    }
+                    // the next pass starts one frame after the end of this one
+                    source.rewind();
+                    ptsOffsetUs += lastPtsUs + stepUs;
+                    lastPtsUs = -1;
+                    newPass = true;
+                    continue;
+                }
+                mStats.record(PipelineStats.Stage.COPY, System.nanoTime() - fetchStart);
+                mStats.count(PipelineStats.Counter.DECODED);
+                long sourcePtsUs = frame.getPresentationTimeUs();
+                if (lastPtsUs >= 0 && sourcePtsUs > lastPtsUs) {
+                    stepUs = sourcePtsUs - lastPtsUs;
+                }
+                lastPtsUs = sourcePtsUs;
+                long ptsUs = sourcePtsUs + ptsOffsetUs;
+                frame.setPresentationTimeUs(ptsUs);
+                frame.setSequence(mFrameSequence++);
+
+                if (newPass && mPacingEnabled) {
+                    mFramePacer.startPass(ptsUs);
+                }
+                newPass = false;
+                if (mPacingEnabled) {
+                    if (mFramePacer.isLate(ptsUs)) {
+                        mStats.count(PipelineStats.Counter.DROPPED_LATE);
+                        frame.release();
+                        continue;
+                    }
+                    try {
+                        mFramePacer.awaitPresentation(ptsUs);
+                    } catch (InterruptedException e) {
+                        frame.release();
+                        break;
+                    }
+                }
+                long dispatchStart = System.nanoTime();
+                mSinks.dispatch(frame);
+                mStats.record(PipelineStats.Stage.DISPATCH, System.nanoTime() - dispatchStart);
+                frame.release();
+            }
+        } catch (IOException e) {
+            lastError = e;
+        } finally {
+            mSinks.finish();
+            source.close();
+        }
+    }
+}
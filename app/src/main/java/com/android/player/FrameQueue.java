@@ -0,0 +1,182 @@
+package com.android.player;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded single-producer/single-consumer ring of {@link VideoFrame}s.
+ * <p>
+ * The producer hands its reference of a frame over with {@link #offer(VideoFrame)},
+ * the consumer gets it back from {@link #poll()}. When the ring is full the
+ * {@link DropPolicy} decides what happens: the oldest queued frame or the new
+ * frame is released, or the producer waits for the consumer.
+ * </p>
+ * <p>
+ * Both ends are lock-free. The only place the producer touches the consumer index
+ * is {@link DropPolicy#DROP_OLDEST}, which claims the head slot with a CAS just like
+ * {@link #poll()} does, so a frame is always handed out or dropped exactly once.
+ * </p>
+ */
+public class FrameQueue {
+
+    public enum DropPolicy {
+        /** Release the oldest queued frame to make room for the new one. */
+        DROP_OLDEST,
+        /** Release the frame being offered and keep what is queued. */
+        DROP_NEWEST,
+        /** Wait until the consumer frees a slot. */
+        BLOCK
+    }
+
+    private static final long BLOCK_PARK_NS = 200_000;
+    private static final long DEFAULT_LATE_THRESHOLD_NS = 50_000_000;
+
+    private final int capacity;
+    private final DropPolicy policy;
+    private final AtomicReferenceArray<VideoFrame> ring;
+    private final long[] enqueueTimeNs;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    private final AtomicLong offered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong late = new AtomicLong();
+    private volatile long lateThresholdNs = DEFAULT_LATE_THRESHOLD_NS;
+    private volatile boolean closed;
+
+    public FrameQueue(int capacity, DropPolicy policy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1: " + capacity);
+        }
+        this.capacity = capacity;
+        this.policy = policy;
+        this.ring = new AtomicReferenceArray<>(capacity);
+        this.enqueueTimeNs = new long[capacity];
+    }
+
+    /**
+     * Producer side. Ownership of the caller's reference passes to the queue, whether
+     * the frame gets queued or dropped.
+     *
+     * @return true if the frame was queued.
+     */
+    public boolean offer(VideoFrame frame) {
+        offered.incrementAndGet();
+        if (closed) {
+            return drop(frame);
+        }
+        long t = tail.get();
+        while (t - head.get() >= capacity) {
+            if (closed) {
+                return drop(frame);
+            }
+            switch (policy) {
+                case DROP_NEWEST:
+                    return drop(frame);
+                case DROP_OLDEST:
+                    long h = head.get();
+                    if (t - h >= capacity) {
+                        VideoFrame oldest = ring.get(index(h));
+                        if (head.compareAndSet(h, h + 1)) {
+                            dropped.incrementAndGet();
+                            oldest.release();
+                        }
+                    }
+                    break;
+                case BLOCK:
+                    if (Thread.currentThread().isInterrupted()) {
+                        return drop(frame);
+                    }
+                    LockSupport.parkNanos(this, BLOCK_PARK_NS);
+                    break;
+            }
+        }
+        int i = index(t);
+        enqueueTimeNs[i] = System.nanoTime();
+        ring.set(i, frame);
+        tail.set(t + 1);
+        return true;
+    }
+
+    /**
+     * Consumer side.
+     *
+     * @return the oldest queued frame, owned by the caller, or null if the queue is empty.
+     */
+    public VideoFrame poll() {
+        while (true) {
+            long h = head.get();
+            if (h == tail.get()) {
+                return null;
+            }
+            int i = index(h);
+            VideoFrame frame = ring.get(i);
+            long queuedAt = enqueueTimeNs[i];
+            if (head.compareAndSet(h, h + 1)) {
+                if (System.nanoTime() - queuedAt > lateThresholdNs) {
+                    late.incrementAndGet();
+                }
+                return frame;
+            }
+        }
+    }
+
+    /**
+     * Consumer side: release everything still queued.
+     */
+    public void clear() {
+        VideoFrame frame;
+        while ((frame = poll()) != null) {
+            frame.release();
+        }
+    }
+
+    /**
+     * Stop blocking producers; frames offered from now on are dropped.
+     */
+    public void close() {
+        closed = true;
+    }
+
+    private boolean drop(VideoFrame frame) {
+        dropped.incrementAndGet();
+        frame.release();
+        return false;
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence % capacity);
+    }
+
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public DropPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Frames that waited longer than this in the queue are counted as late.
+     */
+    public void setLateThresholdNs(long lateThresholdNs) {
+        this.lateThresholdNs = lateThresholdNs;
+    }
+
+    public long getOfferedCount() {
+        return offered.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getLateCount() {
+        return late.get();
+    }
+}
@@ -0,0 +1,262 @@
+package com.android.player;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Locale;
+
+/**
+ * {@link FrameSink} recording the frames it is handed, byte for byte, into a ring of
+ * preallocated segment files written through memory maps.
+ * <p>
+ * A segment is created at its full size and mapped once. Recording a frame is a copy
+ * into the mapping plus an index entry, no system call beyond the page faults, and
+ * the kernel writes the pages back on its own. A full segment is closed and the next
+ * one created; only the newest maxSegments segments are kept, older ones are deleted.
+ * A change of frame size or format starts a new segment as well.
+ * </p>
+ * <p>
+ * Segment layout, big-endian:
+ * </p>
+ * <pre>
+ * header   magic "YUVR" (4), version (4), width (4), height (4), format (4),
+ *          frame size (4), index capacity (4), frame count (4)
+ * index    per frame: presentation time in us (8), sequence (8), data offset (8)
+ * data     the frames, packed, in the layout of their VideoFrame.FORMAT_
+ * </pre>
+ * <p>
+ * The frame count is written after the frame and its index entry, so a reader of a
+ * segment still being written only sees complete frames. Register it with
+ * {@link VideoDecode#addSink(FrameSink)} so the copies run on a thread of its own; a
+ * frame the disk could not keep up with shows up as a drop of its queue.
+ * </p>
+ * <p>
+ * A segment that cannot be created, e.g. when the disk is full, stops the recording:
+ * the partly created file is deleted and later frames are ignored, rather than every
+ * one of them trying, and failing, to create a file of its own.
+ * </p>
+ */
+public class FrameRecorder implements FrameSink {
+    public static final int MAGIC = 0x59555652;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 32;
+    public static final int INDEX_ENTRY_SIZE = 24;
+    public static final long DEFAULT_SEGMENT_SIZE = 256L * 1024 * 1024;
+    public static final int DEFAULT_MAX_SEGMENTS = 4;
+
+    private static final int COUNT_OFFSET = 28;
+
+    private final File dir;
+    private final long segmentSize;
+    private final int maxSegments;
+    private final ArrayDeque<File> segments = new ArrayDeque<File>();
+    private int nextSegment;
+
+    private MappedByteBuffer mapped;
+    private int width;
+    private int height;
+    private int format = -1;
+    private int frameSize;
+    private int capacity;
+    private int count;
+    private boolean stopped;
+
+    private volatile long recordedCount;
+    private volatile IOException lastError;
+
+    public FrameRecorder(File dir) {
+        this(dir, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_SEGMENTS);
+    }
+
+    /**
+     * @param segmentSize bytes per segment file, at most 2 GB, the most one mapping can hold.
+     * @param maxSegments segments kept on disk, the oldest goes when a new one starts.
+     */
+    public FrameRecorder(File dir, long segmentSize, int maxSegments) {
+        if (segmentSize > Integer.MAX_VALUE || segmentSize <= HEADER_SIZE) {
+            throw new IllegalArgumentException("segment size out of range: " + segmentSize);
+        }
+        if (maxSegments < 1) {
+            throw new IllegalArgumentException("maxSegments < 1: " + maxSegments);
+        }
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+    }
+
+    @Override
+    public void onFrame(VideoFrame frame) {
+        if (stopped) {
+            return;
+        }
+        try {
+            if (mapped == null || count == capacity || frame.getWidth() != width
+                    || frame.getHeight() != height || frame.getFormat() != format) {
+                startSegment(frame.getWidth(), frame.getHeight(), frame.getFormat(), frame.getSize());
+            }
+        } catch (IOException e) {
+            lastError = e;
+            mapped = null;
+            stopped = true;
+            return;
+        }
+        int offset = dataOffset(capacity) + count * frameSize;
+        mapped.position(offset);
+        ByteBuffer data = frame.getData();
+        if (data.hasArray()) {
+            mapped.put(data.array(), data.arrayOffset(), frameSize);
+        } else {
+            ByteBuffer view = data.duplicate();
+            view.position(0).limit(frameSize);
+            mapped.put(view);
+        }
+        int entry = HEADER_SIZE + count * INDEX_ENTRY_SIZE;
+        mapped.putLong(entry, frame.getPresentationTimeUs());
+        mapped.putLong(entry + 8, frame.getSequence());
+        mapped.putLong(entry + 16, offset);
+        count++;
+        mapped.putInt(COUNT_OFFSET, count);
+        recordedCount++;
+    }
+
+    @Override
+    public void onFinish() {
+        // the mappings stay valid until they are collected, the kernel flushes them
+        mapped = null;
+    }
+
+    private void startSegment(int width, int height, int format, int frameSize) throws IOException {
+        int capacity = (int) ((segmentSize - HEADER_SIZE) / (INDEX_ENTRY_SIZE + frameSize));
+        if (capacity < 1) {
+            throw new IOException("a " + width + "x" + height + " frame does not fit in a segment");
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create " + dir);
+        }
+        File file = new File(dir, String.format(Locale.US, "rec-%05d.yuvr", nextSegment++));
+        long size = dataOffset(capacity) + (long) capacity * frameSize;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(size);
+            // the mapping outlives the channel
+            mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            // a segment cut short by a full disk is of no use to a reader
+            raf.close();
+            file.delete();
+            throw e;
+        } finally {
+            raf.close();
+        }
+        segments.addLast(file);
+        while (segments.size() > maxSegments) {
+            segments.removeFirst().delete();
+        }
+
+        this.width = width;
+        this.height = height;
+        this.format = format;
+        this.frameSize = frameSize;
+        this.capacity = capacity;
+        count = 0;
+        mapped.putInt(0, MAGIC);
+        mapped.putInt(4, VERSION);
+        mapped.putInt(8, width);
+        mapped.putInt(12, height);
+        mapped.putInt(16, format);
+        mapped.putInt(20, frameSize);
+        mapped.putInt(24, capacity);
+        mapped.putInt(COUNT_OFFSET, 0);
+    }
+
+    private static int dataOffset(int capacity) {
+        return HEADER_SIZE + capacity * INDEX_ENTRY_SIZE;
+    }
+
+    public long getRecordedCount() {
+        return recordedCount;
+    }
+
+    /**
+     * The error creating a segment that stopped the recording, null while it runs.
+     */
+    public IOException getLastError() {
+        return lastError;
+    }
+
+    /**
+     * Reads back a segment written by a recorder, possibly while it is still being written.
+     */
+    public static class Segment {
+        private final ByteBuffer buffer;
+
+        private Segment(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        public static Segment open(File file) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+                if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                    throw new IOException("not a frame recording: " + file);
+                }
+                return new Segment(buffer);
+            } finally {
+                raf.close();
+            }
+        }
+
+        public int getWidth() {
+            return buffer.getInt(8);
+        }
+
+        public int getHeight() {
+            return buffer.getInt(12);
+        }
+
+        public int getFormat() {
+            return buffer.getInt(16);
+        }
+
+        public int getFrameSize() {
+            return buffer.getInt(20);
+        }
+
+        public int getFrameCount() {
+            return buffer.getInt(COUNT_OFFSET);
+        }
+
+        public long getPresentationTimeUs(int i) {
+            return buffer.getLong(entry(i));
+        }
+
+        public long getSequence(int i) {
+            return buffer.getLong(entry(i) + 8);
+        }
+
+        public long getOffset(int i) {
+            return buffer.getLong(entry(i) + 16);
+        }
+
+        /**
+         * Copy frame i into data, getFrameSize() bytes.
+         */
+        public void readFrame(int i, byte[] data, int offset) {
+            ByteBuffer frame = buffer.duplicate();
+            frame.position((int) getOffset(i));
+            frame.get(data, offset, getFrameSize());
+        }
+
+        private int entry(int i) {
+            if (i < 0 || i >= getFrameCount()) {
+                throw new IndexOutOfBoundsException("frame " + i + " of " + getFrameCount());
+            }
+            return HEADER_SIZE + i * INDEX_ENTRY_SIZE;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.android.player;
+
+/**
+ * Consumer of decoded frames, registered with {@link VideoDecode#addSink}.
+ * <p>
+ * Every sink sees the same frame instance; frames are never copied per sink, so
+ * a sink must treat the frame as read-only.
+ * </p>
+ */
+public interface FrameSink {
+    /**
+     * Called on the sink's own executor. The frame is only valid during this call,
+     * retain() it to keep it longer.
+     */
+    void onFrame(VideoFrame frame);
+
+    /**
+     * Called on the sink's own executor once no more frames will come.
+     */
+    void onFinish();
+}
@@ -0,0 +1,34 @@
+package com.android.player;
+
+import java.io.IOException;
+
+/**
+ * Decoded frames from somewhere other than the hardware decoder, for driving the
+ * sinks, the pacer and the renderer on their own: see {@link FramePump}.
+ */
+public interface FrameSource {
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * @return one of the VideoFrame.FORMAT_ constants.
+     */
+    int getFormat();
+
+    /**
+     * The next frame, with one reference held by the caller and its presentation time
+     * counted from the first frame of the source. May block until a frame the sinks
+     * still hold is released.
+     *
+     * @return null after the last frame.
+     */
+    VideoFrame nextFrame() throws IOException;
+
+    /**
+     * Go back to the first frame.
+     */
+    void rewind();
+
+    void close();
+}
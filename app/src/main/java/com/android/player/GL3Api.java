@@ -0,0 +1,52 @@
+package com.android.player;
+
+import java.nio.Buffer;
+
+/**
+ * The OpenGL ES 3.0 additions the pixel buffer upload path needs, see {@link AndroidGL3}.
+ */
+public interface GL3Api extends GLApi {
+    int GL_MAP_WRITE_BIT = 0x0002;
+    int GL_MAP_INVALIDATE_BUFFER_BIT = 0x0008;
+    int GL_STREAM_DRAW = 0x88E0;
+    int GL_PIXEL_UNPACK_BUFFER = 0x88EC;
+    int GL_SYNC_FLUSH_COMMANDS_BIT = 0x0001;
+    int GL_SYNC_GPU_COMMANDS_COMPLETE = 0x9117;
+    int GL_ALREADY_SIGNALED = 0x911A;
+    int GL_TIMEOUT_EXPIRED = 0x911B;
+    int GL_CONDITION_SATISFIED = 0x911C;
+    int GL_WAIT_FAILED = 0x911D;
+
+    void glGenBuffers(int n, int[] buffers, int offset);
+
+    void glDeleteBuffers(int n, int[] buffers, int offset);
+
+    void glBindBuffer(int target, int buffer);
+
+    void glBufferData(int target, int size, Buffer data, int usage);
+
+    /**
+     * @return the mapped range, null if the driver could not map it.
+     */
+    Buffer glMapBufferRange(int target, int offset, int length, int access);
+
+    /**
+     * @return false if the buffer contents were lost while mapped.
+     */
+    boolean glUnmapBuffer(int target);
+
+    /**
+     * Update a texture from the bound {@link #GL_PIXEL_UNPACK_BUFFER}, starting at offset.
+     */
+    void glTexSubImage2D(int target, int level, int xoffset, int yoffset, int width, int height,
+                         int format, int type, int offset);
+
+    long glFenceSync(int condition, int flags);
+
+    /**
+     * @return one of GL_ALREADY_SIGNALED, GL_CONDITION_SATISFIED, GL_TIMEOUT_EXPIRED, GL_WAIT_FAILED.
+     */
+    int glClientWaitSync(long sync, int flags, long timeoutNs);
+
+    void glDeleteSync(long sync);
+}
@@ -0,0 +1,102 @@
+package com.android.player;
+
+import java.nio.Buffer;
+
+/**
+ * The OpenGL ES 2.0 calls the renderer makes, so the texture and draw logic can run
+ * against a recording fake on a plain JVM. {@link AndroidGL} forwards to GLES20.
+ * Constants carry the GLES20 values.
+ */
+public interface GLApi {
+    int GL_TRUE = 1;
+    int GL_TRIANGLE_STRIP = 0x0005;
+    int GL_TEXTURE_2D = 0x0DE1;
+    int GL_UNPACK_ALIGNMENT = 0x0CF5;
+    int GL_UNSIGNED_BYTE = 0x1401;
+    int GL_FLOAT = 0x1406;
+    int GL_LUMINANCE = 0x1909;
+    int GL_LUMINANCE_ALPHA = 0x190A;
+    int GL_NEAREST = 0x2600;
+    int GL_LINEAR = 0x2601;
+    int GL_TEXTURE_MAG_FILTER = 0x2800;
+    int GL_TEXTURE_MIN_FILTER = 0x2801;
+    int GL_TEXTURE_WRAP_S = 0x2802;
+    int GL_TEXTURE_WRAP_T = 0x2803;
+    int GL_COLOR_BUFFER_BIT = 0x4000;
+    int GL_CLAMP_TO_EDGE = 0x812F;
+    int GL_TEXTURE0 = 0x84C0;
+    int GL_FRAGMENT_SHADER = 0x8B30;
+    int GL_VERTEX_SHADER = 0x8B31;
+    int GL_COMPILE_STATUS = 0x8B81;
+    int GL_LINK_STATUS = 0x8B82;
+
+    void glViewport(int x, int y, int width, int height);
+
+    void glClearColor(float red, float green, float blue, float alpha);
+
+    void glClear(int mask);
+
+    void glFinish();
+
+    void glGenTextures(int n, int[] textures, int offset);
+
+    void glDeleteTextures(int n, int[] textures, int offset);
+
+    void glActiveTexture(int texture);
+
+    void glBindTexture(int target, int texture);
+
+    void glPixelStorei(int pname, int param);
+
+    void glTexParameteri(int target, int pname, int param);
+
+    void glTexImage2D(int target, int level, int internalformat, int width, int height, int border,
+                      int format, int type, Buffer pixels);
+
+    void glTexSubImage2D(int target, int level, int xoffset, int yoffset, int width, int height,
+                         int format, int type, Buffer pixels);
+
+    int glCreateShader(int type);
+
+    void glShaderSource(int shader, String source);
+
+    void glCompileShader(int shader);
+
+    void glGetShaderiv(int shader, int pname, int[] params, int offset);
+
+    String glGetShaderInfoLog(int shader);
+
+    void glDeleteShader(int shader);
+
+    int glCreateProgram();
+
+    void glAttachShader(int program, int shader);
+
+    void glLinkProgram(int program);
+
+    void glGetProgramiv(int program, int pname, int[] params, int offset);
+
+    String glGetProgramInfoLog(int program);
+
+    void glDeleteProgram(int program);
+
+    void glUseProgram(int program);
+
+    int glGetAttribLocation(int program, String name);
+
+    int glGetUniformLocation(int program, String name);
+
+    void glUniform1i(int location, int x);
+
+    void glUniform1f(int location, float x);
+
+    void glUniform2fv(int location, int count, float[] v, int offset);
+
+    void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, Buffer ptr);
+
+    void glEnableVertexAttribArray(int index);
+
+    void glDisableVertexAttribArray(int index);
+
+    void glDrawArrays(int mode, int first, int count);
+}
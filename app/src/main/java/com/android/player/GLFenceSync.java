@@ -0,0 +1,36 @@
+package com.android.player;
+
+/**
+ * {@link FenceSync} on glFenceSync / glClientWaitSync of OpenGL ES 3.0.
+ */
+public class GLFenceSync implements FenceSync {
+    private final GL3Api gl;
+
+    public GLFenceSync(GL3Api gl) {
+        this.gl = gl;
+    }
+
+    @Override
+    public long insert() {
+        return gl.glFenceSync(GL3Api.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+    }
+
+    @Override
+    public boolean isSignaled(long fence) {
+        return signaled(gl.glClientWaitSync(fence, 0, 0));
+    }
+
+    @Override
+    public boolean await(long fence, long timeoutNs) {
+        return signaled(gl.glClientWaitSync(fence, GL3Api.GL_SYNC_FLUSH_COMMANDS_BIT, timeoutNs));
+    }
+
+    private static boolean signaled(int status) {
+        return status == GL3Api.GL_ALREADY_SIGNALED || status == GL3Api.GL_CONDITION_SATISFIED;
+    }
+
+    @Override
+    public void delete(long fence) {
+        gl.glDeleteSync(fence);
+    }
+}
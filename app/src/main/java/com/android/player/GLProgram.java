@@ -1,32 +1,116 @@
 package com.android.player;
 
-import android.opengl.GLES20;
 import android.util.Log;
 
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.util.Arrays;
 
 public class GLProgram {
     private int mProgram;
+    // one program per shader variant, built on first use; mProgram is the one in use
+    private final int[] mPrograms = new int[ShaderGenerator.VARIANT_COUNT];
+    private int mFormat = VideoFrame.FORMAT_I420;
+    private ShaderGenerator.Sharpen mSharpen = ShaderGenerator.Sharpen.FULL_9;
+    private volatile ShaderGenerator.Sharpen mRequestedSharpen = ShaderGenerator.Sharpen.FULL_9;
     private int positionHandle = -1;
     private int coordHandle = -1;
     private ByteBuffer verticeBuffer;
     private ByteBuffer coordBuffer;
 
     private int[] yuvHandle = {-1, -1, -1};
-    private int[] mTextureID = {-1,-1,-1};
-
-    private int videoWidth = -1;
-    private int videoHeight = -1;
     private static final int SIZEOF_FLOAT = 4;
 
     private int mSharpHandle;
-    private int mTextureSizeHandle;
-    private float mSharpLevel = 5.0f;
-    private float[] textureSize;
-    private FloatBuffer TEXTURE_SIZE;
+    private int mTexelSizeHandle;
+    private volatile float mSharpLevel = 5.0f;
+    private final float[] texelSize = new float[2];
+    private final GLApi mGL;
+    private final YuvTextures mTextures;
+    private PboUploader mPboUploader;
+    private InFlightFrames mInFlightFrames;
+    private final Buffer[] yuvBuffers = new Buffer[3];
+    private PipelineStats mStats = new PipelineStats();
+
+    public GLProgram() {
+        this(new AndroidGL());
+    }
+
+    public GLProgram(GLApi gl) {
+        mGL = gl;
+        mTextures = new YuvTextures(gl);
+    }
+
+    public GLApi getGL() {
+        return mGL;
+    }
+
+    public YuvTextures getTextures() {
+        return mTextures;
+    }
+
+    /**
+     * Stream frames through a ring of pixel buffers, needs an ES 3.0 context and a {@link GL3Api}.
+     *
+     * @param ringSize 2 or 3 buffers, 0 to upload from client memory.
+     */
+    public void setPixelBufferRing(int ringSize) {
+        if (mPboUploader != null) {
+            mPboUploader.release();
+            mPboUploader = null;
+        }
+        if (ringSize > 0) {
+            if (!(mGL instanceof GL3Api)) {
+                throw new IllegalStateException("pixel buffer upload needs OpenGL ES 3.0");
+            }
+            mPboUploader = new PboUploader((GL3Api) mGL, mTextures, ringSize);
+        }
+    }
+
+    /**
+     * Let up to maxInFlight frames queue up on the GPU, tracked with fences, instead of
+     * calling glFinish after every draw. Needs an ES 3.0 context and a {@link GL3Api},
+     * call before the surface is created.
+     *
+     * @param maxInFlight 0 to go back to glFinish.
+     */
+    public void setFramesInFlight(int maxInFlight) {
+        mInFlightFrames = null;
+        if (maxInFlight > 0) {
+            if (!(mGL instanceof GL3Api)) {
+                throw new IllegalStateException("fences need OpenGL ES 3.0");
+            }
+            mInFlightFrames = new InFlightFrames(new GLFenceSync((GL3Api) mGL), maxInFlight);
+            mInFlightFrames.setStats(mStats);
+        }
+    }
+
+    /**
+     * Poll the fences of the frames still on the GPU, so the ones done by now are
+     * timed now rather than at the next submit. No-op without frames in flight.
+     */
+    public void retireFinishedFrames() {
+        if (mInFlightFrames != null) {
+            mInFlightFrames.retireSignaled();
+        }
+    }
+
+    public InFlightFrames getInFlightFrames() {
+        return mInFlightFrames;
+    }
+
+    public PboUploader getPboUploader() {
+        return mPboUploader;
+    }
+
+    public void setStats(PipelineStats stats) {
+        mStats = stats;
+        if (mInFlightFrames != null) {
+            mInFlightFrames.setStats(stats);
+        }
+    }
 
     public boolean isProgramBuilt() {
         return mProgram>0;
@@ -34,46 +118,111 @@ public class GLProgram {
 
     public void buildProgram() {
         if (mProgram <= 0) {
-            mProgram = createProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+            mProgram = createProgram(ShaderGenerator.vertexShader(mSharpen),
+                    ShaderGenerator.fragmentShader(mFormat, mSharpen));
+            mPrograms[ShaderGenerator.key(mFormat, mSharpen)] = mProgram;
         }
 
-        positionHandle = GLES20.glGetAttribLocation(mProgram, "vPosition");
-        coordHandle = GLES20.glGetAttribLocation(mProgram, "aTextureCoord");
-        yuvHandle[0] = GLES20.glGetUniformLocation(mProgram, "textureY");
-        yuvHandle[1] = GLES20.glGetUniformLocation(mProgram, "textureU");
-        yuvHandle[2] = GLES20.glGetUniformLocation(mProgram, "textureV");
+        positionHandle = mGL.glGetAttribLocation(mProgram, "vPosition");
+        coordHandle = mGL.glGetAttribLocation(mProgram, "aTextureCoord");
+        yuvHandle[0] = mGL.glGetUniformLocation(mProgram, "textureY");
+        if (VideoFrame.isSemiPlanar(mFormat)) {
+            yuvHandle[1] = mGL.glGetUniformLocation(mProgram, "textureUV");
+            yuvHandle[2] = -1;
+        } else {
+            yuvHandle[1] = mGL.glGetUniformLocation(mProgram, "textureU");
+            yuvHandle[2] = mGL.glGetUniformLocation(mProgram, "textureV");
+        }
 
-        mSharpHandle = GLES20.glGetUniformLocation(mProgram, "sharpLevel");
-        mTextureSizeHandle = GLES20.glGetUniformLocation(mProgram, "mTextureSize");
+        mSharpHandle = mGL.glGetUniformLocation(mProgram, "sharpLevel");
+        mTexelSizeHandle = mGL.glGetUniformLocation(mProgram, "texelSize");
     }
 
-    public void buildTextures(Buffer[] yuvData, int width, int height) {
-        if (width != videoWidth || height != videoHeight) {
-            videoWidth = width;
-            videoHeight = height;
+    /**
+     * Switch to the program for this format and sharpening tier. Each variant is compiled
+     * the first time it is needed and kept, switching back only looks up its uniforms.
+     */
+    private void useVariant(int format, ShaderGenerator.Sharpen sharpen) {
+        if (format == mFormat && sharpen == mSharpen && mProgram > 0) {
+            return;
+        }
+        mFormat = format;
+        mSharpen = sharpen;
+        mProgram = mPrograms[ShaderGenerator.key(format, sharpen)];
+        buildProgram();
+    }
 
-            textureSize = new float[]{width,height};
-            TEXTURE_SIZE = createFloatBuffer(textureSize);
+    /**
+     * Luma sharpening tier, takes effect on the next draw. Must be called on the GL thread
+     * or before the surface is created.
+     */
+    public void setSharpen(ShaderGenerator.Sharpen sharpen) {
+        mRequestedSharpen = sharpen;
+    }
 
-            if (mTextureID[0] >= 0) {
-                GLES20.glDeleteTextures(mTextureID.length, mTextureID, 0);
-            }
-            GLES20.glGenTextures(mTextureID.length, mTextureID, 0);
-        }
-
-        for(int i=0;i<yuvData.length;i++) {
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureID[i]);
-            if(i==0) {
-                GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_LUMINANCE, videoWidth, videoHeight, 0, GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, yuvData[i]);
-                GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
-                GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
-            } else {
-                GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_LUMINANCE, videoWidth / 2, videoHeight / 2, 0, GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, yuvData[i]);
-                GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
-                GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+    public ShaderGenerator.Sharpen getSharpen() {
+        return mRequestedSharpen;
+    }
+
+    public void setSharpLevel(float level) {
+        mSharpLevel = level;
+    }
+
+    /**
+     * Build the program and allocate texture storage for frames of this size and format
+     * before the first one arrives, call on the GL thread. A frame of another size or
+     * format later on only costs the allocation it would have cost anyway.
+     */
+    public void prepare(int width, int height, int format) {
+        useVariant(format, mRequestedSharpen);
+        texelSize[0] = 1.0f / width;
+        texelSize[1] = 1.0f / height;
+        if (mPboUploader != null) {
+            mPboUploader.prepare(width, height, format);
+        } else {
+            mTextures.resize(width, height, format);
+        }
+    }
+
+    public void uploadFrame(VideoFrame frame) {
+        if (mPboUploader == null) {
+            for (int i = 0; i < yuvBuffers.length; i++) {
+                yuvBuffers[i] = frame.getPlane(i);
             }
-            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
-            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+            buildTextures(yuvBuffers, frame.getWidth(), frame.getHeight(), frame.getFormat());
+            return;
+        }
+        long start = System.nanoTime();
+        texelSize[0] = 1.0f / frame.getWidth();
+        texelSize[1] = 1.0f / frame.getHeight();
+        mPboUploader.upload(frame);
+        mStats.record(PipelineStats.Stage.UPLOAD, System.nanoTime() - start);
+    }
+
+    public void buildTextures(Buffer[] yuvData, int width, int height) {
+        buildTextures(yuvData, width, height, VideoFrame.FORMAT_I420);
+    }
+
+    public void buildTextures(Buffer[] yuvData, int width, int height, int format) {
+        long start = System.nanoTime();
+        texelSize[0] = 1.0f / width;
+        texelSize[1] = 1.0f / height;
+        mTextures.upload(yuvData, width, height, format);
+        mStats.record(PipelineStats.Stage.UPLOAD, System.nanoTime() - start);
+    }
+
+    /**
+     * Call from onSurfaceCreated, the program and textures of the previous EGL context are gone.
+     */
+    public void onContextCreated() {
+        mProgram = 0;
+        Arrays.fill(mPrograms, 0);
+        mTextures.invalidate();
+        if (mPboUploader != null) {
+            mPboUploader.invalidate();
+        }
+        if (mInFlightFrames != null) {
+            mInFlightFrames.invalidate();
         }
     }
 
@@ -81,42 +230,51 @@ public class GLProgram {
      * the YUV data will be converted to RGB by shader.
      */
     public void drawFrame() {
-        GLES20.glUseProgram(mProgram);
-        GLES20.glVertexAttribPointer(positionHandle, 2, GLES20.GL_FLOAT, false, 2*SIZEOF_FLOAT, verticeBuffer);
-        GLES20.glEnableVertexAttribArray(positionHandle);
-        GLES20.glVertexAttribPointer(coordHandle, 2, GLES20.GL_FLOAT, false, 2*SIZEOF_FLOAT, coordBuffer);
-        GLES20.glEnableVertexAttribArray(coordHandle);
+        long start = System.nanoTime();
+        useVariant(mTextures.getFormat(), mRequestedSharpen);
+        mGL.glUseProgram(mProgram);
+        mGL.glVertexAttribPointer(positionHandle, 2, GLApi.GL_FLOAT, false, 2*SIZEOF_FLOAT, verticeBuffer);
+        mGL.glEnableVertexAttribArray(positionHandle);
+        mGL.glVertexAttribPointer(coordHandle, 2, GLApi.GL_FLOAT, false, 2*SIZEOF_FLOAT, coordBuffer);
+        mGL.glEnableVertexAttribArray(coordHandle);
 
         // bind textures
-        for(int i=0;i<mTextureID.length;i++) {
-            GLES20.glActiveTexture(GLES20.GL_TEXTURE0+i);
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureID[i]);
-            GLES20.glUniform1i(yuvHandle[i], i);
+        mTextures.bind();
+        for(int i=0;i<mTextures.getPlaneCount();i++) {
+            mGL.glUniform1i(yuvHandle[i], i);
         }
-        GLES20.glUniform1f(mSharpHandle, mSharpLevel);
-        GLES20.glUniform2fv(mTextureSizeHandle, 1, TEXTURE_SIZE);
+        mGL.glUniform1f(mSharpHandle, mSharpLevel);
+        mGL.glUniform2fv(mTexelSizeHandle, 1, texelSize, 0);
 
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
-        GLES20.glFinish();
+        mGL.glDrawArrays(GLApi.GL_TRIANGLE_STRIP, 0, 4);
+        long finishStart = System.nanoTime();
+        mStats.record(PipelineStats.Stage.DRAW, finishStart - start);
+        if (mInFlightFrames != null) {
+            // only blocks when too many frames are already queued on the GPU
+            mInFlightFrames.submit();
+        } else {
+            mGL.glFinish();
+        }
+        mStats.record(PipelineStats.Stage.FINISH, System.nanoTime() - finishStart);
 
-        GLES20.glDisableVertexAttribArray(positionHandle);
-        GLES20.glDisableVertexAttribArray(coordHandle);
+        mGL.glDisableVertexAttribArray(positionHandle);
+        mGL.glDisableVertexAttribArray(coordHandle);
     }
 
     public int createProgram(String vertexSource, String fragmentSource) {
-        int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, vertexSource);
-        int pixelShader = loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentSource);
+        int vertexShader = loadShader(GLApi.GL_VERTEX_SHADER, vertexSource);
+        int pixelShader = loadShader(GLApi.GL_FRAGMENT_SHADER, fragmentSource);
 
-        int program = GLES20.glCreateProgram();
+        int program = mGL.glCreateProgram();
         if (program != 0) {
-            GLES20.glAttachShader(program, vertexShader);
-            GLES20.glAttachShader(program, pixelShader);
-            GLES20.glLinkProgram(program);
+            mGL.glAttachShader(program, vertexShader);
+            mGL.glAttachShader(program, pixelShader);
+            mGL.glLinkProgram(program);
             int[] linkStatus = new int[1];
-            GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
-            if (linkStatus[0] != GLES20.GL_TRUE) {
-                Log.e("llx", GLES20.glGetProgramInfoLog(program));
-                GLES20.glDeleteProgram(program);
+            mGL.glGetProgramiv(program, GLApi.GL_LINK_STATUS, linkStatus, 0);
+            if (linkStatus[0] != GLApi.GL_TRUE) {
+                Log.e("llx", mGL.glGetProgramInfoLog(program));
+                mGL.glDeleteProgram(program);
                 program = 0;
             }
         }
@@ -124,15 +282,15 @@ public class GLProgram {
     }
 
     private int loadShader(int shaderType, String source) {
-        int shader = GLES20.glCreateShader(shaderType);
+        int shader = mGL.glCreateShader(shaderType);
         if (shader != 0) {
-            GLES20.glShaderSource(shader, source);
-            GLES20.glCompileShader(shader);
+            mGL.glShaderSource(shader, source);
+            mGL.glCompileShader(shader);
             int[] compiled = new int[1];
-            GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compiled, 0);
+            mGL.glGetShaderiv(shader, GLApi.GL_COMPILE_STATUS, compiled, 0);
             if (compiled[0] == 0) {
-                Log.e("llx", GLES20.glGetShaderInfoLog(shader));
-                GLES20.glDeleteShader(shader);
+                Log.e("llx", mGL.glGetShaderInfoLog(shader));
+                mGL.glDeleteShader(shader);
                 shader = 0;
             }
         }
@@ -176,47 +334,4 @@ public class GLProgram {
             0.0f, 0.0f,
             1.0f, 0.0f,
     };// whole-texture
-
-    private static final String VERTEX_SHADER =
-            "attribute vec4 vPosition;\n" +
-                    "attribute vec2 aTextureCoord;\n" +
-                    "varying vec2 vTextureCoord;\n" +
-                    "void main() {\n" +
-                    "   gl_Position = vPosition;\n" +
-                    "   vTextureCoord = aTextureCoord;\n" +
-                    "}\n";
-
-    private static final String FRAGMENT_SHADER =
-            "precision mediump float;\n" +
-                    "uniform sampler2D textureY;\n" +
-                    "uniform sampler2D textureU;\n" +
-                    "uniform sampler2D textureV;\n" +
-                    "varying vec2 vTextureCoord;\n" +
-                    "uniform vec2 mTextureSize;\n"+
-                    "uniform float sharpLevel;\n"+
-                    "const float LIMIT = 15.0/255.0;\n"+
-                    "void main() {\n" +
-                    "    vec2 offset0 = vec2(1.0, 1.0) / mTextureSize;\n"+
-                    "    vec2 offset1 = vec2(0.0, 1.0) / mTextureSize;\n"+
-                    "    vec2 offset2 = vec2(-1.0, 1.0) / mTextureSize;\n"+
-                    "    vec2 offset3 = vec2(1.0, 0.0) / mTextureSize;\n"+
-                    "    float cTemp0 = texture2D(textureY, vTextureCoord + offset0).r;\n"+
-                    "    float cTemp1 = texture2D(textureY, vTextureCoord + offset1).r;\n"+
-                    "    float cTemp2 = texture2D(textureY, vTextureCoord + offset2).r;\n"+
-                    "    float cTemp3 = texture2D(textureY, vTextureCoord + offset3).r;\n"+
-                    "    float cTemp4 = texture2D(textureY, vTextureCoord).r;\n"+
-                    "    float cTemp5 = texture2D(textureY, vTextureCoord - offset3).r;\n"+
-                    "    float cTemp6 = texture2D(textureY, vTextureCoord - offset2).r;\n"+
-                    "    float cTemp7 = texture2D(textureY, vTextureCoord - offset1).r;\n"+
-                    "    float cTemp8 = texture2D(textureY, vTextureCoord - offset0).r;\n"+
-                    "    float y = cTemp4 + min(LIMIT, max(-LIMIT, (cTemp4-(cTemp0+cTemp2+cTemp6+cTemp8+(cTemp1+cTemp3+cTemp5+cTemp7)*2.0+cTemp4*4.0)/16.0)*sharpLevel));\n"+
-                    "    float u = texture2D(textureU, vTextureCoord).r;\n" +
-                    "    float v = texture2D(textureV, vTextureCoord).r;\n" +
-                    "    \n" +
-                    "    float R = y + (v - 0.5) *  1.402;\n" +
-                    "    float G = y - ((u - 0.5) * 0.3441) - (v - 0.5) * 0.7141;\n" +
-                    "    float B = y + (u - 0.5) *  1.772;\n" +
-                    "    \n" +
-                    "    gl_FragColor = vec4(R, G, B, 1.0);"+
-                    "}\n";
-}
\ No newline at end of file
+}
@@ -0,0 +1,122 @@
+package com.android.player;
+
+/**
+ * Lets the GL thread run up to a few frames ahead of the GPU instead of calling
+ * glFinish after every draw. Each submitted frame gets a fence; only when the limit
+ * is reached does the next submit wait, and then only for the oldest frame.
+ * Submit-to-complete time of every frame goes to {@link PipelineStats.Stage#GPU},
+ * measured when the fence is first found signalled. Without a poll in between that is
+ * only at the next submit, which makes it the gap between frames, so the GL thread
+ * calls {@link #retireSignaled()} again as soon as it wakes up for the next frame.
+ * <p>
+ * Not thread safe, use from the GL thread.
+ * </p>
+ */
+public class InFlightFrames {
+    public static final int DEFAULT_MAX_IN_FLIGHT = 2;
+    /** give up on a fence rather than hang the GL thread on a lost context */
+    private static final long WAIT_TIMEOUT_NS = 1000000000L;
+
+    private final FenceSync fences;
+    private final MediaClock.TimeSource timeSource;
+    private final int maxInFlight;
+    private final long[] pending;
+    private final long[] submitNs;
+    private int head;
+    private int count;
+    private long completedCount;
+    private long timeoutCount;
+    private PipelineStats stats = new PipelineStats();
+
+    public InFlightFrames(FenceSync fences, int maxInFlight) {
+        this(fences, maxInFlight, MediaClock.SYSTEM);
+    }
+
+    public InFlightFrames(FenceSync fences, int maxInFlight, MediaClock.TimeSource timeSource) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1: " + maxInFlight);
+        }
+        this.fences = fences;
+        this.maxInFlight = maxInFlight;
+        this.timeSource = timeSource;
+        pending = new long[maxInFlight];
+        submitNs = new long[maxInFlight];
+    }
+
+    public void setStats(PipelineStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Call right after the draw calls of a frame.
+     */
+    public void submit() {
+        retireSignaled();
+        if (count == maxInFlight) {
+            long fence = pending[head];
+            if (!fences.await(fence, WAIT_TIMEOUT_NS)) {
+                timeoutCount++;
+            }
+            retire();
+        }
+        int tail = (head + count) % maxInFlight;
+        pending[tail] = fences.insert();
+        submitNs[tail] = timeSource.nanoTime();
+        count++;
+    }
+
+    /**
+     * Retire the frames the GPU has finished, oldest first. Only polls, with a zero
+     * timeout, so it is cheap enough to call at the start of every frame.
+     */
+    public void retireSignaled() {
+        while (count > 0 && fences.isSignaled(pending[head])) {
+            retire();
+        }
+    }
+
+    private void retire() {
+        stats.record(PipelineStats.Stage.GPU, timeSource.nanoTime() - submitNs[head]);
+        fences.delete(pending[head]);
+        head = (head + 1) % maxInFlight;
+        count--;
+        completedCount++;
+    }
+
+    public int getInFlightCount() {
+        return count;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public long getCompletedCount() {
+        return completedCount;
+    }
+
+    /**
+     * Waits that gave up before the fence signalled.
+     */
+    public long getTimeoutCount() {
+        return timeoutCount;
+    }
+
+    /**
+     * Wait for and drop every pending fence.
+     */
+    public void release() {
+        while (count > 0) {
+            fences.await(pending[head], WAIT_TIMEOUT_NS);
+            retire();
+        }
+    }
+
+    /**
+     * Forget the fences without touching GL, after their EGL context is gone.
+     */
+    public void invalidate() {
+        head = 0;
+        count = 0;
+    }
+}
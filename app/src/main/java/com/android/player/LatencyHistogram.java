@@ -0,0 +1,149 @@
+package com.android.player;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Allocation-free latency histogram with roughly 12% resolution.
+ * <p>
+ * Values are recorded in microseconds: below 32us every value has its own bucket,
+ * above that every power of two is split into 8 buckets. Recording is a couple of
+ * atomic increments, so it can be called on every frame from any thread.
+ * </p>
+ */
+public class LatencyHistogram {
+    private static final int LINEAR_BUCKETS = 32;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = LINEAR_BUCKETS + (MAX_EXPONENT - 5 + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sumUs = new AtomicLong();
+    private final AtomicLong maxUs = new AtomicLong();
+    private final AtomicLong intervalMaxUs = new AtomicLong();
+    // totals at the previous takeInterval(), guarded by this
+    private final long[] previousCounts = new long[BUCKETS];
+    private long previousTotal;
+    private long previousSumUs;
+
+    public void recordNanos(long nanos) {
+        recordMicros(nanos / 1000);
+    }
+
+    public void recordMicros(long us) {
+        if (us < 0) {
+            us = 0;
+        }
+        counts.incrementAndGet(bucketOf(us));
+        total.incrementAndGet();
+        sumUs.addAndGet(us);
+        raiseMax(maxUs, us);
+        raiseMax(intervalMaxUs, us);
+    }
+
+    private static void raiseMax(AtomicLong max, long us) {
+        long current;
+        while (us > (current = max.get()) && !max.compareAndSet(current, us)) {
+            // lost the race against another writer, retry
+        }
+    }
+
+    static int bucketOf(long us) {
+        if (us < LINEAR_BUCKETS) {
+            return (int) us;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(us);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (us >> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + (exponent - 5) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return the highest value that lands in the bucket.
+     */
+    static long bucketUpperBound(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+        int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 5;
+        int sub = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+        long step = 1L << (exponent - SUB_BUCKET_BITS);
+        return ((SUB_BUCKETS + sub) * step) + step - 1;
+    }
+
+    /**
+     * @param percentile between 0 and 100.
+     * @return the latency in us at or below which that share of the samples falls.
+     */
+    public long getPercentileUs(double percentile) {
+        long count = total.get();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * percentile / 100.0);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), maxUs.get());
+            }
+        }
+        return maxUs.get();
+    }
+
+    public long getCount() {
+        return total.get();
+    }
+
+    public long getMaxUs() {
+        return maxUs.get();
+    }
+
+    public long getMeanUs() {
+        long count = total.get();
+        return count == 0 ? 0 : sumUs.get() / count;
+    }
+
+    /**
+     * The samples recorded since the previous call, or since {@link #reset()}, as a
+     * histogram of their own, for reports that cover one period rather than the whole
+     * run. This histogram keeps counting everything. A sample recorded while this runs
+     * can land in either period.
+     */
+    public synchronized LatencyHistogram takeInterval() {
+        LatencyHistogram interval = new LatencyHistogram();
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = counts.get(i);
+            interval.counts.set(i, count - previousCounts[i]);
+            previousCounts[i] = count;
+        }
+        long count = total.get();
+        long sum = sumUs.get();
+        interval.total.set(count - previousTotal);
+        interval.sumUs.set(sum - previousSumUs);
+        interval.maxUs.set(intervalMaxUs.getAndSet(0));
+        previousTotal = count;
+        previousSumUs = sum;
+        return interval;
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+            previousCounts[i] = 0;
+        }
+        total.set(0);
+        sumUs.set(0);
+        maxUs.set(0);
+        intervalMaxUs.set(0);
+        previousTotal = 0;
+        previousSumUs = 0;
+    }
+}
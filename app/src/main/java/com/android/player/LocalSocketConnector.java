@@ -0,0 +1,47 @@
+package com.android.player;
+
+import android.net.LocalSocket;
+import android.net.LocalSocketAddress;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * {@link CameraInjector.Connector} for a filesystem-namespace unix socket such as /dev/socket/video0.
+ */
+public class LocalSocketConnector implements CameraInjector.Connector {
+    private static final String TAG = "llx";
+    private final LocalSocketAddress localSocketAddress;
+    private LocalSocket localSocket;
+
+    public LocalSocketConnector(String path) {
+        localSocketAddress = new LocalSocketAddress(path, LocalSocketAddress.Namespace.FILESYSTEM);
+    }
+
+    @Override
+    public OutputStream connect(int sendBufferSize) throws IOException {
+        close();
+        localSocket = new LocalSocket(LocalSocket.SOCKET_STREAM);
+        try {
+            localSocket.connect(localSocketAddress);
+            localSocket.setSendBufferSize(sendBufferSize);
+        } catch (IOException e) {
+            Log.d(TAG, "Connect Fail");
+            throw e;
+        }
+        return localSocket.getOutputStream();
+    }
+
+    @Override
+    public void close() {
+        if (localSocket != null) {
+            try {
+                localSocket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            localSocket = null;
+        }
+    }
+}
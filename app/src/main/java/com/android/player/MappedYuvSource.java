@@ -0,0 +1,268 @@
+package com.android.player;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * {@link FrameSource} over a .y4m or raw I420 file, memory-mapped. Frames are views of
+ * the mapping, nothing is copied: the page cache holds the only copy of the pixels and
+ * a sink reading a frame reads the file.
+ * <p>
+ * Each frame of the file gets one {@link VideoFrame}, made on first use and handed out
+ * again after the sinks released it. A file shorter than the frames the pipeline holds
+ * on to gets extra frame objects over the same bytes. Files over 1 GB are mapped in
+ * several windows, each holding whole frames.
+ * </p>
+ * <p>
+ * Only 4:2:0 Y4M is read (C420, C420jpeg, C420paldv, C420mpeg2 or no C tag); frames come
+ * out as read-only {@link VideoFrame#FORMAT_I420} frames without a backing array.
+ * </p>
+ */
+public class MappedYuvSource implements FrameSource {
+    private static final long MAX_WINDOW = 1L << 30;
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final int MAX_HEADER = 256;
+    // 8-bit 4:2:0 with any chroma siting, the samples are laid out the same way
+    private static final List<String> CHROMA_420 = Arrays.asList("420", "420jpeg", "420paldv", "420mpeg2");
+
+    private final int width;
+    private final int height;
+    private final int frameSize;
+    private final long frameDurationNum;
+    private final long frameDurationDen;
+    private final MappedByteBuffer[] windows;
+    private final int[] windowOf;
+    private final int[] offsetOf;
+    private final VideoFrame[] frames;
+    // 1 while the sinks hold frames[i]
+    private final AtomicIntegerArray inUse;
+    private int next;
+
+    private MappedYuvSource(FileChannel channel, int width, int height, int fpsNum, int fpsDen,
+                            long[] frameOffsets) throws IOException {
+        if (fpsNum <= 0 || fpsDen <= 0) {
+            throw new IOException("bad frame rate " + fpsNum + ":" + fpsDen);
+        }
+        this.width = width;
+        this.height = height;
+        frameSize = VideoFrame.frameSize(width, height);
+        // one frame lasts fpsDen / fpsNum seconds
+        frameDurationNum = 1000000L * fpsDen;
+        frameDurationDen = fpsNum;
+        int count = frameOffsets.length;
+        windowOf = new int[count];
+        offsetOf = new int[count];
+        MappedByteBuffer[] windows = new MappedByteBuffer[count == 0 ? 0 : 1];
+        int windowCount = 0;
+        int first = 0;
+        for (int i = 0; i <= count; i++) {
+            boolean close = i == count
+                    || frameOffsets[i] + frameSize - frameOffsets[first] > MAX_WINDOW;
+            if (close && i > first) {
+                long start = frameOffsets[first];
+                long end = frameOffsets[i - 1] + frameSize;
+                if (windowCount == windows.length) {
+                    windows = Arrays.copyOf(windows, windowCount * 2);
+                }
+                windows[windowCount] = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+                for (int j = first; j < i; j++) {
+                    windowOf[j] = windowCount;
+                    offsetOf[j] = (int) (frameOffsets[j] - start);
+                }
+                windowCount++;
+                first = i;
+            }
+        }
+        this.windows = Arrays.copyOf(windows, windowCount);
+        frames = new VideoFrame[count];
+        inUse = new AtomicIntegerArray(count);
+    }
+
+    /**
+     * Map a headerless file of back-to-back I420 frames.
+     */
+    public static MappedYuvSource openRaw(File file, int width, int height, int fpsNum, int fpsDen)
+            throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            int frameSize = VideoFrame.frameSize(width, height);
+            long[] offsets = new long[(int) (raf.length() / frameSize)];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = (long) i * frameSize;
+            }
+            // the mappings outlive the channel
+            return new MappedYuvSource(raf.getChannel(), width, height, fpsNum, fpsDen, offsets);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Map a YUV4MPEG2 file. Only the FRAME headers are read, once, to find where the
+     * frames start. Only 8-bit 4:2:0 is accepted, 4:2:0 being the default when there
+     * is no C tag; 10-bit 420p10, mono and 4:2:2 or 4:4:4 files are rejected.
+     */
+    public static MappedYuvSource openY4m(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(MAX_HEADER);
+            long length = channel.size();
+            String header = readLine(channel, 0, buffer);
+            if (header == null || !header.startsWith("YUV4MPEG2 ")) {
+                throw new IOException("not a Y4M file: " + file);
+            }
+            int width = -1;
+            int height = -1;
+            int fpsNum = 25;
+            int fpsDen = 1;
+            for (String tag : header.split(" ")) {
+                if (tag.length() < 2) {
+                    continue;
+                }
+                String value = tag.substring(1);
+                switch (tag.charAt(0)) {
+                    case 'W':
+                        width = Integer.parseInt(value);
+                        break;
+                    case 'H':
+                        height = Integer.parseInt(value);
+                        break;
+                    case 'F':
+                        int colon = value.indexOf(':');
+                        fpsNum = Integer.parseInt(value.substring(0, colon));
+                        fpsDen = Integer.parseInt(value.substring(colon + 1));
+                        break;
+                    case 'C':
+                        if (!CHROMA_420.contains(value)) {
+                            throw new IOException("only 8-bit 4:2:0 Y4M is supported, not " + value);
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+            if (width <= 0 || height <= 0) {
+                throw new IOException("no frame size in " + file);
+            }
+            int frameSize = VideoFrame.frameSize(width, height);
+            long[] offsets = new long[16];
+            int count = 0;
+            long position = header.length() + 1;
+            while (position < length) {
+                String frameHeader = readLine(channel, position, buffer);
+                if (frameHeader == null || !frameHeader.startsWith("FRAME")) {
+                    throw new IOException("bad FRAME header at " + position + " in " + file);
+                }
+                long data = position + frameHeader.length() + 1;
+                if (data + frameSize > length) {
+                    // truncated last frame
+                    break;
+                }
+                if (count == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                }
+                offsets[count++] = data;
+                position = data + frameSize;
+            }
+            return new MappedYuvSource(channel, width, height, fpsNum, fpsDen, Arrays.copyOf(offsets, count));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @return the line at position without its '\n', null when there is none within MAX_HEADER bytes.
+     */
+    private static String readLine(FileChannel channel, long position, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) > 0) {
+            // keep reading until the buffer is full or the file ends
+        }
+        for (int i = 0; i < buffer.position(); i++) {
+            if (buffer.get(i) == '\n') {
+                return new String(buffer.array(), 0, i, ASCII);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int getFormat() {
+        return VideoFrame.FORMAT_I420;
+    }
+
+    public int getFrameCount() {
+        return frames.length;
+    }
+
+    @Override
+    public VideoFrame nextFrame() {
+        if (next >= frames.length) {
+            return null;
+        }
+        int i = next++;
+        VideoFrame frame;
+        if (inUse.compareAndSet(i, 0, 1)) {
+            if (frames[i] == null) {
+                frames[i] = new VideoFrame(slice(i), new FrameRecycler(i));
+            }
+            frame = frames[i];
+        } else {
+            // still held from the previous pass
+            frame = new VideoFrame(slice(i), null);
+        }
+        frame.reset(width, height, VideoFrame.FORMAT_I420);
+        frame.setPresentationTimeUs(i * frameDurationNum / frameDurationDen);
+        return frame;
+    }
+
+    private ByteBuffer slice(int i) {
+        ByteBuffer view = windows[windowOf[i]].duplicate();
+        view.position(offsetOf[i]);
+        view.limit(offsetOf[i] + frameSize);
+        return view.slice();
+    }
+
+    @Override
+    public void rewind() {
+        next = 0;
+    }
+
+    @Override
+    public void close() {
+        // mappings are released when they are collected, there is no unmap in Java
+        next = frames.length;
+    }
+
+    private class FrameRecycler implements VideoFrame.Recycler {
+        private final int index;
+
+        FrameRecycler(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public void recycle(VideoFrame frame) {
+            inUse.set(index, 0);
+        }
+    }
+}
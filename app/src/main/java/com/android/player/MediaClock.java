@@ -0,0 +1,122 @@
+package com.android.player;
+
+/**
+ * Maps media time (presentation timestamps) onto a monotonic clock at a given
+ * playback rate.
+ * <p>
+ * The clock is anchored at a (media time, real time) pair; changing the rate
+ * re-anchors at the current media position so playback does not jump.
+ * </p>
+ */
+public class MediaClock {
+
+    /**
+     * Source of monotonic time, replaceable so the clock can be driven by hand.
+     */
+    public interface TimeSource {
+        long nanoTime();
+
+        void sleepNanos(long nanos) throws InterruptedException;
+    }
+
+    public static final TimeSource SYSTEM = new TimeSource() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void sleepNanos(long nanos) throws InterruptedException {
+            Thread.sleep(nanos / 1000000, (int) (nanos % 1000000));
+        }
+    };
+
+    public static final float MIN_RATE = 0.5f;
+    public static final float MAX_RATE = 4.0f;
+
+    private final TimeSource timeSource;
+    private boolean started;
+    private long anchorMediaUs;
+    private long anchorRealNs;
+    private float rate = 1.0f;
+
+    public MediaClock() {
+        this(SYSTEM);
+    }
+
+    public MediaClock(TimeSource timeSource) {
+        this.timeSource = timeSource;
+    }
+
+    public TimeSource getTimeSource() {
+        return timeSource;
+    }
+
+    /**
+     * Start (or restart) the clock so that mediaTimeUs is "now".
+     */
+    public synchronized void start(long mediaTimeUs) {
+        anchorMediaUs = mediaTimeUs;
+        anchorRealNs = timeSource.nanoTime();
+        started = true;
+    }
+
+    /**
+     * Move the anchor to mediaTimeUs, at the time it is due or now if that has
+     * passed: the schedule stays as it was unless it has fallen behind, in which case
+     * it starts over instead of dropping frames to catch up.
+     */
+    public synchronized void reanchor(long mediaTimeUs) {
+        long now = timeSource.nanoTime();
+        long due = started ? realTimeNsFor(mediaTimeUs) : now;
+        anchorMediaUs = mediaTimeUs;
+        anchorRealNs = Math.max(due, now);
+        started = true;
+    }
+
+    public synchronized void reset() {
+        started = false;
+    }
+
+    public synchronized boolean isStarted() {
+        return started;
+    }
+
+    public synchronized float getRate() {
+        return rate;
+    }
+
+    /**
+     * @param rate playback speed, clamped to [{@link #MIN_RATE}, {@link #MAX_RATE}].
+     */
+    public synchronized void setRate(float rate) {
+        rate = Math.max(MIN_RATE, Math.min(MAX_RATE, rate));
+        if (started) {
+            long now = timeSource.nanoTime();
+            anchorMediaUs = mediaTimeAt(now);
+            anchorRealNs = now;
+        }
+        this.rate = rate;
+    }
+
+    public synchronized long getMediaTimeUs() {
+        return mediaTimeAt(timeSource.nanoTime());
+    }
+
+    /**
+     * @return the monotonic time at which mediaTimeUs is due.
+     */
+    public synchronized long realTimeNsFor(long mediaTimeUs) {
+        long mediaNs = (mediaTimeUs - anchorMediaUs) * 1000;
+        // double, not float: float runs out of microseconds 17 seconds past the anchor
+        return anchorRealNs + (rate == 1.0f ? mediaNs : (long) (mediaNs / (double) rate));
+    }
+
+    private long mediaTimeAt(long realNs) {
+        if (!started) {
+            return anchorMediaUs;
+        }
+        long realUs = (realNs - anchorRealNs) / 1000;
+        return anchorMediaUs + (rate == 1.0f ? realUs : (long) (realUs * (double) rate));
+    }
+}
@@ -0,0 +1,47 @@
+package com.android.player;
+
+import android.media.MediaCodec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link DecoderPort} on a MediaCodec. In callback mode a flushed codec stops
+ * delivering callbacks until it is started again, so flush() restarts it.
+ */
+public class MediaCodecPort implements DecoderPort {
+    private final MediaCodec codec;
+    private final boolean async;
+
+    public MediaCodecPort(MediaCodec codec, boolean async) {
+        this.codec = codec;
+        this.async = async;
+    }
+
+    @Override
+    public ByteBuffer getInputBuffer(int index) {
+        return codec.getInputBuffer(index);
+    }
+
+    @Override
+    public void queueInputBuffer(int index, int size, long presentationTimeUs, boolean endOfStream) {
+        codec.queueInputBuffer(index, 0, size, presentationTimeUs,
+                endOfStream ? MediaCodec.BUFFER_FLAG_END_OF_STREAM : 0);
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index, boolean render) {
+        codec.releaseOutputBuffer(index, render);
+    }
+
+    @Override
+    public void flush() {
+        codec.flush();
+        if (async) {
+            codec.start();
+        }
+    }
+
+    public MediaCodec getCodec() {
+        return codec;
+    }
+}
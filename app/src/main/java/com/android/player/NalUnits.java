@@ -0,0 +1,100 @@
+package com.android.player;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Just enough H.264/HEVC bitstream parsing to tell whether an access unit can be
+ * dropped before decoding without breaking the frames that follow it.
+ * <p>
+ * Samples are read as Annex-B (start codes, what MediaExtractor hands out) or, when
+ * they do not start with a start code, as 4-byte length-prefixed NAL units.
+ * </p>
+ */
+public final class NalUnits {
+    public static final String MIME_AVC = "video/avc";
+    public static final String MIME_HEVC = "video/hevc";
+
+    private static final int HEVC_RSV_VCL_N14 = 14;
+    private static final int HEVC_MAX_VCL = 31;
+
+    private NalUnits() {
+    }
+
+    public static boolean isSupported(String mime) {
+        return MIME_AVC.equals(mime) || MIME_HEVC.equals(mime);
+    }
+
+    /**
+     * @return true if the first coded slice of the sample is not used for reference:
+     * nal_ref_idc 0 for H.264, one of the sub-layer non-reference (_N) types for HEVC.
+     * False when no slice is found.
+     */
+    public static boolean isNonReference(ByteBuffer sample, int offset, int size, boolean hevc) {
+        int end = offset + size;
+        if (startCodeLength(sample, offset, end) > 0) {
+            int pos = offset;
+            while (pos < end) {
+                int prefix = startCodeLength(sample, pos, end);
+                if (prefix == 0) {
+                    pos++;
+                    continue;
+                }
+                pos += prefix;
+                if (pos >= end) {
+                    break;
+                }
+                int verdict = classify(sample.get(pos) & 0xFF, hevc);
+                if (verdict >= 0) {
+                    return verdict == 1;
+                }
+            }
+            return false;
+        }
+        int pos = offset;
+        while (pos + 4 < end) {
+            int length = sample.getInt(pos);
+            pos += 4;
+            if (length <= 0 || length > end - pos) {
+                return false;
+            }
+            int verdict = classify(sample.get(pos) & 0xFF, hevc);
+            if (verdict >= 0) {
+                return verdict == 1;
+            }
+            pos += length;
+        }
+        return false;
+    }
+
+    /**
+     * @return 1 for a non-reference slice, 0 for a reference slice, -1 for a NAL unit
+     * that is not a slice.
+     */
+    private static int classify(int header, boolean hevc) {
+        if (hevc) {
+            int type = (header >> 1) & 0x3F;
+            if (type > HEVC_MAX_VCL) {
+                return -1;
+            }
+            // TRAIL_N, TSA_N, STSA_N, RADL_N, RASL_N and the reserved _N types are even
+            return type <= HEVC_RSV_VCL_N14 && (type & 1) == 0 ? 1 : 0;
+        }
+        int type = header & 0x1F;
+        if (type < 1 || type > 5) {
+            return -1;
+        }
+        return (header & 0x60) == 0 ? 1 : 0;
+    }
+
+    private static int startCodeLength(ByteBuffer buffer, int pos, int end) {
+        if (pos + 3 <= end && buffer.get(pos) == 0 && buffer.get(pos + 1) == 0) {
+            if (buffer.get(pos + 2) == 1) {
+                return 3;
+            }
+            if (pos + 4 <= end && buffer.get(pos + 2) == 0 && buffer.get(pos + 3) == 1) {
+                return 4;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,92 @@
+package com.android.player;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link FrameSource} generating diagonal luma stripes that move every frame, over flat
+ * grey chroma, for throughput tests without any input file. A frame costs one row copy
+ * per luma row and a fill of the chroma, about what copying a decoded frame costs.
+ */
+public class PatternSource implements FrameSource {
+    private static final int PERIOD = 64;
+    private static final int SPEED = 4;
+    private static final int POOL_SIZE = 6;
+    private static final long POOL_WAIT_NS = 100_000;
+
+    private final int width;
+    private final int height;
+    private final int format;
+    private final long frameDurationUs;
+    private final int frameCount;
+    private final FramePool pool = new FramePool(POOL_SIZE);
+    // one luma ramp, long enough to copy a row from any phase of it
+    private final byte[] ramp;
+    private int next;
+
+    /**
+     * @param frameCount frames until the end of the source, -1 for no end.
+     */
+    public PatternSource(int width, int height, int format, int fps, int frameCount) {
+        this.width = width;
+        this.height = height;
+        this.format = format;
+        this.frameDurationUs = 1000000L / fps;
+        this.frameCount = frameCount;
+        ramp = new byte[width + PERIOD];
+        for (int i = 0; i < ramp.length; i++) {
+            ramp[i] = (byte) (16 + (i % PERIOD) * (235 - 16) / (PERIOD - 1));
+        }
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int getFormat() {
+        return format;
+    }
+
+    /**
+     * Waits while every pooled frame is still held by a sink.
+     */
+    @Override
+    public VideoFrame nextFrame() {
+        if (frameCount >= 0 && next >= frameCount) {
+            return null;
+        }
+        VideoFrame frame;
+        while ((frame = pool.acquire(width, height, format)) == null) {
+            if (Thread.currentThread().isInterrupted()) {
+                return null;
+            }
+            LockSupport.parkNanos(POOL_WAIT_NS);
+        }
+        int i = next++;
+        byte[] data = frame.array();
+        int offset = frame.arrayOffset();
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(ramp, (i * SPEED + row) % PERIOD, data, offset + row * width, width);
+        }
+        int chroma = offset + width * height;
+        Arrays.fill(data, chroma, offset + frame.getSize(), (byte) 128);
+        frame.setPresentationTimeUs(i * frameDurationUs);
+        return frame;
+    }
+
+    @Override
+    public void rewind() {
+        next = 0;
+    }
+
+    @Override
+    public void close() {
+    }
+}
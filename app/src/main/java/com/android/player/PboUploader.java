@@ -0,0 +1,140 @@
+package com.android.player;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * Streams frames into {@link YuvTextures} through a ring of pixel unpack buffers
+ * (OpenGL ES 3.0). The frame is written into the next buffer of the ring and the
+ * textures are updated from it, so glTexSubImage2D returns as soon as the copy is
+ * queued and the CPU write of the next frame goes to a buffer the GPU is not reading.
+ * <p>
+ * When a buffer cannot be mapped the frame is uploaded from client memory instead,
+ * the way the ES 2.0 path does it.
+ * </p>
+ */
+public class PboUploader {
+    public static final int MIN_RING_SIZE = 2;
+    public static final int MAX_RING_SIZE = 3;
+
+    private final GL3Api gl;
+    private final YuvTextures textures;
+    private final int[] bufferIds;
+    private final Buffer[] planes = new Buffer[3];
+    private int bufferSize;
+    private int next;
+    private long uploadCount;
+    private long fallbackCount;
+
+    public PboUploader(GL3Api gl, YuvTextures textures, int ringSize) {
+        if (ringSize < MIN_RING_SIZE || ringSize > MAX_RING_SIZE) {
+            throw new IllegalArgumentException("ring size must be " + MIN_RING_SIZE + ".." + MAX_RING_SIZE
+                    + ": " + ringSize);
+        }
+        this.gl = gl;
+        this.textures = textures;
+        bufferIds = new int[ringSize];
+    }
+
+    public void upload(VideoFrame frame) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        int size = frame.getSize();
+        textures.resize(width, height, frame.getFormat());
+        if (size > bufferSize) {
+            allocate(size);
+        }
+
+        gl.glBindBuffer(GL3Api.GL_PIXEL_UNPACK_BUFFER, bufferIds[next]);
+        next = (next + 1) % bufferIds.length;
+        // invalidating lets the driver hand out fresh memory if the GPU still reads the old contents
+        Buffer mapped = gl.glMapBufferRange(GL3Api.GL_PIXEL_UNPACK_BUFFER, 0, size,
+                GL3Api.GL_MAP_WRITE_BIT | GL3Api.GL_MAP_INVALIDATE_BUFFER_BIT);
+        boolean written = false;
+        if (mapped != null) {
+            write((ByteBuffer) mapped, frame.getData(), size);
+            written = gl.glUnmapBuffer(GL3Api.GL_PIXEL_UNPACK_BUFFER);
+        }
+        if (written) {
+            for (int i = 0; i < textures.getPlaneCount(); i++) {
+                gl.glBindTexture(GLApi.GL_TEXTURE_2D, textures.getTextureId(i));
+                gl.glTexSubImage2D(GLApi.GL_TEXTURE_2D, 0, 0, 0, textures.getPlaneWidth(i), textures.getPlaneHeight(i),
+                        textures.getPlaneFormat(i), GLApi.GL_UNSIGNED_BYTE, frame.getPlaneOffset(i));
+            }
+        }
+        gl.glBindBuffer(GL3Api.GL_PIXEL_UNPACK_BUFFER, 0);
+
+        if (!written) {
+            fallbackCount++;
+            for (int i = 0; i < planes.length; i++) {
+                planes[i] = frame.getPlane(i);
+            }
+            textures.upload(planes, width, height, frame.getFormat());
+        }
+        uploadCount++;
+    }
+
+    /**
+     * Allocate the textures and the buffer ring for frames of this size ahead of the
+     * first upload.
+     */
+    public void prepare(int width, int height, int format) {
+        textures.resize(width, height, format);
+        int size = VideoFrame.frameSize(width, height);
+        if (size > bufferSize) {
+            allocate(size);
+        }
+    }
+
+    private static void write(ByteBuffer dst, ByteBuffer src, int size) {
+        if (src.hasArray()) {
+            dst.put(src.array(), src.arrayOffset(), size);
+        } else {
+            ByteBuffer frame = src.duplicate();
+            frame.position(0).limit(size);
+            dst.put(frame);
+        }
+    }
+
+    private void allocate(int size) {
+        release();
+        gl.glGenBuffers(bufferIds.length, bufferIds, 0);
+        for (int id : bufferIds) {
+            gl.glBindBuffer(GL3Api.GL_PIXEL_UNPACK_BUFFER, id);
+            gl.glBufferData(GL3Api.GL_PIXEL_UNPACK_BUFFER, size, null, GL3Api.GL_STREAM_DRAW);
+        }
+        gl.glBindBuffer(GL3Api.GL_PIXEL_UNPACK_BUFFER, 0);
+        bufferSize = size;
+        next = 0;
+    }
+
+    public int getRingSize() {
+        return bufferIds.length;
+    }
+
+    public long getUploadCount() {
+        return uploadCount;
+    }
+
+    /**
+     * Frames that went up from client memory because a buffer could not be mapped.
+     */
+    public long getFallbackCount() {
+        return fallbackCount;
+    }
+
+    public void release() {
+        if (bufferSize > 0) {
+            gl.glDeleteBuffers(bufferIds.length, bufferIds, 0);
+        }
+        invalidate();
+    }
+
+    /**
+     * Forget the buffers without deleting them, after their EGL context is gone.
+     */
+    public void invalidate() {
+        bufferSize = 0;
+        next = 0;
+    }
+}
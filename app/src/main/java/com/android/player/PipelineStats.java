@@ -0,0 +1,264 @@
+package com.android.player;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per-stage latency, frame rate, drop and queue-depth counters for the
+ * decode-to-render pipeline.
+ * <p>
+ * Everything on the per-frame path ({@link #record}, {@link #count},
+ * {@link #markDecodeInput}/{@link #markDecodeOutput}) is allocation-free and costs
+ * a System.nanoTime() and a few atomic operations, none of it takes a lock. Only
+ * {@link #snapshot()} allocates. StatsOverheadBenchmark measures the cost per frame.
+ * </p>
+ */
+public class PipelineStats {
+
+    public enum Stage {
+        /** readSampleData + queueInputBuffer */
+        EXTRACT,
+        /** from queueInputBuffer to the matching output buffer */
+        DECODE,
+        /** getDataFromImage */
+        COPY,
+        /** handing the frame to every sink */
+        DISPATCH,
+        /** scaling, cropping and repacking a frame for the injection socket */
+        CONVERT,
+        /** writing one frame to the injection socket */
+        INJECT,
+        /** texture upload in GLProgram.buildTextures */
+        UPLOAD,
+        /** GLProgram.drawFrame up to the flush/finish */
+        DRAW,
+        /** glFinish or waiting on the GPU */
+        FINISH,
+        /** from submitting a draw to its fence signalling, ES 3.0 only */
+        GPU,
+        /** the whole YUVRenderer.onDrawFrame */
+        RENDER
+    }
+
+    public enum Counter {
+        DECODED,
+        RENDERED,
+        /** dropped by the pacer because they were already late */
+        DROPPED_LATE,
+        /** dropped because every pooled frame was in use */
+        DROPPED_POOL,
+        /** redraws that reused the textures already on the GPU */
+        UPLOADS_SKIPPED,
+        /** dropped before the copy by the quality controller */
+        DROPPED_QUALITY,
+        /** non-reference samples the quality controller kept from the decoder */
+        SKIPPED_NON_REFERENCE
+    }
+
+    /** a power of two */
+    private static final int PENDING_DECODES = 32;
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+    private final AtomicLong[] counters = new AtomicLong[Counter.values().length];
+    private volatile FrameQueue[] queues = new FrameQueue[0];
+    private volatile String[] queueNames = new String[0];
+    private final StartupTimeline startup = new StartupTimeline();
+
+    // a slot is free while its time is 0; input zeroes it before replacing the pts
+    private final AtomicLongArray pendingPts = new AtomicLongArray(PENDING_DECODES);
+    private final AtomicLongArray pendingNs = new AtomicLongArray(PENDING_DECODES);
+    private final AtomicInteger pendingNext = new AtomicInteger();
+
+    private long lastSnapshotNs = System.nanoTime();
+    private long lastSnapshotRendered;
+
+    public PipelineStats() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new AtomicLong();
+        }
+    }
+
+    public void record(Stage stage, long nanos) {
+        histograms[stage.ordinal()].recordNanos(nanos);
+    }
+
+    public void count(Counter counter) {
+        counters[counter.ordinal()].incrementAndGet();
+    }
+
+    public long get(Counter counter) {
+        return counters[counter.ordinal()].get();
+    }
+
+    /**
+     * Time to first frame, broken into phases.
+     */
+    public StartupTimeline getStartup() {
+        return startup;
+    }
+
+    public LatencyHistogram getHistogram(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    /**
+     * Report the depth and drops of this queue in every snapshot.
+     */
+    public synchronized void addQueue(String name, FrameQueue queue) {
+        int n = queues.length;
+        FrameQueue[] q = new FrameQueue[n + 1];
+        String[] names = new String[n + 1];
+        System.arraycopy(queues, 0, q, 0, n);
+        System.arraycopy(queueNames, 0, names, 0, n);
+        q[n] = queue;
+        names[n] = name;
+        queueNames = names;
+        queues = q;
+    }
+
+    /**
+     * Remember when a sample went into the codec, called on the thread feeding the codec.
+     */
+    public void markDecodeInput(long ptsUs) {
+        int i = pendingNext.getAndIncrement() & (PENDING_DECODES - 1);
+        pendingNs.set(i, 0);
+        pendingPts.set(i, ptsUs);
+        pendingNs.set(i, System.nanoTime());
+    }
+
+    /**
+     * Record {@link Stage#DECODE} for the sample with this timestamp, if it is still tracked.
+     */
+    public void markDecodeOutput(long ptsUs) {
+        long now = System.nanoTime();
+        for (int i = 0; i < PENDING_DECODES; i++) {
+            long inputNs = pendingNs.get(i);
+            // the CAS fails if the slot was reused after the pts was read
+            if (inputNs != 0 && pendingPts.get(i) == ptsUs && pendingNs.compareAndSet(i, inputNs, 0)) {
+                record(Stage.DECODE, now - inputNs);
+                break;
+            }
+        }
+        count(Counter.DECODED);
+    }
+
+    /**
+     * Frame rate and stage latencies since the previous snapshot or {@link #reset()},
+     * so every periodic report shows its own period; counters and queue drops are
+     * running totals. {@link #getHistogram} still covers the whole run.
+     */
+    public synchronized Snapshot snapshot() {
+        long now = System.nanoTime();
+        long rendered = get(Counter.RENDERED);
+        double seconds = (now - lastSnapshotNs) / 1e9;
+        double fps = seconds > 0 ? (rendered - lastSnapshotRendered) / seconds : 0;
+        lastSnapshotNs = now;
+        lastSnapshotRendered = rendered;
+
+        Snapshot snapshot = new Snapshot();
+        snapshot.fps = fps;
+        Stage[] stages = Stage.values();
+        snapshot.stages = new StageSnapshot[stages.length];
+        for (int i = 0; i < stages.length; i++) {
+            LatencyHistogram h = histograms[i].takeInterval();
+            StageSnapshot s = new StageSnapshot();
+            s.stage = stages[i];
+            s.count = h.getCount();
+            s.p50Us = h.getPercentileUs(50);
+            s.p99Us = h.getPercentileUs(99);
+            s.maxUs = h.getMaxUs();
+            snapshot.stages[i] = s;
+        }
+        snapshot.counters = new long[counters.length];
+        for (int i = 0; i < counters.length; i++) {
+            snapshot.counters[i] = counters[i].get();
+        }
+        FrameQueue[] q = queues;
+        String[] names = queueNames;
+        snapshot.queues = new QueueSnapshot[q.length];
+        for (int i = 0; i < q.length; i++) {
+            QueueSnapshot s = new QueueSnapshot();
+            s.name = names[i];
+            s.depth = q[i].size();
+            s.capacity = q[i].getCapacity();
+            s.dropped = q[i].getDroppedCount();
+            s.late = q[i].getLateCount();
+            snapshot.queues[i] = s;
+        }
+        return snapshot;
+    }
+
+    public synchronized void reset() {
+        for (LatencyHistogram h : histograms) {
+            h.reset();
+        }
+        for (AtomicLong c : counters) {
+            c.set(0);
+        }
+        lastSnapshotNs = System.nanoTime();
+        lastSnapshotRendered = 0;
+    }
+
+    /**
+     * Latencies recorded since the previous snapshot.
+     */
+    public static class StageSnapshot {
+        public Stage stage;
+        public long count;
+        public long p50Us;
+        public long p99Us;
+        public long maxUs;
+    }
+
+    public static class QueueSnapshot {
+        public String name;
+        public int depth;
+        public int capacity;
+        public long dropped;
+        public long late;
+    }
+
+    public static class Snapshot {
+        public double fps;
+        public StageSnapshot[] stages;
+        public long[] counters;
+        public QueueSnapshot[] queues;
+
+        public long get(Counter counter) {
+            return counters[counter.ordinal()];
+        }
+
+        public long getDroppedTotal() {
+            long dropped = get(Counter.DROPPED_LATE) + get(Counter.DROPPED_POOL)
+                    + get(Counter.DROPPED_QUALITY) + get(Counter.SKIPPED_NON_REFERENCE);
+            for (QueueSnapshot q : queues) {
+                dropped += q.dropped;
+            }
+            return dropped;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format(Locale.US, "fps=%.1f decoded=%d rendered=%d dropped=%d uploadsSkipped=%d",
+                    fps, get(Counter.DECODED), get(Counter.RENDERED), getDroppedTotal(),
+                    get(Counter.UPLOADS_SKIPPED)));
+            for (StageSnapshot s : stages) {
+                if (s.count > 0) {
+                    sb.append(String.format(Locale.US, " %s[p50=%d p99=%d max=%d us]",
+                            s.stage.name().toLowerCase(Locale.US), s.p50Us, s.p99Us, s.maxUs));
+                }
+            }
+            for (QueueSnapshot q : queues) {
+                sb.append(String.format(Locale.US, " %s[%d/%d dropped=%d late=%d]",
+                        q.name, q.depth, q.capacity, q.dropped, q.late));
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.android.player;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Copies the planes of a decoder output image into a packed, unpadded frame.
+ * <p>
+ * Kept free of android.media types so the loops can be benchmarked on a plain JVM.
+ * An instance holds a scratch row and is not thread-safe.
+ * </p>
+ * <p>
+ * With word-wide de-interleaving enabled, semi-planar chroma (pixelStride 2) is
+ * read eight bytes at a time with absolute long reads straight from the decoder's
+ * direct buffer, instead of a bulk row copy followed by one byte per sample. When
+ * the U and V planes are two views of the same interleaved allocation (NV12/NV21,
+ * which is what most hardware decoders hand out) both planes come out of a single
+ * pass over it.
+ * </p>
+ */
+public class PlaneCopier {
+
+    /** U and V planes are separate allocations. */
+    public static final int CHROMA_SEPARATE = 0;
+    /** V plane is the U plane shifted by one byte: U0 V0 U1 V1 ... (NV12). */
+    public static final int CHROMA_UV = 1;
+    /** U plane is the V plane shifted by one byte: V0 U0 V1 U1 ... (NV21). */
+    public static final int CHROMA_VU = 2;
+
+    private static final long EVEN_BYTES = 0x00FF00FF00FF00FFL;
+
+    private final boolean wordWide;
+    private byte[] rowData;
+
+    public PlaneCopier() {
+        this(false);
+    }
+
+    /**
+     * @param wordWide de-interleave pixelStride 2 planes with long reads instead of
+     *                 the generic byte loop.
+     */
+    public PlaneCopier(boolean wordWide) {
+        this.wordWide = wordWide;
+    }
+
+    public boolean isWordWide() {
+        return wordWide;
+    }
+
+    /**
+     * Copy the w x h region starting at (left, top) of a plane.
+     *
+     * @param buffer plane buffer, its position is changed.
+     * @param rowStride distance in bytes between two rows of the plane.
+     * @param pixelStride distance in bytes between two samples of a row.
+     * @return the offset in data right after the copied plane.
+     */
+    public int copyPlane(ByteBuffer buffer, int rowStride, int pixelStride,
+                         int left, int top, int w, int h, byte[] data, int offset) {
+        if (pixelStride == 2 && wordWide) {
+            deinterleave(buffer, null, rowStride, left, top, w, h, data, offset, -1);
+            return offset + w * h;
+        }
+        if (rowData == null || rowData.length < rowStride) {
+            rowData = new byte[rowStride];
+        }
+        byte[] rowData = this.rowData;
+        buffer.position(rowStride * top + pixelStride * left);
+        for (int row = 0; row < h; row++) {
+            int length;
+            if (pixelStride == 1) {
+                // Special case: optimized read of the entire row
+                length = w;
+                buffer.get(data, offset, length);
+                offset += length;
+            } else {
+                // Generic case: should work for any pixelStride but slower.
+                // Use intermediate buffer to avoid read byte-by-byte from
+                // DirectByteBuffer, which is very bad for performance
+                length = (w - 1) * pixelStride + 1;
+                buffer.get(rowData, 0, length);
+                for (int col = 0; col < w; col++) {
+                    data[offset++] = rowData[col * pixelStride];
+                }
+            }
+            // Advance buffer the remainder of the row stride
+            if (row < h - 1) {
+                buffer.position(buffer.position() + rowStride - length);
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Copy both chroma planes of a semi-planar image, in one pass over the
+     * interleaved allocation when word-wide de-interleaving is on.
+     *
+     * @param layout what {@link #detectChromaLayout} returned, anything but
+     *               {@link #CHROMA_SEPARATE}.
+     * @return the offset in data right after the later of the two planes.
+     */
+    public int copyInterleavedChroma(ByteBuffer u, ByteBuffer v, int layout, int rowStride,
+                                     int left, int top, int w, int h,
+                                     byte[] data, int uOffset, int vOffset) {
+        if (!wordWide) {
+            copyPlane(u, rowStride, 2, left, top, w, h, data, uOffset);
+            copyPlane(v, rowStride, 2, left, top, w, h, data, vOffset);
+        } else if (layout == CHROMA_UV) {
+            deinterleave(u, v, rowStride, left, top, w, h, data, uOffset, vOffset);
+        } else {
+            deinterleave(v, u, rowStride, left, top, w, h, data, vOffset, uOffset);
+        }
+        return Math.max(uOffset, vOffset) + w * h;
+    }
+
+    /**
+     * Copy the interleaved chroma of a semi-planar image as it is, one bulk read per
+     * row, for frames rendered straight from NV12/NV21.
+     *
+     * @param layout what {@link #detectChromaLayout} returned, anything but
+     *               {@link #CHROMA_SEPARATE}.
+     * @param w width in chroma samples, every row copies 2 * w bytes.
+     * @return the offset in data right after the copied plane.
+     */
+    public int copySemiPlanarChroma(ByteBuffer u, ByteBuffer v, int layout, int rowStride,
+                                    int left, int top, int w, int h, byte[] data, int offset) {
+        // the plane starting with the first byte of each pair holds the whole interleaved row
+        ByteBuffer first = layout == CHROMA_UV ? u : v;
+        ByteBuffer second = layout == CHROMA_UV ? v : u;
+        int length = w * 2;
+        for (int row = 0; row < h; row++) {
+            int start = (top + row) * rowStride + left * 2;
+            int available = Math.min(length, first.limit() - start);
+            first.position(start);
+            first.get(data, offset, available);
+            if (available < length) {
+                // the first view stops one byte short of the last pair
+                data[offset + available] = second.get(start + available - 1);
+            }
+            offset += length;
+        }
+        return offset;
+    }
+
+    /**
+     * Interleave two chroma planes of any layout into one NV12/NV21 plane, a byte at a
+     * time. The slow path for semi-planar frames whose planes are not known to alias
+     * one allocation in the wanted order.
+     *
+     * @param first the plane whose samples go to the even bytes, U for NV12.
+     * @param w     width in chroma samples, every row writes 2 * w bytes.
+     * @return the offset in data right after the written plane.
+     */
+    public int interleaveChroma(ByteBuffer first, int firstRowStride, int firstPixelStride,
+                                ByteBuffer second, int secondRowStride, int secondPixelStride,
+                                int left, int top, int w, int h, byte[] data, int offset) {
+        for (int row = 0; row < h; row++) {
+            int a = (top + row) * firstRowStride + left * firstPixelStride;
+            int b = (top + row) * secondRowStride + left * secondPixelStride;
+            for (int x = 0; x < w; x++) {
+                data[offset++] = first.get(a);
+                data[offset++] = second.get(b);
+                a += firstPixelStride;
+                b += secondPixelStride;
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Split the samples of an interleaved plane: even bytes of each row go to
+     * firstOffset, odd bytes to secondOffset (skipped when it is negative). The
+     * source is read with absolute long reads, its position is left alone. The last
+     * byte of the last row may lie past the end of {@code src}, in which case it is
+     * taken from {@code next}, the view that starts one byte later.
+     */
+    private static void deinterleave(ByteBuffer src, ByteBuffer next, int rowStride,
+                                     int left, int top, int w, int h,
+                                     byte[] data, int firstOffset, int secondOffset) {
+        src.order(ByteOrder.LITTLE_ENDIAN);
+        boolean both = secondOffset >= 0;
+        int limit = src.limit();
+        for (int row = 0; row < h; row++) {
+            int rowStart = rowStride * (top + row) + left * 2;
+            int first = firstOffset + row * w;
+            int second = secondOffset + row * w;
+            int end = Math.min(w, (limit - rowStart) / 2) & ~3;
+            int col = 0;
+            for (; col < end; col += 4) {
+                long x = src.getLong(rowStart + col * 2);
+                int even = evenBytes(x);
+                data[first + col] = (byte) even;
+                data[first + col + 1] = (byte) (even >> 8);
+                data[first + col + 2] = (byte) (even >> 16);
+                data[first + col + 3] = (byte) (even >> 24);
+                if (both) {
+                    int odd = evenBytes(x >>> 8);
+                    data[second + col] = (byte) odd;
+                    data[second + col + 1] = (byte) (odd >> 8);
+                    data[second + col + 2] = (byte) (odd >> 16);
+                    data[second + col + 3] = (byte) (odd >> 24);
+                }
+            }
+            for (; col < w; col++) {
+                int index = rowStart + col * 2;
+                data[first + col] = src.get(index);
+                if (both) {
+                    data[second + col] = index + 1 < limit ? src.get(index + 1) : next.get(index);
+                }
+            }
+        }
+    }
+
+    /**
+     * Pack bytes 0, 2, 4 and 6 of a little-endian long into an int.
+     */
+    private static int evenBytes(long x) {
+        x &= EVEN_BYTES;
+        x = (x | (x >>> 8)) & 0x0000FFFF0000FFFFL;
+        x = (x | (x >>> 16)) & 0x00000000FFFFFFFFL;
+        return (int) x;
+    }
+
+    /**
+     * Tell whether two pixelStride 2 chroma planes alias one interleaved allocation.
+     * <p>
+     * There is no API to compare the memory behind two buffers, so this checks that
+     * the bytes of the first, middle and last chroma rows line up with a one byte
+     * shift in one direction and not in the other. Flat rows where both directions
+     * match are reported as {@link #CHROMA_SEPARATE}, which is always safe.
+     * </p>
+     */
+    public static int detectChromaLayout(ByteBuffer u, ByteBuffer v, int rowStride,
+                                         int left, int top, int w, int h) {
+        if (w < 2 || h < 1) {
+            return CHROMA_SEPARATE;
+        }
+        boolean uv = true;
+        boolean vu = true;
+        int length = w * 2 - 1;
+        for (int r = 0; r < 3 && (uv || vu); r++) {
+            int row = r == 0 ? top : (r == 1 ? top + h / 2 : top + h - 1);
+            int start = rowStride * row + left * 2;
+            if (start + length > u.limit() || start + length > v.limit()) {
+                return CHROMA_SEPARATE;
+            }
+            for (int i = start; i < start + length - 1 && (uv || vu); i++) {
+                uv &= u.get(i + 1) == v.get(i);
+                vu &= v.get(i + 1) == u.get(i);
+            }
+        }
+        if (uv == vu) {
+            return CHROMA_SEPARATE;
+        }
+        return uv ? CHROMA_UV : CHROMA_VU;
+    }
+}
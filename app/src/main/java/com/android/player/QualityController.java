@@ -0,0 +1,190 @@
+package com.android.player;
+
+/**
+ * Steps playback quality down a ladder when the device cannot keep up, and back up
+ * once there is headroom again.
+ * <p>
+ * Load is the busier of the decode thread and the GL thread, per frame, over the
+ * content frame interval, each smoothed with an exponential moving average. Moving
+ * down takes a run of overloaded frames, moving up a much longer run of light ones
+ * at a lower threshold, and every step restarts both runs, so a load hovering around
+ * one threshold does not make the level flap.
+ * </p>
+ * <p>
+ * Samples come from the decode thread ({@link #onFrameDecoded}) and the GL thread
+ * ({@link #onFrameRendered}); the level and the listener run on the decode thread.
+ * </p>
+ */
+public class QualityController {
+
+    public enum Level {
+        /** everything on */
+        FULL,
+        /** luma sharpening off in the renderer */
+        NO_SHARPEN,
+        /** every other decoded frame dropped before it is copied */
+        DROP_BEFORE_COPY,
+        /** on top of that, non-reference frames never reach the decoder */
+        SKIP_NON_REFERENCE
+    }
+
+    public interface Listener {
+        void onLevelChanged(Level level);
+    }
+
+    public static final float DEFAULT_DEGRADE_LOAD = 0.9f;
+    public static final float DEFAULT_RECOVER_LOAD = 0.6f;
+    public static final int DEFAULT_DEGRADE_FRAMES = 30;
+    public static final int DEFAULT_RECOVER_FRAMES = 180;
+    private static final float SMOOTHING = 0.1f;
+
+    private final float degradeLoad;
+    private final float recoverLoad;
+    private final int degradeFrames;
+    private final int recoverFrames;
+    private volatile Level level = Level.FULL;
+    private volatile Level minLevel = Level.FULL;
+    private Listener listener;
+
+    private float decodeNs = -1;
+    private float intervalNs = -1;
+    private volatile float renderNs = -1;
+    private int overloaded;
+    private int light;
+    private long stepsDown;
+    private long stepsUp;
+
+    public QualityController() {
+        this(DEFAULT_DEGRADE_LOAD, DEFAULT_RECOVER_LOAD, DEFAULT_DEGRADE_FRAMES, DEFAULT_RECOVER_FRAMES);
+    }
+
+    /**
+     * @param degradeLoad load above which frames count towards stepping down.
+     * @param recoverLoad load below which frames count towards stepping up, lower than degradeLoad.
+     * @param degradeFrames consecutive overloaded frames before stepping down.
+     * @param recoverFrames consecutive light frames before stepping up.
+     */
+    public QualityController(float degradeLoad, float recoverLoad, int degradeFrames, int recoverFrames) {
+        if (recoverLoad >= degradeLoad) {
+            throw new IllegalArgumentException("recoverLoad must be below degradeLoad");
+        }
+        this.degradeLoad = degradeLoad;
+        this.recoverLoad = recoverLoad;
+        this.degradeFrames = degradeFrames;
+        this.recoverFrames = recoverFrames;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Never go above this level, e.g. to keep sharpening off for good.
+     */
+    public void setMinLevel(Level minLevel) {
+        this.minLevel = minLevel;
+    }
+
+    /**
+     * Time the GL thread spent on one frame.
+     */
+    public void onFrameRendered(long busyNs) {
+        float current = renderNs;
+        renderNs = current < 0 ? busyNs : current + (busyNs - current) * SMOOTHING;
+    }
+
+    /**
+     * One decoded frame and the time the decode thread was busy for it, pacing waits
+     * excluded.
+     *
+     * @param intervalNs content time between this frame and the previous one at the
+     *                   current playback rate, samples without one are ignored.
+     */
+    public void onFrameDecoded(long busyNs, long intervalNs) {
+        if (intervalNs <= 0) {
+            return;
+        }
+        decodeNs = decodeNs < 0 ? busyNs : decodeNs + (busyNs - decodeNs) * SMOOTHING;
+        this.intervalNs = this.intervalNs < 0 ? intervalNs : this.intervalNs + (intervalNs - this.intervalNs) * SMOOTHING;
+
+        float load = getLoad();
+        if (load > degradeLoad) {
+            light = 0;
+            if (++overloaded >= degradeFrames) {
+                step(1);
+            }
+        } else if (load < recoverLoad) {
+            overloaded = 0;
+            if (++light >= recoverFrames) {
+                step(-1);
+            }
+        } else {
+            overloaded = 0;
+            light = 0;
+        }
+    }
+
+    private void step(int direction) {
+        overloaded = 0;
+        light = 0;
+        Level[] levels = Level.values();
+        int next = Math.max(minLevel.ordinal(), Math.min(levels.length - 1, level.ordinal() + direction));
+        if (next == level.ordinal()) {
+            return;
+        }
+        if (direction > 0) {
+            stepsDown++;
+        } else {
+            stepsUp++;
+        }
+        level = levels[next];
+        Listener l = listener;
+        if (l != null) {
+            l.onLevelChanged(level);
+        }
+    }
+
+    /**
+     * Smoothed busy time over frame interval, 1 means no headroom left.
+     */
+    public float getLoad() {
+        if (intervalNs <= 0) {
+            return 0;
+        }
+        return Math.max(decodeNs, renderNs) / intervalNs;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    public boolean isAtLeast(Level l) {
+        return level.ordinal() >= l.ordinal();
+    }
+
+    public long getStepsDown() {
+        return stepsDown;
+    }
+
+    public long getStepsUp() {
+        return stepsUp;
+    }
+
+    /**
+     * Back to {@link Level#FULL} (or the minimum level) with no history, e.g. after a seek.
+     */
+    public void reset() {
+        decodeNs = -1;
+        intervalNs = -1;
+        renderNs = -1;
+        overloaded = 0;
+        light = 0;
+        if (level != minLevel) {
+            level = minLevel;
+            Listener l = listener;
+            if (l != null) {
+                l.onLevelChanged(level);
+            }
+        }
+    }
+}
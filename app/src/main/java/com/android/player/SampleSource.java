@@ -0,0 +1,34 @@
+package com.android.player;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compressed samples of one track, in decode order, see {@link ExtractorSource}.
+ */
+public interface SampleSource {
+    /**
+     * Copy the current sample into buffer at offset.
+     *
+     * @return the sample size, negative at the end of the track.
+     */
+    int readSampleData(ByteBuffer buffer, int offset);
+
+    long getSampleTime();
+
+    /**
+     * @return false once there are no more samples.
+     */
+    boolean advance();
+
+    /**
+     * Go back to the first sample of the track.
+     */
+    void seekToStart();
+
+    /**
+     * Go to a sync sample, where decoding can start.
+     *
+     * @param closest the sync sample closest to timeUs, otherwise the last one at or before it.
+     */
+    void seekTo(long timeUs, boolean closest);
+}
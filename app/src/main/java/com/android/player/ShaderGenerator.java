@@ -0,0 +1,171 @@
+package com.android.player;
+
+import java.util.Locale;
+
+/**
+ * Builds the GLSL of every shader variant the renderer draws with, as plain strings.
+ * A variant is a frame format (which chroma textures to sample) and a sharpening tier.
+ * <p>
+ * The neighbour coordinates the sharpen filters read are computed once per vertex
+ * and interpolated, two per vec4 varying, instead of per fragment from the texture
+ * size. The filter clamps the luma correction to LIMIT either way.
+ * </p>
+ */
+public final class ShaderGenerator {
+
+    public enum Sharpen {
+        /** one luma fetch */
+        NONE,
+        /** centre and its four edge neighbours */
+        CROSS_5,
+        /** centre and all eight neighbours, the original filter */
+        FULL_9
+    }
+
+    /** number of variants, keys run from 0 to VARIANT_COUNT - 1 */
+    public static final int VARIANT_COUNT = 3 * Sharpen.values().length;
+
+    private static final String LIMIT = "15.0/255.0";
+
+    // neighbour offsets in texels, in the order the taps are declared
+    private static final int[][] CROSS_TAPS = {{0, 1}, {1, 0}, {-1, 0}, {0, -1}};
+    private static final int[][] FULL_TAPS = {{1, 1}, {0, 1}, {-1, 1}, {1, 0}, {-1, 0}, {1, -1}, {0, -1}, {-1, -1}};
+
+    private ShaderGenerator() {
+    }
+
+    /**
+     * Dense index of a variant, for caching programs in an array. YV12 shares the I420
+     * variant: its planes are stored the other way round, but plane 1 is still U and
+     * plane 2 still V, so the same samplers get the same textures.
+     *
+     * @param format one of the VideoFrame.FORMAT_ constants.
+     * @throws IllegalArgumentException for a format there is no shader for.
+     */
+    public static int key(int format, Sharpen sharpen) {
+        switch (format) {
+            case VideoFrame.FORMAT_I420:
+            case VideoFrame.FORMAT_YV12:
+                return sharpen.ordinal();
+            case VideoFrame.FORMAT_NV12:
+            case VideoFrame.FORMAT_NV21:
+                return format * Sharpen.values().length + sharpen.ordinal();
+            default:
+                throw new IllegalArgumentException("no shader for format " + format);
+        }
+    }
+
+    private static int[][] taps(Sharpen sharpen) {
+        switch (sharpen) {
+            case CROSS_5:
+                return CROSS_TAPS;
+            case FULL_9:
+                return FULL_TAPS;
+            default:
+                return new int[0][];
+        }
+    }
+
+    public static String vertexShader(Sharpen sharpen) {
+        int[][] taps = taps(sharpen);
+        StringBuilder sb = new StringBuilder();
+        sb.append("attribute vec4 vPosition;\n");
+        sb.append("attribute vec2 aTextureCoord;\n");
+        sb.append("varying vec2 vTextureCoord;\n");
+        if (taps.length > 0) {
+            sb.append("uniform vec2 texelSize;\n");
+            for (int i = 0; i < taps.length / 2; i++) {
+                sb.append("varying vec4 vTaps").append(i).append(";\n");
+            }
+        }
+        sb.append("void main() {\n");
+        sb.append("    gl_Position = vPosition;\n");
+        sb.append("    vTextureCoord = aTextureCoord;\n");
+        for (int i = 0; i < taps.length; i += 2) {
+            sb.append(String.format(Locale.US,
+                    "    vTaps%d = aTextureCoord.xyxy + vec4(%s, %s, %s, %s) * texelSize.xyxy;\n",
+                    i / 2, texels(taps[i][0]), texels(taps[i][1]), texels(taps[i + 1][0]), texels(taps[i + 1][1])));
+        }
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private static String texels(int offset) {
+        return offset + ".0";
+    }
+
+    /**
+     * @param format one of the VideoFrame.FORMAT_ constants.
+     */
+    public static String fragmentShader(int format, Sharpen sharpen) {
+        int[][] taps = taps(sharpen);
+        StringBuilder sb = new StringBuilder();
+        sb.append("precision mediump float;\n");
+        sb.append("uniform sampler2D textureY;\n");
+        if (VideoFrame.isSemiPlanar(format)) {
+            sb.append("uniform sampler2D textureUV;\n");
+        } else {
+            sb.append("uniform sampler2D textureU;\n");
+            sb.append("uniform sampler2D textureV;\n");
+        }
+        sb.append("varying vec2 vTextureCoord;\n");
+        if (taps.length > 0) {
+            sb.append("uniform float sharpLevel;\n");
+            sb.append("const float LIMIT = ").append(LIMIT).append(";\n");
+            for (int i = 0; i < taps.length / 2; i++) {
+                sb.append("varying vec4 vTaps").append(i).append(";\n");
+            }
+        }
+        sb.append("void main() {\n");
+        appendLuma(sb, sharpen, taps.length);
+        appendChroma(sb, format);
+        sb.append("    float R = y + (v - 0.5) *  1.402;\n");
+        sb.append("    float G = y - ((u - 0.5) * 0.3441) - (v - 0.5) * 0.7141;\n");
+        sb.append("    float B = y + (u - 0.5) *  1.772;\n");
+        sb.append("    gl_FragColor = vec4(R, G, B, 1.0);\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private static void appendLuma(StringBuilder sb, Sharpen sharpen, int tapCount) {
+        sb.append("    float c = texture2D(textureY, vTextureCoord).r;\n");
+        for (int i = 0; i < tapCount; i++) {
+            sb.append("    float t").append(i).append(" = texture2D(textureY, vTaps").append(i / 2)
+                    .append(i % 2 == 0 ? ".xy" : ".zw").append(").r;\n");
+        }
+        switch (sharpen) {
+            case CROSS_5:
+                // 4-1-1-1-1 blur over 8
+                sb.append("    float blur = (c * 4.0 + t0 + t1 + t2 + t3) / 8.0;\n");
+                break;
+            case FULL_9:
+                // 3x3 binomial blur: corners 1, edges 2, centre 4, over 16
+                sb.append("    float blur = (t0 + t2 + t5 + t7 + (t1 + t3 + t4 + t6) * 2.0 + c * 4.0) / 16.0;\n");
+                break;
+            default:
+                sb.append("    float y = c;\n");
+                return;
+        }
+        sb.append("    float y = c + clamp((c - blur) * sharpLevel, -LIMIT, LIMIT);\n");
+    }
+
+    private static void appendChroma(StringBuilder sb, int format) {
+        switch (format) {
+            case VideoFrame.FORMAT_NV12:
+                // interleaved chroma: first byte of the pair in .r, second in .a
+                sb.append("    vec4 uv = texture2D(textureUV, vTextureCoord);\n");
+                sb.append("    float u = uv.r;\n");
+                sb.append("    float v = uv.a;\n");
+                break;
+            case VideoFrame.FORMAT_NV21:
+                sb.append("    vec4 vu = texture2D(textureUV, vTextureCoord);\n");
+                sb.append("    float u = vu.a;\n");
+                sb.append("    float v = vu.r;\n");
+                break;
+            default:
+                sb.append("    float u = texture2D(textureU, vTextureCoord).r;\n");
+                sb.append("    float v = texture2D(textureV, vTextureCoord).r;\n");
+                break;
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package com.android.player;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Ring of frame slots in a memory-mapped file, shared with a consumer in another
+ * process so frames are not copied through a socket: the consumer maps the same file
+ * and reads every frame in place, only a {@link #NOTIFY_SIZE} byte notification per
+ * frame goes over the socket, or the consumer polls {@link #getPublishedCount()}.
+ * <p>
+ * Layout, little-endian: a {@link #HEADER_SIZE} byte ring header (magic "YRNG",
+ * version, slot count, slot capacity, slot stride, published count) followed by the
+ * slots. Each slot starts with a seqlock word, the ring number of the frame in it and
+ * a {@link FrameHeader}, its payload follows at {@link #SLOT_HEADER_SIZE}.
+ * </p>
+ * <p>
+ * One producer writes frame n into slot {@code n & (slotCount - 1)}, the slot count
+ * being a power of two so the slots stay in turn when n wraps: it makes the slot's
+ * seqlock odd, writes, makes it even again and then bumps the published count. A reader of
+ * frame n reads the seqlock, checks the ring number, reads the frame and reads the
+ * seqlock again; anything read is only good if both reads are equal and even, a
+ * different value means the producer lapped the reader and rewrote the slot under it.
+ * </p>
+ * <p>
+ * Java 8 and Android have no fence API, and the memory model says nothing about
+ * memory another process writes. The barriers come from a volatile write followed by
+ * a volatile read of a field, which HotSpot and ART compile to a full fence; the
+ * seqlock words are 4-byte aligned ints so no platform tears them. A consumer on
+ * Java 9 or later can use acquire and release VarHandles on the buffer instead.
+ * </p>
+ */
+public class SharedFrameRing implements Closeable {
+    public static final int MAGIC = 0x59524E47;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 64;
+    public static final int SLOT_HEADER_SIZE = 32;
+    /** magic and published count, big-endian like {@link FrameHeader} */
+    public static final int NOTIFY_SIZE = 8;
+
+    /** the frame was read and stayed intact while it was read */
+    public static final int READ = 0;
+    /** not published yet */
+    public static final int NOT_PUBLISHED = 1;
+    /** the producer has already reused the slot for a newer frame */
+    public static final int OVERWRITTEN = 2;
+    /** the producer rewrote the slot while it was read, whatever was read is garbage */
+    public static final int TORN = 3;
+
+    private static final int SLOT_ALIGN = 64;
+    private static final int OFFSET_SLOT_COUNT = 8;
+    private static final int OFFSET_SLOT_CAPACITY = 12;
+    private static final int OFFSET_SLOT_STRIDE = 16;
+    private static final int OFFSET_PUBLISHED = 20;
+    private static final int SLOT_LOCK = 0;
+    private static final int SLOT_TICKET = 4;
+    private static final int SLOT_FRAME_HEADER = 8;
+
+    /**
+     * Reads a frame in place.
+     */
+    public interface Reader {
+        /**
+         * @param header  the {@link FrameHeader} of the frame.
+         * @param payload the frame bytes, only to be trusted once
+         *                {@link #read} returned {@link #READ}.
+         */
+        void onFrame(ByteBuffer header, ByteBuffer payload);
+    }
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final int slotCount;
+    private final int slotCapacity;
+    private final int slotStride;
+    private final FrameHeader frameHeader = new FrameHeader();
+    private final byte[] notification = new byte[NOTIFY_SIZE];
+    private final ByteBuffer notificationBuffer = ByteBuffer.wrap(notification);
+    private int published;
+    private volatile int fence;
+
+    private SharedFrameRing(RandomAccessFile file, MappedByteBuffer buffer) {
+        this.file = file;
+        this.buffer = buffer;
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        slotCount = buffer.getInt(OFFSET_SLOT_COUNT);
+        slotCapacity = buffer.getInt(OFFSET_SLOT_CAPACITY);
+        slotStride = buffer.getInt(OFFSET_SLOT_STRIDE);
+        published = buffer.getInt(OFFSET_PUBLISHED);
+    }
+
+    /**
+     * Create the ring for a producer. The file is written next to its final name and
+     * renamed into place, so a consumer that still maps an earlier ring keeps a valid
+     * mapping and never sees a half-initialised header.
+     *
+     * @param slotCapacity largest frame in bytes, bigger ones do not fit.
+     */
+    public static SharedFrameRing create(File path, int slotCount, int slotCapacity) throws IOException {
+        checkSlotCount(slotCount);
+        if (slotCapacity <= 0) {
+            throw new IllegalArgumentException("slot capacity must be positive: " + slotCapacity);
+        }
+        int stride = (SLOT_HEADER_SIZE + slotCapacity + SLOT_ALIGN - 1) / SLOT_ALIGN * SLOT_ALIGN;
+        long size = HEADER_SIZE + (long) stride * slotCount;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("ring of " + size + " bytes does not fit one mapping");
+        }
+        File tmp = new File(path.getPath() + ".tmp");
+        RandomAccessFile file = new RandomAccessFile(tmp, "rw");
+        try {
+            file.setLength(0);
+            file.setLength(size);
+            MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(OFFSET_SLOT_COUNT, slotCount);
+            buffer.putInt(OFFSET_SLOT_CAPACITY, slotCapacity);
+            buffer.putInt(OFFSET_SLOT_STRIDE, stride);
+            buffer.putInt(OFFSET_PUBLISHED, 0);
+            // the magic last: a consumer that finds it finds the rest too
+            buffer.putInt(0, MAGIC);
+            if (!tmp.renameTo(path)) {
+                throw new IOException("cannot rename " + tmp + " to " + path);
+            }
+            return new SharedFrameRing(file, buffer);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            tmp.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Map an existing ring for a consumer.
+     *
+     * @throws IOException when there is no complete ring in the file (yet).
+     */
+    public static SharedFrameRing open(File path) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path, "r");
+        try {
+            long size = file.length();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("not a frame ring: " + path);
+            }
+            MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("not a frame ring: " + path);
+            }
+            int slotCount = buffer.getInt(OFFSET_SLOT_COUNT);
+            if (slotCount < 2 || Integer.bitCount(slotCount) != 1) {
+                throw new IOException("ring of " + slotCount + " slots, not a power of two: " + path);
+            }
+            long expected = HEADER_SIZE + (long) buffer.getInt(OFFSET_SLOT_STRIDE) * slotCount;
+            if (expected != size) {
+                throw new IOException("ring of " + size + " bytes, header says " + expected);
+            }
+            return new SharedFrameRing(file, buffer);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException unless slotCount is a power of two, 2 or more.
+     */
+    public static void checkSlotCount(int slotCount) {
+        if (slotCount < 2 || Integer.bitCount(slotCount) != 1) {
+            throw new IllegalArgumentException("slot count must be a power of two, 2 or more: " + slotCount);
+        }
+    }
+
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    public int getSlotCapacity() {
+        return slotCapacity;
+    }
+
+    /**
+     * Number of frames published so far; ring numbers run from 0 and wrap, compare
+     * them by subtracting.
+     */
+    public int getPublishedCount() {
+        int count = buffer.getInt(OFFSET_PUBLISHED);
+        fence();
+        return count;
+    }
+
+    /**
+     * Copy the frame into the next slot, producer only.
+     *
+     * @return the published count including this frame, -1 when the frame is larger
+     * than a slot.
+     */
+    public int publish(VideoFrame frame) {
+        int size = frame.getSize();
+        if (size > slotCapacity) {
+            return -1;
+        }
+        int n = published;
+        int base = slotBase(n);
+        int lock = buffer.getInt(base + SLOT_LOCK);
+        buffer.putInt(base + SLOT_LOCK, lock + 1);
+        fence();
+
+        buffer.putInt(base + SLOT_TICKET, n);
+        ByteBuffer slot = buffer.duplicate();
+        slot.position(base + SLOT_FRAME_HEADER);
+        slot.put(frameHeader.write(frame), 0, FrameHeader.SIZE);
+        slot.position(base + SLOT_HEADER_SIZE);
+        ByteBuffer data = frame.getData();
+        if (data.hasArray()) {
+            slot.put(data.array(), data.arrayOffset(), size);
+        } else {
+            ByteBuffer view = data.duplicate();
+            view.position(0);
+            view.limit(size);
+            slot.put(view);
+        }
+
+        fence();
+        buffer.putInt(base + SLOT_LOCK, lock + 2);
+        fence();
+        published = n + 1;
+        buffer.putInt(OFFSET_PUBLISHED, published);
+        return published;
+    }
+
+    /**
+     * The notification for the socket after {@link #publish}, the returned array is
+     * reused on the next call.
+     */
+    public byte[] notification(int publishedCount) {
+        notificationBuffer.clear();
+        notificationBuffer.putInt(MAGIC);
+        notificationBuffer.putInt(publishedCount);
+        return notification;
+    }
+
+    /**
+     * @return the published count in a notification, or throws when it is not one.
+     */
+    public static int parseNotification(ByteBuffer notification) {
+        if (notification.getInt(notification.position()) != MAGIC) {
+            throw new IllegalArgumentException("not a ring notification");
+        }
+        return notification.getInt(notification.position() + 4);
+    }
+
+    /**
+     * Hand frame n to the reader without copying it, consumer side.
+     *
+     * @return {@link #READ}, {@link #NOT_PUBLISHED}, {@link #OVERWRITTEN} or
+     * {@link #TORN}; only after READ may the reader act on what it saw.
+     */
+    public int read(int n, Reader reader) {
+        if (n - getPublishedCount() >= 0) {
+            return NOT_PUBLISHED;
+        }
+        int base = slotBase(n);
+        int lock = buffer.getInt(base + SLOT_LOCK);
+        fence();
+        if ((lock & 1) != 0 || buffer.getInt(base + SLOT_TICKET) != n) {
+            return OVERWRITTEN;
+        }
+        ByteBuffer header = slice(base + SLOT_FRAME_HEADER, FrameHeader.SIZE);
+        int size = FrameHeader.payloadSize(header);
+        if (size < 0 || size > slotCapacity) {
+            return TORN;
+        }
+        reader.onFrame(header, slice(base + SLOT_HEADER_SIZE, size));
+        fence();
+        return buffer.getInt(base + SLOT_LOCK) == lock ? READ : TORN;
+    }
+
+    private ByteBuffer slice(int offset, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        // FrameHeader is big-endian, a slice starts out that way
+        return view.slice();
+    }
+
+    private int slotBase(int n) {
+        return HEADER_SIZE + (n & (slotCount - 1)) * slotStride;
+    }
+
+    /**
+     * Full fence, see the class comment.
+     */
+    private int fence() {
+        // write then read: neither a store before nor a load after can cross both
+        fence = 0;
+        return fence;
+    }
+
+    /**
+     * Drop the mapping's file handle. The mapping itself goes when it is collected,
+     * the file stays for consumers that still map it.
+     */
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
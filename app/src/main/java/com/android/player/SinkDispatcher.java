@@ -0,0 +1,141 @@
+package com.android.player;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Delivers frames to one {@link FrameSink} on that sink's executor.
+ * <p>
+ * Frames wait in the dispatcher's own {@link FrameQueue}, so a sink that falls
+ * behind only drops (or, with {@link FrameQueue.DropPolicy#BLOCK}, waits for) its
+ * own frames and never holds back the other sinks. At most one drain task is
+ * pending on the executor at a time.
+ * </p>
+ */
+public class SinkDispatcher {
+
+    /**
+     * Runs the sink inline on the decoder thread; only for sinks that just queue the frame.
+     */
+    public static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static final int DEFAULT_QUEUE_DEPTH = 2;
+
+    private final FrameSink sink;
+    private final Executor executor;
+    private final boolean ownsExecutor;
+    private final FrameQueue queue;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile boolean closed;
+
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            do {
+                try {
+                    VideoFrame frame;
+                    while ((frame = queue.poll()) != null) {
+                        try {
+                            sink.onFrame(frame);
+                        } finally {
+                            frame.release();
+                        }
+                    }
+                } finally {
+                    // a sink that throws still gets the next frame
+                    scheduled.set(false);
+                }
+            } while (queue.size() > 0 && scheduled.compareAndSet(false, true));
+        }
+    };
+
+    private final Runnable finishTask = new Runnable() {
+        @Override
+        public void run() {
+            queue.clear();
+            try {
+                sink.onFinish();
+            } finally {
+                // nothing can be queued any more, tasks submitted from here on are rejected
+                queue.clear();
+                if (ownsExecutor) {
+                    ((ExecutorService) executor).shutdown();
+                }
+            }
+        }
+    };
+
+    /**
+     * Run the sink on a dedicated thread of its own.
+     */
+    public SinkDispatcher(FrameSink sink) {
+        this(sink, newSinkExecutor(sink), true, DEFAULT_QUEUE_DEPTH, FrameQueue.DropPolicy.DROP_OLDEST);
+    }
+
+    public SinkDispatcher(FrameSink sink, Executor executor, int queueDepth, FrameQueue.DropPolicy policy) {
+        this(sink, executor, false, queueDepth, policy);
+    }
+
+    private SinkDispatcher(FrameSink sink, Executor executor, boolean ownsExecutor, int queueDepth, FrameQueue.DropPolicy policy) {
+        this.sink = sink;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        this.queue = new FrameQueue(queueDepth, policy);
+    }
+
+    private static ExecutorService newSinkExecutor(final FrameSink sink) {
+        return Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "FrameSink-" + sink.getClass().getSimpleName());
+            }
+        });
+    }
+
+    /**
+     * Called on the decoder thread, the caller keeps its own reference. Frames
+     * dispatched after {@link #finish()}, e.g. through a sink list the decoder took
+     * before the sink was removed, are ignored.
+     */
+    public void dispatch(VideoFrame frame) {
+        if (closed) {
+            return;
+        }
+        queue.offer(frame.retain());
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(drainTask);
+            } catch (RejectedExecutionException e) {
+                // finished and shut down in the meantime, nobody will poll the queue again
+                scheduled.set(false);
+                queue.clear();
+            }
+        }
+    }
+
+    /**
+     * Drop whatever is still queued and tell the sink playback is over.
+     */
+    public void finish() {
+        closed = true;
+        queue.close();
+        executor.execute(finishTask);
+    }
+
+    public FrameSink getSink() {
+        return sink;
+    }
+
+    public FrameQueue getQueue() {
+        return queue;
+    }
+}
@@ -0,0 +1,59 @@
+package com.android.player;
+
+import java.util.Arrays;
+
+/**
+ * The sinks a frame producer hands every frame to, shared by {@link VideoDecode} and
+ * {@link FramePump}. Sinks may be added and removed while frames flow: the list is
+ * copied on write and {@link #dispatch} reads it without locking.
+ */
+public class SinkGroup {
+    private volatile SinkDispatcher[] sinks = new SinkDispatcher[0];
+
+    /**
+     * @param stats reports the depth and drops of the sink's queue.
+     */
+    public synchronized void add(SinkDispatcher dispatcher, PipelineStats stats) {
+        stats.addQueue(dispatcher.getSink().getClass().getSimpleName(), dispatcher.getQueue());
+        SinkDispatcher[] sinks = Arrays.copyOf(this.sinks, this.sinks.length + 1);
+        sinks[sinks.length - 1] = dispatcher;
+        this.sinks = sinks;
+    }
+
+    /**
+     * Stop handing frames to this sink and let it finish.
+     */
+    public synchronized void remove(FrameSink sink) {
+        SinkDispatcher[] sinks = this.sinks;
+        for (int i = 0; i < sinks.length; i++) {
+            if (sinks[i].getSink() == sink) {
+                SinkDispatcher[] remaining = new SinkDispatcher[sinks.length - 1];
+                System.arraycopy(sinks, 0, remaining, 0, i);
+                System.arraycopy(sinks, i + 1, remaining, i, sinks.length - i - 1);
+                this.sinks = remaining;
+                sinks[i].finish();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Share one frame with every sink, each sink takes its own reference.
+     */
+    public void dispatch(VideoFrame frame) {
+        SinkDispatcher[] sinks = this.sinks;
+        for (int i = 0; i < sinks.length; i++) {
+            sinks[i].dispatch(frame);
+        }
+    }
+
+    /**
+     * Tell every sink no more frames will come.
+     */
+    public void finish() {
+        SinkDispatcher[] sinks = this.sinks;
+        for (int i = 0; i < sinks.length; i++) {
+            sinks[i].finish();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.android.player;
+
+import java.util.Locale;
+
+/**
+ * When each startup phase ran, relative to {@link #begin()}, up to the first frame on
+ * screen. Phases run on different threads and overlap, so each keeps its own start
+ * and end instead of being summed.
+ * <p>
+ * Only the first run of a phase is kept. Once {@link Phase#FIRST_RENDER} is in,
+ * {@link #isComplete()} turns true and callers stop measuring.
+ * </p>
+ */
+public class StartupTimeline {
+
+    public enum Phase {
+        /** opening the source and reading the track format */
+        OPEN_SOURCE,
+        /** MediaCodec.createDecoderByType */
+        CREATE_CODEC,
+        /** configure and start */
+        START_CODEC,
+        /** onSurfaceCreated: shader program and pre-sized textures */
+        GL_SETUP,
+        /** from the codec starting to its first output buffer */
+        FIRST_DECODE,
+        /** copy and dispatch of the first frame */
+        FIRST_COPY,
+        /** upload and draw of the first frame */
+        FIRST_RENDER
+    }
+
+    private final long[] startNs = new long[Phase.values().length];
+    private final long[] endNs = new long[Phase.values().length];
+    private long beginNs;
+    private volatile boolean complete;
+
+    /**
+     * Start the clock, the time the player was asked to play. Restarts a finished timeline.
+     */
+    public synchronized void begin() {
+        beginNs = System.nanoTime();
+        for (int i = 0; i < startNs.length; i++) {
+            startNs[i] = 0;
+            endNs[i] = 0;
+        }
+        complete = false;
+    }
+
+    public synchronized void record(Phase phase, long startNs, long endNs) {
+        int i = phase.ordinal();
+        if (this.endNs[i] != 0) {
+            return;
+        }
+        if (beginNs == 0) {
+            beginNs = startNs;
+        }
+        this.startNs[i] = startNs;
+        this.endNs[i] = endNs;
+        if (phase == Phase.FIRST_RENDER) {
+            complete = true;
+        }
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public synchronized boolean isRecorded(Phase phase) {
+        return endNs[phase.ordinal()] != 0;
+    }
+
+    /**
+     * @return microseconds from begin() to the end of the first draw, -1 before it.
+     */
+    public synchronized long getTimeToFirstFrameUs() {
+        long end = endNs[Phase.FIRST_RENDER.ordinal()];
+        return end == 0 ? -1 : (end - beginNs) / 1000;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        long ttff = getTimeToFirstFrameUs();
+        sb.append(String.format(Locale.US, "ttff=%.1fms", ttff / 1000.0));
+        Phase[] phases = Phase.values();
+        for (int i = 0; i < phases.length; i++) {
+            if (endNs[i] != 0) {
+                sb.append(String.format(Locale.US, " %s[%.1f..%.1f ms]",
+                        phases[i].name().toLowerCase(Locale.US),
+                        (startNs[i] - beginNs) / 1e6, (endNs[i] - beginNs) / 1e6));
+            }
+        }
+        return sb.toString();
+    }
+}
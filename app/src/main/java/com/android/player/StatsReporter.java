@@ -0,0 +1,69 @@
+package com.android.player;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * Periodically dumps a {@link PipelineStats} snapshot to logcat and, optionally, to a file.
+ */
+public class StatsReporter {
+    private static final String TAG = "llx";
+
+    private final PipelineStats stats;
+    private final long periodMs;
+    private File dumpFile;
+    private HandlerThread thread;
+    private Handler handler;
+
+    private final Runnable reportTask = new Runnable() {
+        @Override
+        public void run() {
+            report();
+            handler.postDelayed(this, periodMs);
+        }
+    };
+
+    public StatsReporter(PipelineStats stats, long periodMs) {
+        this.stats = stats;
+        this.periodMs = periodMs;
+    }
+
+    /**
+     * Also append every report as one line to this file.
+     */
+    public void setDumpFile(File dumpFile) {
+        this.dumpFile = dumpFile;
+    }
+
+    public void start() {
+        thread = new HandlerThread("StatsReporter");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        handler.postDelayed(reportTask, periodMs);
+    }
+
+    public void stop() {
+        if (thread != null) {
+            handler.removeCallbacks(reportTask);
+            thread.quitSafely();
+            thread = null;
+        }
+    }
+
+    private void report() {
+        String line = stats.snapshot().toString();
+        Log.d(TAG, line);
+        if (dumpFile != null) {
+            try (FileWriter writer = new FileWriter(dumpFile, true)) {
+                writer.write(System.currentTimeMillis() + " " + line + "\n");
+            } catch (IOException e) {
+                Log.w(TAG, "stats dump failed", e);
+            }
+        }
+    }
+}
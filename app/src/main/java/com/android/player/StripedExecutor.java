@@ -0,0 +1,114 @@
+package com.android.player;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs one job per horizontal stripe of a frame and waits for all of them, for the
+ * per-frame work that is split across cores: {@link StripedPlaneCopier} and
+ * {@link FrameConverter}.
+ * <p>
+ * The calling thread runs the first job itself. The workers live as long as the
+ * executor and are handed their job without going through a task queue, so running
+ * a frame allocates nothing. Meant to be called from one thread.
+ * </p>
+ */
+public class StripedExecutor {
+    private final Worker[] workers;
+    private final RuntimeException[] errors;
+    private final AtomicInteger pending = new AtomicInteger();
+    private volatile Thread waiter;
+
+    /**
+     * @param threads number of stripes, including the one run by the caller.
+     * @param name    prefix of the worker thread names.
+     */
+    public StripedExecutor(int threads, String name) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1: " + threads);
+        }
+        errors = new RuntimeException[threads];
+        workers = new Worker[threads - 1];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(name + "-" + (i + 1), i + 1);
+            workers[i].start();
+        }
+    }
+
+    public int getThreadCount() {
+        return errors.length;
+    }
+
+    /**
+     * Run jobs[i] for every stripe i and return once all of them are done. A job that
+     * throws does not stop the others; the first exception, in stripe order, is
+     * rethrown after they have finished.
+     *
+     * @param jobs one per stripe, {@link #getThreadCount()} of them.
+     */
+    public void run(Runnable[] jobs) {
+        waiter = Thread.currentThread();
+        pending.set(workers.length);
+        for (int i = 0; i < workers.length; i++) {
+            workers[i].submit(jobs[i + 1]);
+        }
+        runStripe(0, jobs[0]);
+        while (pending.get() > 0) {
+            LockSupport.park(this);
+        }
+        for (int i = 0; i < errors.length; i++) {
+            if (errors[i] != null) {
+                RuntimeException e = errors[i];
+                Arrays.fill(errors, null);
+                throw e;
+            }
+        }
+    }
+
+    private void runStripe(int stripe, Runnable job) {
+        try {
+            job.run();
+        } catch (RuntimeException e) {
+            errors[stripe] = e;
+        }
+    }
+
+    public void shutdown() {
+        for (Worker worker : workers) {
+            worker.interrupt();
+        }
+    }
+
+    private final class Worker extends Thread {
+        private final int stripe;
+        private volatile Runnable job;
+
+        Worker(String name, int stripe) {
+            super(name);
+            this.stripe = stripe;
+            setDaemon(true);
+        }
+
+        void submit(Runnable job) {
+            this.job = job;
+            LockSupport.unpark(this);
+        }
+
+        @Override
+        public void run() {
+            while (!isInterrupted()) {
+                Runnable current = job;
+                if (current == null) {
+                    LockSupport.park(this);
+                    continue;
+                }
+                job = null;
+                runStripe(stripe, current);
+                if (pending.decrementAndGet() == 0) {
+                    LockSupport.unpark(waiter);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.android.player;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link PlaneCopier} that splits every plane into horizontal stripes and copies
+ * them on a small set of worker threads, for frames large enough (4K and up) that
+ * one core spends a big share of the frame time in the copy.
+ * <p>
+ * Each stripe has its own copier and its own view of the source buffer, so the
+ * output is byte-for-byte the serial result. The calling thread copies one stripe
+ * straight from the caller's buffer and waits for the others, run on a
+ * {@link StripedExecutor} that lives as long as the copier.
+ * </p>
+ */
+public class StripedPlaneCopier extends PlaneCopier {
+    private static final int PLANE = 0;
+    private static final int INTERLEAVED = 1;
+    private static final int SEMI_PLANAR = 2;
+
+    private final StripedExecutor executor;
+    private final Stripe[] stripes;
+
+    /**
+     * @param threads number of stripes, including the one copied by the caller.
+     */
+    public StripedPlaneCopier(int threads, boolean wordWide) {
+        super(wordWide);
+        executor = new StripedExecutor(threads, "PlaneCopier");
+        stripes = new Stripe[threads];
+        for (int i = 0; i < threads; i++) {
+            stripes[i] = new Stripe(new PlaneCopier(wordWide), i > 0);
+        }
+    }
+
+    /**
+     * One stripe per core, capped so the copy does not starve the decoder and renderer.
+     */
+    public static int defaultThreadCount() {
+        return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    }
+
+    public int getThreadCount() {
+        return stripes.length;
+    }
+
+    @Override
+    public int copyPlane(ByteBuffer buffer, int rowStride, int pixelStride,
+                         int left, int top, int w, int h, byte[] data, int offset) {
+        for (int i = 0; i < stripes.length; i++) {
+            int first = h * i / stripes.length;
+            int last = h * (i + 1) / stripes.length;
+            stripes[i].setPlane(PLANE, buffer, null, 0, rowStride, pixelStride,
+                    left, top + first, w, last - first, data, offset + first * w, -1);
+        }
+        executor.run(stripes);
+        return offset + w * h;
+    }
+
+    @Override
+    public int copyInterleavedChroma(ByteBuffer u, ByteBuffer v, int layout, int rowStride,
+                                     int left, int top, int w, int h,
+                                     byte[] data, int uOffset, int vOffset) {
+        for (int i = 0; i < stripes.length; i++) {
+            int first = h * i / stripes.length;
+            int last = h * (i + 1) / stripes.length;
+            stripes[i].setPlane(INTERLEAVED, u, v, layout, rowStride, 2,
+                    left, top + first, w, last - first, data, uOffset + first * w, vOffset + first * w);
+        }
+        executor.run(stripes);
+        return Math.max(uOffset, vOffset) + w * h;
+    }
+
+    @Override
+    public int copySemiPlanarChroma(ByteBuffer u, ByteBuffer v, int layout, int rowStride,
+                                    int left, int top, int w, int h, byte[] data, int offset) {
+        for (int i = 0; i < stripes.length; i++) {
+            int first = h * i / stripes.length;
+            int last = h * (i + 1) / stripes.length;
+            stripes[i].setPlane(SEMI_PLANAR, u, v, layout, rowStride, 2,
+                    left, top + first, w, last - first, data, offset + first * w * 2, -1);
+        }
+        executor.run(stripes);
+        return offset + w * h * 2;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private final class Stripe implements Runnable {
+        private final PlaneCopier copier;
+        private final BufferView firstView;
+        private final BufferView secondView;
+        private int kind;
+        private ByteBuffer first;
+        private ByteBuffer second;
+        private int layout;
+        private int rowStride;
+        private int pixelStride;
+        private int left;
+        private int top;
+        private int w;
+        private int h;
+        private byte[] data;
+        private int firstOffset;
+        private int secondOffset;
+
+        /**
+         * @param ownViews false for the stripe copied on the calling thread, which may
+         *                 move the caller's buffers like the serial copier does.
+         */
+        Stripe(PlaneCopier copier, boolean ownViews) {
+            this.copier = copier;
+            firstView = ownViews ? new BufferView() : null;
+            secondView = ownViews ? new BufferView() : null;
+        }
+
+        void setPlane(int kind, ByteBuffer first, ByteBuffer second, int layout, int rowStride,
+                      int pixelStride, int left, int top, int w, int h,
+                      byte[] data, int firstOffset, int secondOffset) {
+            // each worker stripe moves the position of its own view
+            this.kind = kind;
+            this.first = firstView != null ? firstView.of(first) : first;
+            this.second = secondView != null && second != null ? secondView.of(second) : second;
+            this.layout = layout;
+            this.rowStride = rowStride;
+            this.pixelStride = pixelStride;
+            this.left = left;
+            this.top = top;
+            this.w = w;
+            this.h = h;
+            this.data = data;
+            this.firstOffset = firstOffset;
+            this.secondOffset = secondOffset;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (h <= 0) {
+                    return;
+                }
+                if (kind == PLANE) {
+                    copier.copyPlane(first, rowStride, pixelStride, left, top, w, h, data, firstOffset);
+                } else if (kind == INTERLEAVED) {
+                    copier.copyInterleavedChroma(first, second, layout, rowStride, left, top, w, h,
+                            data, firstOffset, secondOffset);
+                } else {
+                    copier.copySemiPlanarChroma(first, second, layout, rowStride, left, top, w, h,
+                            data, firstOffset);
+                }
+            } finally {
+                first = null;
+                second = null;
+                data = null;
+            }
+        }
+    }
+
+    /**
+     * A private view of a source buffer, reset rather than duplicated again while the
+     * caller keeps passing the same buffer.
+     */
+    private static final class BufferView {
+        private ByteBuffer source;
+        private ByteBuffer view;
+
+        ByteBuffer of(ByteBuffer buffer) {
+            if (buffer != source) {
+                source = buffer;
+                view = buffer.duplicate();
+            } else {
+                view.clear();
+                view.limit(buffer.limit());
+                view.position(buffer.position());
+            }
+            view.order(buffer.order());
+            return view;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.android.player;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The sync samples (key frames) of a video track: presentation time, sample flags and
+ * position in decode order, sorted by time. Lookups are a binary search, so scrubbing
+ * can snap to key frames and a seek can land on one without asking the extractor to
+ * scan for it.
+ * <p>
+ * Building one means walking every sample of the file, so it is cached on disk. The
+ * cache file records the path, size and modification time of the source it was built
+ * from and is ignored when any of them changed.
+ * </p>
+ */
+public class SyncSampleIndex {
+    private static final int MAGIC = 0x53534958; // "SSIX"
+    private static final int VERSION = 1;
+
+    private final long[] timesUs;
+    private final int[] flags;
+    private final long[] sampleNumbers;
+
+    private SyncSampleIndex(long[] timesUs, int[] flags, long[] sampleNumbers) {
+        this.timesUs = timesUs;
+        this.flags = flags;
+        this.sampleNumbers = sampleNumbers;
+    }
+
+    public int size() {
+        return timesUs.length;
+    }
+
+    public long getTimeUs(int i) {
+        return timesUs[i];
+    }
+
+    public int getFlags(int i) {
+        return flags[i];
+    }
+
+    /**
+     * How many samples come before this one in decode order.
+     */
+    public long getSampleNumber(int i) {
+        return sampleNumbers[i];
+    }
+
+    /**
+     * @return the last sync sample at or before timeUs, the first one when timeUs is
+     * before all of them, -1 when the index is empty.
+     */
+    public int floor(long timeUs) {
+        if (timesUs.length == 0) {
+            return -1;
+        }
+        int i = Arrays.binarySearch(timesUs, timeUs);
+        if (i >= 0) {
+            return i;
+        }
+        return Math.max(0, -i - 2);
+    }
+
+    /**
+     * @return the sync sample closest to timeUs, -1 when the index is empty.
+     */
+    public int closest(long timeUs) {
+        int i = floor(timeUs);
+        if (i >= 0 && i + 1 < timesUs.length
+                && timesUs[i + 1] - timeUs < Math.abs(timeUs - timesUs[i])) {
+            return i + 1;
+        }
+        return i;
+    }
+
+    /**
+     * Name of the cache file for this source in cacheDir. Different sources may share a
+     * name, the key stored in the file tells them apart.
+     */
+    public static File cacheFile(File cacheDir, String path) {
+        return new File(cacheDir, "syncidx-" + Integer.toHexString(path.hashCode()) + ".bin");
+    }
+
+    /**
+     * @return the cached index, or null when there is none or it was built from another
+     * version of the source.
+     */
+    public static SyncSampleIndex load(File cacheFile, String path, long size, long lastModified) {
+        if (!cacheFile.isFile()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || !in.readUTF().equals(path) || in.readLong() != size || in.readLong() != lastModified) {
+                return null;
+            }
+            int count = in.readInt();
+            if (count < 0) {
+                return null;
+            }
+            long[] times = new long[count];
+            int[] flags = new int[count];
+            long[] numbers = new long[count];
+            for (int i = 0; i < count; i++) {
+                times[i] = in.readLong();
+                flags[i] = in.readInt();
+                numbers[i] = in.readLong();
+            }
+            return new SyncSampleIndex(times, flags, numbers);
+        } catch (IOException e) {
+            // truncated or corrupt, build it again
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    /**
+     * Write the index for this version of the source. The file is replaced in one rename
+     * so a reader never sees half of it.
+     */
+    public void save(File cacheFile, String path, long size, long lastModified) throws IOException {
+        File tmp = new File(cacheFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(path);
+            out.writeLong(size);
+            out.writeLong(lastModified);
+            out.writeInt(timesUs.length);
+            for (int i = 0; i < timesUs.length; i++) {
+                out.writeLong(timesUs[i]);
+                out.writeInt(flags[i]);
+                out.writeLong(sampleNumbers[i]);
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(cacheFile)) {
+            tmp.delete();
+            throw new IOException("cannot rename " + tmp + " to " + cacheFile);
+        }
+    }
+
+    private static void close(DataInputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // nothing was written
+            }
+        }
+    }
+
+    /**
+     * Collects sync samples while the track is walked in decode order.
+     */
+    public static class Builder {
+        private long[] times = new long[64];
+        private int[] flags = new int[64];
+        private long[] numbers = new long[64];
+        private int count;
+        private long sampleNumber;
+
+        /**
+         * Report the next sample of the track, only sync samples are kept.
+         */
+        public void addSample(long timeUs, int sampleFlags, boolean sync) {
+            if (sync) {
+                if (count == times.length) {
+                    times = Arrays.copyOf(times, count * 2);
+                    flags = Arrays.copyOf(flags, count * 2);
+                    numbers = Arrays.copyOf(numbers, count * 2);
+                }
+                times[count] = timeUs;
+                flags[count] = sampleFlags;
+                numbers[count] = sampleNumber;
+                count++;
+            }
+            sampleNumber++;
+        }
+
+        public SyncSampleIndex build() {
+            long[] t = Arrays.copyOf(times, count);
+            int[] f = Arrays.copyOf(flags, count);
+            long[] n = Arrays.copyOf(numbers, count);
+            // key frames are hardly ever reordered, but the lookups rely on it
+            for (int i = 1; i < count; i++) {
+                if (t[i] < t[i - 1]) {
+                    sort(t, f, n);
+                    break;
+                }
+            }
+            return new SyncSampleIndex(t, f, n);
+        }
+
+        private static void sort(long[] t, int[] f, long[] n) {
+            Integer[] order = new Integer[t.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            final long[] times = t.clone();
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return Long.compare(times[a], times[b]);
+                }
+            });
+            int[] flags = f.clone();
+            long[] numbers = n.clone();
+            for (int i = 0; i < order.length; i++) {
+                t[i] = times[order[i]];
+                f[i] = flags[order[i]];
+                n[i] = numbers[order[i]];
+            }
+        }
+    }
+}
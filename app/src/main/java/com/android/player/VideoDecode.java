@@ -1,19 +1,22 @@
 package com.android.player;
 
+import android.annotation.TargetApi;
 import android.graphics.ImageFormat;
 import android.graphics.Rect;
 import android.media.Image;
 import android.media.MediaCodec;
 import android.media.MediaExtractor;
 import android.media.MediaFormat;
-import android.net.LocalSocket;
-import android.net.LocalSocketAddress;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.util.Log;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 
 public class VideoDecode extends Thread{
 
@@ -23,24 +26,77 @@ public class VideoDecode extends Thread{
     public int mVideoHeight;
     private boolean mLoop = true;
     private MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
-    private VideoPlayer videoPlayer;
+    private final FrameExtractor mFrameExtractor = new FrameExtractor(FRAME_POOL_SIZE);
+    private final ByteBuffer[] mPlaneBuffers = new ByteBuffer[3];
+    private final int[] mRowStrides = new int[3];
+    private final int[] mPixelStrides = new int[3];
+    private volatile boolean mAsyncMode;
+    private volatile boolean mGaplessLoop;
+    private final FramePacer mFramePacer = new FramePacer(new MediaClock());
+    private volatile boolean mPacingEnabled = true;
+    private static final int FRAME_POOL_SIZE = 8;
+
+    private long mFrameSequence;
+    private final SinkGroup mSinks = new SinkGroup();
+    private PipelineStats mStats = new PipelineStats();
+    private QualityController mQuality;
+    private boolean mQualityDrop;
+    private long mLastOutputNs;
+    private long mLastOutputPtsUs;
+    private long mPacingWaitNs;
+    private ExtractorSource mSource;
+    private File mIndexCacheDir;
+    private volatile DecodeLoop mDecodeLoop;
+    private volatile Handler mCodecHandler;
+    private MediaFormat mFormat;
+    private long mCodecStartedNs;
+    private boolean mFirstOutput = true;
+    private boolean mFirstFrameDispatched;
 
-    private OutputStream outputStream = null;
-    private LocalSocket localSocket = new LocalSocket(LocalSocket.SOCKET_STREAM);
-    private LocalSocketAddress localSocketAddress = new LocalSocketAddress("/dev/socket/video0",LocalSocketAddress.Namespace.FILESYSTEM);
+    /**
+     * Register a sink running on a dedicated thread of its own.
+     */
+    public void addSink(FrameSink sink) {
+        addSink(new SinkDispatcher(sink));
+    }
 
-    public VideoDecode(VideoPlayer videoPlayer) {
-        this.videoPlayer=videoPlayer;
+    /**
+     * Register a sink running on the given executor, use {@link SinkDispatcher#DIRECT}
+     * for sinks that only hand the frame over to another thread.
+     */
+    public void addSink(FrameSink sink, Executor executor, int queueDepth, FrameQueue.DropPolicy policy) {
+        addSink(new SinkDispatcher(sink, executor, queueDepth, policy));
     }
 
-    public void setSourceFile(File sourceFile) {
-        this.sourceFile = sourceFile;
+    /**
+     * Share a stats collector with the rest of the pipeline, call before start().
+     */
+    public void setStats(PipelineStats stats) {
+        mStats = stats;
     }
 
-    @Override
-    public synchronized void start() {
-        initDecode();
-        super.start();
+    public PipelineStats getStats() {
+        return mStats;
+    }
+
+    /**
+     * Feed decode timing to the controller and follow its frame dropping levels,
+     * call before start().
+     */
+    public void setQualityController(QualityController quality) {
+        mQuality = quality;
+    }
+
+    private void addSink(SinkDispatcher dispatcher) {
+        mSinks.add(dispatcher, mStats);
+    }
+
+    public void removeSink(FrameSink sink) {
+        mSinks.remove(sink);
+    }
+
+    public void setSourceFile(File sourceFile) {
+        this.sourceFile = sourceFile;
     }
 
     @Override
@@ -52,15 +108,68 @@ public class VideoDecode extends Thread{
     @Override
     public void interrupt() {
         mLoop = false;
-        try {
-            outputStream.close();
-            localSocket.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
         super.interrupt();
     }
 
+    /**
+     * @param rate playback speed, from {@link MediaClock#MIN_RATE} to {@link MediaClock#MAX_RATE}.
+     */
+    public void setPlaybackRate(float rate) {
+        mFramePacer.getClock().setRate(rate);
+    }
+
+    /**
+     * When disabled frames are handed on as fast as the decoder produces them.
+     */
+    public void setPacingEnabled(boolean enabled) {
+        if (enabled && !mPacingEnabled) {
+            mFramePacer.getClock().reset();
+        }
+        mPacingEnabled = enabled;
+    }
+
+    /**
+     * Frames of at least this many pixels are copied in stripes on several cores,
+     * {@link Integer#MAX_VALUE} keeps every copy on the decode thread.
+     */
+    public void setParallelCopyThreshold(int pixels) {
+        mFrameExtractor.setParallelCopyThreshold(pixels);
+    }
+
+    /**
+     * When the decoder hands out NV12/NV21, pass the chroma on interleaved in
+     * {@link VideoFrame#FORMAT_NV12}/{@link VideoFrame#FORMAT_NV21} frames instead of
+     * splitting it into I420. Every sink must handle both layouts.
+     */
+    public void setSemiPlanarOutput(boolean enabled) {
+        mFrameExtractor.setSemiPlanarOutput(enabled);
+    }
+
+    /**
+     * Let the codec call back as buffers free up instead of polling it every 10 ms,
+     * needs Android 6.0, older devices keep polling. Call before start().
+     */
+    public void setAsyncMode(boolean enabled) {
+        mAsyncMode = enabled;
+    }
+
+    /**
+     * Loop without flushing the codec: the start of the file is fed right after its end
+     * and timestamps keep increasing across loops, so there is no hitch and no burst of
+     * late frames at the loop point. Call before start().
+     */
+    public void setGaplessLoop(boolean enabled) {
+        mGaplessLoop = enabled;
+    }
+
+    public boolean isSemiPlanarOutput() {
+        return mFrameExtractor.isSemiPlanarOutput();
+    }
+
+    public FramePacer getFramePacer() {
+        return mFramePacer;
+    }
+
     public int getVideoWidth() {
         return mVideoWidth;
     }
@@ -69,30 +178,142 @@ public class VideoDecode extends Thread{
         return mVideoHeight;
     }
 
-    private void initDecode() {
-        MediaExtractor extractor = null;
+    /**
+     * Open the source and read the video track format, kept for the decode thread so the
+     * file is parsed only once. The decode thread calls it when not done before; calling
+     * it early makes the video size known while the surface is still being set up.
+     *
+     * @return false if the source cannot be opened or has no video track, which is
+     * logged rather than thrown so an early call on the UI thread cannot crash it.
+     */
+    public synchronized boolean prepare() {
+        if (mSource != null) {
+            return true;
+        }
+        long start = System.nanoTime();
+        MediaExtractor extractor = new MediaExtractor();
         try {
-            extractor = new MediaExtractor();
             extractor.setDataSource(sourceFile.toString()); //抛异常
-            int trackIndex = selectTrack(extractor);
-            if (trackIndex < 0) {
-                throw new RuntimeException("No video track found in " + sourceFile);
-            }
-            extractor.selectTrack(trackIndex);
-
-            MediaFormat format = extractor.getTrackFormat(trackIndex);
-            mVideoWidth = format.getInteger(MediaFormat.KEY_WIDTH);
-            mVideoHeight = format.getInteger(MediaFormat.KEY_HEIGHT);
-            Log.d(TAG, "Video size is " + mVideoWidth + "x" + mVideoHeight);
         } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            if (extractor != null) {
-                extractor.release();
-            }
+            extractor.release();
+            Log.e(TAG, "Cannot open " + sourceFile, e);
+            return false;
+        }
+        int trackIndex = selectTrack(extractor);
+        if (trackIndex < 0) {
+            extractor.release();
+            Log.e(TAG, "No video track found in " + sourceFile);
+            return false;
+        }
+        extractor.selectTrack(trackIndex);
+
+        MediaFormat format = extractor.getTrackFormat(trackIndex);
+        mVideoWidth = format.getInteger(MediaFormat.KEY_WIDTH);
+        mVideoHeight = format.getInteger(MediaFormat.KEY_HEIGHT);
+        Log.d(TAG, "Video size is " + mVideoWidth + "x" + mVideoHeight);
+        mSource = new ExtractorSource(extractor);
+        mFormat = format;
+        mStats.getStartup().record(StartupTimeline.Phase.OPEN_SOURCE, start, System.nanoTime());
+        loadIndex(trackIndex);
+        return true;
+    }
+
+    /**
+     * Keep the sync sample index of every source in this directory, call before prepare().
+     * Without it the index is built again every time.
+     */
+    public void setIndexCacheDir(File dir) {
+        mIndexCacheDir = dir;
+    }
+
+    /**
+     * @return the sync samples of the source, null until they have been loaded or indexed.
+     */
+    public SyncSampleIndex getSyncSampleIndex() {
+        ExtractorSource source = mSource;
+        return source == null ? null : source.getIndex();
+    }
+
+    /**
+     * Jump to timeUs, safe to call from any thread while playing.
+     *
+     * @param precise show the frame at timeUs, decoding from the sync sample before it
+     *                and dropping what comes before; otherwise start at the closest
+     *                sync sample, the cheap way for scrubbing.
+     */
+    public void seekTo(long timeUs, boolean precise) {
+        DecodeLoop loop = mDecodeLoop;
+        if (loop == null) {
+            Log.w(TAG, "seek before the decoder started");
+            return;
+        }
+        loop.requestSeek(timeUs, precise);
+        Handler handler = mCodecHandler;
+        if (handler != null) {
+            // in callback mode the loop only runs on the codec's thread
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    applySeek(mDecodeLoop);
+                }
+            });
         }
     }
 
+    private void applySeek(DecodeLoop loop) {
+        if (loop != null && loop.applyPendingSeek()) {
+            // the timeline jumped, neither the pacer nor the load estimate may bridge the gap
+            mFramePacer.getClock().reset();
+            mLastOutputNs = 0;
+        }
+    }
+
+    /**
+     * Load the sync sample index from the cache, or walk the track with an extractor of
+     * its own to build it, in the background.
+     */
+    private void loadIndex(final int trackIndex) {
+        final ExtractorSource source = mSource;
+        final File cacheDir = mIndexCacheDir;
+        final String path = sourceFile.getAbsolutePath();
+        final long size = sourceFile.length();
+        final long lastModified = sourceFile.lastModified();
+        Thread indexer = new Thread("SyncSampleIndex") {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                File cacheFile = cacheDir == null ? null : SyncSampleIndex.cacheFile(cacheDir, path);
+                SyncSampleIndex index = cacheFile == null ? null
+                        : SyncSampleIndex.load(cacheFile, path, size, lastModified);
+                if (index == null) {
+                    MediaExtractor extractor = new MediaExtractor();
+                    try {
+                        extractor.setDataSource(path);
+                        extractor.selectTrack(trackIndex);
+                        index = ExtractorSource.buildIndex(extractor);
+                    } catch (IOException e) {
+                        Log.w(TAG, "cannot index " + path, e);
+                        return;
+                    } finally {
+                        extractor.release();
+                    }
+                    if (cacheFile != null) {
+                        try {
+                            index.save(cacheFile, path, size, lastModified);
+                        } catch (IOException e) {
+                            Log.w(TAG, "cannot cache the index of " + path, e);
+                        }
+                    }
+                }
+                source.setIndex(index);
+                Log.d(TAG, index.size() + " sync samples in " + (System.nanoTime() - start) / 1000000 + " ms");
+            }
+        };
+        indexer.setDaemon(true);
+        indexer.setPriority(Thread.MIN_PRIORITY);
+        indexer.start();
+    }
+
     private static int selectTrack(MediaExtractor extractor) {
         // Select the first video track we find, ignore the rest.
         int numTracks = extractor.getTrackCount();
@@ -110,92 +331,243 @@ public class VideoDecode extends Thread{
 
     private void doExtract()  {
         MediaCodec decoder = null;
-
-        MediaExtractor extractor = new MediaExtractor();
+        if (!prepare()) {
+            // nothing to play, end like a finished stream
+            mSinks.finish();
+            mFrameExtractor.shutdown();
+            return;
+        }
+        ExtractorSource source = mSource;
+        MediaFormat format = mFormat;
+        String mime = format.getString(MediaFormat.KEY_MIME);
+        long createStart = System.nanoTime();
         try {
-            extractor.setDataSource(sourceFile.toString());
-        } catch (IOException e) {
-            e.printStackTrace();
+            decoder = MediaCodec.createDecoderByType(mime);
+        } catch (IOException | IllegalArgumentException e) {
+            Log.e(TAG, "no decoder for " + mime, e);
+        }
+        mStats.getStartup().record(StartupTimeline.Phase.CREATE_CODEC, createStart, System.nanoTime());
+        if (decoder == null) {
+            source.release();
+            mSinks.finish();
+            mFrameExtractor.shutdown();
+            return;
         }
 
-        int trackIndex = selectTrack(extractor);
-        if (trackIndex < 0) {
-            throw new RuntimeException("No video track found in " + sourceFile);
+        boolean async = mAsyncMode && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+        final MediaCodec codec = decoder;
+        DecodeLoop loop = new DecodeLoop(new MediaCodecPort(decoder, async), source,
+                new DecodeLoop.OutputHandler() {
+                    @Override
+                    public boolean onOutput(int index, long presentationTimeUs) {
+                        return handleOutput(codec, index, presentationTimeUs);
+                    }
+                });
+        loop.setStats(mStats);
+        loop.setLooping(mLoop);
+        loop.setGapless(mGaplessLoop);
+        loop.setPassListener(new DecodeLoop.PassListener() {
+            @Override
+            public void onPassStart(long presentationTimeUs) {
+                if (mPacingEnabled) {
+                    mFramePacer.startPass(presentationTimeUs);
+                }
+            }
+        });
+        if (NalUnits.isSupported(mime)) {
+            // non-reference samples can only be told apart in streams we can parse
+            final boolean hevc = NalUnits.MIME_HEVC.equals(mime);
+            loop.setInputFilter(new DecodeLoop.InputFilter() {
+                @Override
+                public boolean skip(ByteBuffer sample, int size) {
+                    // nothing refers to these frames, they never need decoding
+                    return mQuality != null && mQuality.isAtLeast(QualityController.Level.SKIP_NON_REFERENCE)
+                            && NalUnits.isNonReference(sample, 0, size, hevc);
+                }
+            });
         }
-        extractor.selectTrack(trackIndex);
 
-        MediaFormat format = extractor.getTrackFormat(trackIndex);
-        String mime = format.getString(MediaFormat.KEY_MIME);
-        try {
-            decoder = MediaCodec.createDecoderByType(mime);
-        } catch (IOException e) {
-            e.printStackTrace();
+        mDecodeLoop = loop;
+        if (async) {
+            runAsync(decoder, format, loop);
+        } else {
+            runSync(decoder, format, loop);
         }
-        decoder.configure(format, null, null, 0);
-        decoder.start();
+        mDecodeLoop = null;
+        source.release();
 
+        mSinks.finish();
+        mFrameExtractor.shutdown();
+        Log.d(TAG, "playFinish");
+    }
 
-        final int TIMEOUT_USEC = 10000;
-        ByteBuffer[] decoderInputBuffers = decoder.getInputBuffers();
-        PlayVideo playFrame = videoPlayer;
+    /**
+     * Poll the codec for free input and decoded output on this thread.
+     */
+    private void runSync(MediaCodec decoder, MediaFormat format, DecodeLoop loop) {
+        startCodec(decoder, format);
 
-        while (!isInterrupted()) {
+        final int TIMEOUT_USEC = 10000;
+        while (!isInterrupted() && !loop.isFinished()) {
+            applySeek(loop);
             int inputBufIndex = decoder.dequeueInputBuffer(TIMEOUT_USEC);
             if (inputBufIndex >= 0) {
-                ByteBuffer inputBuf = decoderInputBuffers[inputBufIndex];
-                // Read the sample data into the ByteBuffer.  This neither respects nor
-                // updates inputBuf's position, limit, etc.
-                int chunkSize = extractor.readSampleData(inputBuf, 0);
-                if (chunkSize < 0) {
-                    // End of stream -- send empty frame with EOS flag set.
-                    decoder.queueInputBuffer(inputBufIndex, 0, 0, 0L, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
-                } else {
-                    if (extractor.getSampleTrackIndex() != trackIndex) {
-                        Log.w(TAG, "WEIRD: got sample from track " +
-                                extractor.getSampleTrackIndex() + ", expected " + trackIndex);
-                    }
-                    long presentationTimeUs = extractor.getSampleTime();
-                    decoder.queueInputBuffer(inputBufIndex, 0, chunkSize, presentationTimeUs, 0 /*flags*/);
-                    extractor.advance();
-                }
+                loop.onInputBufferAvailable(inputBufIndex);
             }
 
-
             int decoderStatus = decoder.dequeueOutputBuffer(mBufferInfo, TIMEOUT_USEC);
             if (decoderStatus == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
                 MediaFormat newFormat = decoder.getOutputFormat();
                 Log.d("llx",newFormat.toString());
+                mFrameExtractor.resetStream();
             } else if (decoderStatus >= 0) {
-                boolean doRender = (mBufferInfo.size != 0);
-                if (doRender) {
-                    /*
-                    ByteBuffer buffer = decoder.getOutputBuffer(decoderStatus);
-                    byte[] bytes = new byte[buffer.remaining()];
-                    buffer.get(bytes);
-                     */
-                    Image image = decoder.getOutputImage(decoderStatus);
-                    byte[] bytes = getDataFromImage(image);
-
-                    if(bytes!=null) {
-                        injectCamera(bytes);
-                        playFrame.doFrame(bytes);
-                    }
+                loop.onOutputBufferAvailable(decoderStatus, mBufferInfo.size, mBufferInfo.presentationTimeUs,
+                        (mBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0);
+            }
+        }
+        decoder.stop();
+        decoder.release();
+    }
+
+    /**
+     * Let the codec call back on a handler thread of its own: input is fed the moment a
+     * buffer frees up and output handled the moment it is ready, nothing waits on a
+     * timeout. Every callback, the pacing wait included, runs on that one thread, so
+     * the loop sees the same single-threaded order as in polling mode. This thread only
+     * waits for the loop to finish or for interrupt().
+     */
+    @TargetApi(Build.VERSION_CODES.M)
+    private void runAsync(final MediaCodec decoder, MediaFormat format, final DecodeLoop loop) {
+        HandlerThread callbackThread = new HandlerThread("VideoDecode-codec");
+        callbackThread.start();
+        Handler handler = new Handler(callbackThread.getLooper());
+        mCodecHandler = handler;
+        final CountDownLatch finished = new CountDownLatch(1);
+        decoder.setCallback(new MediaCodec.Callback() {
+            @Override
+            public void onInputBufferAvailable(MediaCodec codec, int index) {
+                loop.onInputBufferAvailable(index);
+            }
+
+            @Override
+            public void onOutputBufferAvailable(MediaCodec codec, int index, MediaCodec.BufferInfo info) {
+                loop.onOutputBufferAvailable(index, info.size, info.presentationTimeUs,
+                        (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0);
+                if (loop.isFinished()) {
+                    finished.countDown();
                 }
+            }
 
-                decoder.releaseOutputBuffer(decoderStatus, doRender);
+            @Override
+            public void onError(MediaCodec codec, MediaCodec.CodecException e) {
+                Log.e(TAG, "decoder error", e);
+                loop.finish();
+                finished.countDown();
+            }
+
+            @Override
+            public void onOutputFormatChanged(MediaCodec codec, MediaFormat format) {
+                Log.d("llx",format.toString());
+                mFrameExtractor.resetStream();
+            }
+        }, handler);
+        startCodec(decoder, format);
+
+        try {
+            finished.await();
+        } catch (InterruptedException e) {
+            // stopped by interrupt()
+        }
+        // stop on the callback thread so no callback runs against a released codec
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                loop.finish();
+                decoder.stop();
+                decoder.release();
+            }
+        });
+        mCodecHandler = null;
+        callbackThread.quitSafely();
+        try {
+            callbackThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void startCodec(MediaCodec decoder, MediaFormat format) {
+        long start = System.nanoTime();
+        decoder.configure(format, null, null, 0);
+        decoder.start();
+        mCodecStartedNs = System.nanoTime();
+        mStats.getStartup().record(StartupTimeline.Phase.START_CODEC, start, mCodecStartedNs);
+    }
 
-                if (((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) && mLoop) {
-                    //Log.d(TAG, "Reached EOS, looping");
-                    extractor.seekTo(0, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
-                    decoder.flush();    // reset decoder state
+    /**
+     * Copy and dispatch one decoded buffer, unless it is late or dropped for quality.
+     *
+     * @return whether the buffer was used.
+     */
+    private boolean handleOutput(MediaCodec decoder, int index, long presentationTimeUs) {
+        mStats.markDecodeOutput(presentationTimeUs);
+        updateQuality(presentationTimeUs);
+        if (mFirstOutput) {
+            mStats.getStartup().record(StartupTimeline.Phase.FIRST_DECODE, mCodecStartedNs, System.nanoTime());
+            mFirstOutput = false;
+        }
+        boolean pacing = mPacingEnabled;
+        if (pacing && mFramePacer.isLate(presentationTimeUs)) {
+            // too late to be shown, skip it before paying for the copy
+            mStats.count(PipelineStats.Counter.DROPPED_LATE);
+            return false;
+        }
+        if (mQuality != null && mQuality.isAtLeast(QualityController.Level.DROP_BEFORE_COPY)) {
+            // halve the frame rate, dropping before any copy is made
+            mQualityDrop = !mQualityDrop;
+            if (mQualityDrop) {
+                mStats.count(PipelineStats.Counter.DROPPED_QUALITY);
+                return false;
+            }
+        }
+        /*
+        ByteBuffer buffer = decoder.getOutputBuffer(index);
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+         */
+        long copyStart = System.nanoTime();
+        Image image = decoder.getOutputImage(index);
+        VideoFrame frame = getDataFromImage(image);
+        mStats.record(PipelineStats.Stage.COPY, System.nanoTime() - copyStart);
+
+        if(frame!=null) {
+            frame.setPresentationTimeUs(presentationTimeUs);
+            frame.setSequence(mFrameSequence++);
+            if (pacing) {
+                long waitStart = System.nanoTime();
+                try {
+                    mFramePacer.awaitPresentation(presentationTimeUs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 }
+                mPacingWaitNs += System.nanoTime() - waitStart;
             }
+            long dispatchStart = System.nanoTime();
+            mSinks.dispatch(frame);
+            long dispatchEnd = System.nanoTime();
+            mStats.record(PipelineStats.Stage.DISPATCH, dispatchEnd - dispatchStart);
+            if (!mFirstFrameDispatched) {
+                // the pacer anchors its clock on the first frame, there is no wait in here
+                mStats.getStartup().record(StartupTimeline.Phase.FIRST_COPY, copyStart, dispatchEnd);
+                mFirstFrameDispatched = true;
+            }
+            frame.release();
         }
-        playFrame.playFinish();
+        return true;
     }
 
     /**
-     * Get a byte array image data from an Image object.
+     * Get a pooled frame holding the image data of an Image object.
      * <p>
      * Read data from all planes of an Image into a contiguous unpadded,
      * unpacked 1-D linear byte array, such that it can be write into disk, or
@@ -203,18 +575,19 @@ public class VideoDecode extends Thread{
      * input Image format.
      * </p>
      * <p>
-     * For YUV_420_888/NV21/YV12/Y8/Y16, it returns a byte array that contains
+     * For YUV_420_888/NV21/YV12/Y8/Y16, the frame contains
      * the Y plane data first, followed by U(Cb), V(Cr) planes if there is any
      * (xstride = width, ystride = height for chroma and luma components).
+     * Interleaved NV12/NV21 chroma is kept as one plane when semi-planar output is on.
+     * The caller owns the returned frame and must release it; null is returned
+     * for unsupported images or when every pooled frame is still in use.
      * </p>
      */
-    private static byte[] getDataFromImage(Image image) {
+    private VideoFrame getDataFromImage(Image image) {
         Rect crop = image.getCropRect();
         int format = image.getFormat();
         int width = crop.width();
         int height = crop.height();
-        int rowStride, pixelStride;
-        byte[] data = null;
 
         // Read image data
         Image.Plane[] planes = image.getPlanes();
@@ -234,88 +607,33 @@ public class VideoDecode extends Thread{
                 return null;
         }
 
-        ByteBuffer buffer = null;
-
-        int offset = 0;
-        data = new byte[width * height * ImageFormat.getBitsPerPixel(format) / 8];
+        for (int i = 0; i < 3; i++) {
+            mPlaneBuffers[i] = planes[i].getBuffer();
+            mRowStrides[i] = planes[i].getRowStride();
+            mPixelStrides[i] = planes[i].getPixelStride();
+        }
         //Log.d(TAG,"decode image w:"+width+", h:"+height+", bitppxl:"+ImageFormat.getBitsPerPixel(format));
-        byte[] rowData = new byte[planes[0].getRowStride()];
-        for (int i = 0; i < planes.length; i++) {
-            int shift = (i == 0) ? 0 : 1;
-            buffer = planes[i].getBuffer();
-            rowStride = planes[i].getRowStride();
-            pixelStride = planes[i].getPixelStride();
-            // For multi-planar yuv images, assuming yuv420 with 2x2 chroma subsampling.
-            int w = crop.width() >> shift;
-            int h = crop.height() >> shift;
-            buffer.position(rowStride * (crop.top >> shift) + pixelStride * (crop.left >> shift));
-            for (int row = 0; row < h; row++) {
-                int bytesPerPixel = ImageFormat.getBitsPerPixel(format) / 8;
-                int length;
-                if (pixelStride == bytesPerPixel) {
-                    // Special case: optimized read of the entire row
-                    length = w * bytesPerPixel;
-                    buffer.get(data, offset, length);
-                    offset += length;
-                } else {
-                    // Generic case: should work for any pixelStride but slower.
-                    // Use intermediate buffer to avoid read byte-by-byte from
-                    // DirectByteBuffer, which is very bad for performance
-                    length = (w - 1) * pixelStride + bytesPerPixel;
-                    buffer.get(rowData, 0, length);
-                    for (int col = 0; col < w; col++) {
-                        data[offset++] = rowData[col * pixelStride];
-                    }
-                }
-                // Advance buffer the remainder of the row stride
-                if (row < h - 1) {
-                    buffer.position(buffer.position() + rowStride - length);
-                }
-            }
+        VideoFrame frame = mFrameExtractor.extract(mPlaneBuffers, mRowStrides, mPixelStrides,
+                crop.left, crop.top, width, height);
+        if (frame == null) {
+            // every frame is still held by a sink
+            mStats.count(PipelineStats.Counter.DROPPED_POOL);
         }
-        return data;
+        return frame;
     }
 
-    private boolean injectCamera(byte[] bytes) {
-        try {
-            if(!localSocket.isConnected()) {
-                localSocket.connect(localSocketAddress);
-                localSocket.setSendBufferSize(mVideoWidth*mVideoHeight*3/2);
-            }
-
-            if(localSocket.isConnected()) {
-                if(outputStream==null) {
-                    outputStream = localSocket.getOutputStream();
-                }
-
-                if(outputStream!=null) {
-                    outputStream.write(bytes);
-                    return true;
-                }
-            } else {
-                Log.d("llx","Connect Fail");
-            }
-        } catch (IOException e) {
-            try {
-                if(outputStream!=null) {
-                    outputStream.close();
-                    outputStream = null;
-                }
-                localSocket.close();
-            } catch (IOException ex) {
-                ex.printStackTrace();
-            }
-            localSocket = new LocalSocket(LocalSocket.SOCKET_STREAM);
+    /**
+     * Report how long the decode thread was busy since the previous frame, not counting
+     * the time it waited for presentation, against the content time between the two.
+     */
+    private void updateQuality(long ptsUs) {
+        long now = System.nanoTime();
+        if (mQuality != null && mLastOutputNs > 0) {
+            long intervalNs = (long) ((ptsUs - mLastOutputPtsUs) * 1000 / mFramePacer.getClock().getRate());
+            mQuality.onFrameDecoded(now - mLastOutputNs - mPacingWaitNs, intervalNs);
         }
-        return false;
-    }
-
-    public interface PlayVideo {
-        void doFrame(byte[] frame);
-        void playFinish();
-    }
-
-    public void playFrame(byte[] yuv, YUVRenderer glRenderer) {
-        glRenderer.update(yuv, getVideoWidth(), getVideoHeight());
+        mLastOutputNs = now;
+        mLastOutputPtsUs = ptsUs;
+        mPacingWaitNs = 0;
     }
 }
@@ -0,0 +1,222 @@
+package com.android.player;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A decoded YUV 4:2:0 frame backed by a reusable buffer, either planar I420/YV12 or
+ * semi-planar NV12/NV21 where plane 1 holds both chroma components interleaved.
+ * <p>
+ * Frames are reference counted: whoever obtains a frame owns one reference and
+ * must call {@link #release()} when done with it. Consumers that keep a frame
+ * beyond the callback it was handed to them in must {@link #retain()} it first.
+ * When the last reference is dropped the frame goes back to its {@link Recycler}.
+ * </p>
+ */
+public class VideoFrame {
+
+    public interface Recycler {
+        void recycle(VideoFrame frame);
+    }
+
+    /** Y, U and V planes */
+    public static final int FORMAT_I420 = 0;
+    /** Y plane and one U V interleaved plane */
+    public static final int FORMAT_NV12 = 1;
+    /** Y plane and one V U interleaved plane */
+    public static final int FORMAT_NV21 = 2;
+    /**
+     * Y, V and U planes; plane 1 is still U and plane 2 still V, only the order in the
+     * buffer differs. Only produced for the injection socket, the renderer draws it
+     * like I420.
+     */
+    public static final int FORMAT_YV12 = 3;
+
+    private final Recycler recycler;
+    private final ByteBuffer data;
+    private final AtomicInteger refCount = new AtomicInteger();
+
+    private int width;
+    private int height;
+    private int format = -1;
+    private long presentationTimeUs;
+    private long sequence;
+    private final int[] planeOffset = new int[3];
+    private final int[] planeStride = new int[3];
+    private final ByteBuffer[] planes = new ByteBuffer[3];
+
+    VideoFrame(ByteBuffer data, Recycler recycler) {
+        this.data = data;
+        this.recycler = recycler;
+    }
+
+    /**
+     * Lay the frame out as packed planes of the given size and format and hand out the
+     * first reference. Both layouts take {@link #frameSize} bytes.
+     */
+    void reset(int width, int height, int format) {
+        int ySize = width * height;
+        int uvSize = chromaLength(width) * chromaLength(height);
+        data.clear();
+        if (width != this.width || height != this.height || format != this.format) {
+            // plane views only need rebuilding when the layout changes
+            planes[0] = slice(0, ySize);
+            if (format == FORMAT_I420) {
+                planes[1] = slice(ySize, uvSize);
+                planes[2] = slice(ySize + uvSize, uvSize);
+            } else if (format == FORMAT_YV12) {
+                planes[1] = slice(ySize + uvSize, uvSize);
+                planes[2] = slice(ySize, uvSize);
+            } else {
+                planes[1] = slice(ySize, uvSize * 2);
+                planes[2] = null;
+            }
+        }
+        this.width = width;
+        this.height = height;
+        this.format = format;
+        this.presentationTimeUs = 0;
+        this.sequence = 0;
+        planeOffset[0] = 0;
+        planeStride[0] = width;
+        planeOffset[1] = ySize;
+        if (format == FORMAT_I420 || format == FORMAT_YV12) {
+            planeOffset[format == FORMAT_I420 ? 2 : 1] = ySize + uvSize;
+            planeOffset[format == FORMAT_I420 ? 1 : 2] = ySize;
+            planeStride[1] = chromaLength(width);
+            planeStride[2] = chromaLength(width);
+        } else {
+            planeOffset[2] = -1;
+            planeStride[1] = chromaLength(width) * 2;
+            planeStride[2] = 0;
+        }
+        data.limit(ySize + uvSize * 2);
+        refCount.set(1);
+    }
+
+    private ByteBuffer slice(int offset, int length) {
+        ByteBuffer view = data.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice();
+    }
+
+    public static int frameSize(int width, int height) {
+        return width * height + chromaLength(width) * chromaLength(height) * 2;
+    }
+
+    /**
+     * Chroma samples across a row or down a column of this many luma samples. Odd
+     * sizes round up, the last chroma sample covering a single luma column or row, as
+     * in Y4M and Android's YUV_420_888.
+     */
+    public static int chromaLength(int lumaLength) {
+        return (lumaLength + 1) >> 1;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * One of {@link #FORMAT_I420}, {@link #FORMAT_NV12}, {@link #FORMAT_NV21},
+     * {@link #FORMAT_YV12}.
+     */
+    public int getFormat() {
+        return format;
+    }
+
+    /**
+     * 3 for I420 and YV12, 2 for the semi-planar formats.
+     */
+    public int getPlaneCount() {
+        return isSemiPlanar(format) ? 2 : 3;
+    }
+
+    public static boolean isSemiPlanar(int format) {
+        return format == FORMAT_NV12 || format == FORMAT_NV21;
+    }
+
+    public long getPresentationTimeUs() {
+        return presentationTimeUs;
+    }
+
+    public void setPresentationTimeUs(long presentationTimeUs) {
+        this.presentationTimeUs = presentationTimeUs;
+    }
+
+    /**
+     * Position of the frame in decode order, consumers use gaps to detect drops.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    public int getPlaneOffset(int plane) {
+        return planeOffset[plane];
+    }
+
+    public int getPlaneStride(int plane) {
+        return planeStride[plane];
+    }
+
+    /**
+     * View of a single plane, positioned at its first byte. The views are shared by
+     * every consumer of the frame, so they must not be repositioned. Plane 2 is null
+     * for the semi-planar formats.
+     */
+    public ByteBuffer getPlane(int plane) {
+        return planes[plane];
+    }
+
+    /**
+     * Total number of meaningful bytes, starting at {@link #arrayOffset()}.
+     */
+    public int getSize() {
+        return data.limit();
+    }
+
+    public ByteBuffer getData() {
+        return data;
+    }
+
+    public byte[] array() {
+        return data.array();
+    }
+
+    public int arrayOffset() {
+        return data.arrayOffset();
+    }
+
+    public int capacity() {
+        return data.capacity();
+    }
+
+    public VideoFrame retain() {
+        if (refCount.getAndIncrement() <= 0) {
+            refCount.getAndDecrement();
+            throw new IllegalStateException("retain() on a recycled frame");
+        }
+        return this;
+    }
+
+    public void release() {
+        int count = refCount.decrementAndGet();
+        if (count == 0) {
+            if (recycler != null) {
+                recycler.recycle(this);
+            }
+        } else if (count < 0) {
+            refCount.set(0);
+            throw new IllegalStateException("release() called too many times");
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.android.player;
 
+import android.app.ActivityManager;
 import android.content.Context;
+import android.content.pm.ConfigurationInfo;
 import android.opengl.GLSurfaceView;
 import android.util.DisplayMetrics;
 import android.util.Log;
@@ -9,36 +11,166 @@ import android.view.WindowManager;
 
 import java.io.File;
 
-public class VideoPlayer implements VideoDecode.PlayVideo {
+public class VideoPlayer {
+    private static final String TAG = "llx";
     private VideoDecode mVideoDecode;
+    private FramePump mFramePump;
     private YUVRenderer glRenderer;
+    private final PipelineStats mStats = new PipelineStats();
+    private final StatsReporter mStatsReporter = new StatsReporter(mStats, STATS_PERIOD_MS);
+    private final QualityController mQuality = new QualityController();
+    private FrameRecorder mRecorder;
+    private final CameraInjector mCameraInjector;
+    private static final long STATS_PERIOD_MS = 5000;
+    private static final int DEFAULT_RENDER_QUEUE = 3;
 
     public VideoPlayer(GLSurfaceView surfaceView) {
-        surfaceView.setEGLContextClientVersion(2);
+        this(surfaceView, null);
+    }
+
+    /**
+     * @param source frames to show instead of decoding /sdcard/test.mp4, to load-test
+     *               everything after the decoder; null to decode.
+     */
+    public VideoPlayer(GLSurfaceView surfaceView, FrameSource source) {
+        mStats.getStartup().begin();
+        int glesVersion = supportsGLES3(surfaceView.getContext()) ? 3 : 2;
+        surfaceView.setEGLContextClientVersion(glesVersion);
 
-        glRenderer = new YUVRenderer(surfaceView);
+        glRenderer = new YUVRenderer(surfaceView, DEFAULT_RENDER_QUEUE, FrameQueue.DropPolicy.DROP_OLDEST, glesVersion);
+        glRenderer.setStats(mStats);
+        glRenderer.setQualityController(mQuality);
         surfaceView.setRenderer(glRenderer);
+        // draw only when the decoder hands over a frame, not on every vsync
+        surfaceView.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
+
+        mQuality.setListener(new QualityController.Listener() {
+            @Override
+            public void onLevelChanged(QualityController.Level level) {
+                Log.d(TAG, "quality level " + level);
+                glRenderer.setSharpen(level == QualityController.Level.FULL
+                        ? ShaderGenerator.Sharpen.FULL_9 : ShaderGenerator.Sharpen.NONE);
+            }
+        });
+        mCameraInjector = new CameraInjector(new LocalSocketConnector("/dev/socket/video0"));
+        mCameraInjector.setStats(mStats);
 
-        mVideoDecode=new VideoDecode(this);
+        if (source != null) {
+            mFramePump = new FramePump(source);
+            mFramePump.setStats(mStats);
+            mFramePump.addSink(glRenderer, SinkDispatcher.DIRECT, 1, FrameQueue.DropPolicy.DROP_OLDEST);
+            mFramePump.addSink(mCameraInjector);
+            glRenderer.setExpectedFrameSize(source.getWidth(), source.getHeight(), source.getFormat());
+            return;
+        }
+
+        mVideoDecode=new VideoDecode();
+        mVideoDecode.setStats(mStats);
+        mVideoDecode.setQualityController(mQuality);
+        // no-op below Android 6.0, the decoder keeps polling there
+        mVideoDecode.setAsyncMode(true);
+        mVideoDecode.setGaplessLoop(true);
         mVideoDecode.setSourceFile(new File("/sdcard/test.mp4"));
+        mVideoDecode.setIndexCacheDir(surfaceView.getContext().getCacheDir());
+        // the renderer only queues the frame for the GL thread, no need for a thread of its own
+        mVideoDecode.addSink(glRenderer, SinkDispatcher.DIRECT, 1, FrameQueue.DropPolicy.DROP_OLDEST);
+        mVideoDecode.addSink(mCameraInjector);
+
+        // parse the source once, here, so the decode thread only has to create the codec
+        // while the GL thread builds the program and textures for the known size; a source
+        // that cannot be opened is logged and playback ends on the decode thread
+        if (mVideoDecode.prepare()) {
+            // hardware decoders mostly hand out NV12, anything else reallocates on the first frame
+            glRenderer.setExpectedFrameSize(mVideoDecode.getVideoWidth(), mVideoDecode.getVideoHeight(),
+                    mVideoDecode.isSemiPlanarOutput() ? VideoFrame.FORMAT_NV12 : VideoFrame.FORMAT_I420);
+        }
     }
 
     public void start(){
-        mVideoDecode.start();
+        if (mFramePump != null) {
+            mFramePump.start();
+        } else {
+            mVideoDecode.start();
+        }
+        mStatsReporter.start();
     }
 
-    public void stop() {
-        mVideoDecode.isInterrupted();
+    /**
+     * Crop, scale and repack the frames sent to the camera socket, e.g. to 1280x720 NV21,
+     * instead of sending them at the decoded size as I420. Call before start(), the
+     * injector shuts the converter down when playback ends.
+     */
+    public void setInjectionConverter(FrameConverter converter) {
+        mCameraInjector.setConverter(converter);
+    }
+
+    /**
+     * Hand the injected frames over through a ring of slotCount frames in a shared file
+     * the camera consumer maps, instead of through the socket, which then only carries
+     * a short notification per frame. Call before start().
+     *
+     * @param slotCount a power of two, 2 or more.
+     */
+    public void setInjectionRing(File file, int slotCount) {
+        mCameraInjector.setSharedRing(file, slotCount);
+    }
+
+    /**
+     * @param precise land on the exact frame, otherwise on the closest key frame, which
+     *                is what scrubbing wants.
+     */
+    public void seekTo(long timeUs, boolean precise) {
+        if (mVideoDecode != null) {
+            mVideoDecode.seekTo(timeUs, precise);
+        }
     }
 
-    @Override
-    public void doFrame(byte[] frame) {
-        mVideoDecode.playFrame(frame,glRenderer);
+    /**
+     * Record every decoded frame into memory-mapped segments in dir, until stopRecording().
+     */
+    public synchronized void startRecording(File dir) {
+        stopRecording();
+        mRecorder = new FrameRecorder(dir);
+        if (mFramePump != null) {
+            mFramePump.addSink(mRecorder);
+        } else {
+            mVideoDecode.addSink(mRecorder);
+        }
+    }
+
+    public synchronized void stopRecording() {
+        if (mRecorder != null) {
+            if (mFramePump != null) {
+                mFramePump.removeSink(mRecorder);
+            } else {
+                mVideoDecode.removeSink(mRecorder);
+            }
+            mRecorder = null;
+        }
+    }
+
+    public PipelineStats getStats() {
+        return mStats;
+    }
+
+    public QualityController getQualityController() {
+        return mQuality;
+    }
+
+    public void stop() {
+        mStatsReporter.stop();
+        if (mFramePump != null) {
+            mFramePump.interrupt();
+        } else {
+            mVideoDecode.interrupt();
+        }
+        glRenderer.release();
     }
 
-    @Override
-    public void playFinish() {
-        Log.d("llx","playFinish");
+    private static boolean supportsGLES3(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        ConfigurationInfo info = activityManager.getDeviceConfigurationInfo();
+        return info.reqGlEsVersion >= 0x30000;
     }
 
     public DisplayMetrics getDM(Context context) {
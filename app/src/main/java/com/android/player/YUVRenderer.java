@@ -1,55 +1,156 @@
 package com.android.player;
 
-import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
 import android.opengl.GLSurfaceView.Renderer;
-
-import java.nio.Buffer;
-import java.nio.ByteBuffer;
+import android.util.Log;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
-public class YUVRenderer implements Renderer {
+public class YUVRenderer implements Renderer, FrameSink {
+    private static final int DEFAULT_QUEUE_DEPTH = 3;
+    private static final int PIXEL_BUFFER_RING = 3;
+
     private GLSurfaceView mTargetSurface;
-    private GLProgram prog = new GLProgram();
+    private final GLApi mGL;
+    private final GLProgram prog;
     private int mScreenWidth, mScreenHeight;
     private int mVideoWidth, mVideoHeight;
-    private ByteBuffer yData;
-    private ByteBuffer uData;
-    private ByteBuffer vData;
+    private final FrameQueue mFrameQueue;
+    private VideoFrame mCurrentFrame;
+    // sequence of the frame whose planes are in the textures, -1 when they need an upload
+    private long mUploadedSequence = -1;
+    private PipelineStats mStats = new PipelineStats();
+    private QualityController mQuality;
+    // size and format of the coming frames, known before the first one is decoded
+    private volatile int mExpectedWidth, mExpectedHeight;
+    private volatile int mExpectedFormat = VideoFrame.FORMAT_I420;
 
     public YUVRenderer(GLSurfaceView surface) {
+        this(surface, DEFAULT_QUEUE_DEPTH, FrameQueue.DropPolicy.DROP_OLDEST);
+    }
+
+    /**
+     * @param queueDepth how many decoded frames may wait for the GL thread.
+     * @param policy what the decoder does when the GL thread falls behind.
+     */
+    public YUVRenderer(GLSurfaceView surface, int queueDepth, FrameQueue.DropPolicy policy) {
+        this(surface, queueDepth, policy, 2);
+    }
+
+    /**
+     * @param glesVersion client version the surface was set up with, 3 streams uploads
+     *                    through pixel buffers.
+     */
+    public YUVRenderer(GLSurfaceView surface, int queueDepth, FrameQueue.DropPolicy policy, int glesVersion) {
         mTargetSurface = surface;
+        mFrameQueue = new FrameQueue(queueDepth, policy);
+        mGL = glesVersion >= 3 ? new AndroidGL3() : new AndroidGL();
+        prog = new GLProgram(mGL);
+        if (glesVersion >= 3) {
+            prog.setPixelBufferRing(PIXEL_BUFFER_RING);
+            prog.setFramesInFlight(InFlightFrames.DEFAULT_MAX_IN_FLIGHT);
+        }
+    }
+
+    public void setStats(PipelineStats stats) {
+        mStats = stats;
+        prog.setStats(stats);
+        stats.addQueue("render", mFrameQueue);
+    }
+
+    /**
+     * Report the GL time of every new frame to the controller, call before rendering starts.
+     */
+    public void setQualityController(QualityController quality) {
+        mQuality = quality;
+    }
+
+    /**
+     * Luma sharpening tier, safe to call from any thread.
+     */
+    public void setSharpen(ShaderGenerator.Sharpen sharpen) {
+        prog.setSharpen(sharpen);
+    }
+
+    /**
+     * Pre-size the textures for frames of this size and format when the surface is
+     * created, so the first frame only uploads. Call before the surface is created.
+     */
+    public void setExpectedFrameSize(int width, int height, int format) {
+        mExpectedFormat = format;
+        mExpectedWidth = width;
+        mExpectedHeight = height;
+    }
+
+    public FrameQueue getFrameQueue() {
+        return mFrameQueue;
     }
 
     @Override
     public void onSurfaceCreated(GL10 gl, EGLConfig config) {
+        long start = System.nanoTime();
+        // a new EGL context comes without our program and textures
+        prog.onContextCreated();
+        if (mExpectedWidth > 0 && mExpectedHeight > 0) {
+            prog.prepare(mExpectedWidth, mExpectedHeight, mExpectedFormat);
+        }
         if (!prog.isProgramBuilt()) {
             prog.buildProgram();
         }
+        mUploadedSequence = -1;
+        mStats.getStartup().record(StartupTimeline.Phase.GL_SETUP, start, System.nanoTime());
     }
 
     @Override
     public void onSurfaceChanged(GL10 gl, int width, int height) {
         mScreenWidth = width; mScreenHeight = height;
-        GLES20.glViewport(0, 0, width, height);
+        mGL.glViewport(0, 0, width, height);
     }
 
     @Override
     public void onDrawFrame(GL10 gl) {
-        synchronized (this) {
-            if (yData != null) {
-                // reset position, have to be done
-                yData.position(0);
-                uData.position(0);
-                vData.position(0);
-                prog.buildTextures(new Buffer[]{yData, uData, vData}, mVideoWidth, mVideoHeight);
-                GLES20.glClearColor(0.0f, 0.0f, 0.0f, 1.0f);
-                GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
-                prog.drawFrame();
+        long start = System.nanoTime();
+        // the swap since the last draw flushed it, its fence may have signalled already
+        prog.retireFinishedFrames();
+        VideoFrame frame = mFrameQueue.poll();
+        if (frame != null) {
+            if (mCurrentFrame != null) {
+                mCurrentFrame.release();
+            }
+            mCurrentFrame = frame;
+            resize(frame.getWidth(), frame.getHeight());
+            mStats.count(PipelineStats.Counter.RENDERED);
+        }
+
+        frame = mCurrentFrame;
+        if (frame != null) {
+            boolean uploaded = frame.getSequence() != mUploadedSequence;
+            if (uploaded) {
+                prog.uploadFrame(frame);
+                mUploadedSequence = frame.getSequence();
+            } else {
+                // redraw for the surface, not for a new frame
+                mStats.count(PipelineStats.Counter.UPLOADS_SKIPPED);
+            }
+            mGL.glClearColor(0.0f, 0.0f, 0.0f, 1.0f);
+            mGL.glClear(GLApi.GL_COLOR_BUFFER_BIT);
+            prog.drawFrame();
+            long renderNs = System.nanoTime() - start;
+            mStats.record(PipelineStats.Stage.RENDER, renderNs);
+            if (mQuality != null && uploaded) {
+                mQuality.onFrameRendered(renderNs);
+            }
+            StartupTimeline startup = mStats.getStartup();
+            if (!startup.isComplete()) {
+                startup.record(StartupTimeline.Phase.FIRST_RENDER, start, start + renderNs);
+                Log.d("llx", "first frame " + startup);
             }
         }
+        if (mFrameQueue.size() > 0) {
+            // requests made while this frame was drawn were merged into one
+            mTargetSurface.requestRender();
+        }
     }
 
     private void resize(int width, int height) {
@@ -72,29 +173,29 @@ public class YUVRenderer implements Renderer {
 
             this.mVideoWidth = width;
             this.mVideoHeight = height;
-            int yarraySize = width * height;
-            int uvarraySize = yarraySize / 4;
-            synchronized (this) {
-                yData = ByteBuffer.allocate(yarraySize);
-                uData = ByteBuffer.allocate(uvarraySize);
-                vData = ByteBuffer.allocate(uvarraySize);
-            }
         }
     }
 
-    public void update(byte[] yuvData, int width, int height) {
-        resize(width,height);
-
-        synchronized (this) {
-            yData.clear();
-            uData.clear();
-            vData.clear();
-            yData.put(yuvData, 0, yData.capacity());
-            uData.put(yuvData, yData.capacity(), uData.capacity());
-            vData.put(yuvData, yData.capacity()+uData.capacity(), vData.capacity());
-        }
+    /**
+     * Only queues the frame for the GL thread so a slow upload never holds up the decoder.
+     */
+    @Override
+    public void onFrame(VideoFrame frame) {
+        mFrameQueue.offer(frame.retain());
 
-        // request to render
+        // request to render, the surface only draws on demand
         mTargetSurface.requestRender();
     }
+
+    @Override
+    public void onFinish() {
+    }
+
+    /**
+     * Unblock a decoder waiting on a full queue and drop what is left.
+     */
+    public void release() {
+        mFrameQueue.close();
+        mFrameQueue.clear();
+    }
 }
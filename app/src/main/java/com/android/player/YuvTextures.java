@@ -0,0 +1,156 @@
+package com.android.player;
+
+import java.nio.Buffer;
+
+/**
+ * The textures a frame is drawn from: three luminance textures for I420, or a luminance
+ * texture and a half-size luminance-alpha texture holding the interleaved chroma for
+ * NV12/NV21. Storage is allocated and the sampling parameters are set once per
+ * resolution and format, every frame after that only replaces the texels with
+ * glTexSubImage2D.
+ */
+public class YuvTextures {
+    private final GLApi gl;
+    private final int[] textureIds = {-1, -1, -1};
+    private int width = -1;
+    private int height = -1;
+    private int format = -1;
+    private int planeCount;
+    private long allocationCount;
+    private long uploadCount;
+
+    public YuvTextures(GLApi gl) {
+        this.gl = gl;
+    }
+
+    /**
+     * Upload the planes of a width x height frame, tightly packed.
+     *
+     * @param format one of the VideoFrame.FORMAT_ constants.
+     */
+    public void upload(Buffer[] planes, int width, int height, int format) {
+        resize(width, height, format);
+        for (int i = 0; i < planeCount; i++) {
+            gl.glBindTexture(GLApi.GL_TEXTURE_2D, textureIds[i]);
+            gl.glTexSubImage2D(GLApi.GL_TEXTURE_2D, 0, 0, 0, getPlaneWidth(i), getPlaneHeight(i),
+                    getPlaneFormat(i), GLApi.GL_UNSIGNED_BYTE, planes[i]);
+        }
+        uploadCount++;
+    }
+
+    /**
+     * Make sure storage for a width x height frame of this format exists.
+     *
+     * @return true if the textures were (re)allocated.
+     */
+    public boolean resize(int width, int height, int format) {
+        if (width == this.width && height == this.height && format == this.format) {
+            return false;
+        }
+        allocate(width, height, format);
+        return true;
+    }
+
+    private void allocate(int width, int height, int format) {
+        release();
+        this.width = width;
+        this.height = height;
+        this.format = format;
+        planeCount = VideoFrame.isSemiPlanar(format) ? 2 : 3;
+        // chroma rows of odd-sized frames are not 4-byte aligned
+        gl.glPixelStorei(GLApi.GL_UNPACK_ALIGNMENT, 1);
+        gl.glGenTextures(planeCount, textureIds, 0);
+        for (int i = 0; i < planeCount; i++) {
+            int filter = i == 0 ? GLApi.GL_LINEAR : GLApi.GL_NEAREST;
+            gl.glBindTexture(GLApi.GL_TEXTURE_2D, textureIds[i]);
+            gl.glTexImage2D(GLApi.GL_TEXTURE_2D, 0, getPlaneFormat(i), getPlaneWidth(i), getPlaneHeight(i), 0,
+                    getPlaneFormat(i), GLApi.GL_UNSIGNED_BYTE, null);
+            gl.glTexParameteri(GLApi.GL_TEXTURE_2D, GLApi.GL_TEXTURE_MIN_FILTER, filter);
+            gl.glTexParameteri(GLApi.GL_TEXTURE_2D, GLApi.GL_TEXTURE_MAG_FILTER, filter);
+            gl.glTexParameteri(GLApi.GL_TEXTURE_2D, GLApi.GL_TEXTURE_WRAP_S, GLApi.GL_CLAMP_TO_EDGE);
+            gl.glTexParameteri(GLApi.GL_TEXTURE_2D, GLApi.GL_TEXTURE_WRAP_T, GLApi.GL_CLAMP_TO_EDGE);
+        }
+        allocationCount++;
+    }
+
+    /**
+     * GL_LUMINANCE, or GL_LUMINANCE_ALPHA for interleaved chroma.
+     */
+    public int getPlaneFormat(int plane) {
+        return plane == 1 && planeCount == 2 ? GLApi.GL_LUMINANCE_ALPHA : GLApi.GL_LUMINANCE;
+    }
+
+    /**
+     * Width in texels, an interleaved chroma texel holds two bytes.
+     */
+    public int getPlaneWidth(int plane) {
+        return plane == 0 ? width : VideoFrame.chromaLength(width);
+    }
+
+    public int getPlaneHeight(int plane) {
+        return plane == 0 ? height : VideoFrame.chromaLength(height);
+    }
+
+    /**
+     * Bind plane i to texture unit i.
+     */
+    public void bind() {
+        for (int i = 0; i < planeCount; i++) {
+            gl.glActiveTexture(GLApi.GL_TEXTURE0 + i);
+            gl.glBindTexture(GLApi.GL_TEXTURE_2D, textureIds[i]);
+        }
+    }
+
+    public boolean isAllocated() {
+        return width > 0;
+    }
+
+    public int getFormat() {
+        return format;
+    }
+
+    public int getPlaneCount() {
+        return planeCount;
+    }
+
+    public int getTextureId(int plane) {
+        return textureIds[plane];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * How many times texture storage was (re)allocated, once per resolution change.
+     */
+    public long getAllocationCount() {
+        return allocationCount;
+    }
+
+    public long getUploadCount() {
+        return uploadCount;
+    }
+
+    public void release() {
+        if (textureIds[0] >= 0) {
+            gl.glDeleteTextures(planeCount, textureIds, 0);
+        }
+        invalidate();
+    }
+
+    /**
+     * Forget the textures without deleting them, after their EGL context is gone.
+     */
+    public void invalidate() {
+        textureIds[0] = textureIds[1] = textureIds[2] = -1;
+        width = -1;
+        height = -1;
+        format = -1;
+        planeCount = 0;
+    }
+}
@@ -0,0 +1,83 @@
+package com.android.player.benchmark;
+
+import com.android.player.FrameExtractor;
+import com.android.player.FrameSource;
+import com.android.player.VideoFrame;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link FrameSource} standing in for the hardware decoder: every frame is extracted
+ * from {@link DecoderPlanes} by the {@link FrameExtractor} VideoDecode uses, so the
+ * plane copy is part of the measured pipeline.
+ */
+public class DecoderOutputSource implements FrameSource {
+    private static final int POOL_SIZE = 8;
+    private static final long POOL_WAIT_NS = 100_000;
+
+    private final DecoderPlanes planes;
+    private final FrameExtractor extractor = new FrameExtractor(POOL_SIZE);
+    private final long frameDurationUs;
+    private final int frameCount;
+    private int next;
+
+    /**
+     * @param frameCount frames until the end of the source, -1 for no end.
+     */
+    public DecoderOutputSource(int width, int height, int pixelStride, int fps, int frameCount) {
+        planes = new DecoderPlanes(width, height, pixelStride, false, 1);
+        frameDurationUs = 1000000L / fps;
+        this.frameCount = frameCount;
+    }
+
+    public FrameExtractor getExtractor() {
+        return extractor;
+    }
+
+    @Override
+    public int getWidth() {
+        return planes.width;
+    }
+
+    @Override
+    public int getHeight() {
+        return planes.height;
+    }
+
+    @Override
+    public int getFormat() {
+        return planes.pixelStrides[1] == 2 && extractor.isSemiPlanarOutput()
+                ? VideoFrame.FORMAT_NV12 : VideoFrame.FORMAT_I420;
+    }
+
+    /**
+     * Waits while every pooled frame is still held by a sink, where the decoder would
+     * drop the frame: a throughput run measures how fast the sinks keep up.
+     */
+    @Override
+    public VideoFrame nextFrame() {
+        if (frameCount >= 0 && next >= frameCount) {
+            return null;
+        }
+        VideoFrame frame;
+        while ((frame = extractor.extract(planes.buffers, planes.rowStrides, planes.pixelStrides,
+                planes.cropLeft, planes.cropTop, planes.width, planes.height)) == null) {
+            if (Thread.currentThread().isInterrupted()) {
+                return null;
+            }
+            LockSupport.parkNanos(POOL_WAIT_NS);
+        }
+        frame.setPresentationTimeUs(next++ * frameDurationUs);
+        return frame;
+    }
+
+    @Override
+    public void rewind() {
+        next = 0;
+    }
+
+    @Override
+    public void close() {
+        extractor.shutdown();
+    }
+}
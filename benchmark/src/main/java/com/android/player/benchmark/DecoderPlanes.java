@@ -0,0 +1,86 @@
+package com.android.player.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * YUV 4:2:0 planes laid out the way hardware decoders hand them out: direct
+ * buffers, rows padded to 64 bytes and, with pixelStride 2, one interleaved
+ * chroma allocation that the U and V planes alias (NV12, or NV21 when V comes first).
+ */
+public class DecoderPlanes {
+    private static final int ROW_ALIGN = 64;
+    private static final int CROP_INSET = 8;
+
+    public final int width;
+    public final int height;
+    public final int cropLeft;
+    public final int cropTop;
+    public final ByteBuffer[] buffers = new ByteBuffer[3];
+    public final int[] rowStrides = new int[3];
+    public final int[] pixelStrides = new int[3];
+
+    /**
+     * @param inset true to put the visible width x height inside a larger coded picture.
+     */
+    public DecoderPlanes(int width, int height, int pixelStride, boolean inset, long seed) {
+        this(width, height, pixelStride, inset, false, seed);
+    }
+
+    /**
+     * @param vFirst with pixelStride 2, interleave as V U (NV21) instead of U V (NV12).
+     */
+    public DecoderPlanes(int width, int height, int pixelStride, boolean inset, boolean vFirst, long seed) {
+        this.width = width;
+        this.height = height;
+        cropLeft = inset ? CROP_INSET : 0;
+        cropTop = inset ? CROP_INSET : 0;
+        int codedWidth = width + cropLeft * 2;
+        int codedHeight = height + cropTop * 2;
+        Random random = new Random(seed);
+
+        rowStrides[0] = align(codedWidth);
+        pixelStrides[0] = 1;
+        buffers[0] = filled(rowStrides[0] * codedHeight, random);
+
+        int chromaHeight = codedHeight / 2;
+        if (pixelStride == 2) {
+            int rowStride = align(codedWidth);
+            ByteBuffer uv = filled(rowStride * chromaHeight, random);
+            ByteBuffer lead = uv.duplicate();
+            uv.position(1);
+            ByteBuffer shifted = uv.slice();
+            buffers[1] = vFirst ? shifted : lead;
+            buffers[2] = vFirst ? lead : shifted;
+            rowStrides[1] = rowStrides[2] = rowStride;
+            pixelStrides[1] = pixelStrides[2] = 2;
+        } else {
+            int rowStride = align(codedWidth / 2);
+            buffers[1] = filled(rowStride * chromaHeight, random);
+            buffers[2] = filled(rowStride * chromaHeight, random);
+            rowStrides[1] = rowStrides[2] = rowStride;
+            pixelStrides[1] = pixelStrides[2] = 1;
+        }
+    }
+
+    /**
+     * @param resolution "WIDTHxHEIGHT"
+     */
+    public static int[] parse(String resolution) {
+        String[] parts = resolution.split("x");
+        return new int[]{Integer.parseInt(parts[0]), Integer.parseInt(parts[1])};
+    }
+
+    private static int align(int value) {
+        return (value + ROW_ALIGN - 1) / ROW_ALIGN * ROW_ALIGN;
+    }
+
+    private static ByteBuffer filled(int size, Random random) {
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        buffer.put(bytes);
+        buffer.clear();
+        return buffer;
+    }
+}
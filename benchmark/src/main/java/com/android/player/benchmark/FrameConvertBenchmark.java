@@ -0,0 +1,78 @@
+package com.android.player.benchmark;
+
+import com.android.player.FrameConverter;
+import com.android.player.FramePool;
+import com.android.player.VideoFrame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converting an NV12 decoder frame for the injection socket: scaled with either
+ * filter, or only repacked when the target is the source size, on one thread or
+ * striped. Setup checks the output against {@link ReferenceConverter}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameConvertBenchmark {
+
+    @Param({"1920x1080", "3840x2160"})
+    public String resolution;
+
+    @Param({"1280x720", "1920x1080"})
+    public String target;
+
+    @Param({"BILINEAR", "BOX"})
+    public FrameConverter.Filter filter;
+
+    @Param({"NV21", "I420"})
+    public String format;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private VideoFrame source;
+    private FrameConverter converter;
+
+    @Setup
+    public void setup() {
+        int[] size = DecoderPlanes.parse(resolution);
+        int[] targetSize = DecoderPlanes.parse(target);
+        source = ReferenceConverter.randomFrame(new FramePool(1), size[0], size[1], VideoFrame.FORMAT_NV12, 1);
+        converter = new FrameConverter(threads);
+        converter.setOutputSize(targetSize[0], targetSize[1]);
+        converter.setOutputFormat("NV21".equals(format) ? VideoFrame.FORMAT_NV21 : VideoFrame.FORMAT_I420);
+        converter.setFilter(filter);
+        ReferenceConverter.check(converter, source, new int[4], filter);
+    }
+
+    @TearDown
+    public void tearDown() {
+        converter.shutdown();
+        source.release();
+    }
+
+    @Benchmark
+    public long convert() {
+        VideoFrame frame = converter.convert(source);
+        long sequence = frame.getSequence();
+        frame.release();
+        return sequence;
+    }
+}
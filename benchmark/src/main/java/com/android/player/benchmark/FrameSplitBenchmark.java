@@ -0,0 +1,83 @@
+package com.android.player.benchmark;
+
+import com.android.player.FramePool;
+import com.android.player.VideoFrame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Getting the Y/U/V planes of a frame ready for texture upload.
+ * <p>
+ * {@code copySplit} is what YUVRenderer.update used to do (copy each plane into its
+ * own heap buffer); {@code planeViews} is the current zero-copy hand-off, kept here
+ * as the number the old path is compared against.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameSplitBenchmark {
+
+    @Param({"1280x720", "1920x1080", "3840x2160"})
+    public String resolution;
+
+    private VideoFrame frame;
+    private ByteBuffer yData;
+    private ByteBuffer uData;
+    private ByteBuffer vData;
+
+    @Setup
+    public void setup() {
+        int[] size = DecoderPlanes.parse(resolution);
+        frame = new FramePool(1).acquire(size[0], size[1]);
+        yData = ByteBuffer.allocate(frame.getPlane(0).capacity());
+        uData = ByteBuffer.allocate(frame.getPlane(1).capacity());
+        vData = ByteBuffer.allocate(frame.getPlane(2).capacity());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        frame.release();
+    }
+
+    @Benchmark
+    public void copySplit(Blackhole blackhole) {
+        byte[] yuv = frame.array();
+        int base = frame.arrayOffset();
+        yData.clear();
+        uData.clear();
+        vData.clear();
+        yData.put(yuv, base + frame.getPlaneOffset(0), yData.capacity());
+        uData.put(yuv, base + frame.getPlaneOffset(1), uData.capacity());
+        vData.put(yuv, base + frame.getPlaneOffset(2), vData.capacity());
+        blackhole.consume(yData);
+        blackhole.consume(uData);
+        blackhole.consume(vData);
+    }
+
+    @Benchmark
+    public void planeViews(Blackhole blackhole) {
+        for (int i = 0; i < 3; i++) {
+            blackhole.consume(frame.getPlane(i));
+        }
+    }
+}
@@ -0,0 +1,439 @@
+package com.android.player.benchmark;
+
+import com.android.player.CameraInjector;
+import com.android.player.FrameConverter;
+import com.android.player.FramePump;
+import com.android.player.FrameRecorder;
+import com.android.player.FrameSink;
+import com.android.player.FrameSource;
+import com.android.player.MappedYuvSource;
+import com.android.player.PatternSource;
+import com.android.player.PipelineStats;
+import com.android.player.VideoFrame;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Runs the frame pipeline without a screen or a device, as fast as it goes: N streams,
+ * each a source, the plane extraction (for the decoder stand-in), the injection
+ * serialization and a counting sink in place of the renderer, pacing off. Prints a
+ * JSON report of fps, per-stage latency, allocation rate and drops.
+ * <pre>
+ *   ./gradlew :benchmark:headless -Pheadless.args="--source decoder --resolution 1920x1080 --streams 2"
+ * </pre>
+ * Options: --source pattern|decoder|y4m:FILE|raw:FILE (raw needs --resolution),
+ * --resolution WxH, --pixel-stride 1|2, --fps N, --streams N, --warmup SECONDS,
+ * --seconds SECONDS, --no-inject, --inject-size WxH, --inject-format i420|nv12|nv21|yv12,
+ * --inject-filter bilinear|box, --ring FILE, --ring-slots N (a power of two),
+ * --notify-port PORT, --record DIR, --out FILE. --ring injects through a {@link com.android.player.SharedFrameRing}
+ * read by a {@link RingConsumer}, notified on the port or polling without one.
+ */
+public class HeadlessRunner {
+
+    private String source = "decoder";
+    private int width = 1920;
+    private int height = 1080;
+    private int pixelStride = 2;
+    private int fps = 60;
+    private int streams = 1;
+    private double warmupSeconds = 2;
+    private double seconds = 10;
+    private boolean inject = true;
+    private int injectWidth;
+    private int injectHeight;
+    private int injectFormat = -1;
+    private FrameConverter.Filter injectFilter = FrameConverter.Filter.BILINEAR;
+    private File ringFile;
+    private int ringSlots = 4;
+    private int notifyPort = -1;
+    private File recordDir;
+    private File out;
+
+    public static void main(String[] args) throws Exception {
+        HeadlessRunner runner = new HeadlessRunner();
+        runner.parse(args);
+        String report = runner.run();
+        if (runner.out != null) {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(runner.out), "UTF-8");
+            try {
+                writer.write(report);
+            } finally {
+                writer.close();
+            }
+        } else {
+            System.out.println(report);
+        }
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if ("--no-inject".equals(arg)) {
+                inject = false;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("missing value for " + arg);
+            }
+            String value = args[++i];
+            switch (arg) {
+                case "--source":
+                    source = value;
+                    break;
+                case "--resolution":
+                    int[] size = DecoderPlanes.parse(value);
+                    width = size[0];
+                    height = size[1];
+                    break;
+                case "--pixel-stride":
+                    pixelStride = Integer.parseInt(value);
+                    break;
+                case "--fps":
+                    fps = Integer.parseInt(value);
+                    break;
+                case "--streams":
+                    streams = Integer.parseInt(value);
+                    break;
+                case "--warmup":
+                    warmupSeconds = Double.parseDouble(value);
+                    break;
+                case "--seconds":
+                    seconds = Double.parseDouble(value);
+                    break;
+                case "--inject-size":
+                    int[] injectSize = DecoderPlanes.parse(value);
+                    injectWidth = injectSize[0];
+                    injectHeight = injectSize[1];
+                    break;
+                case "--inject-format":
+                    injectFormat = parseFormat(value);
+                    break;
+                case "--inject-filter":
+                    injectFilter = FrameConverter.Filter.valueOf(value.toUpperCase(Locale.US));
+                    break;
+                case "--ring":
+                    ringFile = new File(value);
+                    break;
+                case "--ring-slots":
+                    ringSlots = Integer.parseInt(value);
+                    break;
+                case "--notify-port":
+                    notifyPort = Integer.parseInt(value);
+                    break;
+                case "--record":
+                    recordDir = new File(value);
+                    break;
+                case "--out":
+                    out = new File(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option " + arg);
+            }
+        }
+    }
+
+    private static int parseFormat(String name) {
+        switch (name.toLowerCase(Locale.US)) {
+            case "i420":
+                return VideoFrame.FORMAT_I420;
+            case "nv12":
+                return VideoFrame.FORMAT_NV12;
+            case "nv21":
+                return VideoFrame.FORMAT_NV21;
+            case "yv12":
+                return VideoFrame.FORMAT_YV12;
+            default:
+                throw new IllegalArgumentException("unknown format " + name);
+        }
+    }
+
+    private FrameSource openSource() throws IOException {
+        if ("pattern".equals(source)) {
+            return new PatternSource(width, height, VideoFrame.FORMAT_NV12, fps, -1);
+        }
+        if ("decoder".equals(source)) {
+            return new DecoderOutputSource(width, height, pixelStride, fps, -1);
+        }
+        if (source.startsWith("y4m:")) {
+            return MappedYuvSource.openY4m(new File(source.substring(4)));
+        }
+        if (source.startsWith("raw:")) {
+            return MappedYuvSource.openRaw(new File(source.substring(4)), width, height, fps, 1);
+        }
+        throw new IllegalArgumentException("unknown source " + source);
+    }
+
+    private String run() throws Exception {
+        FramePump[] pumps = new FramePump[streams];
+        PipelineStats[] stats = new PipelineStats[streams];
+        FrameSource first = null;
+        for (int i = 0; i < streams; i++) {
+            FrameSource frameSource = openSource();
+            if (first == null) {
+                first = frameSource;
+            }
+            stats[i] = new PipelineStats();
+            pumps[i] = new FramePump(frameSource);
+            pumps[i].setName("FramePump-" + i);
+            pumps[i].setStats(stats[i]);
+            pumps[i].setPacingEnabled(false);
+            pumps[i].addSink(new RenderStandIn(stats[i]));
+            if (inject) {
+                CameraInjector injector;
+                if (ringFile != null) {
+                    injector = new CameraInjector(notifyPort >= 0 ? new TcpConnector("127.0.0.1", notifyPort) : null);
+                    injector.setSharedRing(streams > 1 ? new File(ringFile.getPath() + "." + i) : ringFile, ringSlots);
+                } else {
+                    injector = new CameraInjector(new NullConnector());
+                }
+                injector.setStats(stats[i]);
+                if (injectWidth > 0 || injectFormat >= 0) {
+                    FrameConverter converter = new FrameConverter();
+                    converter.setOutputSize(injectWidth, injectHeight);
+                    converter.setOutputFormat(injectFormat >= 0 ? injectFormat : VideoFrame.FORMAT_I420);
+                    converter.setFilter(injectFilter);
+                    injector.setConverter(converter);
+                }
+                pumps[i].addSink(injector);
+            }
+            if (recordDir != null) {
+                pumps[i].addSink(new FrameRecorder(new File(recordDir, "stream" + i)));
+            }
+        }
+
+        for (FramePump pump : pumps) {
+            pump.start();
+        }
+        Thread.sleep((long) (warmupSeconds * 1000));
+        for (PipelineStats s : stats) {
+            s.reset();
+        }
+        AllocationCounter allocation = new AllocationCounter();
+        long start = System.nanoTime();
+        Thread.sleep((long) (seconds * 1000));
+        long elapsedNs = System.nanoTime() - start;
+        long allocatedBytes = allocation.allocatedSince();
+        PipelineStats.Snapshot[] snapshots = new PipelineStats.Snapshot[streams];
+        for (int i = 0; i < streams; i++) {
+            snapshots[i] = stats[i].snapshot();
+        }
+        for (FramePump pump : pumps) {
+            pump.interrupt();
+        }
+        for (FramePump pump : pumps) {
+            pump.join();
+        }
+
+        return report(first, snapshots, elapsedNs, allocatedBytes);
+    }
+
+    private String report(FrameSource frameSource, PipelineStats.Snapshot[] snapshots,
+                          long elapsedNs, long allocatedBytes) {
+        double elapsed = elapsedNs / 1e9;
+        double totalFps = 0;
+        long totalFrames = 0;
+        long totalDropped = 0;
+        for (PipelineStats.Snapshot s : snapshots) {
+            totalFps += s.fps;
+            totalFrames += s.get(PipelineStats.Counter.RENDERED);
+            totalDropped += s.getDroppedTotal();
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"config\": {");
+        sb.append("\"source\": ").append(quote(source));
+        sb.append(", \"width\": ").append(frameSource.getWidth());
+        sb.append(", \"height\": ").append(frameSource.getHeight());
+        sb.append(", \"format\": ").append(frameSource.getFormat());
+        sb.append(", \"pixelStride\": ").append(pixelStride);
+        sb.append(", \"streams\": ").append(snapshots.length);
+        sb.append(", \"inject\": ").append(inject);
+        if (inject && (injectWidth > 0 || injectFormat >= 0)) {
+            sb.append(", \"injectWidth\": ").append(injectWidth);
+            sb.append(", \"injectHeight\": ").append(injectHeight);
+            sb.append(", \"injectFormat\": ").append(injectFormat);
+            sb.append(", \"injectFilter\": ").append(quote(injectFilter.name().toLowerCase(Locale.US)));
+        }
+        if (inject && ringFile != null) {
+            sb.append(", \"ring\": ").append(quote(ringFile.getPath()));
+            sb.append(", \"ringSlots\": ").append(ringSlots);
+            sb.append(", \"notify\": ").append(notifyPort >= 0);
+        }
+        sb.append(", \"record\": ").append(recordDir != null);
+        sb.append(", \"warmupSeconds\": ").append(number(warmupSeconds));
+        sb.append(", \"seconds\": ").append(number(elapsed));
+        sb.append(", \"cores\": ").append(Runtime.getRuntime().availableProcessors());
+        sb.append(", \"jvm\": ").append(quote(System.getProperty("java.vm.name") + " "
+                + System.getProperty("java.version")));
+        sb.append("},\n");
+        sb.append("  \"fps\": ").append(number(totalFps)).append(",\n");
+        sb.append("  \"frames\": ").append(totalFrames).append(",\n");
+        sb.append("  \"dropped\": ").append(totalDropped).append(",\n");
+        sb.append("  \"allocation\": {\"bytes\": ").append(allocatedBytes);
+        sb.append(", \"bytesPerSecond\": ").append(allocatedBytes < 0 ? "null" : number(allocatedBytes / elapsed));
+        sb.append(", \"bytesPerFrame\": ").append(allocatedBytes < 0 || totalFrames == 0 ? "null"
+                : number((double) allocatedBytes / totalFrames));
+        sb.append("},\n");
+        sb.append("  \"streams\": [");
+        for (int i = 0; i < snapshots.length; i++) {
+            sb.append(i == 0 ? "\n" : ",\n");
+            appendStream(sb, snapshots[i]);
+        }
+        sb.append("\n  ]\n}");
+        return sb.toString();
+    }
+
+    private static void appendStream(StringBuilder sb, PipelineStats.Snapshot s) {
+        sb.append("    {\"fps\": ").append(number(s.fps));
+        sb.append(", \"dropped\": ").append(s.getDroppedTotal());
+        sb.append(", \"counters\": {");
+        PipelineStats.Counter[] counters = PipelineStats.Counter.values();
+        for (int i = 0; i < counters.length; i++) {
+            sb.append(i == 0 ? "" : ", ").append(quote(counters[i].name().toLowerCase(Locale.US)))
+                    .append(": ").append(s.get(counters[i]));
+        }
+        sb.append("},\n     \"stages\": {");
+        boolean firstStage = true;
+        for (PipelineStats.StageSnapshot stage : s.stages) {
+            if (stage.count == 0) {
+                continue;
+            }
+            sb.append(firstStage ? "" : ", ");
+            firstStage = false;
+            sb.append(quote(stage.stage.name().toLowerCase(Locale.US)));
+            sb.append(": {\"count\": ").append(stage.count);
+            sb.append(", \"p50Us\": ").append(stage.p50Us);
+            sb.append(", \"p99Us\": ").append(stage.p99Us);
+            sb.append(", \"maxUs\": ").append(stage.maxUs).append('}');
+        }
+        sb.append("},\n     \"queues\": [");
+        for (int i = 0; i < s.queues.length; i++) {
+            PipelineStats.QueueSnapshot q = s.queues[i];
+            sb.append(i == 0 ? "" : ", ");
+            sb.append("{\"name\": ").append(quote(q.name));
+            sb.append(", \"capacity\": ").append(q.capacity);
+            sb.append(", \"dropped\": ").append(q.dropped);
+            sb.append(", \"late\": ").append(q.late).append('}');
+        }
+        sb.append("]}");
+    }
+
+    private static String number(double value) {
+        return String.format(Locale.US, "%.2f", value);
+    }
+
+    private static String quote(String value) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format(Locale.US, "\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Takes the place of the renderer: counts the frame as rendered and reads one byte
+     * of every row, no GL.
+     */
+    private static class RenderStandIn implements FrameSink {
+        private final PipelineStats stats;
+        private int checksum;
+
+        RenderStandIn(PipelineStats stats) {
+            this.stats = stats;
+        }
+
+        @Override
+        public void onFrame(VideoFrame frame) {
+            java.nio.ByteBuffer data = frame.getData();
+            int stride = frame.getWidth();
+            for (int offset = 0; offset < frame.getSize(); offset += stride) {
+                checksum += data.get(offset);
+            }
+            stats.count(PipelineStats.Counter.RENDERED);
+        }
+
+        @Override
+        public void onFinish() {
+        }
+    }
+
+    /**
+     * An injection socket that takes everything and goes nowhere.
+     */
+    private static class NullConnector implements CameraInjector.Connector {
+        @Override
+        public OutputStream connect(int sendBufferSize) {
+            return new OutputStream() {
+                @Override
+                public void write(int b) {
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Bytes allocated by every thread alive at the end of the run, since the counter
+     * was made. Threads that ended in between are not seen. Needs a HotSpot-style JVM,
+     * -1 elsewhere.
+     */
+    private static class AllocationCounter {
+        private final Map<Long, Long> startBytes = new HashMap<Long, Long>();
+        private final com.sun.management.ThreadMXBean threads;
+
+        AllocationCounter() {
+            java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            threads = bean instanceof com.sun.management.ThreadMXBean
+                    && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()
+                    ? (com.sun.management.ThreadMXBean) bean : null;
+            if (threads != null) {
+                threads.setThreadAllocatedMemoryEnabled(true);
+                long[] ids = threads.getAllThreadIds();
+                long[] bytes = threads.getThreadAllocatedBytes(ids);
+                for (int i = 0; i < ids.length; i++) {
+                    startBytes.put(ids[i], bytes[i]);
+                }
+            }
+        }
+
+        long allocatedSince() {
+            if (threads == null) {
+                return -1;
+            }
+            long[] ids = threads.getAllThreadIds();
+            long[] bytes = threads.getThreadAllocatedBytes(ids);
+            long total = 0;
+            for (int i = 0; i < ids.length; i++) {
+                if (bytes[i] < 0) {
+                    continue;
+                }
+                Long start = startBytes.get(ids[i]);
+                total += bytes[i] - (start == null ? 0 : start);
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.android.player.benchmark;
+
+import com.android.player.FramePool;
+import com.android.player.PlaneCopier;
+import com.android.player.VideoFrame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The plane loop of VideoDecode.getDataFromImage: decoder planes into a pooled I420
+ * frame, one plane at a time. See {@link SemiPlanarExtractionBenchmark} for the
+ * single-pass path taken for aliased NV12/NV21 chroma.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlaneExtractionBenchmark {
+
+    @Param({"1280x720", "1920x1080", "3840x2160"})
+    public String resolution;
+
+    @Param({"1", "2"})
+    public int pixelStride;
+
+    @Param({"full", "inset"})
+    public String crop;
+
+    private DecoderPlanes planes;
+    private final FramePool pool = new FramePool(2);
+    private final PlaneCopier copier = new PlaneCopier();
+
+    @Setup
+    public void setup() {
+        int[] size = DecoderPlanes.parse(resolution);
+        planes = new DecoderPlanes(size[0], size[1], pixelStride, "inset".equals(crop), 1);
+    }
+
+    @Benchmark
+    public int extract() {
+        VideoFrame frame = pool.acquire(planes.width, planes.height);
+        byte[] data = frame.array();
+        int offset = frame.arrayOffset();
+        for (int i = 0; i < 3; i++) {
+            int shift = (i == 0) ? 0 : 1;
+            offset = copier.copyPlane(planes.buffers[i], planes.rowStrides[i], planes.pixelStrides[i],
+                    planes.cropLeft >> shift, planes.cropTop >> shift,
+                    planes.width >> shift, planes.height >> shift, data, offset);
+        }
+        frame.release();
+        return offset;
+    }
+}
@@ -0,0 +1,195 @@
+package com.android.player.benchmark;
+
+import com.android.player.FrameConverter;
+import com.android.player.FramePool;
+import com.android.player.VideoFrame;
+
+import java.util.Random;
+
+/**
+ * Pixel-at-a-time version of {@link FrameConverter}, written from the definition of
+ * the filters and the byte layouts rather than from the converter's tables, to check
+ * that the striped converter produces exactly its bytes.
+ * <pre>
+ *   java -cp ... com.android.player.benchmark.ReferenceConverter
+ * </pre>
+ * runs the check over a spread of sizes, crops, ratios, formats and thread counts.
+ */
+public final class ReferenceConverter {
+
+    private ReferenceConverter() {
+    }
+
+    public static void main(String[] args) {
+        // the second crop does not fit the smaller source, which then goes uncropped
+        int[][] sources = {{642, 362}, {320, 180}, {321, 181}};
+        int[][] crops = {{0, 0, 0, 0}, {100, 50, 400, 300}, {2, 2, 160, 120}};
+        int[][] outputs = {{0, 0}, {1280, 720}, {640, 360}, {426, 240}, {800, 450}, {100, 2}};
+        int[] formats = {VideoFrame.FORMAT_I420, VideoFrame.FORMAT_NV12, VideoFrame.FORMAT_NV21, VideoFrame.FORMAT_YV12};
+        int cases = 0;
+        for (int threads : new int[]{1, 3}) {
+            FrameConverter converter = new FrameConverter(threads);
+            for (int[] source : sources) {
+                for (int sourceFormat : formats) {
+                    VideoFrame in = randomFrame(new FramePool(1), source[0], source[1], sourceFormat, cases);
+                    for (int[] crop : crops) {
+                        for (int[] output : outputs) {
+                            for (int format : formats) {
+                                for (FrameConverter.Filter filter : FrameConverter.Filter.values()) {
+                                    converter.setCrop(crop[0], crop[1], crop[2], crop[3]);
+                                    converter.setOutputSize(output[0], output[1]);
+                                    converter.setOutputFormat(format);
+                                    converter.setFilter(filter);
+                                    check(converter, in, crop, filter);
+                                    cases++;
+                                }
+                            }
+                        }
+                    }
+                    in.release();
+                }
+            }
+            converter.shutdown();
+        }
+        System.out.println(cases + " conversions match the reference");
+    }
+
+    /**
+     * A frame of random bytes from the pool.
+     */
+    public static VideoFrame randomFrame(FramePool pool, int width, int height, int format, long seed) {
+        VideoFrame frame = pool.acquire(width, height, format);
+        byte[] bytes = new byte[frame.getSize()];
+        new Random(seed).nextBytes(bytes);
+        System.arraycopy(bytes, 0, frame.array(), frame.arrayOffset(), bytes.length);
+        return frame;
+    }
+
+    /**
+     * Convert the frame with the converter as configured and compare with the reference.
+     *
+     * @param crop left, top, width and height the converter was given.
+     * @throws IllegalStateException at the first byte that differs.
+     */
+    public static void check(FrameConverter converter, VideoFrame in, int[] crop, FrameConverter.Filter filter) {
+        VideoFrame out = converter.convert(in);
+        try {
+            int width = in.getWidth();
+            int height = in.getHeight();
+            int left = 0;
+            int top = 0;
+            int cropWidth = width;
+            int cropHeight = height;
+            if (crop[2] > 0 && crop[3] > 0 && crop[0] + crop[2] <= width && crop[1] + crop[3] <= height) {
+                left = crop[0];
+                top = crop[1];
+                cropWidth = crop[2];
+                cropHeight = crop[3];
+            }
+            byte[] expected = convert(in, left, top, cropWidth, cropHeight,
+                    out.getWidth(), out.getHeight(), out.getFormat(), filter);
+            if (out.getSize() != expected.length) {
+                throw new IllegalStateException("size " + out.getSize() + " instead of " + expected.length);
+            }
+            for (int i = 0; i < expected.length; i++) {
+                if (out.getData().get(i) != expected[i]) {
+                    throw new IllegalStateException(String.format(
+                            "%dx%d %d crop %d,%d %dx%d -> %dx%d %d %s: byte %d is %d, expected %d",
+                            width, height, in.getFormat(), left, top, cropWidth, cropHeight,
+                            out.getWidth(), out.getHeight(), out.getFormat(), filter,
+                            i, out.getData().get(i) & 0xff, expected[i] & 0xff));
+                }
+            }
+        } finally {
+            out.release();
+        }
+    }
+
+    /**
+     * @return the packed bytes of the output frame.
+     */
+    public static byte[] convert(VideoFrame in, int left, int top, int cropWidth, int cropHeight,
+                                 int outWidth, int outHeight, int outFormat, FrameConverter.Filter filter) {
+        byte[] out = new byte[VideoFrame.frameSize(outWidth, outHeight)];
+        for (int plane = 0; plane < 3; plane++) {
+            int shift = plane == 0 ? 0 : 1;
+            int srcWidth = plane == 0 ? cropWidth : VideoFrame.chromaLength(cropWidth);
+            int srcHeight = plane == 0 ? cropHeight : VideoFrame.chromaLength(cropHeight);
+            int dstWidth = plane == 0 ? outWidth : VideoFrame.chromaLength(outWidth);
+            int dstHeight = plane == 0 ? outHeight : VideoFrame.chromaLength(outHeight);
+            for (int y = 0; y < dstHeight; y++) {
+                for (int x = 0; x < dstWidth; x++) {
+                    int value;
+                    if (srcWidth == dstWidth && srcHeight == dstHeight) {
+                        value = sample(in, plane, (left >> shift) + x, (top >> shift) + y);
+                    } else if (filter == FrameConverter.Filter.BOX) {
+                        value = box(in, plane, left >> shift, top >> shift, srcWidth, srcHeight, dstWidth, dstHeight, x, y);
+                    } else {
+                        value = bilinear(in, plane, left >> shift, top >> shift, srcWidth, srcHeight, dstWidth, dstHeight, x, y);
+                    }
+                    out[index(outFormat, outWidth, outHeight, plane, x, y)] = (byte) value;
+                }
+            }
+        }
+        return out;
+    }
+
+    private static int bilinear(VideoFrame in, int plane, int left, int top, int srcWidth, int srcHeight,
+                                int dstWidth, int dstHeight, int x, int y) {
+        // pixel centres mapped onto each other, in 1/256ths of a source pixel
+        long sx = Math.max(0, 128L * ((2L * x + 1) * srcWidth - dstWidth) / dstWidth);
+        long sy = Math.max(0, 128L * ((2L * y + 1) * srcHeight - dstHeight) / dstHeight);
+        int x0 = Math.min((int) sx / 256, srcWidth - 1);
+        int y0 = Math.min((int) sy / 256, srcHeight - 1);
+        int fx = x0 == srcWidth - 1 ? 0 : (int) sx % 256;
+        int fy = y0 == srcHeight - 1 ? 0 : (int) sy % 256;
+        int x1 = Math.min(x0 + 1, srcWidth - 1);
+        int y1 = Math.min(y0 + 1, srcHeight - 1);
+        int upper = sample(in, plane, left + x0, top + y0) * (256 - fx) + sample(in, plane, left + x1, top + y0) * fx;
+        int lower = sample(in, plane, left + x0, top + y1) * (256 - fx) + sample(in, plane, left + x1, top + y1) * fx;
+        return (upper * (256 - fy) + lower * fy + 32768) >> 16;
+    }
+
+    private static int box(VideoFrame in, int plane, int left, int top, int srcWidth, int srcHeight,
+                           int dstWidth, int dstHeight, int x, int y) {
+        int x0 = x * srcWidth / dstWidth;
+        int x1 = Math.max(x0 + 1, (x + 1) * srcWidth / dstWidth);
+        int y0 = y * srcHeight / dstHeight;
+        int y1 = Math.max(y0 + 1, (y + 1) * srcHeight / dstHeight);
+        int sum = 0;
+        for (int sy = y0; sy < y1; sy++) {
+            for (int sx = x0; sx < x1; sx++) {
+                sum += sample(in, plane, left + sx, top + sy);
+            }
+        }
+        int count = (x1 - x0) * (y1 - y0);
+        return (sum + count / 2) / count;
+    }
+
+    private static int sample(VideoFrame in, int plane, int x, int y) {
+        int at = index(in.getFormat(), in.getWidth(), in.getHeight(), plane, x, y);
+        return in.getData().get(at) & 0xff;
+    }
+
+    /**
+     * Byte position of a Y (plane 0), U (1) or V (2) sample in a packed frame.
+     */
+    private static int index(int format, int width, int height, int plane, int x, int y) {
+        int ySize = width * height;
+        int chromaWidth = VideoFrame.chromaLength(width);
+        int chromaSize = chromaWidth * VideoFrame.chromaLength(height);
+        if (plane == 0) {
+            return y * width + x;
+        }
+        switch (format) {
+            case VideoFrame.FORMAT_NV12:
+                return ySize + y * chromaWidth * 2 + x * 2 + (plane == 1 ? 0 : 1);
+            case VideoFrame.FORMAT_NV21:
+                return ySize + y * chromaWidth * 2 + x * 2 + (plane == 1 ? 1 : 0);
+            case VideoFrame.FORMAT_YV12:
+                return ySize + (plane == 1 ? chromaSize : 0) + y * chromaWidth + x;
+            default:
+                return ySize + (plane == 1 ? 0 : chromaSize) + y * chromaWidth + x;
+        }
+    }
+}
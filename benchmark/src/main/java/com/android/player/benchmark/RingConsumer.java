@@ -0,0 +1,225 @@
+package com.android.player.benchmark;
+
+import com.android.player.FrameHeader;
+import com.android.player.SharedFrameRing;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Reference consumer of a {@link SharedFrameRing}: maps the ring the injector
+ * writes, reads every frame in place and prints a one-line JSON summary.
+ * <pre>
+ *   RingConsumer --ring /dev/shm/player.ring [--listen PORT] [--verify] [--idle-ms MS]
+ * </pre>
+ * With --listen it takes the injector's notifications on a TCP port (0 picks one,
+ * printed as "listening PORT") and stops when the injector disconnects, otherwise it
+ * polls the published count and stops after idle-ms without a new frame. --verify
+ * expects every frame to be filled with one byte value, as {@link SharedRingCheck}
+ * writes them, and counts the frames that are not as corrupt.
+ */
+public class RingConsumer implements SharedFrameRing.Reader {
+    private static final long OPEN_TIMEOUT_MS = 10000;
+    private static final long POLL_NS = 100000;
+
+    private final boolean verify;
+    private long frames;
+    private long bytes;
+    private long overwritten;
+    private long torn;
+    private long corrupt;
+    private long gaps;
+    private int lastSequence;
+    private boolean started;
+
+    // what the reader saw in the slot, kept only if the read turns out intact
+    private int sequence;
+    private int size;
+    private long checksum;
+    private boolean uniform;
+    private long checksumTotal;
+
+    public RingConsumer(boolean verify) {
+        this.verify = verify;
+    }
+
+    public static void main(String[] args) throws Exception {
+        File ringFile = null;
+        int listenPort = -1;
+        boolean verify = false;
+        long idleMs = 2000;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--ring":
+                    ringFile = new File(args[++i]);
+                    break;
+                case "--listen":
+                    listenPort = Integer.parseInt(args[++i]);
+                    break;
+                case "--verify":
+                    verify = true;
+                    break;
+                case "--idle-ms":
+                    idleMs = Long.parseLong(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+        if (ringFile == null) {
+            throw new IllegalArgumentException("--ring FILE is required");
+        }
+        RingConsumer consumer = new RingConsumer(verify);
+        long start;
+        long end;
+        if (listenPort >= 0) {
+            ServerSocket server = new ServerSocket(listenPort, 1, InetAddress.getLoopbackAddress());
+            System.out.println("listening " + server.getLocalPort());
+            System.out.flush();
+            Socket socket = server.accept();
+            start = System.nanoTime();
+            SharedFrameRing ring = null;
+            try {
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                byte[] message = new byte[SharedFrameRing.NOTIFY_SIZE];
+                int next = 0;
+                while (true) {
+                    try {
+                        in.readFully(message);
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    int published = SharedFrameRing.parseNotification(ByteBuffer.wrap(message));
+                    if (ring == null) {
+                        // the first notification comes after the ring is in place
+                        ring = openRing(ringFile);
+                    }
+                    next = consumer.drain(ring, next, published);
+                }
+            } finally {
+                end = System.nanoTime();
+                socket.close();
+                server.close();
+                if (ring != null) {
+                    ring.close();
+                }
+            }
+        } else {
+            SharedFrameRing ring = openRing(ringFile);
+            start = System.nanoTime();
+            long lastFrameNs = System.nanoTime();
+            try {
+                int next = 0;
+                while (System.nanoTime() - lastFrameNs < idleMs * 1000000) {
+                    int published = ring.getPublishedCount();
+                    if (published == next) {
+                        LockSupport.parkNanos(POLL_NS);
+                        continue;
+                    }
+                    next = consumer.drain(ring, next, published);
+                    lastFrameNs = System.nanoTime();
+                }
+            } finally {
+                ring.close();
+            }
+            end = lastFrameNs;
+        }
+        System.out.println(consumer.report((end - start) / 1e9));
+    }
+
+    private static SharedFrameRing openRing(File file) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + OPEN_TIMEOUT_MS;
+        while (true) {
+            try {
+                return SharedFrameRing.open(file);
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    /**
+     * Read frames next up to published, skipping what the producer already reused.
+     *
+     * @return the next frame to read.
+     */
+    public int drain(SharedFrameRing ring, int next, int published) {
+        if (published - next > ring.getSlotCount()) {
+            overwritten += published - ring.getSlotCount() - next;
+            next = published - ring.getSlotCount();
+        }
+        while (published - next > 0) {
+            int result = ring.read(next, this);
+            if (result == SharedFrameRing.NOT_PUBLISHED) {
+                break;
+            }
+            next++;
+            if (result == SharedFrameRing.TORN) {
+                torn++;
+            } else if (result == SharedFrameRing.OVERWRITTEN) {
+                overwritten++;
+            } else {
+                accept();
+            }
+        }
+        return next;
+    }
+
+    @Override
+    public void onFrame(ByteBuffer header, ByteBuffer payload) {
+        sequence = FrameHeader.sequence(header);
+        size = payload.remaining();
+        long sum = 0;
+        boolean same = true;
+        long expected = 0;
+        if (size > 0) {
+            expected = (payload.get(0) & 0xffL) * 0x0101010101010101L;
+        }
+        int i = 0;
+        for (; i + 8 <= size; i += 8) {
+            long word = payload.getLong(i);
+            sum += word;
+            same &= word == expected;
+        }
+        for (; i < size; i++) {
+            byte b = payload.get(i);
+            sum += b;
+            same &= b == (byte) expected;
+        }
+        checksum = sum;
+        uniform = same;
+    }
+
+    private void accept() {
+        frames++;
+        bytes += size;
+        checksumTotal += checksum;
+        if (verify && !uniform) {
+            corrupt++;
+        }
+        if (started && sequence - lastSequence != 1) {
+            gaps++;
+        }
+        started = true;
+        lastSequence = sequence;
+    }
+
+    public String report(double seconds) {
+        return String.format(Locale.US,
+                "{\"frames\": %d, \"overwritten\": %d, \"torn\": %d, \"corrupt\": %d, \"gaps\": %d, "
+                        + "\"fps\": %.2f, \"mbPerSecond\": %.2f, \"checksum\": %d}",
+                frames, overwritten, torn, corrupt, gaps,
+                frames / seconds, bytes / seconds / 1e6, checksumTotal);
+    }
+}
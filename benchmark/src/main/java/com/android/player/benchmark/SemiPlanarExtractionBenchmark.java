@@ -0,0 +1,155 @@
+package com.android.player.benchmark;
+
+import com.android.player.FramePool;
+import com.android.player.PlaneCopier;
+import com.android.player.VideoFrame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chroma extraction of semi-planar (pixelStride 2) decoder output into I420.
+ * <ul>
+ * <li>{@code bytewise}: the generic loop, a bulk row read then one byte per sample,
+ * once per plane.</li>
+ * <li>{@code wordWidePerPlane}: long reads, U and V planes copied separately.</li>
+ * <li>{@code wordWideSinglePass}: long reads, both planes in one pass over the
+ * aliased allocation.</li>
+ * <li>{@code semiPlanarRows}: no de-interleave at all, the chroma stays interleaved
+ * for the NV12/NV21 render mode, one bulk read per row.</li>
+ * </ul>
+ * Setup checks the NV12/NV21 detection, that the three I420 extractors produce the
+ * same bytes and that the kept rows interleave exactly those bytes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SemiPlanarExtractionBenchmark {
+
+    @Param({"1280x720", "1920x1080", "3840x2160"})
+    public String resolution;
+
+    @Param({"nv12", "nv21"})
+    public String layout;
+
+    @Param({"full", "inset"})
+    public String crop;
+
+    private DecoderPlanes planes;
+    private int chromaLayout;
+    private final FramePool pool = new FramePool(2);
+    private final PlaneCopier bytewise = new PlaneCopier(false);
+    private final PlaneCopier wordWide = new PlaneCopier(true);
+
+    @Setup
+    public void setup() {
+        int[] size = DecoderPlanes.parse(resolution);
+        planes = new DecoderPlanes(size[0], size[1], 2, "inset".equals(crop), "nv21".equals(layout), 1);
+        chromaLayout = PlaneCopier.detectChromaLayout(planes.buffers[1], planes.buffers[2], planes.rowStrides[1],
+                planes.cropLeft / 2, planes.cropTop / 2, planes.width / 2, planes.height / 2);
+        int expected = "nv21".equals(layout) ? PlaneCopier.CHROMA_VU : PlaneCopier.CHROMA_UV;
+        if (chromaLayout != expected) {
+            throw new IllegalStateException("detected chroma layout " + chromaLayout + ", expected " + expected);
+        }
+
+        byte[] reference = copyOf(perPlane(bytewise));
+        if (!Arrays.equals(reference, copyOf(perPlane(wordWide)))
+                || !Arrays.equals(reference, copyOf(singlePass(wordWide)))) {
+            throw new IllegalStateException("extractors disagree for " + resolution + " " + layout + " " + crop);
+        }
+        byte[] rows = copyOf(semiPlanar(wordWide));
+        int ySize = planes.width * planes.height;
+        int uvSize = (planes.width / 2) * (planes.height / 2);
+        boolean vFirst = "nv21".equals(layout);
+        for (int i = 0; i < uvSize; i++) {
+            byte u = reference[ySize + i];
+            byte v = reference[ySize + uvSize + i];
+            if (rows[ySize + 2 * i] != (vFirst ? v : u) || rows[ySize + 2 * i + 1] != (vFirst ? u : v)) {
+                throw new IllegalStateException("semi-planar rows disagree at " + i + " for " + resolution
+                        + " " + layout + " " + crop);
+            }
+        }
+    }
+
+    private static byte[] copyOf(VideoFrame frame) {
+        byte[] bytes = Arrays.copyOfRange(frame.array(), frame.arrayOffset(), frame.arrayOffset() + frame.getSize());
+        frame.release();
+        return bytes;
+    }
+
+    private VideoFrame perPlane(PlaneCopier copier) {
+        VideoFrame frame = pool.acquire(planes.width, planes.height);
+        int base = frame.arrayOffset();
+        for (int i = 1; i < 3; i++) {
+            copier.copyPlane(planes.buffers[i], planes.rowStrides[i], 2,
+                    planes.cropLeft / 2, planes.cropTop / 2, planes.width / 2, planes.height / 2,
+                    frame.array(), base + frame.getPlaneOffset(i));
+        }
+        return frame;
+    }
+
+    private VideoFrame singlePass(PlaneCopier copier) {
+        VideoFrame frame = pool.acquire(planes.width, planes.height);
+        int base = frame.arrayOffset();
+        copier.copyInterleavedChroma(planes.buffers[1], planes.buffers[2], chromaLayout, planes.rowStrides[1],
+                planes.cropLeft / 2, planes.cropTop / 2, planes.width / 2, planes.height / 2,
+                frame.array(), base + frame.getPlaneOffset(1), base + frame.getPlaneOffset(2));
+        return frame;
+    }
+
+    private VideoFrame semiPlanar(PlaneCopier copier) {
+        int format = chromaLayout == PlaneCopier.CHROMA_UV ? VideoFrame.FORMAT_NV12 : VideoFrame.FORMAT_NV21;
+        VideoFrame frame = pool.acquire(planes.width, planes.height, format);
+        copier.copySemiPlanarChroma(planes.buffers[1], planes.buffers[2], chromaLayout, planes.rowStrides[1],
+                planes.cropLeft / 2, planes.cropTop / 2, planes.width / 2, planes.height / 2,
+                frame.array(), frame.arrayOffset() + frame.getPlaneOffset(1));
+        return frame;
+    }
+
+    @Benchmark
+    public long bytewise() {
+        VideoFrame frame = perPlane(bytewise);
+        long sequence = frame.getSequence();
+        frame.release();
+        return sequence;
+    }
+
+    @Benchmark
+    public long wordWidePerPlane() {
+        VideoFrame frame = perPlane(wordWide);
+        long sequence = frame.getSequence();
+        frame.release();
+        return sequence;
+    }
+
+    @Benchmark
+    public long wordWideSinglePass() {
+        VideoFrame frame = singlePass(wordWide);
+        long sequence = frame.getSequence();
+        frame.release();
+        return sequence;
+    }
+
+    @Benchmark
+    public long semiPlanarRows() {
+        VideoFrame frame = semiPlanar(wordWide);
+        long sequence = frame.getSequence();
+        frame.release();
+        return sequence;
+    }
+}
@@ -0,0 +1,180 @@
+package com.android.player.benchmark;
+
+import com.android.player.CameraInjector;
+import com.android.player.FramePool;
+import com.android.player.FramePump;
+import com.android.player.FrameSource;
+import com.android.player.VideoFrame;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the shared-memory injection across two processes on Linux: this JVM pumps
+ * frames through a {@link CameraInjector} into a ring on tmpfs while a
+ * {@link RingConsumer} child process reads them in place, once polling and once
+ * notified over a socket. Every frame is filled with one byte value and the ring is
+ * kept small, so the producer laps the consumer all the time: a frame the consumer
+ * accepts that is not uniform means the seqlock let a torn frame through.
+ * <pre>
+ *   ./gradlew :benchmark:ringCheck [-PringCheck.args="--seconds 10 --dir /dev/shm"]
+ * </pre>
+ * Exits with status 1 when a mode sees no frames or any corrupt one. SharedRingCheckTest
+ * runs both modes briefly with the unit tests; the task is for longer runs.
+ */
+public class SharedRingCheck {
+    private static final int SLOTS = 4;
+    private static final Pattern FIELD = Pattern.compile("\"(\\w+)\": (\\d+)");
+
+    public static void main(String[] args) throws Exception {
+        double seconds = 5;
+        File dir = new File("/dev/shm");
+        int width = 1920;
+        int height = 1080;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--seconds":
+                    seconds = Double.parseDouble(args[++i]);
+                    break;
+                case "--dir":
+                    dir = new File(args[++i]);
+                    break;
+                case "--resolution":
+                    int[] size = DecoderPlanes.parse(args[++i]);
+                    width = size[0];
+                    height = size[1];
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+        if (!dir.isDirectory()) {
+            dir = new File(System.getProperty("java.io.tmpdir"));
+        }
+        boolean ok = true;
+        for (boolean notify : new boolean[]{false, true}) {
+            ok &= run(new File(dir, "player-ring-check.ring"), notify, seconds, width, height);
+        }
+        System.exit(ok ? 0 : 1);
+    }
+
+    /**
+     * Pump frames into the ring for the given time while a consumer process reads them.
+     *
+     * @return whether the consumer saw frames, none of them corrupt.
+     */
+    static boolean run(File ringFile, boolean notify, double seconds, int width, int height)
+            throws Exception {
+        ringFile.delete();
+        String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                RingConsumer.class.getName(), "--ring", ringFile.getPath(), "--verify");
+        if (notify) {
+            builder.command().addAll(Arrays.asList("--listen", "0"));
+        }
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        Process consumer = builder.start();
+        BufferedReader out = new BufferedReader(new InputStreamReader(consumer.getInputStream(), "UTF-8"));
+
+        CameraInjector injector;
+        if (notify) {
+            String line = out.readLine();
+            if (line == null || !line.startsWith("listening ")) {
+                throw new IllegalStateException("consumer did not start: " + line);
+            }
+            int port = Integer.parseInt(line.substring("listening ".length()));
+            injector = new CameraInjector(new TcpConnector("127.0.0.1", port));
+        } else {
+            injector = new CameraInjector(null);
+        }
+        injector.setSharedRing(ringFile, SLOTS);
+
+        FramePump pump = new FramePump(new FilledSource(width, height));
+        pump.setPacingEnabled(false);
+        pump.addSink(injector);
+        pump.start();
+        Thread.sleep((long) (seconds * 1000));
+        pump.interrupt();
+        pump.join();
+
+        String report = out.readLine();
+        consumer.waitFor();
+        ringFile.delete();
+        long frames = field(report, "frames");
+        long corrupt = field(report, "corrupt");
+        boolean ok = frames > 0 && corrupt == 0 && consumer.exitValue() == 0;
+        System.out.println((notify ? "notify " : "poll   ") + (ok ? "ok   " : "FAIL ")
+                + "written=" + injector.getWrittenCount() + " consumer " + report);
+        return ok;
+    }
+
+    private static long field(String report, String name) {
+        if (report != null) {
+            Matcher m = FIELD.matcher(report);
+            while (m.find()) {
+                if (m.group(1).equals(name)) {
+                    return Long.parseLong(m.group(2));
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Endless NV12 frames, each filled with its number's low byte.
+     */
+    private static class FilledSource implements FrameSource {
+        private final FramePool pool = new FramePool(4);
+        private final int width;
+        private final int height;
+        private int next;
+
+        FilledSource(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        @Override
+        public int getHeight() {
+            return height;
+        }
+
+        @Override
+        public int getFormat() {
+            return VideoFrame.FORMAT_NV12;
+        }
+
+        @Override
+        public VideoFrame nextFrame() {
+            VideoFrame frame;
+            while ((frame = pool.acquire(width, height, VideoFrame.FORMAT_NV12)) == null) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return null;
+                }
+                LockSupport.parkNanos(100000);
+            }
+            Arrays.fill(frame.array(), frame.arrayOffset(), frame.arrayOffset() + frame.getSize(), (byte) next);
+            frame.setPresentationTimeUs(next * 16667L);
+            next++;
+            return frame;
+        }
+
+        @Override
+        public void rewind() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.android.player.benchmark;
+
+import com.android.player.FramePool;
+import com.android.player.PipelineStats;
+import com.android.player.PlaneCopier;
+import com.android.player.VideoFrame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The decode-side frame path of {@link PlaneExtractionBenchmark} with and without a
+ * {@link PipelineStats}: the difference between stats=off and stats=on is what the
+ * counters cost per frame. {@link #statsOnly()} times the calls on their own.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatsOverheadBenchmark {
+
+    @Param({"1280x720", "1920x1080"})
+    public String resolution;
+
+    @Param({"off", "on"})
+    public String stats;
+
+    private DecoderPlanes planes;
+    private PipelineStats pipelineStats;
+    private final FramePool pool = new FramePool(2);
+    private final PlaneCopier copier = new PlaneCopier();
+    private long ptsUs;
+
+    @Setup
+    public void setup() {
+        int[] size = DecoderPlanes.parse(resolution);
+        planes = new DecoderPlanes(size[0], size[1], 1, false, 1);
+        pipelineStats = "on".equals(stats) ? new PipelineStats() : null;
+    }
+
+    @Benchmark
+    public int extract() {
+        PipelineStats stats = pipelineStats;
+        long pts = ptsUs += 33333;
+        if (stats != null) {
+            stats.markDecodeInput(pts);
+            stats.markDecodeOutput(pts);
+        }
+        long start = System.nanoTime();
+        VideoFrame frame = pool.acquire(planes.width, planes.height);
+        byte[] data = frame.array();
+        int offset = frame.arrayOffset();
+        for (int i = 0; i < 3; i++) {
+            int shift = (i == 0) ? 0 : 1;
+            offset = copier.copyPlane(planes.buffers[i], planes.rowStrides[i], planes.pixelStrides[i],
+                    planes.cropLeft >> shift, planes.cropTop >> shift,
+                    planes.width >> shift, planes.height >> shift, data, offset);
+        }
+        if (stats != null) {
+            stats.record(PipelineStats.Stage.COPY, System.nanoTime() - start);
+            stats.count(PipelineStats.Counter.RENDERED);
+        }
+        frame.release();
+        return offset;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public long statsOnly() {
+        if (pipelineStats == null) {
+            return 0;
+        }
+        long pts = ptsUs += 33333;
+        long start = System.nanoTime();
+        pipelineStats.markDecodeInput(pts);
+        pipelineStats.markDecodeOutput(pts);
+        pipelineStats.record(PipelineStats.Stage.COPY, System.nanoTime() - start);
+        pipelineStats.count(PipelineStats.Counter.RENDERED);
+        return pts;
+    }
+}
@@ -0,0 +1,97 @@
+package com.android.player.benchmark;
+
+import com.android.player.FramePool;
+import com.android.player.PlaneCopier;
+import com.android.player.StripedPlaneCopier;
+import com.android.player.VideoFrame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole-frame copy of NV12 decoder output into I420, on the calling thread
+ * ({@code threads=1}) or striped over several threads, to find the resolution
+ * where handing stripes to other cores starts to pay for the wake-ups.
+ * The result depends on the core count of the machine running it, compare the
+ * rows of one resolution against each other.
+ * Setup checks that the striped copy produces the serial bytes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StripedCopyBenchmark {
+
+    @Param({"1280x720", "1920x1080", "3840x2160", "7680x4320"})
+    public String resolution;
+
+    @Param({"1", "2", "4"})
+    public int threads;
+
+    private DecoderPlanes planes;
+    private int chromaLayout;
+    private final FramePool pool = new FramePool(2);
+    private PlaneCopier copier;
+
+    @Setup
+    public void setup() {
+        int[] size = DecoderPlanes.parse(resolution);
+        planes = new DecoderPlanes(size[0], size[1], 2, true, 1);
+        chromaLayout = PlaneCopier.detectChromaLayout(planes.buffers[1], planes.buffers[2], planes.rowStrides[1],
+                planes.cropLeft / 2, planes.cropTop / 2, planes.width / 2, planes.height / 2);
+        PlaneCopier serial = new PlaneCopier(true);
+        copier = threads > 1 ? new StripedPlaneCopier(threads, true) : serial;
+
+        byte[] reference = copyOf(copy(serial));
+        if (!Arrays.equals(reference, copyOf(copy(copier)))) {
+            throw new IllegalStateException("striped copy disagrees for " + resolution + " on " + threads + " threads");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (copier instanceof StripedPlaneCopier) {
+            ((StripedPlaneCopier) copier).shutdown();
+        }
+    }
+
+    private static byte[] copyOf(VideoFrame frame) {
+        byte[] bytes = Arrays.copyOfRange(frame.array(), frame.arrayOffset(), frame.arrayOffset() + frame.getSize());
+        frame.release();
+        return bytes;
+    }
+
+    private VideoFrame copy(PlaneCopier copier) {
+        VideoFrame frame = pool.acquire(planes.width, planes.height);
+        int base = frame.arrayOffset();
+        copier.copyPlane(planes.buffers[0], planes.rowStrides[0], 1,
+                planes.cropLeft, planes.cropTop, planes.width, planes.height, frame.array(), base);
+        copier.copyInterleavedChroma(planes.buffers[1], planes.buffers[2], chromaLayout, planes.rowStrides[1],
+                planes.cropLeft / 2, planes.cropTop / 2, planes.width / 2, planes.height / 2,
+                frame.array(), base + frame.getPlaneOffset(1), base + frame.getPlaneOffset(2));
+        return frame;
+    }
+
+    @Benchmark
+    public long copyFrame() {
+        VideoFrame frame = copy(copier);
+        long sequence = frame.getSequence();
+        frame.release();
+        return sequence;
+    }
+}
@@ -0,0 +1,44 @@
+package com.android.player.benchmark;
+
+import com.android.player.CameraInjector;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * {@link CameraInjector.Connector} for a TCP port, the JVM stand-in for the unix
+ * socket the device uses.
+ */
+public class TcpConnector implements CameraInjector.Connector {
+    private final String host;
+    private final int port;
+    private Socket socket;
+
+    public TcpConnector(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    @Override
+    public OutputStream connect(int sendBufferSize) throws IOException {
+        close();
+        socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.setSendBufferSize(sendBufferSize);
+        socket.connect(new InetSocketAddress(host, port));
+        return socket.getOutputStream();
+    }
+
+    @Override
+    public void close() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+            socket = null;
+        }
+    }
+}
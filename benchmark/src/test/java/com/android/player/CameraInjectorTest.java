@@ -0,0 +1,223 @@
+package com.android.player;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CameraInjectorTest {
+    private static final int WIDTH = 4;
+    private static final int HEIGHT = 2;
+
+    /**
+     * Stand-in for the unix socket: every connection is a byte stream the test can
+     * read back, connects and writes fail on demand.
+     */
+    private static class FakeConnector implements CameraInjector.Connector {
+        final List<ByteArrayOutputStream> connections = new ArrayList<ByteArrayOutputStream>();
+        final List<Integer> sendBufferSizes = new ArrayList<Integer>();
+        int connectFailures;
+        boolean failWrites;
+        int closes;
+
+        @Override
+        public OutputStream connect(int sendBufferSize) throws IOException {
+            if (connectFailures > 0) {
+                connectFailures--;
+                throw new IOException("connection refused");
+            }
+            sendBufferSizes.add(sendBufferSize);
+            final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            connections.add(stream);
+            return new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[] {(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    if (failWrites) {
+                        throw new IOException("broken pipe");
+                    }
+                    stream.write(b, off, len);
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+            closes++;
+        }
+
+        byte[] last() {
+            return connections.get(connections.size() - 1).toByteArray();
+        }
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final FramePool pool = new FramePool(4);
+    private final FakeConnector connector = new FakeConnector();
+    private final CameraInjector injector = new CameraInjector(connector);
+
+    private VideoFrame frame(int format, int sequence) {
+        VideoFrame frame = pool.acquire(WIDTH, HEIGHT, format);
+        byte[] data = frame.array();
+        for (int i = 0; i < frame.getSize(); i++) {
+            data[frame.arrayOffset() + i] = (byte) (sequence * 16 + i);
+        }
+        frame.setSequence(sequence);
+        frame.setPresentationTimeUs(sequence * 1000L);
+        return frame;
+    }
+
+    private void inject(VideoFrame frame) {
+        injector.onFrame(frame);
+        frame.release();
+    }
+
+    @Test
+    public void writesHeaderThenFrame() {
+        VideoFrame frame = frame(VideoFrame.FORMAT_I420, 7);
+        byte[] payload = new byte[frame.getSize()];
+        System.arraycopy(frame.array(), frame.arrayOffset(), payload, 0, payload.length);
+        inject(frame);
+
+        byte[] written = connector.last();
+        assertEquals(FrameHeader.SIZE + payload.length, written.length);
+        ByteBuffer header = ByteBuffer.wrap(written, 0, FrameHeader.SIZE);
+        assertTrue(FrameHeader.isValid(header));
+        assertEquals(VideoFrame.FORMAT_I420, FrameHeader.format(header));
+        assertEquals(payload.length, FrameHeader.payloadSize(header));
+        assertEquals(7, FrameHeader.sequence(header));
+        assertEquals(7000, FrameHeader.presentationTimeUs(header));
+        byte[] body = new byte[payload.length];
+        System.arraycopy(written, FrameHeader.SIZE, body, 0, body.length);
+        assertArrayEquals(payload, body);
+        assertEquals(Integer.valueOf(FrameHeader.SIZE + payload.length), connector.sendBufferSizes.get(0));
+    }
+
+    @Test
+    public void keepsTheConnectionAcrossFrames() {
+        for (int i = 0; i < 3; i++) {
+            inject(frame(VideoFrame.FORMAT_I420, i));
+        }
+        assertEquals(1, injector.getConnectCount());
+        assertEquals(3, injector.getWrittenCount());
+        int frameBytes = FrameHeader.SIZE + VideoFrame.frameSize(WIDTH, HEIGHT);
+        assertEquals(3 * frameBytes, connector.last().length);
+        assertEquals(0, pool.getOutstandingCount());
+    }
+
+    @Test
+    public void semiPlanarFramesAreSentAsI420() {
+        VideoFrame frame = frame(VideoFrame.FORMAT_NV12, 1);
+        int ySize = WIDTH * HEIGHT;
+        byte[] data = frame.array();
+        int base = frame.arrayOffset();
+        byte u0 = data[base + ySize];
+        byte v0 = data[base + ySize + 1];
+        byte u1 = data[base + ySize + 2];
+        inject(frame);
+
+        byte[] written = connector.last();
+        ByteBuffer header = ByteBuffer.wrap(written, 0, FrameHeader.SIZE);
+        assertEquals(VideoFrame.FORMAT_I420, FrameHeader.format(header));
+        int uvSize = (WIDTH / 2) * (HEIGHT / 2);
+        assertEquals(u0, written[FrameHeader.SIZE + ySize]);
+        assertEquals(u1, written[FrameHeader.SIZE + ySize + 1]);
+        assertEquals(v0, written[FrameHeader.SIZE + ySize + uvSize]);
+    }
+
+    @Test
+    public void failedConnectBacksOffThenRetries() throws Exception {
+        connector.connectFailures = 1;
+        inject(frame(VideoFrame.FORMAT_I420, 0));
+        assertNotNull(injector.getLastError());
+        assertEquals(0, injector.getConnectCount());
+
+        // frames during the backoff are skipped without another connect attempt
+        inject(frame(VideoFrame.FORMAT_I420, 1));
+        assertEquals(2, injector.getSkippedCount());
+        assertTrue(connector.connections.isEmpty());
+
+        Thread.sleep(150);
+        inject(frame(VideoFrame.FORMAT_I420, 2));
+        assertEquals(1, injector.getConnectCount());
+        assertEquals(1, injector.getWrittenCount());
+        ByteBuffer header = ByteBuffer.wrap(connector.last(), 0, FrameHeader.SIZE);
+        assertEquals(2, FrameHeader.sequence(header));
+    }
+
+    @Test
+    public void failedWriteDisconnectsAndReconnects() throws Exception {
+        inject(frame(VideoFrame.FORMAT_I420, 0));
+        connector.failWrites = true;
+        inject(frame(VideoFrame.FORMAT_I420, 1));
+        assertEquals(1, connector.closes);
+        assertNotNull(injector.getLastError());
+
+        connector.failWrites = false;
+        Thread.sleep(150);
+        inject(frame(VideoFrame.FORMAT_I420, 2));
+        assertEquals(2, injector.getConnectCount());
+        assertEquals(2, injector.getWrittenCount());
+        assertEquals(FrameHeader.SIZE + VideoFrame.frameSize(WIDTH, HEIGHT), connector.last().length);
+    }
+
+    @Test
+    public void finishClosesTheConnection() {
+        inject(frame(VideoFrame.FORMAT_I420, 0));
+        injector.onFinish();
+        assertEquals(1, connector.closes);
+        assertNull(injector.getLastError());
+        assertEquals(0, pool.getOutstandingCount());
+    }
+
+    @Test
+    public void ringKeepsPublishingWhileNotificationsBackOff() throws Exception {
+        File ringFile = new File(folder.getRoot(), "frames.ring");
+        injector.setSharedRing(ringFile, 4);
+        inject(frame(VideoFrame.FORMAT_I420, 0));
+        assertEquals(1, injector.getConnectCount());
+
+        connector.failWrites = true;
+        inject(frame(VideoFrame.FORMAT_I420, 1));
+        assertNotNull(injector.getLastError());
+        assertEquals(1, connector.closes);
+        // during the backoff frames still go into the ring, unannounced
+        connector.failWrites = false;
+        inject(frame(VideoFrame.FORMAT_I420, 2));
+        assertEquals(1, injector.getConnectCount());
+        assertEquals(3, injector.getWrittenCount());
+        assertEquals(0, injector.getSkippedCount());
+        SharedFrameRing reader = SharedFrameRing.open(ringFile);
+        assertEquals(3, reader.getPublishedCount());
+
+        Thread.sleep(150);
+        inject(frame(VideoFrame.FORMAT_I420, 3));
+        assertEquals(2, injector.getConnectCount());
+        // one notification on the new connection, covering the frames it missed
+        byte[] notification = connector.last();
+        assertEquals(SharedFrameRing.NOTIFY_SIZE, notification.length);
+        assertEquals(4, SharedFrameRing.parseNotification(ByteBuffer.wrap(notification)));
+        assertEquals(4, reader.getPublishedCount());
+        reader.close();
+        injector.onFinish();
+    }
+}
@@ -0,0 +1,263 @@
+package com.android.player;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DecodeLoopTest {
+    private static final long STEP_US = 33333;
+
+    /**
+     * A codec that hands every queued sample back as output right away, in order.
+     */
+    private static class FakeDecoder implements DecoderPort {
+        final ArrayDeque<long[]> output = new ArrayDeque<long[]>();
+        final List<Long> rendered = new ArrayList<Long>();
+        final List<Integer> inputIndexes = new ArrayList<Integer>();
+        final List<String> released = new ArrayList<String>();
+        int queued;
+        int flushes;
+
+        @Override
+        public ByteBuffer getInputBuffer(int index) {
+            return ByteBuffer.allocate(16);
+        }
+
+        @Override
+        public void queueInputBuffer(int index, int size, long presentationTimeUs, boolean endOfStream) {
+            queued++;
+            inputIndexes.add(index);
+            output.add(new long[]{size, presentationTimeUs, endOfStream ? 1 : 0});
+        }
+
+        @Override
+        public void releaseOutputBuffer(int index, boolean render) {
+            released.add(index + (render ? " render" : " drop"));
+        }
+
+        @Override
+        public void flush() {
+            flushes++;
+            output.clear();
+        }
+
+        /**
+         * Feed one input buffer and drain one output buffer, like one pass of the polling loop.
+         */
+        void step(DecodeLoop loop) {
+            loop.onInputBufferAvailable(0);
+            long[] buffer = output.poll();
+            if (buffer != null) {
+                loop.onOutputBufferAvailable(0, (int) buffer[0], buffer[1], buffer[2] != 0);
+            }
+        }
+    }
+
+    /**
+     * Samples at 0, STEP_US, 2 * STEP_US..., every one a sync sample.
+     */
+    private static class FakeSource implements SampleSource {
+        final int count;
+        int next;
+
+        FakeSource(int count) {
+            this.count = count;
+        }
+
+        @Override
+        public int readSampleData(ByteBuffer buffer, int offset) {
+            if (next >= count) {
+                return -1;
+            }
+            buffer.put(offset, (byte) next);
+            return 8;
+        }
+
+        @Override
+        public long getSampleTime() {
+            return next < count ? next * STEP_US : -1;
+        }
+
+        @Override
+        public boolean advance() {
+            next++;
+            return next < count;
+        }
+
+        @Override
+        public void seekToStart() {
+            next = 0;
+        }
+
+        @Override
+        public void seekTo(long timeUs, boolean closest) {
+            next = (int) Math.min(count, timeUs / STEP_US);
+        }
+    }
+
+    private DecodeLoop newLoop(final FakeDecoder decoder, SampleSource source) {
+        return new DecodeLoop(decoder, source, new DecodeLoop.OutputHandler() {
+            @Override
+            public boolean onOutput(int index, long presentationTimeUs) {
+                decoder.rendered.add(presentationTimeUs);
+                return true;
+            }
+        });
+    }
+
+    @Test
+    public void playsOnceAndFinishes() {
+        FakeDecoder decoder = new FakeDecoder();
+        DecodeLoop loop = newLoop(decoder, new FakeSource(3));
+        loop.setLooping(false);
+        for (int i = 0; i < 10 && !loop.isFinished(); i++) {
+            decoder.step(loop);
+        }
+        assertTrue(loop.isFinished());
+        assertEquals(Arrays.asList(0L, STEP_US, 2 * STEP_US), decoder.rendered);
+        // three samples and the end of stream
+        assertEquals(4, decoder.queued);
+        assertEquals(0, loop.getLoopCount());
+    }
+
+    @Test
+    public void loopingFlushesAndStartsOver() {
+        FakeDecoder decoder = new FakeDecoder();
+        DecodeLoop loop = newLoop(decoder, new FakeSource(2));
+        for (int i = 0; i < 6; i++) {
+            decoder.step(loop);
+        }
+        assertFalse(loop.isFinished());
+        assertEquals(2, loop.getLoopCount());
+        assertEquals(2, decoder.flushes);
+        // the timestamps start over with every pass
+        assertEquals(Arrays.asList(0L, STEP_US, 0L, STEP_US), decoder.rendered);
+    }
+
+    @Test
+    public void gaplessShiftsTimestampsWithoutFlushing() {
+        FakeDecoder decoder = new FakeDecoder();
+        DecodeLoop loop = newLoop(decoder, new FakeSource(3));
+        loop.setGapless(true);
+        final List<Long> passes = new ArrayList<Long>();
+        loop.setPassListener(new DecodeLoop.PassListener() {
+            @Override
+            public void onPassStart(long presentationTimeUs) {
+                passes.add(presentationTimeUs);
+            }
+        });
+        for (int i = 0; i < 7; i++) {
+            decoder.step(loop);
+        }
+        assertEquals(0, decoder.flushes);
+        assertEquals(3 * STEP_US, loop.getLoopDurationUs());
+        List<Long> expected = new ArrayList<Long>();
+        for (int i = 0; i < 7; i++) {
+            expected.add(i * STEP_US);
+        }
+        assertEquals(expected, decoder.rendered);
+        assertEquals(Arrays.asList(3 * STEP_US, 6 * STEP_US), passes);
+    }
+
+    @Test
+    public void preciseSeekDiscardsFramesBeforeTarget() {
+        FakeDecoder decoder = new FakeDecoder();
+        FakeSource source = new FakeSource(10) {
+            @Override
+            public void seekTo(long timeUs, boolean closest) {
+                // sync samples every fourth frame
+                next = (int) (timeUs / STEP_US) / 4 * 4;
+            }
+        };
+        DecodeLoop loop = newLoop(decoder, source);
+        loop.setLooping(false);
+        loop.requestSeek(6 * STEP_US, true);
+        assertTrue(loop.applyPendingSeek());
+        assertFalse(loop.applyPendingSeek());
+        for (int i = 0; i < 10 && !loop.isFinished(); i++) {
+            decoder.step(loop);
+        }
+        assertEquals(Arrays.asList(6 * STEP_US, 7 * STEP_US, 8 * STEP_US, 9 * STEP_US), decoder.rendered);
+    }
+
+    @Test
+    public void filteredSamplesNeverReachTheCodec() {
+        FakeDecoder decoder = new FakeDecoder();
+        DecodeLoop loop = newLoop(decoder, new FakeSource(4));
+        PipelineStats stats = new PipelineStats();
+        loop.setStats(stats);
+        loop.setLooping(false);
+        loop.setInputFilter(new DecodeLoop.InputFilter() {
+            @Override
+            public boolean skip(ByteBuffer sample, int size) {
+                return sample.get(0) % 2 == 1;
+            }
+        });
+        for (int i = 0; i < 10 && !loop.isFinished(); i++) {
+            decoder.step(loop);
+        }
+        assertEquals(Arrays.asList(0L, 2 * STEP_US), decoder.rendered);
+        assertEquals(2, stats.get(PipelineStats.Counter.SKIPPED_NON_REFERENCE));
+    }
+
+    @Test
+    public void finishIgnoresLaterBuffers() {
+        FakeDecoder decoder = new FakeDecoder();
+        DecodeLoop loop = newLoop(decoder, new FakeSource(3));
+        decoder.step(loop);
+        loop.finish();
+        decoder.step(loop);
+        assertEquals(1, decoder.queued);
+        assertEquals(Arrays.asList(0L), decoder.rendered);
+    }
+
+    @Test
+    public void asyncCallbacksFeedAheadAndDrainLater() {
+        // an async codec offers all its input buffers first and returns output later
+        FakeDecoder decoder = new FakeDecoder();
+        DecodeLoop loop = newLoop(decoder, new FakeSource(3));
+        loop.setLooping(false);
+        for (int index = 0; index < 6; index++) {
+            loop.onInputBufferAvailable(index);
+        }
+        // three samples and the end of stream, the last two buffers stay with the codec
+        assertEquals(Arrays.asList(0, 1, 2, 3), decoder.inputIndexes);
+        assertTrue(decoder.rendered.isEmpty());
+
+        int outputIndex = 10;
+        long[] buffer;
+        while ((buffer = decoder.output.poll()) != null) {
+            loop.onOutputBufferAvailable(outputIndex++, (int) buffer[0], buffer[1], buffer[2] != 0);
+        }
+        assertEquals(Arrays.asList(0L, STEP_US, 2 * STEP_US), decoder.rendered);
+        // every output buffer goes back under its own index, the empty end-of-stream one unrendered
+        assertEquals(Arrays.asList("10 render", "11 render", "12 render", "13 drop"), decoder.released);
+        assertTrue(loop.isFinished());
+    }
+
+    @Test
+    public void noInputAfterEndOfStreamUntilTheLoopRewinds() {
+        FakeDecoder decoder = new FakeDecoder();
+        DecodeLoop loop = newLoop(decoder, new FakeSource(1));
+        loop.onInputBufferAvailable(0);
+        loop.onInputBufferAvailable(1);
+        loop.onInputBufferAvailable(2);
+        assertEquals(2, decoder.queued);
+
+        // draining the end of stream flushes and starts the next pass
+        loop.onOutputBufferAvailable(0, 8, 0, false);
+        loop.onOutputBufferAvailable(1, 0, 0, true);
+        assertEquals(1, decoder.flushes);
+        loop.onInputBufferAvailable(3);
+        assertEquals(3, decoder.queued);
+        assertEquals(Integer.valueOf(3), decoder.inputIndexes.get(2));
+    }
+}
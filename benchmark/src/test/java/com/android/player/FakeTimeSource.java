@@ -0,0 +1,27 @@
+package com.android.player;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Clock that only moves when told to; sleeping advances it by the requested time.
+ */
+class FakeTimeSource implements MediaClock.TimeSource {
+    final List<Long> sleeps = new ArrayList<Long>();
+    long now = 1000000000L;
+
+    @Override
+    public long nanoTime() {
+        return now;
+    }
+
+    @Override
+    public void sleepNanos(long nanos) {
+        sleeps.add(nanos);
+        now += nanos;
+    }
+
+    void advanceUs(long us) {
+        now += us * 1000;
+    }
+}
@@ -0,0 +1,138 @@
+package com.android.player;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class FrameExtractorTest {
+    private static final int WIDTH = 16;
+    private static final int HEIGHT = 8;
+    private static final int ROW_STRIDE = 20;
+
+    private final FrameExtractor extractor = new FrameExtractor(2);
+    private final Random random = new Random(3);
+
+    @After
+    public void shutdown() {
+        extractor.shutdown();
+    }
+
+    /**
+     * Decoder output of one frame: a luma plane and, with pixelStride 2, chroma planes
+     * that are two views of one interleaved allocation in the given order.
+     */
+    private class Image {
+        final ByteBuffer[] buffers = new ByteBuffer[3];
+        final int[] rowStrides = {ROW_STRIDE, ROW_STRIDE, ROW_STRIDE};
+        final int[] pixelStrides = {1, 2, 2};
+        final byte[] u = new byte[WIDTH / 2 * HEIGHT / 2];
+        final byte[] v = new byte[WIDTH / 2 * HEIGHT / 2];
+
+        Image(boolean vFirst, boolean flat) {
+            byte[] luma = new byte[ROW_STRIDE * HEIGHT];
+            random.nextBytes(luma);
+            buffers[0] = ByteBuffer.wrap(luma);
+            if (flat) {
+                Arrays.fill(u, (byte) 128);
+                Arrays.fill(v, (byte) 128);
+            } else {
+                random.nextBytes(u);
+                random.nextBytes(v);
+            }
+            byte[] chroma = new byte[ROW_STRIDE * HEIGHT / 2];
+            for (int y = 0; y < HEIGHT / 2; y++) {
+                for (int x = 0; x < WIDTH / 2; x++) {
+                    int at = y * ROW_STRIDE + x * 2;
+                    chroma[at] = vFirst ? v[y * WIDTH / 2 + x] : u[y * WIDTH / 2 + x];
+                    chroma[at + 1] = vFirst ? u[y * WIDTH / 2 + x] : v[y * WIDTH / 2 + x];
+                }
+            }
+            ByteBuffer lead = ByteBuffer.wrap(chroma);
+            ByteBuffer shifted = ByteBuffer.wrap(chroma, 1, chroma.length - 1).slice();
+            buffers[1] = vFirst ? shifted : lead;
+            buffers[2] = vFirst ? lead : shifted;
+        }
+
+        VideoFrame extract() {
+            return extractor.extract(buffers, rowStrides, pixelStrides, 0, 0, WIDTH, HEIGHT);
+        }
+
+        /**
+         * The chroma a frame of this format should hold.
+         */
+        byte[] chroma(int format) {
+            int n = u.length;
+            byte[] expected = new byte[n * 2];
+            for (int i = 0; i < n; i++) {
+                if (format == VideoFrame.FORMAT_I420) {
+                    expected[i] = u[i];
+                    expected[n + i] = v[i];
+                } else {
+                    expected[2 * i] = format == VideoFrame.FORMAT_NV12 ? u[i] : v[i];
+                    expected[2 * i + 1] = format == VideoFrame.FORMAT_NV12 ? v[i] : u[i];
+                }
+            }
+            return expected;
+        }
+    }
+
+    private static byte[] chromaOf(VideoFrame frame) {
+        int start = frame.arrayOffset() + WIDTH * HEIGHT;
+        return Arrays.copyOfRange(frame.array(), start, start + WIDTH * HEIGHT / 2);
+    }
+
+    private VideoFrame check(Image image, int format) {
+        VideoFrame frame = image.extract();
+        assertEquals(format, frame.getFormat());
+        assertArrayEquals(image.chroma(format), chromaOf(frame));
+        frame.release();
+        return frame;
+    }
+
+    @Test
+    public void flatOpeningDoesNotLockNv12() {
+        // flat chroma cannot tell UV from VU, the frame goes out as NV12 for now
+        check(new Image(true, true), VideoFrame.FORMAT_NV12);
+        check(new Image(true, true), VideoFrame.FORMAT_NV12);
+        // the first frame with detail shows the decoder's VU order
+        check(new Image(true, false), VideoFrame.FORMAT_NV21);
+        // and the format stays, flat frames included
+        check(new Image(true, true), VideoFrame.FORMAT_NV21);
+        check(new Image(true, false), VideoFrame.FORMAT_NV21);
+    }
+
+    @Test
+    public void uvDecoderStaysNv12() {
+        check(new Image(false, true), VideoFrame.FORMAT_NV12);
+        check(new Image(false, false), VideoFrame.FORMAT_NV12);
+        check(new Image(false, true), VideoFrame.FORMAT_NV12);
+    }
+
+    @Test
+    public void vuDecoderIsNv21FromTheFirstFrame() {
+        check(new Image(true, false), VideoFrame.FORMAT_NV21);
+        check(new Image(true, true), VideoFrame.FORMAT_NV21);
+    }
+
+    @Test
+    public void resetStreamWorksTheFormatOutAgain() {
+        check(new Image(true, false), VideoFrame.FORMAT_NV21);
+        extractor.resetStream();
+        check(new Image(false, false), VideoFrame.FORMAT_NV12);
+    }
+
+    @Test
+    public void semiPlanarOutputOffSplitsTheChroma() {
+        extractor.setSemiPlanarOutput(false);
+        check(new Image(true, true), VideoFrame.FORMAT_I420);
+        check(new Image(true, false), VideoFrame.FORMAT_I420);
+        extractor.resetStream();
+        check(new Image(false, false), VideoFrame.FORMAT_I420);
+    }
+}
@@ -0,0 +1,118 @@
+package com.android.player;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FramePacerTest {
+    private static final long STEP_US = 33333;
+
+    private final FakeTimeSource time = new FakeTimeSource();
+    private final MediaClock clock = new MediaClock(time);
+    private final FramePacer pacer = new FramePacer(clock);
+
+    @Test
+    public void waitsUntilEachFrameIsDue() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            assertFalse(pacer.isLate(i * STEP_US));
+            pacer.awaitPresentation(i * STEP_US);
+        }
+        // the first frame anchors the clock and is shown at once
+        assertEquals(Arrays.asList(STEP_US * 1000, STEP_US * 1000), time.sleeps);
+        assertEquals(3, pacer.getPresentedCount());
+        assertEquals(0, pacer.getDroppedCount());
+    }
+
+    @Test
+    public void doubleRateHalvesTheWait() throws Exception {
+        clock.setRate(2.0f);
+        pacer.isLate(0);
+        pacer.awaitPresentation(0);
+        pacer.isLate(STEP_US);
+        pacer.awaitPresentation(STEP_US);
+        assertEquals(Arrays.asList(STEP_US * 500), time.sleeps);
+    }
+
+    @Test
+    public void dropsFramesPastTheLateThreshold() throws Exception {
+        pacer.setLateThresholdUs(40000);
+        pacer.isLate(0);
+        pacer.awaitPresentation(0);
+        // a 120 ms stall: frames 1 and 2 are more than 40 ms overdue
+        time.advanceUs(120000);
+        assertTrue(pacer.isLate(STEP_US));
+        assertTrue(pacer.isLate(2 * STEP_US));
+        assertFalse(pacer.isLate(3 * STEP_US));
+        assertFalse(pacer.isLate(4 * STEP_US));
+        assertEquals(2, pacer.getDroppedCount());
+    }
+
+    @Test
+    public void timestampGoingBackRestartsTheClock() {
+        pacer.isLate(0);
+        time.advanceUs(500000);
+        pacer.isLate(10 * STEP_US);
+        assertFalse(pacer.isLate(0));
+        assertEquals(0, clock.getMediaTimeUs());
+    }
+
+    @Test
+    public void farJumpReanchorsInsteadOfStalling() throws Exception {
+        pacer.setMaxLeadUs(1000000);
+        pacer.isLate(0);
+        pacer.awaitPresentation(0);
+        assertFalse(pacer.isLate(60000000));
+        pacer.awaitPresentation(60000000);
+        assertTrue(time.sleeps.isEmpty());
+    }
+
+    @Test
+    public void longStallReanchorsInsteadOfDroppingEverything() {
+        pacer.isLate(0);
+        time.advanceUs(5000000);
+        assertFalse(pacer.isLate(STEP_US));
+        assertEquals(0, pacer.getDroppedCount());
+        assertEquals(STEP_US, clock.getMediaTimeUs());
+    }
+
+    @Test
+    public void passStartOnTimeKeepsTheSchedule() throws Exception {
+        pacer.isLate(0);
+        pacer.awaitPresentation(0);
+        pacer.isLate(STEP_US);
+        pacer.awaitPresentation(STEP_US);
+        // gapless: the next pass continues at 2 * STEP_US, due in one step
+        pacer.startPass(2 * STEP_US);
+        assertFalse(pacer.isLate(2 * STEP_US));
+        pacer.awaitPresentation(2 * STEP_US);
+        assertEquals(Arrays.asList(STEP_US * 1000, STEP_US * 1000), time.sleeps);
+    }
+
+    @Test
+    public void latePassStartRestartsInsteadOfDropping() throws Exception {
+        pacer.isLate(0);
+        pacer.awaitPresentation(0);
+        // the first frame of the new pass shows up 200 ms late
+        time.advanceUs(200000);
+        pacer.startPass(STEP_US);
+        assertFalse(pacer.isLate(STEP_US));
+        pacer.awaitPresentation(STEP_US);
+        assertFalse(pacer.isLate(2 * STEP_US));
+        pacer.awaitPresentation(2 * STEP_US);
+        assertEquals(0, pacer.getDroppedCount());
+        // shown at once, then one step later
+        assertEquals(Arrays.asList(STEP_US * 1000), time.sleeps);
+    }
+
+    @Test
+    public void passStartBeforeTheFirstFrameIsLeftToThePacer() {
+        pacer.startPass(5 * STEP_US);
+        assertFalse(clock.isStarted());
+        assertFalse(pacer.isLate(0));
+        assertEquals(0, clock.getMediaTimeUs());
+    }
+}
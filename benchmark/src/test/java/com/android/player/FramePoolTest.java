@@ -0,0 +1,88 @@
+package com.android.player;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FramePoolTest {
+
+    @Test
+    public void reusesReleasedFrames() {
+        FramePool pool = new FramePool(2);
+        VideoFrame a = pool.acquire(64, 32);
+        VideoFrame b = pool.acquire(64, 32);
+        assertNull(pool.acquire(64, 32));
+        a.release();
+        assertSame(a, pool.acquire(64, 32, VideoFrame.FORMAT_NV12));
+        assertEquals(VideoFrame.FORMAT_NV12, a.getFormat());
+        assertEquals(2, pool.getAllocationCount());
+        a.release();
+        b.release();
+        assertEquals(0, pool.getOutstandingCount());
+    }
+
+    @Test
+    public void growingFramesReallocate() {
+        FramePool pool = new FramePool(1);
+        VideoFrame small = pool.acquire(32, 32);
+        small.release();
+        VideoFrame large = pool.acquire(64, 64);
+        assertNotSame(small, large);
+        assertEquals(2, pool.getAllocationCount());
+        large.release();
+        // a smaller frame fits in the larger buffer
+        assertSame(large, pool.acquire(32, 32));
+        assertEquals(2, pool.getAllocationCount());
+    }
+
+    /**
+     * Acquire, hand over through a queue, and release in a loop: once the pool is
+     * warm none of it may allocate, frame buffers or otherwise.
+     */
+    @Test
+    public void steadyStateDoesNotAllocate() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        FramePool pool = new FramePool(4);
+        FrameQueue queue = new FrameQueue(2, FrameQueue.DropPolicy.DROP_OLDEST);
+        cycle(pool, queue, 20000);
+        long allocations = pool.getAllocationCount();
+        long id = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(id);
+        cycle(pool, queue, 100000);
+        long bytes = threads.getThreadAllocatedBytes(id) - before;
+
+        assertEquals(allocations, pool.getAllocationCount());
+        // leaves room for the bean call itself, far below one object per frame
+        assertTrue("allocated " + bytes + " bytes in steady state", bytes < 4096);
+        queue.clear();
+        assertEquals(0, pool.getOutstandingCount());
+    }
+
+    private static void cycle(FramePool pool, FrameQueue queue, int frames) {
+        for (int i = 0; i < frames; i++) {
+            VideoFrame frame = pool.acquire(64, 32, VideoFrame.FORMAT_NV12);
+            frame.setPresentationTimeUs(i);
+            frame.retain();
+            queue.offer(frame);
+            frame.release();
+            if (i % 3 != 0) {
+                VideoFrame out = queue.poll();
+                if (out != null) {
+                    out.release();
+                }
+            }
+        }
+    }
+}
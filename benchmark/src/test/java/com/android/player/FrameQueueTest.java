@@ -0,0 +1,119 @@
+package com.android.player;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FrameQueueTest {
+    private final FramePool pool = new FramePool(8);
+
+    private VideoFrame frame(long sequence) {
+        VideoFrame frame = pool.acquire(16, 16);
+        frame.setSequence(sequence);
+        return frame;
+    }
+
+    @Test
+    public void dropOldestReleasesTheHeadAndKeepsTheNewest() {
+        FrameQueue queue = new FrameQueue(2, FrameQueue.DropPolicy.DROP_OLDEST);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(queue.offer(frame(i)));
+        }
+        assertEquals(2, queue.size());
+        assertEquals(5, queue.getOfferedCount());
+        assertEquals(3, queue.getDroppedCount());
+        // the dropped frames went back to the pool
+        assertEquals(2, pool.getOutstandingCount());
+        VideoFrame first = queue.poll();
+        VideoFrame second = queue.poll();
+        assertEquals(3, first.getSequence());
+        assertEquals(4, second.getSequence());
+        assertNull(queue.poll());
+        first.release();
+        second.release();
+        assertEquals(0, pool.getOutstandingCount());
+    }
+
+    @Test
+    public void dropNewestReleasesTheOfferedFrame() {
+        FrameQueue queue = new FrameQueue(2, FrameQueue.DropPolicy.DROP_NEWEST);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i < 2, queue.offer(frame(i)));
+        }
+        assertEquals(2, queue.size());
+        assertEquals(3, queue.getDroppedCount());
+        assertEquals(2, pool.getOutstandingCount());
+        assertEquals(0, queue.poll().getSequence());
+        assertEquals(1, queue.poll().getSequence());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void blockWaitsForTheConsumer() throws Exception {
+        final FrameQueue queue = new FrameQueue(1, FrameQueue.DropPolicy.BLOCK);
+        assertTrue(queue.offer(frame(0)));
+        final VideoFrame waiting = frame(1);
+        final boolean[] queued = new boolean[1];
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                queued[0] = queue.offer(waiting);
+            }
+        });
+        producer.start();
+        producer.join(100);
+        assertTrue("offer returned while the queue was full", producer.isAlive());
+        assertEquals(1, queue.size());
+
+        VideoFrame head = queue.poll();
+        assertEquals(0, head.getSequence());
+        head.release();
+        producer.join(TimeUnit.SECONDS.toMillis(5));
+        assertFalse(producer.isAlive());
+        assertTrue(queued[0]);
+        assertSame(waiting, queue.poll());
+        assertEquals(0, queue.getDroppedCount());
+    }
+
+    @Test
+    public void closeDropsABlockedFrame() throws Exception {
+        final FrameQueue queue = new FrameQueue(1, FrameQueue.DropPolicy.BLOCK);
+        assertTrue(queue.offer(frame(0)));
+        final boolean[] queued = {true};
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                queued[0] = queue.offer(frame(1));
+            }
+        });
+        producer.start();
+        producer.join(100);
+        assertTrue(producer.isAlive());
+        queue.close();
+        producer.join(TimeUnit.SECONDS.toMillis(5));
+        assertFalse(producer.isAlive());
+        assertFalse(queued[0]);
+        assertEquals(1, queue.getDroppedCount());
+        queue.clear();
+        assertEquals(0, pool.getOutstandingCount());
+    }
+
+    @Test
+    public void lateFramesAreCounted() throws Exception {
+        FrameQueue queue = new FrameQueue(2, FrameQueue.DropPolicy.DROP_OLDEST);
+        queue.setLateThresholdNs(TimeUnit.MILLISECONDS.toNanos(10));
+        queue.offer(frame(0));
+        queue.poll().release();
+        assertEquals(0, queue.getLateCount());
+        queue.offer(frame(1));
+        Thread.sleep(30);
+        queue.poll().release();
+        assertEquals(1, queue.getLateCount());
+    }
+}
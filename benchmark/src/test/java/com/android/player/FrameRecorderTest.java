@@ -0,0 +1,176 @@
+package com.android.player;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FrameRecorderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final FramePool pool = new FramePool(1);
+
+    @Test
+    public void framesReadBackThroughSegment() throws IOException {
+        File dir = folder.newFolder();
+        FrameRecorder recorder = new FrameRecorder(dir);
+        byte[][] written = new byte[5][];
+        for (int i = 0; i < written.length; i++) {
+            written[i] = record(recorder, 64, 36, VideoFrame.FORMAT_NV12, 1000L + i * 33333, 10 + i);
+        }
+        recorder.onFinish();
+        assertNull(recorder.getLastError());
+        assertEquals(5, recorder.getRecordedCount());
+
+        FrameRecorder.Segment segment = FrameRecorder.Segment.open(new File(dir, "rec-00000.yuvr"));
+        assertEquals(64, segment.getWidth());
+        assertEquals(36, segment.getHeight());
+        assertEquals(VideoFrame.FORMAT_NV12, segment.getFormat());
+        assertEquals(VideoFrame.frameSize(64, 36), segment.getFrameSize());
+        assertEquals(5, segment.getFrameCount());
+        for (int i = 0; i < written.length; i++) {
+            assertEquals(1000L + i * 33333, segment.getPresentationTimeUs(i));
+            assertEquals(10 + i, segment.getSequence(i));
+            byte[] read = new byte[segment.getFrameSize()];
+            segment.readFrame(i, read, 0);
+            assertArrayEquals(written[i], read);
+        }
+    }
+
+    @Test
+    public void sizeOrFormatChangeStartsSegment() throws IOException {
+        File dir = folder.newFolder();
+        FrameRecorder recorder = new FrameRecorder(dir);
+        record(recorder, 32, 16, VideoFrame.FORMAT_I420, 0, 0);
+        record(recorder, 32, 16, VideoFrame.FORMAT_I420, 1, 1);
+        record(recorder, 64, 16, VideoFrame.FORMAT_I420, 2, 2);
+        byte[] last = record(recorder, 64, 16, VideoFrame.FORMAT_NV21, 3, 3);
+        recorder.onFinish();
+
+        assertEquals(2, FrameRecorder.Segment.open(new File(dir, "rec-00000.yuvr")).getFrameCount());
+        assertEquals(64, FrameRecorder.Segment.open(new File(dir, "rec-00001.yuvr")).getWidth());
+        FrameRecorder.Segment segment = FrameRecorder.Segment.open(new File(dir, "rec-00002.yuvr"));
+        assertEquals(VideoFrame.FORMAT_NV21, segment.getFormat());
+        assertEquals(1, segment.getFrameCount());
+        byte[] read = new byte[segment.getFrameSize()];
+        segment.readFrame(0, read, 0);
+        assertArrayEquals(last, read);
+    }
+
+    @Test
+    public void fullSegmentsRollOverAndOldestAreDeleted() throws IOException {
+        File dir = folder.newFolder();
+        int frameSize = VideoFrame.frameSize(32, 16);
+        // room for exactly two frames per segment
+        long segmentSize = FrameRecorder.HEADER_SIZE + 2 * (FrameRecorder.INDEX_ENTRY_SIZE + frameSize);
+        FrameRecorder recorder = new FrameRecorder(dir, segmentSize, 2);
+        for (int i = 0; i < 7; i++) {
+            record(recorder, 32, 16, VideoFrame.FORMAT_I420, i, i);
+        }
+        recorder.onFinish();
+
+        String[] names = dir.list();
+        Arrays.sort(names);
+        assertArrayEquals(new String[]{"rec-00002.yuvr", "rec-00003.yuvr"}, names);
+        FrameRecorder.Segment segment = FrameRecorder.Segment.open(new File(dir, "rec-00002.yuvr"));
+        assertEquals(2, segment.getFrameCount());
+        assertEquals(4, segment.getSequence(0));
+        assertEquals(1, FrameRecorder.Segment.open(new File(dir, "rec-00003.yuvr")).getFrameCount());
+    }
+
+    @Test
+    public void readerOnlySeesCompleteFrames() throws IOException {
+        File dir = folder.newFolder();
+        FrameRecorder recorder = new FrameRecorder(dir);
+        record(recorder, 32, 16, VideoFrame.FORMAT_I420, 0, 0);
+        // opened while the recorder still writes to the segment
+        FrameRecorder.Segment segment = FrameRecorder.Segment.open(new File(dir, "rec-00000.yuvr"));
+        assertEquals(1, segment.getFrameCount());
+        record(recorder, 32, 16, VideoFrame.FORMAT_I420, 1, 1);
+        assertEquals(2, segment.getFrameCount());
+        recorder.onFinish();
+    }
+
+    @Test(expected = IOException.class)
+    public void openRejectsOtherFiles() throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), new byte[FrameRecorder.HEADER_SIZE]);
+        FrameRecorder.Segment.open(file);
+    }
+
+    @Test
+    public void frameLargerThanSegmentIsReported() throws IOException {
+        File dir = folder.newFolder();
+        FrameRecorder recorder = new FrameRecorder(dir, FrameRecorder.HEADER_SIZE + 64, 1);
+        record(recorder, 32, 16, VideoFrame.FORMAT_I420, 0, 0);
+        assertNotNull(recorder.getLastError());
+        assertEquals(0, recorder.getRecordedCount());
+        assertFalse(new File(dir, "rec-00000.yuvr").exists());
+    }
+
+    @Test
+    public void failedSegmentStopsRecording() throws IOException {
+        File dir = folder.newFolder();
+        // the second segment cannot be created, its name is taken by a directory
+        assertTrue(new File(dir, "rec-00001.yuvr").mkdir());
+        FrameRecorder recorder = new FrameRecorder(dir);
+        record(recorder, 32, 16, VideoFrame.FORMAT_I420, 0, 0);
+        record(recorder, 64, 16, VideoFrame.FORMAT_I420, 1, 1);
+        assertNotNull(recorder.getLastError());
+        // neither a change back nor another change tries to create a file again
+        record(recorder, 32, 16, VideoFrame.FORMAT_I420, 2, 2);
+        record(recorder, 32, 16, VideoFrame.FORMAT_NV12, 3, 3);
+        recorder.onFinish();
+
+        assertEquals(1, recorder.getRecordedCount());
+        String[] names = dir.list();
+        Arrays.sort(names);
+        assertArrayEquals(new String[]{"rec-00000.yuvr", "rec-00001.yuvr"}, names);
+        assertTrue(new File(dir, "rec-00001.yuvr").isDirectory());
+        assertEquals(1, FrameRecorder.Segment.open(new File(dir, "rec-00000.yuvr")).getFrameCount());
+    }
+
+    @Test
+    public void missingDirectoryStopsRecording() throws IOException {
+        File notADir = folder.newFile();
+        FrameRecorder recorder = new FrameRecorder(notADir);
+        for (int i = 0; i < 3; i++) {
+            record(recorder, 32, 16, VideoFrame.FORMAT_I420, i, i);
+        }
+        assertNotNull(recorder.getLastError());
+        assertEquals(0, recorder.getRecordedCount());
+        assertTrue(notADir.isFile());
+        assertEquals(0, notADir.length());
+    }
+
+    /**
+     * Record a frame of random bytes.
+     *
+     * @return the bytes recorded.
+     */
+    private byte[] record(FrameRecorder recorder, int width, int height, int format, long ptsUs, long sequence) {
+        VideoFrame frame = pool.acquire(width, height, format);
+        byte[] bytes = new byte[frame.getSize()];
+        new Random(sequence).nextBytes(bytes);
+        System.arraycopy(bytes, 0, frame.array(), frame.arrayOffset(), bytes.length);
+        frame.setPresentationTimeUs(ptsUs);
+        frame.setSequence(sequence);
+        recorder.onFrame(frame);
+        frame.release();
+        return bytes;
+    }
+}
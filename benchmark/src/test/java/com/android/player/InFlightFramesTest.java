@@ -0,0 +1,156 @@
+package com.android.player;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class InFlightFramesTest {
+
+    /**
+     * Fences numbered from 1 that signal when the test says so. Waiting on one takes
+     * a millisecond of fake time and signals it, unless the GPU is hung.
+     */
+    private static class FakeFences implements FenceSync {
+        final FakeTimeSource time;
+        final Set<Long> signaled = new HashSet<Long>();
+        final List<Long> awaited = new ArrayList<Long>();
+        final List<Long> deleted = new ArrayList<Long>();
+        long next = 1;
+        boolean hung;
+
+        FakeFences(FakeTimeSource time) {
+            this.time = time;
+        }
+
+        @Override
+        public long insert() {
+            return next++;
+        }
+
+        @Override
+        public boolean isSignaled(long fence) {
+            return signaled.contains(fence);
+        }
+
+        @Override
+        public boolean await(long fence, long timeoutNs) {
+            awaited.add(fence);
+            if (hung) {
+                time.now += timeoutNs;
+                return false;
+            }
+            time.advanceUs(1000);
+            signaled.add(fence);
+            return true;
+        }
+
+        @Override
+        public void delete(long fence) {
+            deleted.add(fence);
+        }
+    }
+
+    private final FakeTimeSource time = new FakeTimeSource();
+    private final FakeFences fences = new FakeFences(time);
+    private final PipelineStats stats = new PipelineStats();
+
+    private InFlightFrames frames(int maxInFlight) {
+        InFlightFrames frames = new InFlightFrames(fences, maxInFlight, time);
+        frames.setStats(stats);
+        return frames;
+    }
+
+    @Test
+    public void signaledFramesRetireOldestFirst() {
+        InFlightFrames frames = frames(3);
+        frames.submit();
+        time.advanceUs(2000);
+        frames.submit();
+        time.advanceUs(3000);
+
+        // the newer frame alone does not retire anything
+        fences.signaled.add(2L);
+        frames.retireSignaled();
+        assertEquals(2, frames.getInFlightCount());
+        assertTrue(fences.deleted.isEmpty());
+
+        fences.signaled.add(1L);
+        frames.retireSignaled();
+        assertEquals(0, frames.getInFlightCount());
+        assertEquals(2, frames.getCompletedCount());
+        assertEquals(Arrays.asList(1L, 2L), fences.deleted);
+        assertTrue(fences.awaited.isEmpty());
+
+        // submit to first seen signalled: 5 ms and 3 ms
+        LatencyHistogram gpu = stats.getHistogram(PipelineStats.Stage.GPU);
+        assertEquals(2, gpu.getCount());
+        assertEquals(5000, gpu.getMaxUs());
+    }
+
+    @Test
+    public void submitWaitsForTheOldestWhenFull() {
+        InFlightFrames frames = frames(2);
+        frames.submit();
+        frames.submit();
+        assertTrue(fences.awaited.isEmpty());
+
+        frames.submit();
+        assertEquals(Arrays.asList(1L), fences.awaited);
+        assertEquals(Arrays.asList(1L), fences.deleted);
+        assertEquals(2, frames.getInFlightCount());
+
+        // a frame the GPU already finished makes room without a wait
+        fences.signaled.add(2L);
+        frames.submit();
+        assertEquals(Arrays.asList(1L), fences.awaited);
+        assertEquals(Arrays.asList(1L, 2L), fences.deleted);
+        assertEquals(0, frames.getTimeoutCount());
+    }
+
+    @Test
+    public void timedOutWaitStillRetiresTheFrame() {
+        InFlightFrames frames = frames(1);
+        frames.submit();
+        fences.hung = true;
+        frames.submit();
+        assertEquals(1, frames.getTimeoutCount());
+        assertEquals(Arrays.asList(1L), fences.deleted);
+        assertEquals(1, frames.getInFlightCount());
+    }
+
+    @Test
+    public void releaseWaitsForEveryFrame() {
+        InFlightFrames frames = frames(3);
+        frames.submit();
+        frames.submit();
+        frames.release();
+        assertEquals(Arrays.asList(1L, 2L), fences.awaited);
+        assertEquals(Arrays.asList(1L, 2L), fences.deleted);
+        assertEquals(0, frames.getInFlightCount());
+    }
+
+    @Test
+    public void invalidateForgetsFencesOfALostContext() {
+        InFlightFrames frames = frames(2);
+        frames.submit();
+        frames.submit();
+        frames.invalidate();
+        assertEquals(0, frames.getInFlightCount());
+
+        // the new context starts empty, the old fences are never touched again
+        frames.submit();
+        frames.submit();
+        frames.submit();
+        assertEquals(Arrays.asList(3L), fences.awaited);
+        assertEquals(Arrays.asList(3L), fences.deleted);
+        frames.release();
+        assertEquals(Arrays.asList(3L, 4L, 5L), fences.deleted);
+    }
+}
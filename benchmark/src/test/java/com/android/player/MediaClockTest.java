@@ -0,0 +1,70 @@
+package com.android.player;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MediaClockTest {
+    private final FakeTimeSource time = new FakeTimeSource();
+    private final MediaClock clock = new MediaClock(time);
+
+    @Test
+    public void runsFromTheAnchor() {
+        assertFalse(clock.isStarted());
+        clock.start(5000);
+        assertEquals(5000, clock.getMediaTimeUs());
+        time.advanceUs(20000);
+        assertEquals(25000, clock.getMediaTimeUs());
+        assertEquals(time.now + 10000 * 1000, clock.realTimeNsFor(35000));
+    }
+
+    @Test
+    public void rateChangeKeepsThePosition() {
+        clock.start(0);
+        time.advanceUs(100000);
+        clock.setRate(2.0f);
+        // no jump at the switch, twice the speed after it
+        assertEquals(100000, clock.getMediaTimeUs());
+        time.advanceUs(100000);
+        assertEquals(300000, clock.getMediaTimeUs());
+        assertEquals(time.now + 50000 * 1000, clock.realTimeNsFor(400000));
+
+        clock.setRate(0.5f);
+        assertEquals(300000, clock.getMediaTimeUs());
+        time.advanceUs(100000);
+        assertEquals(350000, clock.getMediaTimeUs());
+    }
+
+    @Test
+    public void rateIsClamped() {
+        clock.setRate(100f);
+        assertEquals(MediaClock.MAX_RATE, clock.getRate(), 0f);
+        clock.setRate(0f);
+        assertEquals(MediaClock.MIN_RATE, clock.getRate(), 0f);
+    }
+
+    @Test
+    public void longRunsKeepMicrosecondPrecision() {
+        clock.setRate(1.5f);
+        clock.start(0);
+        long mediaUs = 3600L * 1000000 + 1;
+        long dueNs = clock.realTimeNsFor(mediaUs);
+        assertEquals(time.now + (long) (mediaUs * 1000 / 1.5), dueNs);
+    }
+
+    @Test
+    public void reanchorKeepsTheScheduleUnlessBehind() {
+        clock.start(0);
+        time.advanceUs(10000);
+        // due in 20 ms: the schedule is unchanged
+        clock.reanchor(30000);
+        assertEquals(10000, clock.getMediaTimeUs());
+        // 50 ms behind: it starts over from now
+        time.advanceUs(100000);
+        clock.reanchor(60000);
+        assertTrue(clock.isStarted());
+        assertEquals(60000, clock.getMediaTimeUs());
+    }
+}
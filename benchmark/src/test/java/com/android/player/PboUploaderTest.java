@@ -0,0 +1,210 @@
+package com.android.player;
+
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PboUploaderTest {
+    private static final int WIDTH = 8;
+    private static final int HEIGHT = 4;
+
+    /**
+     * GL 3 fake: names count up from 1, mapped ranges are plain buffers whose
+     * contents are kept per mapping, and mapping or unmapping fails on demand.
+     */
+    private static class FakeGL3 implements InvocationHandler {
+        final GL3Api gl = (GL3Api) Proxy.newProxyInstance(GL3Api.class.getClassLoader(),
+                new Class<?>[]{GL3Api.class}, this);
+        final List<String> calls = new ArrayList<String>();
+        final List<Integer> mappedBuffers = new ArrayList<Integer>();
+        final List<ByteBuffer> mappings = new ArrayList<ByteBuffer>();
+        int nextName = 1;
+        int boundBuffer;
+        boolean mapFails;
+        boolean unmapFails;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.equals("glTexSubImage2D")) {
+                // from client memory or from the bound unpack buffer
+                Object source = args[8];
+                calls.add(source instanceof Integer ? name + " pbo " + boundBuffer + " @" + source
+                        : name + " client");
+            } else if (!name.equals("glTexParameteri")) {
+                calls.add(name + (name.equals("glBindBuffer") ? " " + args[1] : ""));
+            }
+            if (name.equals("glGenBuffers") || name.equals("glGenTextures")) {
+                int[] names = (int[]) args[1];
+                for (int i = 0; i < (Integer) args[0]; i++) {
+                    names[(Integer) args[2] + i] = nextName++;
+                }
+            } else if (name.equals("glBindBuffer")) {
+                boundBuffer = (Integer) args[1];
+            } else if (name.equals("glMapBufferRange")) {
+                if (mapFails) {
+                    return null;
+                }
+                ByteBuffer range = ByteBuffer.allocate((Integer) args[2]);
+                mappedBuffers.add(boundBuffer);
+                mappings.add(range);
+                return range;
+            } else if (name.equals("glUnmapBuffer")) {
+                return !unmapFails;
+            }
+            Class<?> type = method.getReturnType();
+            return type == int.class ? 0 : type == long.class ? 0L : type == boolean.class ? false : null;
+        }
+
+        int count(String prefix) {
+            int count = 0;
+            for (String call : calls) {
+                if (call.startsWith(prefix)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    private final FakeGL3 fake = new FakeGL3();
+    private final YuvTextures textures = new YuvTextures(fake.gl);
+    private final FramePool pool = new FramePool(2);
+
+    private VideoFrame frame(int width, int height, int format, int seed) {
+        VideoFrame frame = pool.acquire(width, height, format);
+        byte[] data = frame.array();
+        for (int i = 0; i < frame.getSize(); i++) {
+            data[frame.arrayOffset() + i] = (byte) (seed + i);
+        }
+        return frame;
+    }
+
+    private static byte[] bytes(VideoFrame frame) {
+        return Arrays.copyOfRange(frame.array(), frame.arrayOffset(), frame.arrayOffset() + frame.getSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ringSizeIsChecked() {
+        new PboUploader(fake.gl, textures, PboUploader.MAX_RING_SIZE + 1);
+    }
+
+    @Test
+    public void framesRotateThroughTheRing() {
+        PboUploader uploader = new PboUploader(fake.gl, textures, 3);
+        List<byte[]> sent = new ArrayList<byte[]>();
+        for (int i = 0; i < 4; i++) {
+            VideoFrame frame = frame(WIDTH, HEIGHT, VideoFrame.FORMAT_I420, i * 10);
+            uploader.upload(frame);
+            sent.add(bytes(frame));
+            frame.release();
+        }
+        // textures take names 1-3, the buffers 4-6
+        assertEquals(Arrays.asList(4, 5, 6, 4), fake.mappedBuffers);
+        assertEquals(3, fake.count("glBufferData"));
+        assertEquals(4, fake.count("glUnmapBuffer"));
+        for (int i = 0; i < 4; i++) {
+            assertArrayEquals(sent.get(i), fake.mappings.get(i).array());
+        }
+        assertEquals(4, uploader.getUploadCount());
+        assertEquals(0, uploader.getFallbackCount());
+        assertEquals(0, fake.count("glTexSubImage2D client"));
+    }
+
+    @Test
+    public void planesComeFromTheirOffsetsInTheBuffer() {
+        PboUploader uploader = new PboUploader(fake.gl, textures, 2);
+        VideoFrame frame = frame(WIDTH, HEIGHT, VideoFrame.FORMAT_NV12, 0);
+        uploader.upload(frame);
+        int ySize = WIDTH * HEIGHT;
+        int lastMap = fake.calls.lastIndexOf("glUnmapBuffer");
+        assertEquals(Arrays.asList(
+                "glBindTexture", "glTexSubImage2D pbo 3 @0",
+                "glBindTexture", "glTexSubImage2D pbo 3 @" + ySize,
+                "glBindBuffer 0"), fake.calls.subList(lastMap + 1, fake.calls.size()));
+        frame.release();
+    }
+
+    @Test
+    public void unmappableBufferFallsBackToClientMemory() {
+        PboUploader uploader = new PboUploader(fake.gl, textures, 2);
+        fake.mapFails = true;
+        VideoFrame frame = frame(WIDTH, HEIGHT, VideoFrame.FORMAT_I420, 0);
+        uploader.upload(frame);
+        assertEquals(1, uploader.getFallbackCount());
+        assertEquals(0, fake.count("glUnmapBuffer"));
+        assertEquals(0, fake.count("glTexSubImage2D pbo"));
+        assertClientUploadAfterUnbind(3);
+
+        // the ring keeps turning once mapping works again
+        fake.mapFails = false;
+        uploader.upload(frame);
+        assertEquals(Arrays.asList(5), fake.mappedBuffers);
+        assertEquals(1, uploader.getFallbackCount());
+        frame.release();
+    }
+
+    @Test
+    public void lostBufferContentsFallBackToClientMemory() {
+        PboUploader uploader = new PboUploader(fake.gl, textures, 2);
+        fake.unmapFails = true;
+        VideoFrame frame = frame(WIDTH, HEIGHT, VideoFrame.FORMAT_NV21, 0);
+        uploader.upload(frame);
+        assertEquals(1, uploader.getFallbackCount());
+        assertEquals(1, fake.count("glUnmapBuffer"));
+        // nothing is read from the buffer whose contents were lost
+        assertEquals(0, fake.count("glTexSubImage2D pbo"));
+        assertClientUploadAfterUnbind(2);
+        assertEquals(1, uploader.getUploadCount());
+        frame.release();
+    }
+
+    private void assertClientUploadAfterUnbind(int planes) {
+        int unbind = fake.calls.lastIndexOf("glBindBuffer 0");
+        int firstClient = fake.calls.indexOf("glTexSubImage2D client");
+        assertTrue("client upload while an unpack buffer was bound", unbind >= 0 && unbind < firstClient);
+        assertEquals(planes, fake.count("glTexSubImage2D client"));
+    }
+
+    @Test
+    public void largerFrameReplacesTheRing() {
+        PboUploader uploader = new PboUploader(fake.gl, textures, 2);
+        VideoFrame small = frame(WIDTH, HEIGHT, VideoFrame.FORMAT_I420, 0);
+        uploader.upload(small);
+        small.release();
+        VideoFrame large = frame(WIDTH * 2, HEIGHT * 2, VideoFrame.FORMAT_I420, 0);
+        uploader.upload(large);
+        assertEquals(2, fake.count("glGenBuffers"));
+        assertEquals(1, fake.count("glDeleteBuffers"));
+        // the new ring starts at its first buffer, named after the new textures
+        assertEquals(Arrays.asList(4, 9), fake.mappedBuffers);
+        assertEquals(large.getSize(), fake.mappings.get(1).capacity());
+        large.release();
+    }
+
+    @Test
+    public void prepareAllocatesAheadOfTheFirstFrame() {
+        PboUploader uploader = new PboUploader(fake.gl, textures, 3);
+        uploader.prepare(WIDTH, HEIGHT, VideoFrame.FORMAT_I420);
+        assertEquals(1, fake.count("glGenBuffers"));
+        assertEquals(3, fake.count("glBufferData"));
+        fake.calls.clear();
+        VideoFrame frame = frame(WIDTH, HEIGHT, VideoFrame.FORMAT_I420, 0);
+        uploader.upload(frame);
+        assertEquals(0, fake.count("glGenBuffers"));
+        assertEquals(0, fake.count("glTexImage2D"));
+        assertEquals(Arrays.asList(4), fake.mappedBuffers);
+        frame.release();
+    }
+}
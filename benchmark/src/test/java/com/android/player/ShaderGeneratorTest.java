@@ -0,0 +1,116 @@
+package com.android.player;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ShaderGeneratorTest {
+
+    private static List<String> linesWith(String source, String part) {
+        List<String> found = new ArrayList<String>();
+        for (String line : source.split("\n")) {
+            if (line.contains(part)) {
+                found.add(line.trim());
+            }
+        }
+        return found;
+    }
+
+    @Test
+    public void keysAreDenseAndDistinct() {
+        int[] formats = {VideoFrame.FORMAT_I420, VideoFrame.FORMAT_NV12, VideoFrame.FORMAT_NV21};
+        Set<Integer> keys = new HashSet<Integer>();
+        for (int format : formats) {
+            for (ShaderGenerator.Sharpen sharpen : ShaderGenerator.Sharpen.values()) {
+                int key = ShaderGenerator.key(format, sharpen);
+                assertTrue(key >= 0 && key < ShaderGenerator.VARIANT_COUNT);
+                assertTrue("duplicate key " + key, keys.add(key));
+            }
+        }
+        assertEquals(ShaderGenerator.VARIANT_COUNT, keys.size());
+    }
+
+    @Test
+    public void yv12IsDrawnLikeI420() {
+        for (ShaderGenerator.Sharpen sharpen : ShaderGenerator.Sharpen.values()) {
+            assertEquals(ShaderGenerator.key(VideoFrame.FORMAT_I420, sharpen),
+                    ShaderGenerator.key(VideoFrame.FORMAT_YV12, sharpen));
+            assertEquals(ShaderGenerator.fragmentShader(VideoFrame.FORMAT_I420, sharpen),
+                    ShaderGenerator.fragmentShader(VideoFrame.FORMAT_YV12, sharpen));
+            assertNotEquals(ShaderGenerator.key(VideoFrame.FORMAT_NV12, sharpen),
+                    ShaderGenerator.key(VideoFrame.FORMAT_NV21, sharpen));
+        }
+    }
+
+    @Test
+    public void unknownFormatsAreRejected() {
+        for (int format : new int[] {-1, 4, 0x32315659}) {
+            try {
+                ShaderGenerator.key(format, ShaderGenerator.Sharpen.NONE);
+                fail("no exception for format " + format);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void full9PacksEightTapsIntoFourVaryings() {
+        String vertex = ShaderGenerator.vertexShader(ShaderGenerator.Sharpen.FULL_9);
+        assertEquals(1, linesWith(vertex, "uniform vec2 texelSize;").size());
+        List<String> assignments = linesWith(vertex, " = aTextureCoord.xyxy + ");
+        List<String> expected = new ArrayList<String>();
+        expected.add("vTaps0 = aTextureCoord.xyxy + vec4(1.0, 1.0, 0.0, 1.0) * texelSize.xyxy;");
+        expected.add("vTaps1 = aTextureCoord.xyxy + vec4(-1.0, 1.0, 1.0, 0.0) * texelSize.xyxy;");
+        expected.add("vTaps2 = aTextureCoord.xyxy + vec4(-1.0, 0.0, 1.0, -1.0) * texelSize.xyxy;");
+        expected.add("vTaps3 = aTextureCoord.xyxy + vec4(0.0, -1.0, -1.0, -1.0) * texelSize.xyxy;");
+        assertEquals(expected, assignments);
+
+        String fragment = ShaderGenerator.fragmentShader(VideoFrame.FORMAT_I420, ShaderGenerator.Sharpen.FULL_9);
+        // the same four varyings on both sides
+        assertEquals(linesWith(vertex, "varying vec4"), linesWith(fragment, "varying vec4"));
+        assertEquals(4, linesWith(fragment, "varying vec4").size());
+        List<String> taps = linesWith(fragment, "texture2D(textureY, vTaps");
+        assertEquals(8, taps.size());
+        for (int i = 0; i < 8; i++) {
+            assertEquals("float t" + i + " = texture2D(textureY, vTaps" + (i / 2) + (i % 2 == 0 ? ".xy" : ".zw")
+                    + ").r;", taps.get(i));
+        }
+        // taps 0, 2, 5 and 7 are the corners (both offsets non-zero), weighted 1; edges 2; centre 4
+        assertEquals("float blur = (t0 + t2 + t5 + t7 + (t1 + t3 + t4 + t6) * 2.0 + c * 4.0) / 16.0;",
+                linesWith(fragment, "float blur").get(0));
+        assertEquals(1, linesWith(fragment, "clamp((c - blur) * sharpLevel, -LIMIT, LIMIT)").size());
+    }
+
+    @Test
+    public void cross5AndNoneUseFewerTaps() {
+        String cross = ShaderGenerator.vertexShader(ShaderGenerator.Sharpen.CROSS_5);
+        assertEquals(2, linesWith(cross, "varying vec4").size());
+        String none = ShaderGenerator.vertexShader(ShaderGenerator.Sharpen.NONE);
+        assertFalse(none.contains("texelSize"));
+        assertFalse(none.contains("vTaps"));
+        String fragment = ShaderGenerator.fragmentShader(VideoFrame.FORMAT_NV12, ShaderGenerator.Sharpen.NONE);
+        assertFalse(fragment.contains("sharpLevel"));
+        assertEquals(1, linesWith(fragment, "float y = c;").size());
+    }
+
+    @Test
+    public void semiPlanarFormatsReadChromaFromOneTexture() {
+        String nv12 = ShaderGenerator.fragmentShader(VideoFrame.FORMAT_NV12, ShaderGenerator.Sharpen.NONE);
+        String nv21 = ShaderGenerator.fragmentShader(VideoFrame.FORMAT_NV21, ShaderGenerator.Sharpen.NONE);
+        for (String source : new String[] {nv12, nv21}) {
+            assertEquals(1, linesWith(source, "uniform sampler2D textureUV;").size());
+            assertTrue(linesWith(source, "textureU;").isEmpty());
+        }
+        assertEquals(1, linesWith(nv12, "float u = uv.r;").size());
+        assertEquals(1, linesWith(nv21, "float u = vu.a;").size());
+    }
+}
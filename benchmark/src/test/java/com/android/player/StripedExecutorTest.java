@@ -0,0 +1,130 @@
+package com.android.player;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class StripedExecutorTest {
+    private final List<StripedExecutor> executors = new ArrayList<StripedExecutor>();
+
+    @After
+    public void shutdown() {
+        for (StripedExecutor executor : executors) {
+            executor.shutdown();
+        }
+    }
+
+    private StripedExecutor executor(int threads) {
+        StripedExecutor executor = new StripedExecutor(threads, "Test");
+        executors.add(executor);
+        return executor;
+    }
+
+    /**
+     * Counts its runs and remembers the thread of the last one.
+     */
+    private static class Job implements Runnable {
+        int runs;
+        Thread thread;
+        RuntimeException error;
+
+        @Override
+        public void run() {
+            runs++;
+            thread = Thread.currentThread();
+            if (error != null) {
+                throw error;
+            }
+        }
+    }
+
+    private static Job[] jobs(int count) {
+        Job[] jobs = new Job[count];
+        for (int i = 0; i < count; i++) {
+            jobs[i] = new Job();
+        }
+        return jobs;
+    }
+
+    @Test
+    public void everyJobRunsOncePerCall() {
+        StripedExecutor executor = executor(4);
+        Job[] jobs = jobs(4);
+        for (int i = 1; i <= 1000; i++) {
+            executor.run(jobs);
+            for (Job job : jobs) {
+                assertEquals(i, job.runs);
+            }
+        }
+    }
+
+    @Test
+    public void firstJobRunsOnTheCaller() {
+        StripedExecutor executor = executor(3);
+        Job[] jobs = jobs(3);
+        executor.run(jobs);
+        assertSame(Thread.currentThread(), jobs[0].thread);
+        assertNotSame(Thread.currentThread(), jobs[1].thread);
+        assertNotSame(jobs[1].thread, jobs[2].thread);
+        assertEquals("Test-1", jobs[1].thread.getName());
+    }
+
+    @Test
+    public void singleThreadRunsOnlyOnTheCaller() {
+        StripedExecutor executor = executor(1);
+        Job[] jobs = jobs(1);
+        executor.run(jobs);
+        assertEquals(1, executor.getThreadCount());
+        assertSame(Thread.currentThread(), jobs[0].thread);
+    }
+
+    @Test
+    public void firstFailureIsRethrownAfterEveryJobRan() {
+        StripedExecutor executor = executor(3);
+        Job[] jobs = jobs(3);
+        IllegalStateException second = new IllegalStateException("second");
+        jobs[1].error = second;
+        jobs[2].error = new IllegalStateException("third");
+        try {
+            executor.run(jobs);
+            fail("the failure of a worker stripe was lost");
+        } catch (IllegalStateException e) {
+            assertSame(second, e);
+        }
+        for (Job job : jobs) {
+            assertEquals(1, job.runs);
+        }
+
+        // the failure is not reported again
+        jobs[1].error = null;
+        jobs[2].error = null;
+        executor.run(jobs);
+        assertEquals(2, jobs[2].runs);
+    }
+
+    @Test
+    public void callerFailureWaitsForTheWorkers() {
+        StripedExecutor executor = executor(2);
+        Job[] jobs = jobs(2);
+        jobs[0].error = new IllegalArgumentException("caller");
+        try {
+            executor.run(jobs);
+            fail("the failure of the calling stripe was lost");
+        } catch (IllegalArgumentException expected) {
+            // the worker stripe was complete before run returned
+            assertEquals(1, jobs[1].runs);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void noThreadsIsRejected() {
+        new StripedExecutor(0, "Test");
+    }
+}
@@ -0,0 +1,150 @@
+package com.android.player;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+public class StripedPlaneCopierTest {
+    private final List<StripedPlaneCopier> copiers = new ArrayList<StripedPlaneCopier>();
+    private final Random random = new Random(7);
+
+    @After
+    public void shutdown() {
+        for (StripedPlaneCopier copier : copiers) {
+            copier.shutdown();
+        }
+    }
+
+    private StripedPlaneCopier striped(int threads, boolean wordWide) {
+        StripedPlaneCopier copier = new StripedPlaneCopier(threads, wordWide);
+        copiers.add(copier);
+        return copier;
+    }
+
+    private ByteBuffer filled(int size, boolean direct) {
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        buffer.put(bytes);
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * The two views of an interleaved chroma allocation, the second one byte later.
+     */
+    private ByteBuffer[] interleaved(int rowStride, int rows, boolean direct) {
+        ByteBuffer lead = filled(rowStride * rows, direct);
+        ByteBuffer shifted = lead.duplicate();
+        shifted.position(1);
+        return new ByteBuffer[] {lead, shifted.slice()};
+    }
+
+    @Test
+    public void planesMatchTheSerialCopy() {
+        int[][] sizes = {{64, 36}, {37, 17}, {8, 2}, {3, 1}};
+        for (int threads = 2; threads <= 4; threads++) {
+            for (boolean wordWide : new boolean[] {false, true}) {
+                StripedPlaneCopier striped = striped(threads, wordWide);
+                PlaneCopier serial = new PlaneCopier(wordWide);
+                for (int[] size : sizes) {
+                    for (int pixelStride = 1; pixelStride <= 2; pixelStride++) {
+                        for (int inset = 0; inset <= 3; inset += 3) {
+                            int w = size[0];
+                            int h = size[1];
+                            int rowStride = (w + inset) * pixelStride + 5;
+                            ByteBuffer plane = filled(rowStride * (h + inset), threads % 2 == 0);
+                            byte[] expected = new byte[w * h + 4];
+                            byte[] actual = new byte[w * h + 4];
+                            serial.copyPlane(plane.duplicate(), rowStride, pixelStride, inset, inset, w, h, expected, 2);
+                            striped.copyPlane(plane, rowStride, pixelStride, inset, inset, w, h, actual, 2);
+                            assertArrayEquals(threads + " threads, " + w + "x" + h + " stride " + pixelStride,
+                                    expected, actual);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void chromaMatchesTheSerialCopy() {
+        int w = 41;
+        int h = 23;
+        int rowStride = w * 2 + 6;
+        for (int threads = 2; threads <= 4; threads++) {
+            for (boolean wordWide : new boolean[] {false, true}) {
+                StripedPlaneCopier striped = striped(threads, wordWide);
+                PlaneCopier serial = new PlaneCopier(wordWide);
+                for (int layout : new int[] {PlaneCopier.CHROMA_UV, PlaneCopier.CHROMA_VU}) {
+                    ByteBuffer[] views = interleaved(rowStride, h, true);
+                    ByteBuffer u = layout == PlaneCopier.CHROMA_UV ? views[0] : views[1];
+                    ByteBuffer v = layout == PlaneCopier.CHROMA_UV ? views[1] : views[0];
+
+                    byte[] expected = new byte[w * h * 2];
+                    byte[] actual = new byte[w * h * 2];
+                    serial.copyInterleavedChroma(u.duplicate(), v.duplicate(), layout, rowStride, 1, 0, w - 1, h,
+                            expected, 0, w * h);
+                    striped.copyInterleavedChroma(u, v, layout, rowStride, 1, 0, w - 1, h, actual, 0, w * h);
+                    assertArrayEquals(expected, actual);
+
+                    expected = new byte[w * h * 2];
+                    actual = new byte[w * h * 2];
+                    serial.copySemiPlanarChroma(u.duplicate(), v.duplicate(), layout, rowStride, 0, 0, w, h,
+                            expected, 0);
+                    striped.copySemiPlanarChroma(u, v, layout, rowStride, 0, 0, w, h, actual, 0);
+                    assertArrayEquals(expected, actual);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void reusedBuffersAreReadAfresh() {
+        int w = 32;
+        int h = 16;
+        StripedPlaneCopier striped = striped(4, true);
+        PlaneCopier serial = new PlaneCopier(true);
+        ByteBuffer plane = filled(w * h * 2, true);
+        for (int frame = 0; frame < 3; frame++) {
+            // new content in the same buffer, left at a different position by its owner
+            byte[] bytes = new byte[plane.capacity()];
+            random.nextBytes(bytes);
+            plane.clear();
+            plane.put(bytes);
+            plane.position(frame * 7);
+            byte[] expected = new byte[w * h];
+            byte[] actual = new byte[w * h];
+            serial.copyPlane(plane.duplicate(), w * 2, 2, 0, 0, w, h, expected, 0);
+            striped.copyPlane(plane, w * 2, 2, 0, 0, w, h, actual, 0);
+            assertArrayEquals("frame " + frame, expected, actual);
+        }
+    }
+
+    @Test
+    public void workerErrorsReachTheCaller() {
+        StripedPlaneCopier striped = striped(2, false);
+        // the lower stripe, copied on a worker, runs off the end of the plane
+        ByteBuffer plane = filled(16 * 6, false);
+        try {
+            striped.copyPlane(plane, 16, 1, 0, 0, 16, 8, new byte[16 * 8], 0);
+            fail("expected the worker's exception");
+        } catch (BufferUnderflowException expected) {
+        }
+        byte[] data = new byte[16 * 6];
+        striped.copyPlane(plane, 16, 1, 0, 0, 16, 6, data, 0);
+        byte[] whole = new byte[16 * 6];
+        ByteBuffer view = plane.duplicate();
+        view.clear();
+        view.get(whole);
+        assertArrayEquals(whole, data);
+    }
+}
@@ -0,0 +1,149 @@
+package com.android.player;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SyncSampleIndexTest {
+    private static final String PATH = "/sdcard/test.mp4";
+    private static final long SIZE = 123456;
+    private static final long MODIFIED = 1700000000000L;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Key frames at 0, 1, 2 s of a 30 fps track, every 30th sample.
+     */
+    private static SyncSampleIndex gop30(int seconds) {
+        SyncSampleIndex.Builder builder = new SyncSampleIndex.Builder();
+        for (int i = 0; i < seconds * 30; i++) {
+            builder.addSample(i * 33333L, i % 30 == 0 ? 1 : 0, i % 30 == 0);
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void keepsOnlySyncSamplesWithTheirDecodePosition() {
+        SyncSampleIndex index = gop30(100);
+        assertEquals(100, index.size());
+        assertEquals(0, index.getTimeUs(0));
+        assertEquals(30 * 33333L, index.getTimeUs(1));
+        assertEquals(60, index.getSampleNumber(2));
+        assertEquals(1, index.getFlags(99));
+    }
+
+    @Test
+    public void reorderedKeyFramesAreSorted() {
+        SyncSampleIndex.Builder builder = new SyncSampleIndex.Builder();
+        builder.addSample(2000000, 1, true);
+        builder.addSample(0, 2, true);
+        builder.addSample(1000000, 3, true);
+        SyncSampleIndex index = builder.build();
+        assertEquals(0, index.getTimeUs(0));
+        assertEquals(2, index.getFlags(0));
+        assertEquals(1, index.getSampleNumber(0));
+        assertEquals(2000000, index.getTimeUs(2));
+        assertEquals(0, index.getSampleNumber(2));
+    }
+
+    @Test
+    public void floorAndClosest() {
+        SyncSampleIndex.Builder builder = new SyncSampleIndex.Builder();
+        builder.addSample(500000, 0, true);
+        builder.addSample(1500000, 0, true);
+        builder.addSample(2500000, 0, true);
+        SyncSampleIndex index = builder.build();
+
+        // before the first key frame: the first one
+        assertEquals(0, index.floor(0));
+        assertEquals(0, index.closest(-1000));
+        // on and between key frames
+        assertEquals(1, index.floor(1500000));
+        assertEquals(1, index.floor(2499999));
+        assertEquals(1, index.closest(1900000));
+        assertEquals(2, index.closest(2100000));
+        // a tie goes to the earlier one
+        assertEquals(0, index.closest(1000000));
+        // after the last key frame: the last one
+        assertEquals(2, index.floor(60000000));
+        assertEquals(2, index.closest(60000000));
+    }
+
+    @Test
+    public void emptyIndexFindsNothing() {
+        SyncSampleIndex index = new SyncSampleIndex.Builder().build();
+        assertEquals(0, index.size());
+        assertEquals(-1, index.floor(0));
+        assertEquals(-1, index.closest(1000));
+    }
+
+    @Test
+    public void cacheRoundTrip() throws Exception {
+        SyncSampleIndex index = gop30(200);
+        File cache = SyncSampleIndex.cacheFile(folder.getRoot(), PATH);
+        index.save(cache, PATH, SIZE, MODIFIED);
+        assertFalse(new File(cache.getPath() + ".tmp").exists());
+
+        SyncSampleIndex loaded = SyncSampleIndex.load(cache, PATH, SIZE, MODIFIED);
+        assertNotNull(loaded);
+        assertEquals(index.size(), loaded.size());
+        for (int i = 0; i < index.size(); i++) {
+            assertEquals(index.getTimeUs(i), loaded.getTimeUs(i));
+            assertEquals(index.getFlags(i), loaded.getFlags(i));
+            assertEquals(index.getSampleNumber(i), loaded.getSampleNumber(i));
+        }
+    }
+
+    @Test
+    public void cacheOfAnotherVersionIsIgnored() throws Exception {
+        File cache = SyncSampleIndex.cacheFile(folder.getRoot(), PATH);
+        gop30(10).save(cache, PATH, SIZE, MODIFIED);
+        assertNull(SyncSampleIndex.load(cache, "/sdcard/other.mp4", SIZE, MODIFIED));
+        assertNull(SyncSampleIndex.load(cache, PATH, SIZE + 1, MODIFIED));
+        assertNull(SyncSampleIndex.load(cache, PATH, SIZE, MODIFIED + 1));
+        assertNull(SyncSampleIndex.load(new File(folder.getRoot(), "missing.bin"), PATH, SIZE, MODIFIED));
+        assertNotNull(SyncSampleIndex.load(cache, PATH, SIZE, MODIFIED));
+    }
+
+    @Test
+    public void damagedCacheIsIgnored() throws Exception {
+        File cache = SyncSampleIndex.cacheFile(folder.getRoot(), PATH);
+        gop30(10).save(cache, PATH, SIZE, MODIFIED);
+        RandomAccessFile file = new RandomAccessFile(cache, "rw");
+        try {
+            file.setLength(file.length() - 5);
+        } finally {
+            file.close();
+        }
+        assertNull(SyncSampleIndex.load(cache, PATH, SIZE, MODIFIED));
+
+        FileOutputStream out = new FileOutputStream(cache);
+        try {
+            out.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+        } finally {
+            out.close();
+        }
+        assertNull(SyncSampleIndex.load(cache, PATH, SIZE, MODIFIED));
+    }
+
+    @Test
+    public void saveReplacesAnOlderCache() throws Exception {
+        File cache = SyncSampleIndex.cacheFile(folder.getRoot(), PATH);
+        gop30(10).save(cache, PATH, SIZE, MODIFIED);
+        gop30(20).save(cache, PATH, SIZE, MODIFIED + 1);
+        SyncSampleIndex loaded = SyncSampleIndex.load(cache, PATH, SIZE, MODIFIED + 1);
+        assertEquals(20, loaded.size());
+        assertTrue(cache.getName().startsWith("syncidx-"));
+    }
+}
@@ -0,0 +1,308 @@
+package com.android.player;
+
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class YuvTexturesTest {
+
+    /**
+     * Records every GL call with its arguments, texture names count up from 1.
+     */
+    private static class RecordingGL implements InvocationHandler {
+        final List<Object[]> calls = new ArrayList<Object[]>();
+        final GLApi gl = (GLApi) Proxy.newProxyInstance(GLApi.class.getClassLoader(),
+                new Class<?>[]{GLApi.class}, this);
+        int nextTexture = 1;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            Object[] call = new Object[1 + (args == null ? 0 : args.length)];
+            call[0] = method.getName();
+            if (args != null) {
+                System.arraycopy(args, 0, call, 1, args.length);
+            }
+            calls.add(call);
+            if (method.getName().equals("glGenTextures")) {
+                int[] textures = (int[]) args[1];
+                for (int i = 0; i < (Integer) args[0]; i++) {
+                    textures[(Integer) args[2] + i] = nextTexture++;
+                }
+            }
+            for (int i = 1; i < call.length; i++) {
+                // keep the names as they were at the call, the caller reuses its array
+                if (call[i] instanceof int[]) {
+                    call[i] = ((int[]) call[i]).clone();
+                }
+            }
+            return method.getReturnType() == int.class ? 0 : null;
+        }
+
+        /**
+         * Every call as one line of its name and arguments.
+         */
+        List<String> trace() {
+            List<String> lines = new ArrayList<String>();
+            for (Object[] call : calls) {
+                lines.add(line(call));
+            }
+            return lines;
+        }
+
+        List<Object[]> named(String name) {
+            List<Object[]> found = new ArrayList<Object[]>();
+            for (Object[] call : calls) {
+                if (call[0].equals(name)) {
+                    found.add(call);
+                }
+            }
+            return found;
+        }
+    }
+
+    private static String line(Object... call) {
+        StringBuilder sb = new StringBuilder();
+        for (Object part : call) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(part instanceof int[] ? Arrays.toString((int[]) part) : String.valueOf(part));
+        }
+        return sb.toString();
+    }
+
+    private static Buffer[] planes(int count) {
+        Buffer[] planes = new Buffer[3];
+        for (int i = 0; i < count; i++) {
+            // sizes differ so every plane prints differently in a trace
+            planes[i] = ByteBuffer.allocate(i + 1);
+        }
+        return planes;
+    }
+
+    /**
+     * The calls allocating storage for a frame, textures named from firstId up.
+     */
+    private static List<String> allocation(int width, int height, int format, int firstId) {
+        boolean semiPlanar = VideoFrame.isSemiPlanar(format);
+        int count = semiPlanar ? 2 : 3;
+        int[] ids = {-1, -1, -1};
+        for (int i = 0; i < count; i++) {
+            ids[i] = firstId + i;
+        }
+        List<String> calls = new ArrayList<String>();
+        calls.add(line("glPixelStorei", GLApi.GL_UNPACK_ALIGNMENT, 1));
+        calls.add(line("glGenTextures", count, ids, 0));
+        for (int i = 0; i < count; i++) {
+            int planeFormat = semiPlanar && i == 1 ? GLApi.GL_LUMINANCE_ALPHA : GLApi.GL_LUMINANCE;
+            int w = i == 0 ? width : (width + 1) / 2;
+            int h = i == 0 ? height : (height + 1) / 2;
+            int filter = i == 0 ? GLApi.GL_LINEAR : GLApi.GL_NEAREST;
+            calls.add(line("glBindTexture", GLApi.GL_TEXTURE_2D, ids[i]));
+            calls.add(line("glTexImage2D", GLApi.GL_TEXTURE_2D, 0, planeFormat, w, h, 0, planeFormat,
+                    GLApi.GL_UNSIGNED_BYTE, null));
+            calls.add(line("glTexParameteri", GLApi.GL_TEXTURE_2D, GLApi.GL_TEXTURE_MIN_FILTER, filter));
+            calls.add(line("glTexParameteri", GLApi.GL_TEXTURE_2D, GLApi.GL_TEXTURE_MAG_FILTER, filter));
+            calls.add(line("glTexParameteri", GLApi.GL_TEXTURE_2D, GLApi.GL_TEXTURE_WRAP_S,
+                    GLApi.GL_CLAMP_TO_EDGE));
+            calls.add(line("glTexParameteri", GLApi.GL_TEXTURE_2D, GLApi.GL_TEXTURE_WRAP_T,
+                    GLApi.GL_CLAMP_TO_EDGE));
+        }
+        return calls;
+    }
+
+    /**
+     * The calls replacing the texels of every plane.
+     */
+    private static List<String> texels(Buffer[] planes, int width, int height, int format, int firstId) {
+        boolean semiPlanar = VideoFrame.isSemiPlanar(format);
+        List<String> calls = new ArrayList<String>();
+        for (int i = 0; i < (semiPlanar ? 2 : 3); i++) {
+            int planeFormat = semiPlanar && i == 1 ? GLApi.GL_LUMINANCE_ALPHA : GLApi.GL_LUMINANCE;
+            int w = i == 0 ? width : (width + 1) / 2;
+            int h = i == 0 ? height : (height + 1) / 2;
+            calls.add(line("glBindTexture", GLApi.GL_TEXTURE_2D, firstId + i));
+            calls.add(line("glTexSubImage2D", GLApi.GL_TEXTURE_2D, 0, 0, 0, w, h, planeFormat,
+                    GLApi.GL_UNSIGNED_BYTE, planes[i]));
+        }
+        return calls;
+    }
+
+    @Test
+    public void uploadCallOrderForEveryFormat() {
+        int[] formats = {VideoFrame.FORMAT_I420, VideoFrame.FORMAT_YV12,
+                VideoFrame.FORMAT_NV12, VideoFrame.FORMAT_NV21};
+        for (int format : formats) {
+            RecordingGL gl = new RecordingGL();
+            YuvTextures textures = new YuvTextures(gl.gl);
+            Buffer[] planes = planes(VideoFrame.isSemiPlanar(format) ? 2 : 3);
+            textures.upload(planes, 65, 33, format);
+
+            List<String> expected = new ArrayList<String>(allocation(65, 33, format, 1));
+            expected.addAll(texels(planes, 65, 33, format, 1));
+            assertEquals("format " + format, expected, gl.trace());
+
+            // later frames only replace the texels
+            gl.calls.clear();
+            textures.upload(planes, 65, 33, format);
+            assertEquals("format " + format, texels(planes, 65, 33, format, 1), gl.trace());
+        }
+    }
+
+    @Test
+    public void reallocationCallOrder() {
+        RecordingGL gl = new RecordingGL();
+        YuvTextures textures = new YuvTextures(gl.gl);
+        textures.upload(planes(3), 64, 32, VideoFrame.FORMAT_I420);
+
+        // new format: the old textures are deleted before any new one is made
+        gl.calls.clear();
+        Buffer[] nv12 = planes(2);
+        textures.upload(nv12, 64, 32, VideoFrame.FORMAT_NV12);
+        List<String> expected = new ArrayList<String>();
+        expected.add(line("glDeleteTextures", 3, new int[] {1, 2, 3}, 0));
+        expected.addAll(allocation(64, 32, VideoFrame.FORMAT_NV12, 4));
+        expected.addAll(texels(nv12, 64, 32, VideoFrame.FORMAT_NV12, 4));
+        assertEquals(expected, gl.trace());
+
+        // new resolution, same format
+        gl.calls.clear();
+        textures.upload(nv12, 128, 64, VideoFrame.FORMAT_NV12);
+        expected.clear();
+        expected.add(line("glDeleteTextures", 2, new int[] {4, 5, -1}, 0));
+        expected.addAll(allocation(128, 64, VideoFrame.FORMAT_NV12, 6));
+        expected.addAll(texels(nv12, 128, 64, VideoFrame.FORMAT_NV12, 6));
+        assertEquals(expected, gl.trace());
+
+        // back to three planes after a lost context: nothing to delete
+        textures.invalidate();
+        gl.calls.clear();
+        Buffer[] yv12 = planes(3);
+        textures.upload(yv12, 128, 64, VideoFrame.FORMAT_YV12);
+        expected.clear();
+        expected.addAll(allocation(128, 64, VideoFrame.FORMAT_YV12, 8));
+        expected.addAll(texels(yv12, 128, 64, VideoFrame.FORMAT_YV12, 8));
+        assertEquals(expected, gl.trace());
+    }
+
+    @Test
+    public void storageIsAllocatedOncePerResolution() {
+        RecordingGL gl = new RecordingGL();
+        YuvTextures textures = new YuvTextures(gl.gl);
+        Buffer[] planes = planes(3);
+        for (int i = 0; i < 3; i++) {
+            textures.upload(planes, 64, 32, VideoFrame.FORMAT_I420);
+        }
+        assertEquals(1, textures.getAllocationCount());
+        assertEquals(3, textures.getUploadCount());
+        assertEquals(1, gl.named("glGenTextures").size());
+        assertEquals(3, gl.named("glTexImage2D").size());
+        List<Object[]> subImages = gl.named("glTexSubImage2D");
+        assertEquals(9, subImages.size());
+        // target, level, x, y, width, height, format, type, pixels
+        Object[] chroma = subImages.get(2);
+        assertEquals(Arrays.<Object>asList(GLApi.GL_TEXTURE_2D, 0, 0, 0, 32, 16, GLApi.GL_LUMINANCE,
+                GLApi.GL_UNSIGNED_BYTE), Arrays.asList(chroma).subList(1, 9));
+        assertSame(planes[2], chroma[9]);
+        assertTrue(gl.named("glDeleteTextures").isEmpty());
+    }
+
+    @Test
+    public void texImageAllocatesWithoutPixels() {
+        RecordingGL gl = new RecordingGL();
+        YuvTextures textures = new YuvTextures(gl.gl);
+        assertTrue(textures.resize(64, 32, VideoFrame.FORMAT_I420));
+        assertFalse(textures.resize(64, 32, VideoFrame.FORMAT_I420));
+        for (Object[] call : gl.named("glTexImage2D")) {
+            assertNull(call[9]);
+        }
+        assertEquals(1, gl.named("glPixelStorei").size());
+        // min and mag filter and both wrap modes for each of the three textures
+        assertEquals(12, gl.named("glTexParameteri").size());
+    }
+
+    @Test
+    public void semiPlanarChromaIsOneLuminanceAlphaTexture() {
+        RecordingGL gl = new RecordingGL();
+        YuvTextures textures = new YuvTextures(gl.gl);
+        textures.upload(planes(2), 64, 32, VideoFrame.FORMAT_NV12);
+        assertEquals(2, textures.getPlaneCount());
+        assertEquals(GLApi.GL_LUMINANCE, textures.getPlaneFormat(0));
+        assertEquals(GLApi.GL_LUMINANCE_ALPHA, textures.getPlaneFormat(1));
+        List<Object[]> allocations = gl.named("glTexImage2D");
+        assertEquals(2, allocations.size());
+        Object[] chroma = allocations.get(1);
+        assertEquals(GLApi.GL_LUMINANCE_ALPHA, chroma[3]);
+        assertEquals(32, chroma[4]);
+        assertEquals(16, chroma[5]);
+        assertEquals(2, gl.named("glTexSubImage2D").size());
+    }
+
+    @Test
+    public void oddSizesRoundChromaUp() {
+        RecordingGL gl = new RecordingGL();
+        YuvTextures textures = new YuvTextures(gl.gl);
+        textures.resize(65, 33, VideoFrame.FORMAT_I420);
+        assertEquals(33, textures.getPlaneWidth(1));
+        assertEquals(17, textures.getPlaneHeight(2));
+        assertEquals(VideoFrame.frameSize(65, 33), 65 * 33 + 33 * 17 * 2);
+    }
+
+    @Test
+    public void resolutionOrFormatChangeReallocates() {
+        RecordingGL gl = new RecordingGL();
+        YuvTextures textures = new YuvTextures(gl.gl);
+        textures.upload(planes(3), 64, 32, VideoFrame.FORMAT_I420);
+        textures.upload(planes(3), 128, 64, VideoFrame.FORMAT_I420);
+        textures.upload(planes(2), 128, 64, VideoFrame.FORMAT_NV21);
+        assertEquals(3, textures.getAllocationCount());
+        List<Object[]> deletes = gl.named("glDeleteTextures");
+        assertEquals(2, deletes.size());
+        assertEquals(3, deletes.get(0)[1]);
+        assertEquals(3, deletes.get(1)[1]);
+        // the NV21 textures are the seventh and eighth generated
+        assertEquals(7, textures.getTextureId(0));
+        assertEquals(8, textures.getTextureId(1));
+    }
+
+    @Test
+    public void bindPutsPlaneOnItsUnit() {
+        RecordingGL gl = new RecordingGL();
+        YuvTextures textures = new YuvTextures(gl.gl);
+        textures.resize(64, 32, VideoFrame.FORMAT_I420);
+        gl.calls.clear();
+        textures.bind();
+        List<Object[]> units = gl.named("glActiveTexture");
+        List<Object[]> binds = gl.named("glBindTexture");
+        for (int i = 0; i < 3; i++) {
+            assertEquals(GLApi.GL_TEXTURE0 + i, units.get(i)[1]);
+            assertEquals(textures.getTextureId(i), binds.get(i)[2]);
+        }
+    }
+
+    @Test
+    public void invalidateForgetsWithoutDeleting() {
+        RecordingGL gl = new RecordingGL();
+        YuvTextures textures = new YuvTextures(gl.gl);
+        textures.resize(64, 32, VideoFrame.FORMAT_I420);
+        textures.invalidate();
+        assertFalse(textures.isAllocated());
+        assertTrue(gl.named("glDeleteTextures").isEmpty());
+        // the next frame allocates again in the new context
+        assertTrue(textures.resize(64, 32, VideoFrame.FORMAT_I420));
+        assertTrue(gl.named("glDeleteTextures").isEmpty());
+    }
+}
@@ -0,0 +1,101 @@
+package com.android.player.benchmark;
+
+import com.android.player.FrameConverter;
+import com.android.player.FramePool;
+import com.android.player.VideoFrame;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class FrameConverterTest {
+
+    /**
+     * A smaller version of the {@link ReferenceConverter} sweep: up- and downscaling,
+     * odd sizes, a crop that does not fit, every format pair and both filters.
+     */
+    @Test
+    public void everyConversionMatchesTheReference() {
+        int[][] sources = {{162, 92}, {81, 45}};
+        int[][] crops = {{0, 0, 0, 0}, {20, 10, 100, 60}, {2, 2, 40, 30}};
+        int[][] outputs = {{0, 0}, {320, 180}, {80, 46}, {54, 30}, {10, 2}};
+        int[] formats = {VideoFrame.FORMAT_I420, VideoFrame.FORMAT_NV12, VideoFrame.FORMAT_NV21, VideoFrame.FORMAT_YV12};
+        int cases = 0;
+        // one stripe and several, so striping cannot change a byte
+        for (int threads : new int[]{1, 3}) {
+            FrameConverter converter = new FrameConverter(threads);
+            for (int[] source : sources) {
+                for (int sourceFormat : formats) {
+                    VideoFrame in = ReferenceConverter.randomFrame(new FramePool(1),
+                            source[0], source[1], sourceFormat, cases);
+                    for (int[] crop : crops) {
+                        for (int[] output : outputs) {
+                            for (int format : formats) {
+                                for (FrameConverter.Filter filter : FrameConverter.Filter.values()) {
+                                    converter.setCrop(crop[0], crop[1], crop[2], crop[3]);
+                                    converter.setOutputSize(output[0], output[1]);
+                                    converter.setOutputFormat(format);
+                                    converter.setFilter(filter);
+                                    ReferenceConverter.check(converter, in, crop, filter);
+                                    cases++;
+                                }
+                            }
+                        }
+                    }
+                    in.release();
+                }
+            }
+            converter.shutdown();
+        }
+        assertEquals(2 * 2 * 4 * 3 * 5 * 4 * 2, cases);
+    }
+
+    @Test
+    public void unchangedFrameIsRetainedNotCopied() {
+        FrameConverter converter = new FrameConverter(2);
+        converter.setOutputFormat(VideoFrame.FORMAT_NV12);
+        VideoFrame in = ReferenceConverter.randomFrame(new FramePool(1), 64, 36, VideoFrame.FORMAT_NV12, 1);
+        assertSame(in, converter.convert(in));
+        // held by the test and by the caller of convert
+        in.release();
+        in.release();
+        converter.shutdown();
+    }
+
+    @Test
+    public void convertedFrameKeepsTimestampAndSequence() {
+        FrameConverter converter = new FrameConverter(3);
+        converter.setOutputSize(32, 18);
+        VideoFrame in = ReferenceConverter.randomFrame(new FramePool(1), 64, 36, VideoFrame.FORMAT_NV21, 2);
+        in.setPresentationTimeUs(123456);
+        in.setSequence(42);
+        VideoFrame out = converter.convert(in);
+        assertEquals(32, out.getWidth());
+        assertEquals(18, out.getHeight());
+        assertEquals(VideoFrame.FORMAT_I420, out.getFormat());
+        assertEquals(123456, out.getPresentationTimeUs());
+        assertEquals(42, out.getSequence());
+        out.release();
+        in.release();
+        converter.shutdown();
+    }
+
+    @Test
+    public void nullWhenBothPooledFramesAreHeld() {
+        FrameConverter converter = new FrameConverter(1);
+        converter.setOutputSize(32, 18);
+        VideoFrame in = ReferenceConverter.randomFrame(new FramePool(1), 64, 36, VideoFrame.FORMAT_I420, 3);
+        VideoFrame first = converter.convert(in);
+        VideoFrame second = converter.convert(in);
+        assertNull(converter.convert(in));
+        first.release();
+        VideoFrame third = converter.convert(in);
+        assertSame(first, third);
+        third.release();
+        second.release();
+        in.release();
+        converter.shutdown();
+    }
+}
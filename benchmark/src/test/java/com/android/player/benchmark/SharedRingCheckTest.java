@@ -0,0 +1,40 @@
+package com.android.player.benchmark;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The shared-ring check across two processes: this JVM injects, a {@link RingConsumer}
+ * started from the test classpath reads the ring in place.
+ */
+public class SharedRingCheckTest {
+    private static final double SECONDS = 1;
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 360;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File ringFile() {
+        File shm = new File("/dev/shm");
+        File dir = shm.isDirectory() && shm.canWrite() ? shm : folder.getRoot();
+        return new File(dir, "player-ring-test-" + System.nanoTime() + ".ring");
+    }
+
+    @Test
+    public void pollingConsumerSeesNoTornFrames() throws Exception {
+        assertTrue("polling consumer saw no frames or a corrupt one",
+                SharedRingCheck.run(ringFile(), false, SECONDS, WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void notifiedConsumerSeesNoTornFrames() throws Exception {
+        assertTrue("notified consumer saw no frames or a corrupt one",
+                SharedRingCheck.run(ringFile(), true, SECONDS, WIDTH, HEIGHT));
+    }
+}